@@ -0,0 +1,164 @@
+package org.freeyourmetadata.ner.operations;
+
+import static org.freeyourmetadata.util.UriUtil.createUri;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.freeyourmetadata.ner.services.Disambiguation;
+import org.freeyourmetadata.ner.services.ExtractionResult;
+import org.freeyourmetadata.ner.services.NamedEntity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.CharStreams;
+import com.google.refine.ProjectManager;
+import com.google.refine.history.Change;
+import com.google.refine.io.FileProjectManager;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.util.Pool;
+
+/**
+ * Benchmark of applying, reverting, saving and loading a <tt>NERChange</tt> on synthetic projects
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class NERChangeBenchmark {
+    private final static String[] SERVICE_NAMES = { "DBpedia Spotlight", "dataTXT" };
+    private final static int VOCABULARY_SIZE = 5000;
+    private final static double ERROR_RATE = 0.01;
+
+    /** The number of rows of the project. */
+    @Param({ "10000", "100000", "1000000" })
+    public int rows;
+
+    private Project project;
+    private NERChange change;
+    private String savedChange;
+
+    /**
+     * Creates the synthetic project and the change with its serialization
+     * @throws Exception if the project or change cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        // Column changes notify the project manager
+        if (ProjectManager.singleton == null) {
+            final File workspace = File.createTempFile("ner-benchmark", "");
+            workspace.delete();
+            workspace.mkdirs();
+            FileProjectManager.initialize(workspace);
+        }
+        project = createProject(rows);
+        change = new NERChange(1, SERVICE_NAMES, createExtractionResults(rows, new Random(rows)));
+
+        // Save the change in the applied state, so the serialization includes the added rows
+        change.apply(project);
+        final StringWriter writer = new StringWriter();
+        change.save(writer, new Properties());
+        savedChange = writer.toString();
+        change.revert(project);
+    }
+
+    /**
+     * Applies the change to the project and reverts it again
+     * @return The number of rows of the project with the change applied
+     */
+    @Benchmark
+    public int applyAndRevert() {
+        change.apply(project);
+        final int rowCount = project.rows.size();
+        change.revert(project);
+        return rowCount;
+    }
+
+    /**
+     * Saves the change
+     * @throws IOException if the change cannot be saved
+     */
+    @Benchmark
+    public void save() throws IOException {
+        change.save(CharStreams.nullWriter(), new Properties());
+    }
+
+    /**
+     * Loads the saved change
+     * @return The change
+     * @throws Exception if the change cannot be loaded
+     */
+    @Benchmark
+    public Change load() throws Exception {
+        return NERChange.load(new LineNumberReader(new StringReader(savedChange)), new Pool());
+    }
+
+    /**
+     * Creates a project with a single text column
+     * @param rowCount The number of rows
+     * @return The project
+     * @throws Exception if the project cannot be created
+     */
+    private static Project createProject(final int rowCount) throws Exception {
+        final Project project = new Project();
+        project.columnModel.addColumn(0, new Column(project.columnModel.allocateNewCellIndex(), "Text"), false);
+        for (int i = 0; i < rowCount; i++) {
+            final Row row = new Row(1);
+            row.cells.add(new Cell("Description of item " + i, null));
+            project.rows.add(row);
+        }
+        project.update();
+        return project;
+    }
+
+    /**
+     * Creates extraction results with a realistic distribution of entities,
+     * where most rows have a few entities drawn from a shared vocabulary
+     * @param rowCount The number of rows
+     * @param random The random generator
+     * @return The results per row and service
+     */
+    private static ExtractionResult[][] createExtractionResults(final int rowCount, final Random random) {
+        final ExtractionResult[][] results = new ExtractionResult[rowCount][];
+        for (int i = 0; i < rowCount; i++) {
+            results[i] = new ExtractionResult[SERVICE_NAMES.length];
+            for (int j = 0; j < SERVICE_NAMES.length; j++) {
+                if (random.nextDouble() < ERROR_RATE) {
+                    results[i][j] = new ExtractionResult(new Exception("HTTP error 500"));
+                    continue;
+                }
+                final NamedEntity[] entities = new NamedEntity[random.nextInt(4)];
+                for (int k = 0; k < entities.length; k++) {
+                    final int resource = random.nextInt(VOCABULARY_SIZE);
+                    final Disambiguation[] disambiguations = new Disambiguation[1 + random.nextInt(2)];
+                    for (int l = 0; l < disambiguations.length; l++)
+                        disambiguations[l] = new Disambiguation("Resource " + (resource + l),
+                                createUri("http://dbpedia.org/resource/Resource_" + (resource + l)), random.nextDouble());
+                    entities[k] = new NamedEntity("Resource " + resource, disambiguations);
+                }
+                results[i][j] = new ExtractionResult(entities);
+            }
+        }
+        return results;
+    }
+}
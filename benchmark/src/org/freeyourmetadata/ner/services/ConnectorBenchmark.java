@@ -0,0 +1,86 @@
+package org.freeyourmetadata.ner.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the parsing of recorded responses by each service connector
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectorBenchmark {
+    /** The name of the connector class, which is also the name of its recorded response. */
+    @Param({ "DBpediaSpotlight", "DataTXT", "AlchemyAPI", "Zemanta", "WikiMeta", "DummyNER" })
+    public String connector;
+
+    private NERServiceBase service;
+    private HttpResponse response;
+
+    /**
+     * Creates the connector and its recorded response
+     * @throws Exception if the connector or response cannot be created
+     */
+    @Setup
+    public void setUp() throws Exception {
+        service = (NERServiceBase)Class.forName(getClass().getPackage().getName() + "." + connector).newInstance();
+        // The entity is repeatable, so the same response can be parsed in every invocation
+        response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new ByteArrayEntity(readResource("/responses/" + connector + ".json"),
+                                               ContentType.APPLICATION_JSON));
+    }
+
+    /**
+     * Parses the recorded response into named entities
+     * @return The named entities
+     * @throws Exception if the response cannot be parsed
+     */
+    @Benchmark
+    public NamedEntity[] parseExtractionResponse() throws Exception {
+        return service.parseExtractionResponse(response);
+    }
+
+    /**
+     * Reads the resource with the specified name
+     * @param name The name of the resource
+     * @return The contents of the resource
+     * @throws IOException if the resource cannot be read
+     */
+    private static byte[] readResource(final String name) throws IOException {
+        final InputStream input = ConnectorBenchmark.class.getResourceAsStream(name);
+        if (input == null)
+            throw new IOException("The resource " + name + " does not exist.");
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int read; (read = input.read(buffer)) >= 0;)
+                output.write(buffer, 0, read);
+            return output.toByteArray();
+        }
+        finally {
+            input.close();
+        }
+    }
+}
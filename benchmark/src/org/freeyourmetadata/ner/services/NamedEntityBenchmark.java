@@ -0,0 +1,96 @@
+package org.freeyourmetadata.ner.services;
+
+import static org.freeyourmetadata.util.UriUtil.createUri;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.refine.model.Cell;
+
+/**
+ * Benchmark of the creation, conversion and serialization of named entities
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NamedEntityBenchmark {
+    private final static String LABEL = "Ghent University";
+    private final static String[] URIS = {
+        "http://dbpedia.org/resource/Ghent_University",
+        "http://en.wikipedia.org/wiki/Ghent_University",
+        "http://rdf.freebase.com/ns/m.01k2yr",
+    };
+
+    private NamedEntity entity;
+    private String entityJson;
+
+    /**
+     * Creates the entity and its JSON representation
+     * @throws JSONException if the entity cannot be serialized
+     */
+    @Setup
+    public void setUp() throws JSONException {
+        entity = createNamedEntity();
+        entityJson = writeNamedEntity();
+    }
+
+    /**
+     * Creates a named entity with several disambiguations
+     * @return The named entity
+     */
+    @Benchmark
+    public NamedEntity createNamedEntity() {
+        final Disambiguation[] disambiguations = new Disambiguation[URIS.length];
+        for (int i = 0; i < URIS.length; i++)
+            disambiguations[i] = new Disambiguation(LABEL, createUri(URIS[i]), 1.0 / (i + 1));
+        return new NamedEntity(LABEL, disambiguations);
+    }
+
+    /**
+     * Converts a named entity into a cell
+     * @return The cell
+     */
+    @Benchmark
+    public Cell toCell() {
+        return entity.toCell();
+    }
+
+    /**
+     * Writes a named entity as JSON
+     * @return The JSON representation
+     * @throws JSONException if the entity cannot be serialized
+     */
+    @Benchmark
+    public String writeNamedEntity() throws JSONException {
+        final StringWriter writer = new StringWriter();
+        entity.writeTo(new JSONWriter(writer));
+        return writer.toString();
+    }
+
+    /**
+     * Reads a named entity from JSON
+     * @return The named entity
+     * @throws JSONException if the JSON is invalid
+     */
+    @Benchmark
+    public NamedEntity readNamedEntity() throws JSONException {
+        return new NamedEntity(new JSONObject(entityJson));
+    }
+}
@@ -10,16 +10,22 @@ var logger = Packages.org.slf4j.LoggerFactory.getLogger("NER-extension"),
 function init() {
   logger.info("Initializing service manager");
   var serviceManager = new services.NERServiceManager();
+  serviceManager.shutdownOnExit();
   
   logger.info("Initializing commands, changes, and operations");
+  /* Results that earlier runs moved to disk are no longer referenced by any change. */
+  Packages.org.freeyourmetadata.ner.operations.NERChange.deleteSpilledResults();
   refineServlet.registerCommand(module, "services", new commands.ServicesCommand(serviceManager));
   refineServlet.registerCommand(module, "extractions", new commands.ExtractionCommand(serviceManager));
+  refineServlet.registerCommand(module, "retries", new commands.RetryCommand(serviceManager));
   refineServlet.registerClassMapping(
     "com.google.refine.model.changes.DataExtensionChange",
     "org.freeyourmetadata.ner.operations.NERChange"
   );
   refineServlet.cacheClass(Packages.org.freeyourmetadata.ner.operations.NERChange);
+  refineServlet.cacheClass(Packages.org.freeyourmetadata.ner.operations.NERRetryChange);
   operationRegistry.registerOperation(module, "ner", Packages.org.freeyourmetadata.ner.operations.NEROperation);
+  operationRegistry.registerOperation(module, "ner-retry", Packages.org.freeyourmetadata.ner.operations.NERRetryOperation);
 
   logger.info("Initializing client resources");
   var resourceManager = Packages.com.google.refine.ClientSideResourceManager;
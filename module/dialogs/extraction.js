@@ -12,7 +12,7 @@ ExtractionDialog.prototype = {
     $('.column-name', dialogElement).text(this.column.name);
     
     /* Bind controls to actions */
-    var controls = DOM.bind(this.dialogElement);
+    var controls = this.controls = DOM.bind(this.dialogElement);
     controls.cancel.click(this.bound("hide"));
     controls.start.click(function () {
       self.extract(Object.keys(selectedServices).filter(function (s) { return selectedServices[s]; }));
@@ -31,6 +31,8 @@ ExtractionDialog.prototype = {
             $label = $('<label/>', { 'class': 'checkbox' })
                         .append($service, service.name),
             $fieldset = $('<fieldset/>').append($label);
+        if (service.circuit === 'open')
+          $label.append(' ', $('<em/>', { 'class': 'unavailable', text: '(temporarily unavailable)' }));
         if (!service.configured) {
           $service.attr('disabled', true);
           $label.addClass('disabled');
@@ -81,7 +83,10 @@ ExtractionDialog.prototype = {
   },
   
   extract: function (services) {
-    var data = { column: this.column.name, services: services };
+    var data = { column: this.column.name, services: services, timeout: this.controls.timeout.val(),
+                 resume: this.controls.resume.is(':checked'),
+                 incremental: this.controls.incremental.is(':checked'),
+                 keepPartialResults: this.controls.keepPartialResults.is(':checked') };
 
     $('.dialog-frame.ner-extraction .settings input').each(function () {
       data[$(this).attr('name')] = $(this).val();
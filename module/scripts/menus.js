@@ -19,16 +19,41 @@ ExtensionBar.addExtensionMenu({
 
 /* Add submenu to column header menu */
 DataTableColumnHeaderUI.extendMenu(function (column, columnHeaderUI, menu) {
-  MenuSystem.appendTo(menu, "", [
+  var items = [
     { /* separator */ },
     {
       id: "named-entity-recognition/extract",
       label: "Extract named entities...",
       click: dialogHandler(ExtractionDialog, column),
     },
-  ]);
+  ];
+  /* Failed extractions can only be retried in columns with results */
+  if (resultColumnNames.hasOwnProperty(column.name)) {
+    items.push({
+      id: "named-entity-recognition/retry",
+      label: "Retry failed extractions",
+      click: function () {
+        Refine.postProcess('named-entity-recognition', 'retries', { column: column.name }, {},
+                           { rowsChanged: true });
+      },
+    });
+  }
+  MenuSystem.appendTo(menu, "", items);
 });
 
+/* Keep track of the columns with results of named-entity recognition */
+var resultColumnNames = {};
+var reinitializeProjectData = Refine.reinitializeProjectData;
+Refine.reinitializeProjectData = function (onDone, onError) {
+  reinitializeProjectData.call(this, function () {
+    $.getJSON("command/named-entity-recognition/retries?" + $.param({ project: theProject.id }), function (data) {
+      resultColumnNames = {};
+      $.each(data.columns, function (i, columnName) { resultColumnNames[columnName] = true; });
+    });
+    onDone.apply(this, arguments);
+  }, onError);
+};
+
 function dialogHandler(dialogConstructor) {
   var dialogArguments = Array.prototype.slice.call(arguments, 1);
   function Dialog() { return dialogConstructor.apply(this, dialogArguments); }
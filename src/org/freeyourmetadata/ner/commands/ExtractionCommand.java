@@ -6,6 +6,7 @@ import java.util.TreeMap;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.freeyourmetadata.ner.operations.ExtractionOptions;
 import org.freeyourmetadata.ner.operations.NEROperation;
 import org.freeyourmetadata.ner.services.NERService;
 import org.freeyourmetadata.ner.services.NERServiceManager;
@@ -55,6 +56,26 @@ public class ExtractionCommand extends EngineDependentCommand {
             }
         }
         
-        return new NEROperation(column, services, settings, getEngineConfig(request));
+        // Read the process options
+        final ExtractionOptions options = new ExtractionOptions(parseLong(request.getParameter("timeout")),
+                                                                "true".equals(request.getParameter("resume")),
+                                                                "true".equals(request.getParameter("incremental")),
+                                                                "true".equals(request.getParameter("keepPartialResults")));
+        
+        return new NEROperation(column, services, settings, options, getEngineConfig(request));
+    }
+    
+    /**
+     * Parses the parameter value as a number
+     * @param value The parameter value
+     * @return The number, or 0 if the value is empty or invalid
+     */
+    private static long parseLong(final String value) {
+        try {
+            return value == null ? 0 : Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException error) {
+            return 0;
+        }
     }
 }
@@ -0,0 +1,85 @@
+package org.freeyourmetadata.ner.commands;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.freeyourmetadata.ner.operations.NERRetryOperation;
+import org.freeyourmetadata.ner.services.NERServiceManager;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+
+import com.google.refine.commands.EngineDependentCommand;
+import com.google.refine.model.AbstractOperation;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+
+/**
+ * Command that starts an operation to retry the failed extractions in a column,
+ * and lists the columns in which this is possible
+ */
+public class RetryCommand extends EngineDependentCommand {
+    private final NERServiceManager serviceManager;
+    
+    /**
+     * Creates a new <tt>RetryCommand</tt>
+     * @param serviceManager The manager whose services will be used for named-entity recognition
+     */
+    public RetryCommand(final NERServiceManager serviceManager) {
+        this.serviceManager = serviceManager;
+    }
+
+    /**
+     * Writes the names of the columns with results of named-entity recognition
+     * @param request The request
+     * @param response The response
+     * @throws ServletException if the project cannot be found
+     * @throws IOException if the response cannot be written
+     */
+    @Override
+    public void doGet(final HttpServletRequest request, final HttpServletResponse response)
+            throws ServletException, IOException {
+        final Project project = getProject(request);
+        response.setHeader("Content-Type", "application/json");
+        final JSONWriter writer = new JSONWriter(response.getWriter());
+        try {
+            writer.object();
+            writer.key("columns");
+            writer.array();
+            for (final String columnName : NERRetryOperation.getResultColumnNames(project))
+                writer.value(columnName);
+            writer.endArray();
+            writer.endObject();
+        }
+        catch (JSONException error) {
+            throw new ServletException(error);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected AbstractOperation createOperation(Project project, HttpServletRequest request, JSONObject engineConfig) throws Exception {
+        final String columnName = request.getParameter("column");
+        final Column column = project.columnModel.getColumnByName(columnName);
+        if (column == null)
+            throw new Exception(String.format("The column %s does not exist.", columnName));
+        
+        // Result columns are named after their service
+        final String serviceParameter = request.getParameter("service");
+        final String serviceName;
+        if (serviceParameter != null && !serviceParameter.isEmpty())
+            serviceName = serviceParameter;
+        else if (NERRetryOperation.getResultColumnNames(project).contains(columnName))
+            serviceName = columnName;
+        else
+            throw new Exception(String.format("The column %s does not contain results of named-entity recognition.", columnName));
+        if (!serviceManager.hasService(serviceName))
+            throw new Exception(String.format("The service %s does not exist.", serviceName));
+        
+        return NERRetryOperation.create(project, column, serviceName, serviceManager.getService(serviceName),
+                                        getEngineConfig(request));
+    }
+}
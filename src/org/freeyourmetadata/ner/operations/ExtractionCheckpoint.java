@@ -0,0 +1,241 @@
+package org.freeyourmetadata.ner.operations;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.freeyourmetadata.ner.services.ExtractionResult;
+import org.freeyourmetadata.ner.services.NERServiceManager;
+import org.freeyourmetadata.ner.services.NamedEntity;
+import org.freeyourmetadata.util.JSONStreamReader;
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+
+/**
+ * Checkpoint of the texts that a named-entity recognition process has completed,
+ * stored as one JSON object per line, so an interrupted process can resume where it stopped.
+ * Only texts for which all services succeeded are recorded, so failed extractions are retried.
+ */
+public class ExtractionCheckpoint {
+    private final static Logger LOGGER = Logger.getLogger(ExtractionCheckpoint.class);
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    /** The minimum number of milliseconds between writes of completed texts. */
+    private final static long FLUSH_INTERVAL = 10000;
+
+    private final File file;
+    private LinkedHashMap<String, ExtractionResult[]> pending = new LinkedHashMap<String, ExtractionResult[]>();
+    private long lastFlush = System.currentTimeMillis();
+
+    /**
+     * Creates a new <tt>ExtractionCheckpoint</tt>
+     * @param file The file in which completed texts are recorded
+     */
+    public ExtractionCheckpoint(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates the checkpoint of extractions in a column of a project with the specified services and settings
+     * @param project The project
+     * @param column The column on which named-entity recognition is performed
+     * @param settings The settings of the individual services
+     * @return The checkpoint
+     */
+    public static ExtractionCheckpoint create(final Project project, final Column column,
+                                              final Map<String, Map<String, String>> settings) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException error) {
+            throw new RuntimeException(error);
+        }
+        digest.update(String.valueOf(project.id).getBytes(UTF8));
+        digest.update((byte)0);
+        digest.update(column.getName().getBytes(UTF8));
+        // Sort the services and settings, so their order does not influence the key
+        for (final Map.Entry<String, Map<String, String>> service
+                : new TreeMap<String, Map<String, String>>(settings).entrySet()) {
+            digest.update((byte)0);
+            digest.update(service.getKey().getBytes(UTF8));
+            if (service.getValue() != null) {
+                for (final Map.Entry<String, String> setting
+                        : new TreeMap<String, String>(service.getValue()).entrySet()) {
+                    digest.update((byte)0);
+                    digest.update(setting.getKey().getBytes(UTF8));
+                    digest.update((byte)'=');
+                    digest.update(String.valueOf(setting.getValue()).getBytes(UTF8));
+                }
+            }
+        }
+        final String key = String.format("%040x", new BigInteger(1, digest.digest()));
+        return new ExtractionCheckpoint(new File(NERServiceManager.getCacheDirectory("checkpoints"), key + ".jsonl"));
+    }
+
+    /**
+     * Gets the file in which completed texts are recorded
+     * @return The file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the texts that have been completed before,
+     * skipping lines that were damaged by an interruption
+     * @return The results per service for each completed text
+     */
+    public Map<String, ExtractionResult[]> load() {
+        final HashMap<String, ExtractionResult[]> completed = new HashMap<String, ExtractionResult[]>();
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+            try {
+                for (String line; (line = reader.readLine()) != null;) {
+                    try {
+                        readLine(new JSONStreamReader(new StringReader(line)), completed);
+                    }
+                    catch (JSONException error) {
+                        LOGGER.warn("Skipping damaged line in NER checkpoint " + file);
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (FileNotFoundException error) { }
+        catch (IOException error) {
+            LOGGER.warn("Could not read NER checkpoint " + file, error);
+        }
+        return completed;
+    }
+
+    /**
+     * Reads a line with the results of a completed text
+     * @param json The reader positioned at the line
+     * @param completed The results per service for each completed text
+     * @throws JSONException if the line is not correctly structured
+     */
+    private static void readLine(final JSONStreamReader json, final Map<String, ExtractionResult[]> completed)
+            throws JSONException {
+        String text = null;
+        final ArrayList<ExtractionResult> results = new ArrayList<ExtractionResult>();
+        final ArrayList<NamedEntity> entities = new ArrayList<NamedEntity>();
+        json.beginObject();
+        while (json.hasNext()) {
+            final String name = json.nextName();
+            if ("text".equals(name)) {
+                text = json.nextString();
+            }
+            else if ("results".equals(name)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    entities.clear();
+                    json.beginArray();
+                    while (json.hasNext())
+                        entities.add(new NamedEntity(json));
+                    json.endArray();
+                    results.add(new ExtractionResult(entities.toArray(new NamedEntity[entities.size()])));
+                }
+                json.endArray();
+            }
+            else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (text == null)
+            throw new JSONException("JSONObject[\"text\"] not found.");
+        completed.put(text, results.toArray(new ExtractionResult[results.size()]));
+    }
+
+    /**
+     * Records the results of a text, which will be written at the next flush
+     * @param text The text
+     * @param results The results per service
+     */
+    public synchronized void record(final String text, final ExtractionResult[] results) {
+        for (final ExtractionResult result : results)
+            if (result.hasError())
+                return;
+        pending.put(text, results);
+    }
+
+    /**
+     * Writes the recorded texts if the last write was long enough ago
+     */
+    public void flushIfDue() {
+        if (System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL)
+            flush();
+    }
+
+    /**
+     * Writes the recorded texts
+     */
+    public void flush() {
+        final LinkedHashMap<String, ExtractionResult[]> texts;
+        synchronized (this) {
+            texts = pending;
+            pending = new LinkedHashMap<String, ExtractionResult[]>();
+            lastFlush = System.currentTimeMillis();
+        }
+        if (texts.isEmpty())
+            return;
+        try {
+            file.getParentFile().mkdirs();
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), UTF8);
+            try {
+                for (final Map.Entry<String, ExtractionResult[]> text : texts.entrySet()) {
+                    final JSONWriter json = new JSONWriter(writer);
+                    json.object();
+                    json.key("text"); json.value(text.getKey());
+                    json.key("results");
+                    json.array();
+                    for (final ExtractionResult result : text.getValue()) {
+                        json.array();
+                        for (final NamedEntity entity : result.getNamedEntities())
+                            entity.writeTo(json);
+                        json.endArray();
+                    }
+                    json.endArray();
+                    json.endObject();
+                    writer.write('\n');
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (Exception error) {
+            LOGGER.warn("Could not write NER checkpoint " + file, error);
+        }
+    }
+
+    /**
+     * Removes all recorded texts
+     */
+    public synchronized void delete() {
+        pending.clear();
+        file.delete();
+    }
+}
@@ -0,0 +1,101 @@
+package org.freeyourmetadata.ner.operations;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+
+/**
+ * Options that govern a named-entity recognition process as a whole
+ */
+public class ExtractionOptions {
+    private final long timeout;
+    private final boolean resume;
+    private final boolean incremental;
+    private final boolean keepPartialResults;
+
+    /**
+     * Creates the default extraction options
+     */
+    public ExtractionOptions() {
+        this(0);
+    }
+
+    /**
+     * Creates new extraction options
+     * @param timeout The maximum duration of the process in seconds (0 means unlimited)
+     */
+    public ExtractionOptions(final long timeout) {
+        this(timeout, false, false, false);
+    }
+
+    /**
+     * Creates new extraction options
+     * @param timeout The maximum duration of the process in seconds (0 means unlimited)
+     * @param resume Whether texts completed by an earlier, interrupted process are skipped
+     * @param incremental Whether the results of an earlier process are reused for unchanged texts
+     * @param keepPartialResults Whether the results of a canceled process are added to the project
+     */
+    public ExtractionOptions(final long timeout, final boolean resume, final boolean incremental,
+                             final boolean keepPartialResults) {
+        this.timeout = Math.max(0, timeout);
+        this.resume = resume;
+        this.incremental = incremental;
+        this.keepPartialResults = keepPartialResults;
+    }
+
+    /**
+     * Creates extraction options from a JSON representation
+     * @param json The JSON representation of the options
+     */
+    public ExtractionOptions(final JSONObject json) {
+        this(json.optLong("timeout", 0), json.optBoolean("resume", false), json.optBoolean("incremental", false),
+             json.optBoolean("keepPartialResults", false));
+    }
+
+    /**
+     * Gets the maximum duration of the process
+     * @return The duration in seconds (0 means unlimited)
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Indicates whether texts completed by an earlier, interrupted process are skipped
+     * @return <tt>true</tt> if the process resumes from its checkpoint
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Indicates whether the results of an earlier process on the same column are reused for unchanged texts
+     * @return <tt>true</tt> if only changed and new texts are extracted
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Indicates whether the results of a canceled process are added to the project,
+     * with the texts that were not completed marked as stopped
+     * @return <tt>true</tt> if partial results are kept
+     */
+    public boolean isKeepPartialResults() {
+        return keepPartialResults;
+    }
+
+    /**
+     * Writes the options in a JSON representation
+     * @param json The JSON writer
+     * @throws JSONException if an error occurs during writing
+     */
+    public void writeTo(final JSONWriter json) throws JSONException {
+        json.object();
+        json.key("timeout"); json.value(timeout);
+        json.key("resume"); json.value(resume);
+        json.key("incremental"); json.value(incremental);
+        json.key("keepPartialResults"); json.value(keepPartialResults);
+        json.endObject();
+    }
+}
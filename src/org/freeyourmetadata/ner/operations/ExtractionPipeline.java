@@ -0,0 +1,361 @@
+package org.freeyourmetadata.ner.operations;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freeyourmetadata.ner.services.ExtractionCache;
+import org.freeyourmetadata.ner.services.ExtractionResult;
+import org.freeyourmetadata.ner.services.LocalNERServiceBase;
+import org.freeyourmetadata.ner.services.NamedEntity;
+import org.freeyourmetadata.ner.services.NERService;
+import org.freeyourmetadata.ner.services.NERServiceBase;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Pipeline that lets texts flow asynchronously through named-entity recognition services,
+ * with a bounded number of requests in flight per service,
+ * and writes the results back to every row containing the text.
+ * The pipeline holds no thread while it waits; every request in flight occupies a worker thread of its service.
+ */
+public class ExtractionPipeline {
+    /** Executor that runs completion listeners on the thread that completes the request. */
+    private final static Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+    
+    private final static String TIMEOUT = "The extraction exceeded its time limit.";
+    private final static String STOPPED = "The extraction was stopped.";
+    /** The typical size in bytes of a short text, used to estimate how many texts fit in a batch. */
+    private final static int SHORT_TEXT_BYTES = 64;
+    
+    private final NERService[] services;
+    private final List<Map<String, String>> settings;
+    /** The result key of every service whose results are cached, or <tt>null</tt> if they are not. */
+    private final String[] resultKeys;
+    private final ExtractionResultStore.Builder extractionResults;
+    private final ExtractionCache extractionCache;
+    private final ExtractionCheckpoint checkpoint;
+    private final Semaphore[] slots;
+    private final long deadline;
+    private final Set<Future<?>> inFlight = new HashSet<Future<?>>();
+    private volatile String stopReason;
+    private boolean closed;
+    private int textsPending;
+    private int textsCompleted;
+    private int rowsCompleted;
+
+    /**
+     * Creates a new <tt>ExtractionPipeline</tt>
+     * @param services The services that will be used for named-entity recognition
+     * @param settings The settings of the individual services
+     * @param extractionResults The builder of the store in which results will be kept per row and service
+     * @param extractionCache The cache of earlier results (can be null)
+     * @param checkpoint The checkpoint in which completed texts are recorded (can be null)
+     * @param deadline The time in milliseconds after which no more requests will be sent
+     */
+    public ExtractionPipeline(final Map<String, NERService> services, final Map<String, Map<String, String>> settings,
+                              final ExtractionResultStore.Builder extractionResults, final ExtractionCache extractionCache,
+                              final ExtractionCheckpoint checkpoint, final long deadline) {
+        this.extractionResults = extractionResults;
+        this.extractionCache = extractionCache;
+        this.checkpoint = checkpoint;
+        this.deadline = deadline;
+        final String[] serviceNames = services.keySet().toArray(new String[services.size()]);
+        this.services = new NERService[serviceNames.length];
+        this.settings = new ArrayList<Map<String, String>>(serviceNames.length);
+        this.resultKeys = new String[serviceNames.length];
+        this.slots = new Semaphore[serviceNames.length];
+
+        // Bound the number of requests in flight for each service
+        for (int i = 0; i < serviceNames.length; i++) {
+            final NERService service = this.services[i] = services.get(serviceNames[i]);
+            this.settings.add(settings.get(serviceNames[i]));
+            // Local services extract faster than the cache reads, so caching them would only evict remote results
+            if (!(service instanceof LocalNERServiceBase))
+                resultKeys[i] = service.getResultKey();
+            // Allow one queued request per running request, so the service never idles,
+            // and enough texts per request to fill batches
+            slots[i] = new Semaphore(2 * getConcurrency(service) * getTextsPerRequest(service));
+        }
+    }
+
+    /**
+     * Gets the number of parallel requests allowed by the service
+     * @param service The service
+     * @return The number of parallel requests
+     */
+    protected static int getConcurrency(final NERService service) {
+        final String concurrency = service.getServiceSetting(NERServiceBase.CONCURRENT_REQUESTS);
+        try {
+            return Math.max(1, Integer.parseInt(concurrency.trim()));
+        }
+        catch (RuntimeException error) {
+            return NERServiceBase.DEFAULT_CONCURRENT_REQUESTS;
+        }
+    }
+
+    /**
+     * Estimates the number of texts the service combines into a single request
+     * @param service The service
+     * @return The number of texts per request
+     */
+    protected static int getTextsPerRequest(final NERService service) {
+        final String batchSize = service.getServiceSetting(NERServiceBase.BATCH_SIZE);
+        try {
+            return Math.max(1, Integer.parseInt(batchSize.trim()) / SHORT_TEXT_BYTES);
+        }
+        catch (RuntimeException error) {
+            return 1;
+        }
+    }
+
+    /**
+     * Submits a text for extraction by all services,
+     * waiting as long as any service has no free slots (but not beyond the deadline)
+     * @param rowIndices The indices of the rows that contain the text
+     * @param key The normalized text, under which the results are recorded in the checkpoint
+     * @param text The text as it occurs in the rows, which is sent to the services
+     * @throws InterruptedException if waiting is interrupted
+     */
+    public void submit(final int[] rowIndices, final String key, final String text) throws InterruptedException {
+        final TextExtraction extraction = new TextExtraction(rowIndices, key);
+        synchronized (this) {
+            textsPending++;
+        }
+        for (int i = 0; i < services.length; i++) {
+            final long remaining = deadline - System.currentTimeMillis();
+            final boolean acquired;
+            try {
+                acquired = stopReason == null && remaining > 0 && slots[i].tryAcquire(remaining, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException error) {
+                // Fail the services that have not started, so the text still completes
+                for (int j = i; j < services.length; j++)
+                    extraction.finish(j, new ExtractionResult(new Exception(STOPPED)));
+                throw error;
+            }
+            if (acquired)
+                new ServiceExtraction(extraction, i, text).start();
+            else
+                extraction.finish(i, new ExtractionResult(new Exception(stopReason != null ? stopReason : TIMEOUT)));
+        }
+    }
+
+    /**
+     * Waits until all submitted texts have been processed
+     * @param timeout The maximum number of milliseconds to wait
+     * @return <tt>true</tt> if all texts have been processed
+     * @throws InterruptedException if waiting is interrupted
+     */
+    public synchronized boolean awaitCompletion(final long timeout) throws InterruptedException {
+        if (textsPending > 0)
+            wait(timeout);
+        return textsPending == 0;
+    }
+
+    /**
+     * Gets the number of distinct texts for which all services have finished
+     * @return The number of completed texts
+     */
+    public synchronized int getTextsCompleted() {
+        return textsCompleted;
+    }
+
+    /**
+     * Gets the number of rows for which all services have finished
+     * @return The number of completed rows
+     */
+    public synchronized int getRowsCompleted() {
+        return rowsCompleted;
+    }
+
+    /**
+     * Builds the store with the results of all completed texts,
+     * ignoring texts that complete afterwards
+     * @param rowCount The total number of rows
+     * @return The results per row and service
+     */
+    public synchronized ExtractionResultStore getResults(final int rowCount) {
+        closed = true;
+        return extractionResults.build(rowCount);
+    }
+
+    /**
+     * Indicates whether the deadline of the pipeline has passed
+     * @return <tt>true</tt> if the deadline has passed
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * Cancels all requests that are still in flight, recording a timeout as their result
+     */
+    public void expire() {
+        stop(TIMEOUT);
+    }
+
+    /**
+     * Cancels all requests that are still in flight and fails texts submitted afterwards
+     */
+    public void shutdown() {
+        stop(STOPPED);
+    }
+
+    /**
+     * Cancels all requests that are still in flight, recording the reason as their result
+     * @param reason The reason for stopping
+     */
+    private void stop(final String reason) {
+        if (stopReason == null)
+            stopReason = reason;
+        final Future<?>[] futures;
+        synchronized (inFlight) {
+            futures = inFlight.toArray(new Future<?>[inFlight.size()]);
+        }
+        for (final Future<?> future : futures)
+            future.cancel(true);
+    }
+
+    /**
+     * Marks the text as completed, sharing its results with all of its rows
+     * and recording them in the checkpoint
+     * @param extraction The extraction of the text
+     */
+    private synchronized void complete(final TextExtraction extraction) {
+        if (closed)
+            return;
+        if (checkpoint != null)
+            checkpoint.record(extraction.key, extraction.results);
+        final int group = extractionResults.addResults(extraction.results);
+        if (group >= 0) {
+            for (final int rowIndex : extraction.rowIndices)
+                extractionResults.addRow(rowIndex, group);
+        }
+        textsPending--;
+        textsCompleted++;
+        rowsCompleted += extraction.rowIndices.length;
+        notifyAll();
+    }
+
+    /**
+     * Extraction state of a single distinct text across all services
+     */
+    private class TextExtraction {
+        private final int[] rowIndices;
+        private final String key;
+        private final ExtractionResult[] results;
+        private final AtomicInteger servicesPending;
+
+        /**
+         * Creates a new <tt>TextExtraction</tt>
+         * @param rowIndices The indices of the rows that contain the text
+         * @param key The normalized text
+         */
+        public TextExtraction(final int[] rowIndices, final String key) {
+            this.rowIndices = rowIndices;
+            this.key = key;
+            this.results = new ExtractionResult[services.length];
+            this.servicesPending = new AtomicInteger(services.length);
+        }
+
+        /**
+         * Stores the result of a service, completing the text if all services have finished
+         * @param serviceIndex The index of the service
+         * @param result The result
+         */
+        public void finish(final int serviceIndex, final ExtractionResult result) {
+            results[serviceIndex] = result;
+            if (servicesPending.decrementAndGet() == 0)
+                complete(this);
+        }
+    }
+
+    /**
+     * Asynchronous extraction of a single text by a single service
+     */
+    private class ServiceExtraction implements Runnable {
+        private final TextExtraction extraction;
+        private final int serviceIndex;
+        private final String text;
+        private String cacheKey;
+        private boolean cached;
+        private ListenableFuture<NamedEntity[]> future;
+
+        /**
+         * Creates a new <tt>ServiceExtraction</tt>
+         * @param extraction The extraction of the text across all services
+         * @param serviceIndex The index of the service
+         * @param text The text to analyze
+         */
+        public ServiceExtraction(final TextExtraction extraction, final int serviceIndex, final String text) {
+            this.extraction = extraction;
+            this.serviceIndex = serviceIndex;
+            this.text = text;
+        }
+
+        /**
+         * Starts the extraction from the cache or, if not cached, through the service
+         */
+        public void start() {
+            final NERService service = services[serviceIndex];
+            final Map<String, String> serviceSettings = settings.get(serviceIndex);
+            NamedEntity[] entities = null;
+            if (extractionCache != null && resultKeys[serviceIndex] != null) {
+                cacheKey = ExtractionCache.createKey(resultKeys[serviceIndex], serviceSettings, text);
+                entities = extractionCache.get(cacheKey);
+            }
+            cached = entities != null;
+            future = cached ? Futures.immediateFuture(entities)
+                            : service.extractNamedEntitiesAsync(text, serviceSettings);
+            synchronized (inFlight) {
+                inFlight.add(future);
+            }
+            // A stop that took its snapshot of the requests in flight before this one was added cannot cancel it
+            if (stopReason != null)
+                future.cancel(true);
+            future.addListener(this, SAME_THREAD);
+        }
+
+        /**
+         * Collects the result once the extraction has finished
+         */
+        @Override
+        public void run() {
+            synchronized (inFlight) {
+                inFlight.remove(future);
+            }
+            slots[serviceIndex].release();
+            ExtractionResult result;
+            try {
+                if (future.isCancelled())
+                    throw new Exception(stopReason);
+                final NamedEntity[] entities = future.get();
+                if (cacheKey != null && !cached)
+                    extractionCache.put(cacheKey, entities);
+                result = new ExtractionResult(entities);
+            }
+            catch (ExecutionException error) {
+                result = new ExtractionResult(error.getCause());
+            }
+            catch (Exception error) {
+                result = new ExtractionResult(error);
+            }
+            extraction.finish(serviceIndex, result);
+        }
+    }
+}
@@ -0,0 +1,634 @@
+package org.freeyourmetadata.ner.operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.freeyourmetadata.ner.services.Disambiguation;
+import org.freeyourmetadata.ner.services.ExtractionResult;
+import org.freeyourmetadata.ner.services.NamedEntity;
+
+/**
+ * Immutable store of the results of named-entity extraction per row and service,
+ * kept in parallel primitive arrays instead of an object graph per entity.
+ * Only rows with entities or errors are stored, in ascending order of their row ID;
+ * rows with the same text share a single group of results.
+ * Texts, labels, URIs and error messages are indexes into a pool of distinct strings,
+ * in which index 0 represents <tt>null</tt>.
+ * Additionally, the store keeps a fingerprint and a digest of the normalized text of every row that was processed,
+ * including rows without results, so a later run can tell which rows have changed.
+ */
+public final class ExtractionResultStore {
+    private final static int NO_ERROR = -1;
+
+    private final int rowCount;
+    private final int serviceCount;
+    private final String[] strings;
+    // Per stored row
+    private final int[] rowIds;
+    private final int[] rowGroups;
+    // Per result (the results of a group are consecutive, one per service)
+    private final int[] resultErrors;
+    private final int[] resultEntities;
+    // Per entity
+    private final int[] entityTexts;
+    private final int[] entityDisambiguations;
+    // Per disambiguation
+    private final int[] disambiguationLabels;
+    private final int[] disambiguationUris;
+    private final float[] disambiguationScores;
+    // Per processed row
+    private final int[] fingerprintRows;
+    private final long[] fingerprints;
+    private final long[] fingerprintDigests;
+
+    /**
+     * Creates a new <tt>ExtractionResultStore</tt>
+     * @param builder The builder that contains the results
+     * @param rowCount The number of rows
+     * @param rowIds The IDs of the stored rows, in ascending order
+     * @param rowGroups The result group of each stored row
+     * @param fingerprintRows The IDs of the processed rows, in ascending order
+     * @param fingerprints The fingerprint of the text of each processed row
+     * @param fingerprintDigests The digest of the text of each processed row
+     */
+    private ExtractionResultStore(final Builder builder, final int rowCount, final int[] rowIds, final int[] rowGroups,
+                                  final int[] fingerprintRows, final long[] fingerprints, final long[] fingerprintDigests) {
+        this.rowCount = rowCount;
+        this.serviceCount = builder.serviceCount;
+        this.strings = builder.strings.toArray(new String[builder.strings.size()]);
+        this.rowIds = rowIds;
+        this.rowGroups = rowGroups;
+        // The start offsets end with the total count, so each item's end is the next item's start
+        this.resultErrors = Arrays.copyOf(builder.resultErrors, builder.resultCount);
+        this.resultEntities = Arrays.copyOf(builder.resultEntities, builder.resultCount + 1);
+        this.resultEntities[builder.resultCount] = builder.entityCount;
+        this.entityTexts = Arrays.copyOf(builder.entityTexts, builder.entityCount);
+        this.entityDisambiguations = Arrays.copyOf(builder.entityDisambiguations, builder.entityCount + 1);
+        this.entityDisambiguations[builder.entityCount] = builder.disambiguationCount;
+        this.disambiguationLabels = Arrays.copyOf(builder.disambiguationLabels, builder.disambiguationCount);
+        this.disambiguationUris = Arrays.copyOf(builder.disambiguationUris, builder.disambiguationCount);
+        this.disambiguationScores = Arrays.copyOf(builder.disambiguationScores, builder.disambiguationCount);
+        this.fingerprintRows = fingerprintRows;
+        this.fingerprints = fingerprints;
+        this.fingerprintDigests = fingerprintDigests;
+    }
+
+    /**
+     * Creates a store from results per row and service
+     * @param extractionResults The results of named-entity extraction per row and service
+     * @param serviceCount The number of services
+     * @return The store
+     */
+    public static ExtractionResultStore fromArray(final ExtractionResult[][] extractionResults, final int serviceCount) {
+        final Builder builder = new Builder(serviceCount);
+        for (int rowId = 0; rowId < extractionResults.length; rowId++) {
+            final int group = builder.addResults(extractionResults[rowId]);
+            if (group >= 0)
+                builder.addRow(rowId, group);
+        }
+        return builder.build(extractionResults.length);
+    }
+
+    /**
+     * Gets the number of rows for which results were extracted, including rows without results
+     * @return The number of rows
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Gets the number of services per row
+     * @return The number of services
+     */
+    public int getServiceCount() {
+        return serviceCount;
+    }
+
+    /**
+     * Gets the number of rows with entities or errors
+     * @return The number of stored rows
+     */
+    public int size() {
+        return rowIds.length;
+    }
+
+    /**
+     * Gets the ID of a stored row
+     * @param index The index of the stored row
+     * @return The row ID
+     */
+    public int getRowId(final int index) {
+        return rowIds[index];
+    }
+
+    /**
+     * Finds the stored row with the specified ID
+     * @param rowId The row ID
+     * @return The index of the stored row, or -1 if the row has no results
+     */
+    public int indexOfRow(final int rowId) {
+        final int index = Arrays.binarySearch(rowIds, rowId);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Determines the number of rows needed to hold the results of all services for a stored row
+     * @param index The index of the stored row
+     * @return The maximum number of entities or errors of a service
+     */
+    public int getMaxEntities(final int index) {
+        int maxEntities = 0;
+        for (int service = 0; service < serviceCount; service++) {
+            final int result = getResult(index, service);
+            final int neededCells = resultErrors[result] != NO_ERROR ? 1 : resultEntities[result + 1] - resultEntities[result];
+            maxEntities = Math.max(maxEntities, neededCells);
+        }
+        return maxEntities;
+    }
+
+    /**
+     * Indicates whether an error occurred when extracting a stored row with a service
+     * @param index The index of the stored row
+     * @param service The index of the service
+     * @return <tt>true</tt> if an error occurred
+     */
+    public boolean hasError(final int index, final int service) {
+        return resultErrors[getResult(index, service)] != NO_ERROR;
+    }
+
+    /**
+     * Gets the message of the error that occurred when extracting a stored row with a service
+     * @param index The index of the stored row
+     * @param service The index of the service
+     * @return The error message, or <tt>null</tt> if no error occurred
+     */
+    public String getErrorMessage(final int index, final int service) {
+        final int error = resultErrors[getResult(index, service)];
+        return error == NO_ERROR ? null : strings[error];
+    }
+
+    /**
+     * Gets the first entity extracted from a stored row by a service
+     * @param index The index of the stored row
+     * @param service The index of the service
+     * @return The index of the first entity
+     */
+    public int getFirstEntity(final int index, final int service) {
+        return resultEntities[getResult(index, service)];
+    }
+
+    /**
+     * Gets the end of the entities extracted from a stored row by a service
+     * @param index The index of the stored row
+     * @param service The index of the service
+     * @return The index after the last entity
+     */
+    public int getEntityEnd(final int index, final int service) {
+        return resultEntities[getResult(index, service) + 1];
+    }
+
+    /**
+     * Gets the text of an entity
+     * @param entity The index of the entity
+     * @return The extracted text
+     */
+    public String getExtractedText(final int entity) {
+        return strings[entityTexts[entity]];
+    }
+
+    /**
+     * Gets the first disambiguation of an entity
+     * @param entity The index of the entity
+     * @return The index of the first disambiguation
+     */
+    public int getFirstDisambiguation(final int entity) {
+        return entityDisambiguations[entity];
+    }
+
+    /**
+     * Gets the end of the disambiguations of an entity
+     * @param entity The index of the entity
+     * @return The index after the last disambiguation
+     */
+    public int getDisambiguationEnd(final int entity) {
+        return entityDisambiguations[entity + 1];
+    }
+
+    /**
+     * Gets the label of a disambiguation
+     * @param disambiguation The index of the disambiguation
+     * @return The label
+     */
+    public String getLabel(final int disambiguation) {
+        return strings[disambiguationLabels[disambiguation]];
+    }
+
+    /**
+     * Gets the URI of a disambiguation
+     * @param disambiguation The index of the disambiguation
+     * @return The URI in string format
+     */
+    public String getUri(final int disambiguation) {
+        return strings[disambiguationUris[disambiguation]];
+    }
+
+    /**
+     * Gets the score of a disambiguation
+     * @param disambiguation The index of the disambiguation
+     * @return The score
+     */
+    public float getScore(final int disambiguation) {
+        return disambiguationScores[disambiguation];
+    }
+
+    /**
+     * Creates a named entity from the store
+     * @param entity The index of the entity
+     * @return The named entity
+     */
+    public NamedEntity getNamedEntity(final int entity) {
+        final int first = entityDisambiguations[entity];
+        final Disambiguation[] disambiguations = new Disambiguation[entityDisambiguations[entity + 1] - first];
+        for (int i = 0; i < disambiguations.length; i++)
+            disambiguations[i] = new Disambiguation(getLabel(first + i), getUri(first + i), getScore(first + i));
+        return new NamedEntity(getExtractedText(entity), disambiguations);
+    }
+
+    /**
+     * Creates the results of all services for a row from the store
+     * @param rowId The row ID
+     * @return The results per service
+     */
+    public ExtractionResult[] getResults(final int rowId) {
+        final int index = indexOfRow(rowId);
+        final ExtractionResult[] results = new ExtractionResult[serviceCount];
+        for (int service = 0; service < serviceCount; service++) {
+            if (index < 0) {
+                results[service] = new ExtractionResult(new NamedEntity[0]);
+            }
+            else if (hasError(index, service)) {
+                results[service] = new ExtractionResult(new Exception(getErrorMessage(index, service)));
+            }
+            else {
+                final int first = getFirstEntity(index, service);
+                final NamedEntity[] entities = new NamedEntity[getEntityEnd(index, service) - first];
+                for (int i = 0; i < entities.length; i++)
+                    entities[i] = getNamedEntity(first + i);
+                results[service] = new ExtractionResult(entities);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Gets the number of processed rows that have a fingerprint
+     * @return The number of fingerprints
+     */
+    public int getFingerprintCount() {
+        return fingerprintRows.length;
+    }
+
+    /**
+     * Gets the ID of a processed row
+     * @param index The index of the fingerprint
+     * @return The row ID
+     */
+    public int getFingerprintRow(final int index) {
+        return fingerprintRows[index];
+    }
+
+    /**
+     * Gets the fingerprint of the text of a processed row
+     * @param index The index of the fingerprint
+     * @return The fingerprint
+     */
+    public long getFingerprint(final int index) {
+        return fingerprints[index];
+    }
+
+    /**
+     * Gets the digest of the text of a processed row, which confirms a matching fingerprint
+     * @param index The index of the fingerprint
+     * @return The digest, or 0 if the results were saved without digests
+     */
+    public long getFingerprintDigest(final int index) {
+        return fingerprintDigests[index];
+    }
+
+    /**
+     * Gets the number of strings in the pool, excluding <tt>null</tt>
+     * @return The number of strings
+     */
+    int getStringCount() {
+        return strings.length - 1;
+    }
+
+    /**
+     * Gets a string from the pool
+     * @param string The index of the string
+     * @return The string
+     */
+    String getString(final int string) {
+        return strings[string];
+    }
+
+    /**
+     * Gets the pool index of the text of an entity
+     * @param entity The index of the entity
+     * @return The index of the extracted text
+     */
+    int getExtractedTextIndex(final int entity) {
+        return entityTexts[entity];
+    }
+
+    /**
+     * Gets the pool index of the label of a disambiguation
+     * @param disambiguation The index of the disambiguation
+     * @return The index of the label
+     */
+    int getLabelIndex(final int disambiguation) {
+        return disambiguationLabels[disambiguation];
+    }
+
+    /**
+     * Gets the pool index of the URI of a disambiguation
+     * @param disambiguation The index of the disambiguation
+     * @return The index of the URI
+     */
+    int getUriIndex(final int disambiguation) {
+        return disambiguationUris[disambiguation];
+    }
+
+    /**
+     * Gets the pool index of the error message of a stored row and service
+     * @param index The index of the stored row
+     * @param service The index of the service
+     * @return The index of the error message
+     */
+    int getErrorMessageIndex(final int index, final int service) {
+        return resultErrors[getResult(index, service)];
+    }
+
+    /**
+     * Gets the result of a stored row and service
+     * @param index The index of the stored row
+     * @param service The index of the service
+     * @return The index of the result
+     */
+    private int getResult(final int index, final int service) {
+        return rowGroups[index] * serviceCount + service;
+    }
+
+    /**
+     * Builder of an <tt>ExtractionResultStore</tt>, to which groups of results can be added in any order.
+     * The builder is not thread-safe.
+     */
+    public static final class Builder {
+        private final int serviceCount;
+        private final HashMap<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        private final ArrayList<String> strings = new ArrayList<String>();
+        private long[] rows = new long[16];
+        private int rowCount;
+        private int resultCount;
+        private int[] resultErrors = new int[16];
+        private int[] resultEntities = new int[16];
+        private int entityCount;
+        private int[] entityTexts = new int[16];
+        private int[] entityDisambiguations = new int[16];
+        private int disambiguationCount;
+        private int[] disambiguationLabels = new int[16];
+        private int[] disambiguationUris = new int[16];
+        private float[] disambiguationScores = new float[16];
+        private int fingerprintCount;
+        private long[] fingerprintKeys = new long[16];
+        private long[] fingerprints = new long[16];
+        private long[] fingerprintDigests = new long[16];
+
+        /**
+         * Creates a new <tt>Builder</tt>
+         * @param serviceCount The number of services per row
+         */
+        public Builder(final int serviceCount) {
+            this.serviceCount = serviceCount;
+            strings.add(null);
+        }
+
+        /**
+         * Adds the results of all services for a text as a group
+         * @param results The results per service
+         * @return The index of the group, or -1 if none of the services found entities or reported an error
+         */
+        public int addResults(final ExtractionResult[] results) {
+            if (isEmpty(results))
+                return -1;
+            if (results.length != serviceCount)
+                throw new IllegalArgumentException(String.format("Expected results of %d services, but got %d.",
+                                                                 serviceCount, results.length));
+            final int group = resultCount / serviceCount;
+            for (final ExtractionResult result : results) {
+                if (result.hasError()) {
+                    addError(intern(result.getExtractionError().message));
+                    continue;
+                }
+                addEntities();
+                for (final NamedEntity entity : result.getNamedEntities()) {
+                    addEntity(intern(entity.getExtractedText()));
+                    for (final Disambiguation disambiguation : entity.getDisambiguations())
+                        addDisambiguation(intern(disambiguation.getLabel()), intern(disambiguation.getUriString()),
+                                          (float)disambiguation.getScore());
+                }
+            }
+            return group;
+        }
+
+        /**
+         * Adds the results of all services for a stored row of another store as a group
+         * @param store The other store
+         * @param index The index of the stored row in the other store
+         * @return The index of the group
+         */
+        public int addResults(final ExtractionResultStore store, final int index) {
+            if (store.serviceCount != serviceCount)
+                throw new IllegalArgumentException(String.format("Expected results of %d services, but got %d.",
+                                                                 serviceCount, store.serviceCount));
+            final int group = nextGroup();
+            for (int service = 0; service < serviceCount; service++) {
+                if (store.hasError(index, service)) {
+                    addError(intern(store.getErrorMessage(index, service)));
+                    continue;
+                }
+                addEntities();
+                final int entityEnd = store.getEntityEnd(index, service);
+                for (int entity = store.getFirstEntity(index, service); entity < entityEnd; entity++) {
+                    addEntity(intern(store.getExtractedText(entity)));
+                    final int disambiguationEnd = store.getDisambiguationEnd(entity);
+                    for (int d = store.getFirstDisambiguation(entity); d < disambiguationEnd; d++)
+                        addDisambiguation(intern(store.getLabel(d)), intern(store.getUri(d)), store.getScore(d));
+                }
+            }
+            return group;
+        }
+
+        /**
+         * Indicates whether none of the services found entities or reported an error
+         * @param results The results of all services
+         * @return <tt>true</tt> if there are no results
+         */
+        private static boolean isEmpty(final ExtractionResult[] results) {
+            for (final ExtractionResult result : results)
+                if (result.hasError() || result.getNamedEntities().length > 0)
+                    return false;
+            return true;
+        }
+
+        /**
+         * Assigns a group of results to a row
+         * @param rowId The row ID
+         * @param group The index of the group
+         */
+        public void addRow(final int rowId, final int group) {
+            if (rowCount == rows.length)
+                rows = Arrays.copyOf(rows, 2 * rowCount);
+            // Pack the row ID and its group, so sorting the rows keeps their group
+            rows[rowCount++] = ((long)rowId << 32) | group;
+        }
+
+        /**
+         * Records the fingerprint and digest of the text of a processed row
+         * @param rowId The row ID
+         * @param fingerprint The fingerprint
+         * @param digest The digest, or 0 if it is unknown
+         */
+        public void addFingerprint(final int rowId, final long fingerprint, final long digest) {
+            if (fingerprintCount == fingerprints.length) {
+                fingerprintKeys = Arrays.copyOf(fingerprintKeys, 2 * fingerprintCount);
+                fingerprints = Arrays.copyOf(fingerprints, 2 * fingerprintCount);
+                fingerprintDigests = Arrays.copyOf(fingerprintDigests, 2 * fingerprintCount);
+            }
+            // Pack the row ID and the position of its fingerprint, so the fingerprints can be sorted by row
+            fingerprintKeys[fingerprintCount] = ((long)rowId << 32) | fingerprintCount;
+            fingerprintDigests[fingerprintCount] = digest;
+            fingerprints[fingerprintCount++] = fingerprint;
+        }
+
+        /**
+         * Gets the pool index of a string, adding it to the pool if necessary
+         * @param string The string
+         * @return The index of the string, or 0 if the string is <tt>null</tt>
+         */
+        public int intern(final String string) {
+            if (string == null)
+                return 0;
+            Integer index = stringIndexes.get(string);
+            if (index == null) {
+                stringIndexes.put(string, index = strings.size());
+                strings.add(string);
+            }
+            return index;
+        }
+
+        /**
+         * Adds the result of the next service that reported an error
+         * (groups are formed by adding exactly one result per service)
+         * @param message The pool index of the error message
+         */
+        public void addError(final int message) {
+            addResult(message);
+        }
+
+        /**
+         * Adds the result of the next service that found entities,
+         * which are added next (groups are formed by adding exactly one result per service)
+         */
+        public void addEntities() {
+            addResult(NO_ERROR);
+        }
+
+        /**
+         * Adds a result
+         * @param error The pool index of the error message, or <tt>NO_ERROR</tt>
+         */
+        private void addResult(final int error) {
+            if (resultCount == resultErrors.length) {
+                resultErrors = Arrays.copyOf(resultErrors, 2 * resultCount);
+                resultEntities = Arrays.copyOf(resultEntities, 2 * resultCount);
+            }
+            resultErrors[resultCount] = error;
+            resultEntities[resultCount++] = entityCount;
+        }
+
+        /**
+         * Adds an entity to the last result, whose disambiguations are added next
+         * @param text The pool index of the extracted text
+         */
+        public void addEntity(final int text) {
+            if (entityCount == entityTexts.length) {
+                entityTexts = Arrays.copyOf(entityTexts, 2 * entityCount);
+                entityDisambiguations = Arrays.copyOf(entityDisambiguations, 2 * entityCount);
+            }
+            entityTexts[entityCount] = text;
+            entityDisambiguations[entityCount++] = disambiguationCount;
+        }
+
+        /**
+         * Adds a disambiguation to the last entity
+         * @param label The pool index of the label
+         * @param uri The pool index of the URI
+         * @param score The score
+         */
+        public void addDisambiguation(final int label, final int uri, final float score) {
+            if (disambiguationCount == disambiguationLabels.length) {
+                disambiguationLabels = Arrays.copyOf(disambiguationLabels, 2 * disambiguationCount);
+                disambiguationUris = Arrays.copyOf(disambiguationUris, 2 * disambiguationCount);
+                disambiguationScores = Arrays.copyOf(disambiguationScores, 2 * disambiguationCount);
+            }
+            disambiguationLabels[disambiguationCount] = label;
+            disambiguationUris[disambiguationCount] = uri;
+            disambiguationScores[disambiguationCount++] = score;
+        }
+
+        /**
+         * Gets the index that the next group of results will have
+         * @return The index of the group
+         */
+        public int nextGroup() {
+            return resultCount / serviceCount;
+        }
+
+        /**
+         * Creates the store
+         * @param totalRowCount The number of rows for which results were extracted, including rows without results
+         * @return The store
+         */
+        public ExtractionResultStore build(final int totalRowCount) {
+            if (serviceCount > 0 && resultCount % serviceCount != 0)
+                throw new IllegalStateException("The last group of results is incomplete.");
+            final long[] sortedRows = Arrays.copyOf(rows, rowCount);
+            Arrays.sort(sortedRows);
+            final int[] rowIds = new int[rowCount];
+            final int[] rowGroups = new int[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                rowIds[i] = (int)(sortedRows[i] >>> 32);
+                rowGroups[i] = (int)sortedRows[i];
+                if (rowIds[i] >= totalRowCount || (i > 0 && rowIds[i] == rowIds[i - 1]))
+                    throw new IllegalStateException("Invalid or duplicate row " + rowIds[i] + ".");
+            }
+            final long[] sortedFingerprintKeys = Arrays.copyOf(fingerprintKeys, fingerprintCount);
+            Arrays.sort(sortedFingerprintKeys);
+            final int[] fingerprintRows = new int[fingerprintCount];
+            final long[] sortedFingerprints = new long[fingerprintCount];
+            final long[] sortedFingerprintDigests = new long[fingerprintCount];
+            for (int i = 0; i < fingerprintCount; i++) {
+                fingerprintRows[i] = (int)(sortedFingerprintKeys[i] >>> 32);
+                sortedFingerprints[i] = fingerprints[(int)sortedFingerprintKeys[i]];
+                sortedFingerprintDigests[i] = fingerprintDigests[(int)sortedFingerprintKeys[i]];
+                if (fingerprintRows[i] >= totalRowCount || (i > 0 && fingerprintRows[i] == fingerprintRows[i - 1]))
+                    throw new IllegalStateException("Invalid or duplicate fingerprint of row " + fingerprintRows[i] + ".");
+            }
+            return new ExtractionResultStore(this, totalRowCount, rowIds, rowGroups,
+                                             fingerprintRows, sortedFingerprints, sortedFingerprintDigests);
+        }
+    }
+}
@@ -1,23 +1,29 @@
 package org.freeyourmetadata.ner.operations;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.Writer;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 
 import org.apache.commons.lang.ArrayUtils;
+import org.apache.log4j.Logger;
 import org.freeyourmetadata.ner.services.ExtractionResult;
+import org.freeyourmetadata.ner.services.NERServiceManager;
 import org.freeyourmetadata.ner.services.NamedEntity;
-import org.json.JSONArray;
+import org.freeyourmetadata.util.JSONStreamReader;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
-import org.json.JSONWriter;
 
+import com.google.refine.expr.EvalError;
 import com.google.refine.history.Change;
 import com.google.refine.model.Cell;
 import com.google.refine.model.Project;
@@ -25,7 +31,6 @@ import com.google.refine.model.Row;
 import com.google.refine.model.changes.CellAtRow;
 import com.google.refine.model.changes.ColumnAdditionChange;
 import com.google.refine.model.changes.ColumnRemovalChange;
-import com.google.refine.util.JSONUtilities;
 import com.google.refine.util.Pool;
 
 /**
@@ -33,10 +38,23 @@ import com.google.refine.util.Pool;
  * @author Ruben Verborgh
  */
 public class NERChange implements Change {
+    private final static Logger LOGGER = Logger.getLogger(NERChange.class);
+    /** The minimum number of rows for which results are moved to disk when not in use. */
+    private final static int SPILL_MIN_ROWS = 1000;
+    /** The name of the directory with results that were moved to disk, inside the cache folder of the extension. */
+    private final static String SPILL_DIRECTORY = "changes";
+    private final static String SPILL_PREFIX = "results";
+    private final static String SPILL_SUFFIX = ".bin";
+    /** The files with results that were moved to disk, by a reference to their change. */
+    private final static HashMap<Reference<NERChange>, File> SPILLED_RESULTS = new HashMap<Reference<NERChange>, File>();
+    /** The references to changes that are no longer reachable, whose files can be deleted. */
+    private final static ReferenceQueue<NERChange> RELEASED_CHANGES = new ReferenceQueue<NERChange>();
+    
     private final int columnIndex;
     private final String[] serviceNames;
-    private final ExtractionResult[][] extractionResults;
     private final List<Integer> addedRowIds;
+    private ExtractionResultStore extractionResults;
+    private File extractionResultsFile;
     
     /**
      * Creates a new <tt>NERChange</tt>
@@ -46,11 +64,35 @@ public class NERChange implements Change {
      */
     public NERChange(final int columnIndex, final String[] serviceNames,
     				 final ExtractionResult[][] extractionResults) {
+        this(columnIndex, serviceNames, ExtractionResultStore.fromArray(extractionResults, serviceNames.length));
+    }
+    
+    /**
+     * Creates a new <tt>NERChange</tt>
+     * @param columnIndex The index of the column used for named-entity recognition
+     * @param serviceNames The names of the used services
+     * @param extractionResults The results of named-entity extraction per row and service
+     */
+    public NERChange(final int columnIndex, final String[] serviceNames,
+                     final ExtractionResultStore extractionResults) {
         this.columnIndex = columnIndex;
         this.serviceNames = serviceNames;
         this.extractionResults = extractionResults;
         this.addedRowIds = new ArrayList<Integer>();
     }
+    
+    /**
+     * Creates a new <tt>NERChange</tt> that has been applied before
+     * @param columnIndex The index of the column used for named-entity recognition
+     * @param serviceNames The names of the used services
+     * @param extractionResults The results of named-entity extraction per row and service
+     * @param addedRowIds The IDs of the rows that were added when applying the change
+     */
+    NERChange(final int columnIndex, final String[] serviceNames,
+              final ExtractionResultStore extractionResults, final List<Integer> addedRowIds) {
+        this(columnIndex, serviceNames, extractionResults);
+        this.addedRowIds.addAll(addedRowIds);
+    }
 
     /** {@inheritDoc} */
     @Override
@@ -60,6 +102,7 @@ public class NERChange implements Change {
             insertValues(project, cellIndexes);
             project.update();
         }
+        releaseExtractionResults();
     }
 
     /** {@inheritDoc} */
@@ -70,57 +113,114 @@ public class NERChange implements Change {
             deleteColumns(project);
             project.update();
         }
+        releaseExtractionResults();
     }
 
     /** {@inheritDoc} */
     @Override
     public void save(final Writer writer, final Properties options) throws IOException {
-        final JSONWriter json = new JSONWriter(writer);
+        final ExtractionResultStore results;
+        final File resultsFile;
+        synchronized (this) {
+            results = extractionResults;
+            resultsFile = extractionResultsFile;
+        }
+        // Results on disk are copied into the history without decoding them
+        if (results == null)
+            NERChangeFormat.write(writer, columnIndex, serviceNames, resultsFile, addedRowIds);
+        else
+            NERChangeFormat.write(writer, columnIndex, serviceNames, results, addedRowIds);
+    }
+    
+    /**
+     * Gets the extraction results, reading them from disk if they are not in memory
+     * (in which case they are not kept in memory afterwards)
+     * @return The results of named-entity extraction per row and service
+     */
+    protected synchronized ExtractionResultStore getExtractionResults() {
+        if (extractionResults != null)
+            return extractionResults;
         try {
-            /* Change object */
-            json.object();
-            json.key("column"); json.value(columnIndex);
-            json.key("services"); JSONUtilities.writeStringArray(json, serviceNames);
-            json.key("entities");
-            /* Nested array of extraction results */
-            {
-            	/* Array of results per row */
-                json.array();
-                for (final ExtractionResult[] rowResults : extractionResults) {
-                	/* Array of results per service on this row */
-                    json.array();
-                    /* Array of results for this service */
-                    for (final ExtractionResult extractionResult : rowResults) {
-                    	/* Array of entities */
-                    	if (!extractionResult.hasError()) {
-	                        json.array();
-	                        for (final NamedEntity entity : extractionResult.getNamedEntities())
-	                            entity.writeTo(json);
-	                        json.endArray();
-                    	}
-                    	/* Error object */
-                    	else {
-                    		json.object();
-                    		json.key("error"); json.value(extractionResult.getExtractionError().message);
-                    		json.endObject();
-                    	}
-                    }
-                    json.endArray();
+            return NERChangeFormat.readResults(extractionResultsFile);
+        }
+        catch (IOException error) {
+            throw new IllegalStateException("Could not read NER results from " + extractionResultsFile + ".", error);
+        }
+    }
+    
+    /**
+     * Gets the extraction results in blocks of consecutive stored rows,
+     * reading only one block at a time from disk if they are not in memory
+     * @return The results of named-entity extraction per row and service, in ascending order of row
+     */
+    protected synchronized Iterator<ExtractionResultStore> getExtractionResultBlocks() {
+        if (extractionResults != null)
+            return Collections.singletonList(extractionResults).iterator();
+        try {
+            return NERChangeFormat.readResultBlocks(extractionResultsFile);
+        }
+        catch (IOException error) {
+            throw new IllegalStateException("Could not read NER results from " + extractionResultsFile + ".", error);
+        }
+    }
+    
+    /**
+     * Moves large extraction results to a memory-mapped file on disk,
+     * so changes in the history do not occupy the heap until they are applied again
+     */
+    protected synchronized void releaseExtractionResults() {
+        if (extractionResults == null || extractionResults.size() < SPILL_MIN_ROWS)
+            return;
+        if (extractionResultsFile == null) {
+            deleteReleasedResults();
+            File file = null;
+            try {
+                final File directory = NERServiceManager.getCacheDirectory(SPILL_DIRECTORY);
+                directory.mkdirs();
+                file = File.createTempFile(SPILL_PREFIX, SPILL_SUFFIX, directory);
+                NERChangeFormat.writeResults(file, extractionResults);
+                // The history file remains the permanent record of the results,
+                // so the file is deleted once the change is no longer reachable
+                synchronized (SPILLED_RESULTS) {
+                    SPILLED_RESULTS.put(new PhantomReference<NERChange>(this, RELEASED_CHANGES), file);
                 }
-                json.endArray();
+                extractionResultsFile = file;
             }
-            json.key("addedRows");
-            /* Added row numbers array */
-            {
-                json.array();
-                for (Integer addedRowId : addedRowIds)
-                    json.value(addedRowId.intValue());
-                json.endArray();
+            catch (IOException error) {
+                LOGGER.warn("Could not move NER results to disk, so they remain in memory.", error);
+                if (file != null)
+                    file.delete();
+                return;
+            }
+        }
+        extractionResults = null;
+    }
+    
+    /**
+     * Deletes the files with results of changes that are no longer reachable
+     */
+    private static void deleteReleasedResults() {
+        synchronized (SPILLED_RESULTS) {
+            for (Reference<? extends NERChange> released; (released = RELEASED_CHANGES.poll()) != null;) {
+                final File file = SPILLED_RESULTS.remove(released);
+                if (file != null && !file.delete())
+                    LOGGER.warn("Could not delete the NER results in " + file + ".");
             }
-            json.endObject();
         }
-        catch (JSONException error) {
-            throw new IOException(error);
+    }
+    
+    /**
+     * Deletes all files with results that were moved to disk by an earlier run,
+     * which is only safe before any change has moved its results to disk
+     */
+    public static void deleteSpilledResults() {
+        final File[] files = NERServiceManager.getCacheDirectory(SPILL_DIRECTORY).listFiles();
+        if (files == null)
+            return;
+        for (final File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(SPILL_PREFIX) && name.endsWith(SPILL_SUFFIX) && !file.delete())
+                LOGGER.warn("Could not delete the NER results in " + file + ".");
         }
     }
     
@@ -132,47 +232,137 @@ public class NERChange implements Change {
      * @throws Exception If the configuration is in an unexpected format
      */
     static public Change load(LineNumberReader reader, Pool pool) throws Exception {
-        /* Parse JSON line */
-        final JSONTokener tokener = new JSONTokener(reader.readLine());
-        final JSONObject changeJson = (JSONObject)tokener.nextValue();
+        /* Determine the format from the start of the line */
+        final char[] start = new char[NERChangeFormat.MARKER.length()];
+        reader.mark(start.length);
+        int startLength = 0;
+        for (int read = 0; startLength < start.length && read >= 0; startLength += Math.max(0, read))
+            read = reader.read(start, startLength, start.length - startLength);
+        reader.reset();
+        if (NERChangeFormat.isCompact(new String(start, 0, startLength)))
+            return NERChangeFormat.read(reader.readLine());
         
-        /* Simple properties */
-        final int columnIndex = changeJson.getInt("column");
-        final String[] serviceNames = JSONUtilities.getStringArray(changeJson, "services");
+        /* Parse legacy JSON line while it is being read */
+        final NERChange change = load(new JSONStreamReader(reader));
+        reader.readLine();
+        return change;
+    }
+    
+    /**
+     * Create a <tt>NERChange</tt> from its legacy JSON representation
+     * @param json The reader positioned at the JSON representation
+     * @return A new <tt>NERChange</tt>
+     * @throws JSONException If the JSON is in an unexpected format
+     */
+    private static NERChange load(final JSONStreamReader json) throws JSONException {
+        Integer columnIndex = null;
+        String[] serviceNames = null;
+        ExtractionResultStore extractionResults = null;
+        final ArrayList<Integer> addedRowIds = new ArrayList<Integer>();
         
-        /* Nested array of extraction results */
-        final JSONArray namedEntitiesJson = changeJson.getJSONArray("entities");
-        final ExtractionResult[][] extractionResults = new ExtractionResult[namedEntitiesJson.length()][];
-        /* Array of results per row */
-        for (int i = 0; i < extractionResults.length; i++) {
-            /* Array of results per service on this row */
-            final JSONArray rowResultsJson = namedEntitiesJson.getJSONArray(i);
-            final ExtractionResult[] rowResults = new ExtractionResult[rowResultsJson.length()];
-            for (int j = 0; j < rowResults.length; j++) {
-            	final JSONObject error = rowResultsJson.optJSONObject(j);
-            	if (error == null) {
-            		/* Array of entities */
-            		final JSONArray entitiesJson = rowResultsJson.getJSONArray(j);
-	                final NamedEntity[] entities = new NamedEntity[rowResultsJson.length()];
-	                for (int k = 0; k < entities.length; k++) {
-	                    try { entities[k] = new NamedEntity(entitiesJson.getJSONObject(k)); }
-	                    catch (JSONException e) { entities[k] = new NamedEntity(""); }
-	                }
-	                rowResults[j] = new ExtractionResult(entities);
-            	}
-		        else {
-		        	/* Error object */
-		        	rowResults[j] = new ExtractionResult(new Exception(error.getString("error")));
-		        }
+        json.beginObject();
+        while (json.hasNext()) {
+            final String name = json.nextName();
+            /* Simple properties */
+            if ("column".equals(name)) {
+                columnIndex = json.nextInt();
+            }
+            else if ("services".equals(name)) {
+                final ArrayList<String> names = new ArrayList<String>();
+                json.beginArray();
+                while (json.hasNext())
+                    names.add(json.nextString());
+                json.endArray();
+                serviceNames = names.toArray(new String[names.size()]);
+            }
+            /* Nested array of extraction results */
+            else if ("entities".equals(name)) {
+                if (serviceNames == null)
+                    throw new JSONException("The NER change lists its entities before its services.");
+                extractionResults = loadExtractionResults(json, serviceNames.length);
+            }
+            /* Added row numbers array */
+            else if ("addedRows".equals(name)) {
+                json.beginArray();
+                while (json.hasNext())
+                    addedRowIds.add(json.nextInt());
+                json.endArray();
+            }
+            else {
+                json.skipValue();
             }
-            extractionResults[i] = rowResults;
         }
+        json.endObject();
         
         /* Reconstruct change object */
-        final NERChange change = new NERChange(columnIndex, serviceNames, extractionResults);
-        for (final int addedRowId : JSONUtilities.getIntArray(changeJson, "addedRows"))
-            change.addedRowIds.add(addedRowId);
-        return change;
+        if (columnIndex == null || serviceNames == null || extractionResults == null)
+            throw new JSONException("The NER change misses the column, services, or entities.");
+        return new NERChange(columnIndex, serviceNames, extractionResults, addedRowIds);
+    }
+    
+    /**
+     * Reads the legacy JSON representation of the extraction results, row by row
+     * @param json The reader positioned at the array of results
+     * @param serviceCount The number of services
+     * @return The extraction results per row and service
+     * @throws JSONException If the JSON is in an unexpected format
+     */
+    private static ExtractionResultStore loadExtractionResults(final JSONStreamReader json, final int serviceCount)
+            throws JSONException {
+        final ExtractionResult noEntities = new ExtractionResult(new NamedEntity[0]);
+        final ExtractionResultStore.Builder extractionResults = new ExtractionResultStore.Builder(serviceCount);
+        int rowCount = 0;
+        final ArrayList<ExtractionResult> rowResults = new ArrayList<ExtractionResult>();
+        final ArrayList<NamedEntity> entities = new ArrayList<NamedEntity>();
+        /* Array of results per row */
+        json.beginArray();
+        while (json.hasNext()) {
+            /* Array of results per service on this row */
+            rowResults.clear();
+            json.beginArray();
+            while (json.hasNext()) {
+                /* Array of entities */
+                if (json.peek() == JSONStreamReader.Token.BEGIN_ARRAY) {
+                    entities.clear();
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        try { entities.add(new NamedEntity(json)); }
+                        catch (JSONException e) { entities.add(new NamedEntity("")); }
+                    }
+                    json.endArray();
+                    rowResults.add(entities.isEmpty() ? noEntities
+                                   : new ExtractionResult(entities.toArray(new NamedEntity[entities.size()])));
+                }
+                /* Error object */
+                else {
+                    String error = null;
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        if ("error".equals(json.nextName()))
+                            error = json.nextString();
+                        else
+                            json.skipValue();
+                    }
+                    json.endObject();
+                    if (error == null)
+                        throw new JSONException("JSONObject[\"error\"] not found.");
+                    rowResults.add(new ExtractionResult(new Exception(error)));
+                }
+            }
+            json.endArray();
+            /* Only rows with entities or errors are stored */
+            try {
+                final int group = extractionResults.addResults(rowResults.toArray(new ExtractionResult[rowResults.size()]));
+                if (group >= 0)
+                    extractionResults.addRow(rowCount, group);
+            }
+            catch (IllegalArgumentException error) {
+                throw new JSONException(error.getMessage());
+            }
+            rowCount++;
+        }
+        json.endArray();
+        return extractionResults.build(rowCount);
     }
     
     /**
@@ -226,44 +416,54 @@ public class NERChange implements Change {
             while (row.cells.size() < minRowSize)
                 row.cells.add(null);
         
-        // Add the extracted named entities to all rows, creating new ones as necessary
-        int rowNumber = 0;
+        // Rebuild the rows in a single pass, since inserting rows one by one shifts all following rows;
+        // the results are read one block at a time, so results on disk are never entirely on the heap
+        final int rowCount = rows.size();
+        final ArrayList<Row> expandedRows = new ArrayList<Row>(rowCount);
+        final Iterator<ExtractionResultStore> blocks = getExtractionResultBlocks();
+        ExtractionResultStore extractionResults = null;
         addedRowIds.clear();
-        for (final ExtractionResult[] rowResults : extractionResults) {
-            // Determine the maximum number of named entities per service
-            int maxEntities = 0;
-            for (int col = 0; col < rowResults.length; col++) {
-            	int neededCells = rowResults[col].hasError() ? 1 : rowResults[col].getNamedEntities().length;
-                maxEntities = Math.max(maxEntities, neededCells);
+        for (int rowIndex = 0, index = 0; rowIndex < rowCount; rowIndex++) {
+            final int rowNumber = expandedRows.size();
+            expandedRows.add(rows.get(rowIndex));
+            // Only rows with entities or errors are stored, in ascending order
+            while ((extractionResults == null || index == extractionResults.size()) && blocks.hasNext()) {
+                extractionResults = blocks.next();
+                index = 0;
+            }
+            if (extractionResults == null || index == extractionResults.size()
+                || extractionResults.getRowId(index) != rowIndex)
+                continue;
+            
+            final int maxEntities = extractionResults.getMaxEntities(index);
+            // Create new blank rows if the results don't fit on a single line
+            for (int i = 1; i < maxEntities; i++) {
+                final Row entityRow = new Row(minRowSize);
+                for (int j = 0; j < minRowSize; j++)
+                    entityRow.cells.add(null);
+                addedRowIds.add(expandedRows.size());
+                expandedRows.add(entityRow);
             }
-            if (maxEntities > 0) {
-	            // Create new blank rows if the results don't fit on a single line
-	            for (int i = 1; i < maxEntities; i++) {
-	                final Row entityRow = new Row(minRowSize);
-	                final int entityRowId = rowNumber + i;
-	                for (int j = 0; j < minRowSize; j++)
-	                    entityRow.cells.add(null);
-	                rows.add(entityRowId, entityRow);
-	                addedRowIds.add(entityRowId);
-	            }
-	            // Place all results
-	            for (int col = 0; col < rowResults.length; col++) {
-	            	// Place each found entity on a row
-	            	if (!rowResults[col].hasError()) {
-		                final NamedEntity[] entities = rowResults[col].getNamedEntities();
-		                for (int r = 0; r < entities.length; r++)
-		                    rows.get(rowNumber + r).cells.set(cellIndexes[col], entities[r].toCell());
-	            	}
-	            	// Place an error only on the first row
-	            	else {
-	            		final Cell errorCell = new Cell(rowResults[col].getExtractionError(), null);
-	            		rows.get(rowNumber).cells.set(cellIndexes[col], errorCell);
-	            	}
-	            }
+            // Place all results
+            for (int col = 0; col < cellIndexes.length; col++) {
+                // Place each found entity on a row
+                if (!extractionResults.hasError(index, col)) {
+                    final int firstEntity = extractionResults.getFirstEntity(index, col);
+                    final int entityEnd = extractionResults.getEntityEnd(index, col);
+                    for (int entity = firstEntity; entity < entityEnd; entity++)
+                        expandedRows.get(rowNumber + entity - firstEntity).cells.set(cellIndexes[col],
+                                extractionResults.getNamedEntity(entity).toCell());
+                }
+                // Place an error only on the first row
+                else {
+                    final Cell errorCell = new Cell(new EvalError(extractionResults.getErrorMessage(index, col)), null);
+                    expandedRows.get(rowNumber).cells.set(cellIndexes[col], errorCell);
+                }
             }
-            // Advance to the next original row
-            rowNumber += Math.max(1, maxEntities);
+            index++;
         }
+        rows.clear();
+        rows.addAll(expandedRows);
     }
     
     /**
@@ -271,19 +471,37 @@ public class NERChange implements Change {
      * @param project The project
      */
     protected void deleteRows(final Project project) {
-        final List<Row> rows = project.rows;
-        // Traverse rows IDs in reverse, from high to low,
-        // to avoid index shifts as rows get deleted.
-        for (int i = addedRowIds.size() - 1; i >= 0; i--) {
-            final int addedRowId = addedRowIds.get(i);
-            if (addedRowId >= rows.size())
-                throw new IndexOutOfBoundsException(String.format("Needed to remove row %d, "
-                                + "but only %d rows were available.", addedRowId, rows.size()));
-            rows.remove(addedRowId);
-        }
+        removeRows(project.rows, addedRowIds);
         addedRowIds.clear();
     }
     
+    /**
+     * Removes the rows with the specified IDs
+     * @param rows The rows
+     * @param addedRowIds The IDs of the rows to remove
+     */
+    static void removeRows(final List<Row> rows, final List<Integer> addedRowIds) {
+        final int[] deletedRowIds = ArrayUtils.toPrimitive(addedRowIds.toArray(new Integer[addedRowIds.size()]));
+        Arrays.sort(deletedRowIds);
+        if (deletedRowIds.length > 0 && deletedRowIds[deletedRowIds.length - 1] >= rows.size())
+            throw new IndexOutOfBoundsException(String.format("Needed to remove row %d, "
+                            + "but only %d rows were available.", deletedRowIds[deletedRowIds.length - 1], rows.size()));
+        
+        // Compact the remaining rows in a single pass, since removing rows one by one shifts all following rows
+        final int rowCount = rows.size();
+        int keptRowCount = 0;
+        for (int rowId = 0, d = 0; rowId < rowCount; rowId++) {
+            if (d < deletedRowIds.length && deletedRowIds[d] == rowId) {
+                while (d < deletedRowIds.length && deletedRowIds[d] == rowId)
+                    d++;
+            }
+            else {
+                rows.set(keptRowCount++, rows.get(rowId));
+            }
+        }
+        rows.subList(keptRowCount, rowCount).clear();
+    }
+    
     /**
      * Subclass of <tt>ColumnAdditionChange</tt>
      * that provides access to the cell index of the created column
@@ -0,0 +1,887 @@
+package org.freeyourmetadata.ner.operations;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Compact serialization of a <tt>NERChange</tt> or <tt>NERRetryChange</tt> as a single line,
+ * consisting of a marker and the Base64 encoding of a versioned binary structure.
+ * All texts, labels, URIs and error messages are stored once in a string table
+ * (the string pool of the <tt>ExtractionResultStore</tt>),
+ * rows without results are skipped by encoding row indices as varint distances,
+ * and the rows are grouped into individually compressed blocks.
+ * Since version 2, a block with the text fingerprints of all processed rows follows the row blocks.
+ * Since version 3, a retry change also stores the cell index of its source column
+ * and the existing rows in which it placed entities.
+ * Since version 4, every fingerprint is accompanied by the normalized text of its row,
+ * and since version 5 by a digest of that text instead.
+ * Since version 6, scores are stored as floats in four bytes instead of doubles in eight bytes.
+ * Since version 7, a retry change stores the cell indexes of all result columns of its extraction
+ * instead of the cell index of its source column.
+ * Results that are moved to disk use the same structure, so they can be read one row block at a time
+ * and saved without being decoded.
+ */
+final class NERChangeFormat {
+    /** The prefix that distinguishes the compact format from the legacy JSON format. */
+    public final static String MARKER = "ner-compact:";
+
+    private final static int VERSION = 7;
+    private final static int FIRST_FINGERPRINTED_VERSION = 2;
+    private final static int FIRST_FILLED_ROWS_VERSION = 3;
+    private final static int FIRST_FINGERPRINT_TEXTS_VERSION = 4;
+    private final static int FIRST_FINGERPRINT_DIGESTS_VERSION = 5;
+    private final static int FIRST_FLOAT_SCORES_VERSION = 6;
+    private final static int FIRST_RESULT_CELLS_VERSION = 7;
+    private final static int BLOCK_SIZE = 4096;
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * Private constructor to avoid instance creation.
+     */
+    private NERChangeFormat() { }
+
+    /**
+     * Indicates whether the serialized change is in the compact format
+     * @param line The serialized change
+     * @return <tt>true</tt> if the change is in the compact format
+     */
+    public static boolean isCompact(final String line) {
+        return line.startsWith(MARKER);
+    }
+
+    /**
+     * Writes the contents of a change in the compact format
+     * @param writer The writer
+     * @param columnIndex The index of the column used for named-entity recognition
+     * @param serviceNames The names of the used services
+     * @param extractionResults The results of named-entity extraction per row and service
+     * @param addedRowIds The IDs of the rows added to the project
+     * @throws IOException if the change cannot be written
+     */
+    public static void write(final Writer writer, final int columnIndex, final String[] serviceNames,
+                             final ExtractionResultStore extractionResults, final List<Integer> addedRowIds)
+                             throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeHeader(output, columnIndex, serviceNames, extractionResults.getRowCount());
+        // String table and row blocks
+        writeResults(output, extractionResults);
+        // Added rows
+        writeRowIds(output, addedRowIds);
+
+        writer.write(MARKER);
+        writer.write(new String(Base64.encodeBase64(output.toByteArray(), false), ASCII));
+    }
+
+    /**
+     * Writes the contents of a change in the compact format,
+     * copying its results from a file written by {@link #writeResults(File, ExtractionResultStore)}
+     * without decoding them
+     * @param writer The writer
+     * @param columnIndex The index of the column used for named-entity recognition
+     * @param serviceNames The names of the used services
+     * @param resultsFile The file with the results of named-entity extraction per row and service
+     * @param addedRowIds The IDs of the rows added to the project
+     * @throws IOException if the file cannot be read or the change cannot be written
+     */
+    public static void write(final Writer writer, final int columnIndex, final String[] serviceNames,
+                             final File resultsFile, final List<Integer> addedRowIds) throws IOException {
+        final ByteReader input = map(resultsFile);
+        final int rowCount = input.readVarint();
+        if (input.readVarint() != serviceNames.length)
+            throw new IOException("The NER results in " + resultsFile + " belong to another change.");
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeHeader(output, columnIndex, serviceNames, rowCount);
+        // String table and row blocks, which are stored in the same structure
+        input.copyRemainingTo(output);
+        // Added rows
+        writeRowIds(output, addedRowIds);
+
+        writer.write(MARKER);
+        writer.write(new String(Base64.encodeBase64(output.toByteArray(), false), ASCII));
+    }
+
+    /**
+     * Writes the header of a change
+     * @param output The output
+     * @param columnIndex The index of the column used for named-entity recognition
+     * @param serviceNames The names of the used services
+     * @param rowCount The number of rows for which results were extracted
+     */
+    private static void writeHeader(final ByteArrayOutputStream output, final int columnIndex,
+                                    final String[] serviceNames, final int rowCount) {
+        writeVarint(output, VERSION);
+        writeVarint(output, columnIndex);
+        writeVarint(output, rowCount);
+        writeVarint(output, serviceNames.length);
+        for (final String serviceName : serviceNames)
+            writeString(output, serviceName);
+    }
+
+    /**
+     * Reads a change in the compact format
+     * @param line The serialized change
+     * @return The change
+     * @throws IOException if the change is in an unexpected format
+     */
+    public static NERChange read(final String line) throws IOException {
+        final ByteReader input = new ByteReader(ByteBuffer.wrap(
+                Base64.decodeBase64(line.substring(MARKER.length()).getBytes(ASCII))));
+        // Header
+        final int version = input.readVarint();
+        if (version < 1 || version > VERSION)
+            throw new IOException("Unsupported NER change format version " + version + ".");
+        final int columnIndex = input.readVarint();
+        final int rowCount = input.readVarint();
+        final String[] serviceNames = new String[input.readVarint()];
+        for (int i = 0; i < serviceNames.length; i++)
+            serviceNames[i] = input.readString();
+        // String table and row blocks
+        final ExtractionResultStore extractionResults = readResults(input, rowCount, serviceNames.length, version);
+        // Added rows
+        return new NERChange(columnIndex, serviceNames, extractionResults, readRowIds(input));
+    }
+
+    /**
+     * Writes the contents of a retry change in the compact format
+     * @param writer The writer
+     * @param cellIndex The cell index of the column whose failed extractions were retried
+     * @param resultCellIndexes The cell indexes of all columns in which the retried extraction placed its results
+     * @param previousResults The errors of the retried rows before the retry
+     * @param extractionResults The results of the retried extractions per row
+     * @param addedRowIds The IDs of the rows added to the project
+     * @param filledRowIds The IDs of the existing rows in which entities were placed
+     * @throws IOException if the change cannot be written
+     */
+    public static void writeRetry(final Writer writer, final int cellIndex, final int[] resultCellIndexes,
+                                  final ExtractionResultStore previousResults,
+                                  final ExtractionResultStore extractionResults,
+                                  final List<Integer> addedRowIds, final List<Integer> filledRowIds)
+                                  throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeVarint(output, VERSION);
+        writeVarint(output, cellIndex);
+        writeVarint(output, resultCellIndexes.length);
+        for (final int resultCellIndex : resultCellIndexes)
+            writeVarint(output, resultCellIndex);
+        for (final ExtractionResultStore results : new ExtractionResultStore[] { previousResults, extractionResults }) {
+            writeVarint(output, results.getRowCount());
+            writeVarint(output, results.getServiceCount());
+            writeResults(output, results);
+        }
+        writeRowIds(output, addedRowIds);
+        writeRowIds(output, filledRowIds);
+
+        writer.write(MARKER);
+        writer.write(new String(Base64.encodeBase64(output.toByteArray(), false), ASCII));
+    }
+
+    /**
+     * Reads a retry change in the compact format
+     * @param line The serialized change
+     * @return The change
+     * @throws IOException if the change is in an unexpected format
+     */
+    public static NERRetryChange readRetry(final String line) throws IOException {
+        if (!isCompact(line))
+            throw new IOException("The NER retry change is not in the compact format.");
+        final ByteReader input = new ByteReader(ByteBuffer.wrap(
+                Base64.decodeBase64(line.substring(MARKER.length()).getBytes(ASCII))));
+        final int version = input.readVarint();
+        if (version < FIRST_FINGERPRINTED_VERSION || version > VERSION)
+            throw new IOException("Unsupported NER retry change format version " + version + ".");
+        final int cellIndex = input.readVarint();
+        // Earlier changes placed all additional entities on new rows
+        final boolean hasFilledRows = version >= FIRST_FILLED_ROWS_VERSION;
+        // Earlier changes only stored the cell index of their source column, which cannot identify added rows
+        int[] resultCellIndexes = new int[0];
+        if (version >= FIRST_RESULT_CELLS_VERSION) {
+            resultCellIndexes = new int[input.readVarint()];
+            for (int i = 0; i < resultCellIndexes.length; i++)
+                resultCellIndexes[i] = input.readVarint();
+        }
+        else if (hasFilledRows)
+            input.readVarint();
+        final ExtractionResultStore[] results = new ExtractionResultStore[2];
+        for (int i = 0; i < results.length; i++) {
+            final int rowCount = input.readVarint();
+            results[i] = readResults(input, rowCount, input.readVarint(), version);
+        }
+        final List<Integer> addedRowIds = readRowIds(input);
+        final List<Integer> filledRowIds = hasFilledRows ? readRowIds(input) : new ArrayList<Integer>();
+        return new NERRetryChange(cellIndex, resultCellIndexes, results[0], results[1], addedRowIds, filledRowIds);
+    }
+
+    /**
+     * Writes extraction results to a file, which contains only their row and service count,
+     * string table, row blocks and fingerprints
+     * @param file The file
+     * @param extractionResults The results of named-entity extraction per row and service
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeResults(final File file, final ExtractionResultStore extractionResults)
+                                    throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeVarint(output, extractionResults.getRowCount());
+        writeVarint(output, extractionResults.getServiceCount());
+        writeResults(output, extractionResults);
+        final FileOutputStream fileOutput = new FileOutputStream(file);
+        try {
+            output.writeTo(fileOutput);
+        }
+        finally {
+            fileOutput.close();
+        }
+    }
+
+    /**
+     * Reads all extraction results from a file
+     * @param file The file
+     * @return The results of named-entity extraction per row and service
+     * @throws IOException if the file cannot be read
+     */
+    public static ExtractionResultStore readResults(final File file) throws IOException {
+        final ByteReader input = map(file);
+        final int rowCount = input.readVarint();
+        return readResults(input, rowCount, input.readVarint(), VERSION);
+    }
+
+    /**
+     * Reads extraction results from a file one row block at a time,
+     * so only the string table and the block being read are copied onto the heap
+     * @param file The file
+     * @return The results of each row block, which contain no fingerprints
+     * @throws IOException if the file cannot be read
+     */
+    public static Iterator<ExtractionResultStore> readResultBlocks(final File file) throws IOException {
+        final ByteReader input = map(file);
+        final int rowCount = input.readVarint();
+        return new ResultBlockIterator(input, rowCount, input.readVarint());
+    }
+
+    /**
+     * Maps a file into memory
+     * @param file The file
+     * @return A reader of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    private static ByteReader map(final File file) throws IOException {
+        final FileInputStream fileInput = new FileInputStream(file);
+        try {
+            // The mapping remains valid after the file has been closed
+            final FileChannel channel = fileInput.getChannel();
+            return new ByteReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally {
+            fileInput.close();
+        }
+    }
+
+    /**
+     * Writes the string table, row blocks and fingerprints of extraction results
+     * @param output The output
+     * @param extractionResults The results of named-entity extraction per row and service
+     */
+    private static void writeResults(final ByteArrayOutputStream output, final ExtractionResultStore extractionResults) {
+        // String table, which is the string pool of the store without its initial null
+        final ByteArrayOutputStream table = new ByteArrayOutputStream();
+        final int stringCount = extractionResults.getStringCount();
+        writeVarint(table, stringCount);
+        for (int i = 1; i <= stringCount; i++)
+            writeString(table, extractionResults.getString(i));
+        final byte[] compressedTable = compress(table, stringCount);
+        output.write(compressedTable, 0, compressedTable.length);
+
+        // Row blocks, which contain only the stored rows
+        final int serviceCount = extractionResults.getServiceCount();
+        final int storedRows = extractionResults.size();
+        writeVarint(output, (storedRows + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        for (int blockStart = 0; blockStart < storedRows; blockStart += BLOCK_SIZE) {
+            final int blockEnd = Math.min(storedRows, blockStart + BLOCK_SIZE);
+            // Each block is self-contained, so its first row is stored relative to -1
+            int previousRow = -1;
+            block.reset();
+            for (int index = blockStart; index < blockEnd; index++) {
+                final int row = extractionResults.getRowId(index);
+                writeVarint(block, row - previousRow - 1);
+                previousRow = row;
+                writeVarint(block, serviceCount);
+                for (int service = 0; service < serviceCount; service++)
+                    writeResult(block, extractionResults, index, service);
+            }
+            final byte[] compressedBlock = compress(block, blockEnd - blockStart);
+            output.write(compressedBlock, 0, compressedBlock.length);
+        }
+
+        // Fingerprints and digests of the processed rows, which are in ascending order
+        final ByteArrayOutputStream fingerprints = new ByteArrayOutputStream();
+        final int fingerprintCount = extractionResults.getFingerprintCount();
+        for (int i = 0, previousRow = -1; i < fingerprintCount; i++) {
+            final int row = extractionResults.getFingerprintRow(i);
+            writeVarint(fingerprints, row - previousRow - 1);
+            writeLong(fingerprints, extractionResults.getFingerprint(i));
+            writeLong(fingerprints, extractionResults.getFingerprintDigest(i));
+            previousRow = row;
+        }
+        final byte[] compressedFingerprints = compress(fingerprints, fingerprintCount);
+        output.write(compressedFingerprints, 0, compressedFingerprints.length);
+    }
+
+    /**
+     * Reads the string table, row blocks and fingerprints of extraction results
+     * @param input The input
+     * @param rowCount The number of rows
+     * @param serviceCount The number of services
+     * @param version The version of the format
+     * @return The results of named-entity extraction per row and service
+     * @throws IOException if the results are in an unexpected format
+     */
+    private static ExtractionResultStore readResults(final ByteReader input, final int rowCount,
+                                                     final int serviceCount, final int version)
+                                                     throws IOException {
+        final ExtractionResultStore.Builder builder = new ExtractionResultStore.Builder(serviceCount);
+        final StringTable strings = new StringTable(input.readBlock());
+        strings.useBuilder(builder);
+
+        // Row blocks, in which each row has its own group of results
+        for (int blockCount = input.readVarint(); blockCount > 0; blockCount--)
+            readRowBlock(input.readBlock(), builder, strings, rowCount, serviceCount, version);
+
+        // Fingerprints, whose digests are unknown in earlier versions
+        if (version >= FIRST_FINGERPRINTED_VERSION) {
+            final ByteReader fingerprints = input.readBlock();
+            for (int i = 0, row = -1; i < fingerprints.getItemCount(); i++) {
+                row += fingerprints.readVarint() + 1;
+                if (row >= rowCount)
+                    throw new IOException("Invalid row " + row + " in NER change.");
+                final long fingerprint = fingerprints.readLong();
+                long digest = 0;
+                if (version >= FIRST_FINGERPRINT_DIGESTS_VERSION)
+                    digest = fingerprints.readLong();
+                // Texts of earlier versions are only digested, so they do not enter the string pool
+                else if (version >= FIRST_FINGERPRINT_TEXTS_VERSION) {
+                    final String text = strings.readString(fingerprints);
+                    if (text != null)
+                        digest = NERProcess.digest(text);
+                }
+                builder.addFingerprint(row, fingerprint, digest);
+            }
+        }
+        return builder.build(rowCount);
+    }
+
+    /**
+     * Reads the rows of a row block into the builder of a store
+     * @param block The row block
+     * @param builder The builder
+     * @param strings The string table
+     * @param rowCount The number of rows
+     * @param serviceCount The number of services
+     * @param version The version of the format
+     * @throws IOException if the block is in an unexpected format
+     */
+    private static void readRowBlock(final ByteReader block, final ExtractionResultStore.Builder builder,
+                                     final StringTable strings, final int rowCount, final int serviceCount,
+                                     final int version) throws IOException {
+        int row = -1;
+        for (int blockRows = block.getItemCount(); blockRows > 0; blockRows--) {
+            row += block.readVarint() + 1;
+            if (row >= rowCount || block.readVarint() != serviceCount)
+                throw new IOException("Invalid row " + row + " in NER change.");
+            final int group = builder.nextGroup();
+            for (int service = 0; service < serviceCount; service++)
+                readResult(block, builder, strings, version);
+            builder.addRow(row, group);
+        }
+    }
+
+    /**
+     * Writes row IDs, which are in ascending order, as a compressed block of varint distances
+     * @param output The output
+     * @param rowIds The row IDs
+     */
+    private static void writeRowIds(final ByteArrayOutputStream output, final List<Integer> rowIds) {
+        final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        int previousRowId = -1;
+        for (final int rowId : rowIds) {
+            writeVarint(block, rowId - previousRowId - 1);
+            previousRowId = rowId;
+        }
+        final byte[] compressedBlock = compress(block, rowIds.size());
+        output.write(compressedBlock, 0, compressedBlock.length);
+    }
+
+    /**
+     * Reads row IDs stored as a compressed block of varint distances
+     * @param input The input
+     * @return The row IDs
+     * @throws IOException if the block is invalid
+     */
+    private static List<Integer> readRowIds(final ByteReader input) throws IOException {
+        final ByteReader block = input.readBlock();
+        final ArrayList<Integer> rowIds = new ArrayList<Integer>(block.getItemCount());
+        for (int i = 0, rowId = -1; i < block.getItemCount(); i++) {
+            rowId += block.readVarint() + 1;
+            rowIds.add(rowId);
+        }
+        return rowIds;
+    }
+
+    /**
+     * Writes an extraction result
+     * @param output The output
+     * @param extractionResults The results of named-entity extraction per row and service
+     * @param index The index of the stored row
+     * @param service The index of the service
+     */
+    private static void writeResult(final ByteArrayOutputStream output, final ExtractionResultStore extractionResults,
+                                    final int index, final int service) {
+        // The lowest bit distinguishes errors from entity lists
+        if (extractionResults.hasError(index, service)) {
+            writeVarint(output, 1);
+            writeVarint(output, extractionResults.getErrorMessageIndex(index, service));
+            return;
+        }
+        final int firstEntity = extractionResults.getFirstEntity(index, service);
+        final int entityEnd = extractionResults.getEntityEnd(index, service);
+        writeVarint(output, (entityEnd - firstEntity) << 1);
+        for (int entity = firstEntity; entity < entityEnd; entity++) {
+            writeVarint(output, extractionResults.getExtractedTextIndex(entity));
+            final int firstDisambiguation = extractionResults.getFirstDisambiguation(entity);
+            final int disambiguationEnd = extractionResults.getDisambiguationEnd(entity);
+            writeVarint(output, disambiguationEnd - firstDisambiguation);
+            for (int disambiguation = firstDisambiguation; disambiguation < disambiguationEnd; disambiguation++) {
+                writeVarint(output, extractionResults.getLabelIndex(disambiguation));
+                writeVarint(output, extractionResults.getUriIndex(disambiguation));
+                writeInt(output, Float.floatToIntBits(extractionResults.getScore(disambiguation)));
+            }
+        }
+    }
+
+    /**
+     * Reads an extraction result into the builder of a store
+     * @param input The input
+     * @param builder The builder
+     * @param strings The string table
+     * @param version The version of the format
+     * @throws IOException if the result is in an unexpected format
+     */
+    private static void readResult(final ByteReader input, final ExtractionResultStore.Builder builder,
+                                   final StringTable strings, final int version) throws IOException {
+        // Earlier versions stored scores as doubles
+        final boolean hasFloatScores = version >= FIRST_FLOAT_SCORES_VERSION;
+        final int header = input.readVarint();
+        if ((header & 1) != 0) {
+            builder.addError(strings.read(input));
+            return;
+        }
+        builder.addEntities();
+        for (int entityCount = header >>> 1; entityCount > 0; entityCount--) {
+            builder.addEntity(strings.read(input));
+            for (int disambiguationCount = input.readVarint(); disambiguationCount > 0; disambiguationCount--) {
+                final int label = strings.read(input);
+                final int uri = strings.read(input);
+                final float score = hasFloatScores ? Float.intBitsToFloat(input.readInt())
+                                                   : (float)Double.longBitsToDouble(input.readLong());
+                builder.addDisambiguation(label, uri, score);
+            }
+        }
+    }
+
+    /**
+     * Compresses a block
+     * @param block The uncompressed contents of the block
+     * @param itemCount The number of items in the block
+     * @return The block with its item count, uncompressed length, and compressed length
+     */
+    private static byte[] compress(final ByteArrayOutputStream block, final int itemCount) {
+        final Deflater deflater = new Deflater();
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try {
+            deflater.setInput(block.toByteArray());
+            deflater.finish();
+            final byte[] buffer = new byte[8192];
+            while (!deflater.finished())
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        finally {
+            deflater.end();
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.size() + 15);
+        writeVarint(output, itemCount);
+        writeVarint(output, block.size());
+        writeVarint(output, compressed.size());
+        output.write(compressed.toByteArray(), 0, compressed.size());
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes a non-negative integer in a variable number of bytes
+     * @param output The output
+     * @param value The value
+     */
+    private static void writeVarint(final ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    /**
+     * Writes an integer in four bytes
+     * @param output The output
+     * @param value The value
+     */
+    private static void writeInt(final ByteArrayOutputStream output, final int value) {
+        for (int shift = 24; shift >= 0; shift -= 8)
+            output.write(value >>> shift);
+    }
+
+    /**
+     * Writes a long in eight bytes
+     * @param output The output
+     * @param value The value
+     */
+    private static void writeLong(final ByteArrayOutputStream output, final long value) {
+        for (int shift = 56; shift >= 0; shift -= 8)
+            output.write((int)(value >>> shift));
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes
+     * @param output The output
+     * @param string The string
+     */
+    private static void writeString(final ByteArrayOutputStream output, final String string) {
+        final byte[] bytes = string.getBytes(UTF8);
+        writeVarint(output, bytes.length);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * String table of stored results, whose strings are only decoded
+     * when a result that refers to them is read into a builder
+     */
+    private static class StringTable {
+        private final ByteReader table;
+        /** The position of every string in the table, where index 0 represents null. */
+        private final int[] positions;
+        /** The pool index of every string in the current builder, if it was added in the current generation. */
+        private final int[] poolIndexes;
+        private final int[] generations;
+        private int generation;
+        private ExtractionResultStore.Builder builder;
+
+        /**
+         * Creates a new <tt>StringTable</tt>
+         * @param table The uncompressed block of the string table
+         * @throws IOException if the table is in an unexpected format
+         */
+        public StringTable(final ByteReader table) throws IOException {
+            this.table = table;
+            positions = new int[table.readVarint() + 1];
+            for (int i = 1; i < positions.length; i++) {
+                positions[i] = table.getPosition();
+                table.skipString();
+            }
+            poolIndexes = new int[positions.length];
+            generations = new int[positions.length];
+        }
+
+        /**
+         * Adds the strings that are read from now on to the specified builder
+         * @param builder The builder
+         */
+        public void useBuilder(final ExtractionResultStore.Builder builder) {
+            this.builder = builder;
+            // Strings added to an earlier builder need to be added again
+            generation++;
+        }
+
+        /**
+         * Reads a reference to the string table, adding the string to the builder if necessary
+         * @param input The input
+         * @return The pool index of the string in the builder
+         * @throws IOException if the reference is invalid
+         */
+        public int read(final ByteReader input) throws IOException {
+            final int index = input.readVarint();
+            if (index >= positions.length)
+                throw new IOException("Invalid string reference in NER change.");
+            if (index == 0)
+                return 0;
+            if (generations[index] != generation) {
+                table.setPosition(positions[index]);
+                poolIndexes[index] = builder.intern(table.readString());
+                generations[index] = generation;
+            }
+            return poolIndexes[index];
+        }
+
+        /**
+         * Reads a reference to the string table without adding the string to the builder
+         * @param input The input
+         * @return The string, or <tt>null</tt> if the reference represents <tt>null</tt>
+         * @throws IOException if the reference is invalid
+         */
+        public String readString(final ByteReader input) throws IOException {
+            final int index = input.readVarint();
+            if (index >= positions.length)
+                throw new IOException("Invalid string reference in NER change.");
+            if (index == 0)
+                return null;
+            table.setPosition(positions[index]);
+            return table.readString();
+        }
+    }
+
+    /**
+     * Iterator over the row blocks of stored results, which decodes every block into its own store
+     */
+    private static class ResultBlockIterator implements Iterator<ExtractionResultStore> {
+        private final ByteReader input;
+        private final int rowCount;
+        private final int serviceCount;
+        private final StringTable strings;
+        private int blocksLeft;
+
+        /**
+         * Creates a new <tt>ResultBlockIterator</tt>
+         * @param input The input, positioned at the string table
+         * @param rowCount The number of rows
+         * @param serviceCount The number of services
+         * @throws IOException if the results are in an unexpected format
+         */
+        public ResultBlockIterator(final ByteReader input, final int rowCount, final int serviceCount)
+                                   throws IOException {
+            this.input = input;
+            this.rowCount = rowCount;
+            this.serviceCount = serviceCount;
+            strings = new StringTable(input.readBlock());
+            blocksLeft = input.readVarint();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean hasNext() {
+            return blocksLeft > 0;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public ExtractionResultStore next() {
+            if (blocksLeft == 0)
+                throw new NoSuchElementException();
+            final ExtractionResultStore.Builder builder = new ExtractionResultStore.Builder(serviceCount);
+            strings.useBuilder(builder);
+            try {
+                readRowBlock(input.readBlock(), builder, strings, rowCount, serviceCount, VERSION);
+            }
+            catch (IOException error) {
+                throw new IllegalStateException("Could not read a block of NER results.", error);
+            }
+            blocksLeft--;
+            return builder.build(rowCount);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Reader of binary values from a buffer
+     */
+    private static class ByteReader {
+        private final ByteBuffer bytes;
+        private final int itemCount;
+
+        /**
+         * Creates a new <tt>ByteReader</tt>
+         * @param bytes The bytes to read
+         */
+        public ByteReader(final ByteBuffer bytes) {
+            this(bytes, 0);
+        }
+
+        /**
+         * Creates a new <tt>ByteReader</tt> for a block
+         * @param bytes The bytes of the block
+         * @param itemCount The number of items in the block
+         */
+        private ByteReader(final ByteBuffer bytes, final int itemCount) {
+            this.bytes = bytes;
+            this.itemCount = itemCount;
+        }
+
+        /**
+         * Gets the number of items in the block
+         * @return The number of items
+         */
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        /**
+         * Reads a compressed block
+         * @return A reader of the uncompressed block
+         * @throws IOException if the block is invalid
+         */
+        public ByteReader readBlock() throws IOException {
+            final int blockItemCount = readVarint();
+            final byte[] block = new byte[readVarint()];
+            final int compressedLength = readVarint();
+            checkAvailable(compressedLength);
+            // The inflater needs an array, so copy the compressed bytes if the buffer has none
+            final byte[] compressed;
+            final int offset;
+            if (bytes.hasArray()) {
+                compressed = bytes.array();
+                offset = bytes.arrayOffset() + bytes.position();
+            }
+            else {
+                compressed = new byte[compressedLength];
+                offset = 0;
+                bytes.duplicate().get(compressed);
+            }
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed, offset, compressedLength);
+                if (inflater.inflate(block) != block.length || !inflater.finished())
+                    throw new IOException("Invalid compressed block in NER change.");
+            }
+            catch (DataFormatException error) {
+                throw new IOException(error);
+            }
+            finally {
+                inflater.end();
+            }
+            bytes.position(bytes.position() + compressedLength);
+            return new ByteReader(ByteBuffer.wrap(block), blockItemCount);
+        }
+
+        /**
+         * Copies all bytes that have not been read yet
+         * @param output The output
+         */
+        public void copyRemainingTo(final ByteArrayOutputStream output) {
+            final byte[] buffer = new byte[8192];
+            while (bytes.hasRemaining()) {
+                final int length = Math.min(buffer.length, bytes.remaining());
+                bytes.get(buffer, 0, length);
+                output.write(buffer, 0, length);
+            }
+        }
+
+        /**
+         * Gets the position of the next byte to be read
+         * @return The position
+         */
+        public int getPosition() {
+            return bytes.position();
+        }
+
+        /**
+         * Moves to the specified position
+         * @param position The position
+         */
+        public void setPosition(final int position) {
+            bytes.position(position);
+        }
+
+        /**
+         * Skips a string stored as its UTF-8 length and bytes
+         * @throws IOException if no string is available
+         */
+        public void skipString() throws IOException {
+            final int length = readVarint();
+            checkAvailable(length);
+            bytes.position(bytes.position() + length);
+        }
+
+        /**
+         * Reads a non-negative integer stored in a variable number of bytes
+         * @return The value
+         * @throws IOException if no valid value is available
+         */
+        public int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                checkAvailable(1);
+                final int b = bytes.get();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Invalid varint in NER change.");
+        }
+
+        /**
+         * Reads an integer stored in four bytes
+         * @return The value
+         * @throws IOException if no value is available
+         */
+        public int readInt() throws IOException {
+            checkAvailable(4);
+            return bytes.getInt();
+        }
+
+        /**
+         * Reads a long stored in eight bytes
+         * @return The value
+         * @throws IOException if no value is available
+         */
+        public long readLong() throws IOException {
+            checkAvailable(8);
+            return bytes.getLong();
+        }
+
+        /**
+         * Reads a string stored as its UTF-8 length and bytes
+         * @return The string
+         * @throws IOException if no string is available
+         */
+        public String readString() throws IOException {
+            final int length = readVarint();
+            checkAvailable(length);
+            if (!bytes.hasArray()) {
+                final byte[] stringBytes = new byte[length];
+                bytes.get(stringBytes);
+                return new String(stringBytes, UTF8);
+            }
+            final String string = new String(bytes.array(), bytes.arrayOffset() + bytes.position(), length, UTF8);
+            bytes.position(bytes.position() + length);
+            return string;
+        }
+
+        /**
+         * Verifies that the specified number of bytes is available
+         * @param length The number of bytes
+         * @throws IOException if fewer bytes are available
+         */
+        private void checkAvailable(final int length) throws IOException {
+            if (length < 0 || bytes.remaining() < length)
+                throw new IOException("Unexpected end of NER change.");
+        }
+    }
+}
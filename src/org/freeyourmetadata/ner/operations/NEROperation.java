@@ -28,20 +28,54 @@ public class NEROperation extends EngineDependentOperation {
     private final Column column;
     private final SortedMap<String, NERService> services;
     private final Map<String, Map<String, String>> settings;
+    private final ExtractionOptions extractionOptions;
+    /** The result keys of the services at the time of the extraction, or <tt>null</tt> if they are unknown. */
+    private final Map<String, String> resultKeys;
 
     /**
      * Creates a new <tt>NEROperation</tt>
      * @param column The column on which named-entity recognition is performed
      * @param services The services that will be used for named-entity recognition
      * @param settings The settings of the individual services
+     * @param extractionOptions The options of the process
      * @param engineConfig The faceted browsing engine configuration
      */
     public NEROperation(final Column column, final SortedMap<String, NERService> services,
-                        final Map<String, Map<String, String>> settings, final JSONObject engineConfig) {
+                        final Map<String, Map<String, String>> settings, final ExtractionOptions extractionOptions,
+                        final JSONObject engineConfig) {
+        this(column, services, settings, extractionOptions, getResultKeys(services), engineConfig);
+    }
+
+    /**
+     * Creates a new <tt>NEROperation</tt>
+     * @param column The column on which named-entity recognition is performed
+     * @param services The services that will be used for named-entity recognition
+     * @param settings The settings of the individual services
+     * @param extractionOptions The options of the process
+     * @param resultKeys The result keys of the services (can be null)
+     * @param engineConfig The faceted browsing engine configuration
+     */
+    private NEROperation(final Column column, final SortedMap<String, NERService> services,
+                         final Map<String, Map<String, String>> settings, final ExtractionOptions extractionOptions,
+                         final Map<String, String> resultKeys, final JSONObject engineConfig) {
         super(engineConfig);
         this.column = column;
         this.services = services;
         this.settings = settings;
+        this.extractionOptions = extractionOptions;
+        this.resultKeys = resultKeys;
+    }
+
+    /**
+     * Gets the current result keys of the services
+     * @param services The services by name
+     * @return The result keys by service name
+     */
+    private static Map<String, String> getResultKeys(final Map<String, NERService> services) {
+        final TreeMap<String, String> resultKeys = new TreeMap<String, String>();
+        for (final Map.Entry<String, NERService> service : services.entrySet())
+            resultKeys.put(service.getKey(), service.getValue().getResultKey());
+        return resultKeys;
     }
 
     /**
@@ -76,8 +110,22 @@ public class NEROperation extends EngineDependentOperation {
             settings.put(serviceName, serviceSettings);
         }
 
+        // Operations from older versions have no options
+        final ExtractionOptions extractionOptions = operation.has("options")
+                                                  ? new ExtractionOptions(operation.getJSONObject("options"))
+                                                  : new ExtractionOptions();
+
+        // Operations from older versions did not record the service settings that influence their results
+        Map<String, String> resultKeys = null;
+        if (operation.has("resultKeys")) {
+            final JSONObject resultKeysJson = operation.getJSONObject("resultKeys");
+            resultKeys = new TreeMap<String, String>();
+            for (final String serviceName : services.keySet())
+                resultKeys.put(serviceName, resultKeysJson.optString(serviceName, null));
+        }
+
         return new NEROperation(project.columnModel.getColumnByName(operation.getString("column")),
-                                services, settings, engineConfig);
+                                services, settings, extractionOptions, resultKeys, engineConfig);
     }
 
     /** {@inheritDoc} */
@@ -104,9 +152,60 @@ public class NEROperation extends EngineDependentOperation {
         }
         writer.endObject();
 
+        writer.key("options");
+        extractionOptions.writeTo(writer);
+
+        if (resultKeys != null) {
+            writer.key("resultKeys");
+            writer.object();
+            for (final Map.Entry<String, String> resultKey : resultKeys.entrySet()) {
+                writer.key(resultKey.getKey());
+                writer.value(resultKey.getValue());
+            }
+            writer.endObject();
+        }
+
         writer.endObject();
     }
     
+    /**
+     * Gets the column on which named-entity recognition is performed
+     * @return The column
+     */
+    Column getColumn() {
+        return column;
+    }
+    
+    /**
+     * Gets the services that are used for named-entity recognition
+     * @return The services by name
+     */
+    SortedMap<String, NERService> getServices() {
+        return services;
+    }
+    
+    /**
+     * Gets the settings of the individual services
+     * @return The settings per service
+     */
+    Map<String, Map<String, String>> getSettings() {
+        return settings;
+    }
+    
+    /**
+     * Indicates whether the other operation performs the same extraction,
+     * i.e., on the same column with the same services and settings,
+     * including the service settings that influence the results, such as the dictionary of a local service
+     * @param other The other operation
+     * @return <tt>true</tt> if both operations perform the same extraction
+     */
+    boolean hasSameExtraction(final NEROperation other) {
+        return column.getName().equals(other.column.getName())
+            && services.keySet().equals(other.services.keySet())
+            && settings.equals(other.settings)
+            && resultKeys != null && resultKeys.equals(other.resultKeys);
+    }
+    
     /** {@inheritDoc} */
     @Override
     protected String getBriefDescription(final Project project) {
@@ -116,6 +215,7 @@ public class NEROperation extends EngineDependentOperation {
     /** {@inheritDoc} */
     @Override
     public Process createProcess(final Project project, final Properties options) throws Exception {
-        return new NERProcess(project, column, services, settings, this, getBriefDescription(project), getEngineConfig());
+        return new NERProcess(project, column, services, settings, extractionOptions,
+                              this, getBriefDescription(project), getEngineConfig());
     }
 }
@@ -1,17 +1,31 @@
 package org.freeyourmetadata.ner.operations;
 
 import java.io.Serializable;
-import java.util.HashSet;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
+import org.freeyourmetadata.ner.services.ExtractionCache;
 import org.freeyourmetadata.ner.services.ExtractionResult;
 import org.freeyourmetadata.ner.services.NERService;
+import org.freeyourmetadata.ner.services.NERServiceManager;
 import org.json.JSONObject;
 
+import com.google.refine.ProjectManager;
 import com.google.refine.browsing.Engine;
 import com.google.refine.browsing.RowVisitor;
+import com.google.refine.history.Change;
 import com.google.refine.history.HistoryEntry;
 import com.google.refine.model.AbstractOperation;
 import com.google.refine.model.Cell;
@@ -27,13 +41,18 @@ import com.google.refine.process.LongRunningProcess;
  */
 public class NERProcess extends LongRunningProcess implements Runnable {
     private final static Logger LOGGER = Logger.getLogger(NERProcess.class);
+    private final static long PROGRESS_INTERVAL = 500;
+    private final static Pattern WHITESPACE = Pattern.compile("\\s+");
+    private final static Charset UTF8 = Charset.forName("UTF-8");
 
     private final Project project;
     private final Column column;
     private final Map<String, NERService> services;
     private final Map<String, Map<String,String>> settings;
+    private final ExtractionOptions options;
     private final AbstractOperation parentOperation;
     private final JSONObject engineConfig;
+    private final ExtractionCheckpoint checkpoint;
     private final long historyEntryId;
 
     /**
@@ -42,110 +61,424 @@ public class NERProcess extends LongRunningProcess implements Runnable {
      * @param column The column on which named-entity recognition is performed
      * @param services The services that will be used for named-entity recognition
      * @param settings The settings of the individual services
+     * @param options The options of the process
      * @param parentOperation The operation that creates this process
      * @param description The description of this operation
      * @param engineConfig The faceted browsing engine configuration
      */
     protected NERProcess(final Project project, final Column column,
     		             final Map<String, NERService> services, final Map<String, Map<String, String>> settings,
-                         final AbstractOperation parentOperation, final String description,
+                         final ExtractionOptions options, final AbstractOperation parentOperation, final String description,
                          final JSONObject engineConfig) {
+        this(project, column, services, settings, options, parentOperation, description, engineConfig,
+             ExtractionCheckpoint.create(project, column, settings));
+    }
+
+    /**
+     * Creates a new <tt>NERProcess</tt> with the specified checkpoint
+     * @param project The project
+     * @param column The column on which named-entity recognition is performed
+     * @param services The services that will be used for named-entity recognition
+     * @param settings The settings of the individual services
+     * @param options The options of the process
+     * @param parentOperation The operation that creates this process
+     * @param description The description of this operation
+     * @param engineConfig The faceted browsing engine configuration
+     * @param checkpoint The checkpoint in which completed texts are recorded
+     */
+    protected NERProcess(final Project project, final Column column,
+                         final Map<String, NERService> services, final Map<String, Map<String, String>> settings,
+                         final ExtractionOptions options, final AbstractOperation parentOperation, final String description,
+                         final JSONObject engineConfig, final ExtractionCheckpoint checkpoint) {
         super(description);
         this.project = project;
         this.column = column;
         this.services = services;
         this.settings = settings;
+        this.options = options;
         this.parentOperation = parentOperation;
         this.engineConfig = engineConfig;
+        this.checkpoint = checkpoint;
         historyEntryId = HistoryEntry.allocateID();
     }
 
     /** {@inheritDoc} */
     @Override
     public void run() {
-        final int columnIndex = project.columnModel.getColumnIndexByName(column.getName()) + 1;
-        final String[] serviceNames = services.keySet().toArray(new String[services.size()]);
-        final ExtractionResult[][] namedEntities = performExtraction();
+        final ExtractionResultStore namedEntities = performExtraction();
         
-        if (!_canceled) {
+        // A canceled process only has results if it keeps its partial results
+        if (namedEntities != null) {
             project.history.addEntry(new HistoryEntry(historyEntryId, project, _description, parentOperation,
-                                                      new NERChange(columnIndex, serviceNames, namedEntities)));
-            project.processManager.onDoneProcess(this);
+                                                      createChange(namedEntities)));
+            // The results are now part of the history, so the process never needs to resume
+            checkpoint.delete();
         }
+        if (!_canceled)
+            project.processManager.onDoneProcess(this);
+    }
+
+    /**
+     * Creates the change that adds the extracted named entities to the project
+     * @param namedEntities The extracted named entities per row and service
+     * @return The change
+     */
+    protected Change createChange(final ExtractionResultStore namedEntities) {
+        final int columnIndex = project.columnModel.getColumnIndexByName(column.getName()) + 1;
+        final String[] serviceNames = services.keySet().toArray(new String[services.size()]);
+        return new NERChange(columnIndex, serviceNames, namedEntities);
     }
 
     /**
      * Performs named-entity extraction on all rows
-     * @return The extracted named entities per row and service
+     * @return The extracted named entities per row and service,
+     *         or <tt>null</tt> if the process was canceled without keeping partial results
      */
-    protected ExtractionResult[][] performExtraction() {
+    protected ExtractionResultStore performExtraction() {
         // Count all rows
         final int rowsTotal = project.rows.size();
-        // Get the cell index of the column in which to perform entity extraction
-        final int cellIndex = column.getCellIndex();
-        // Get the filtered rows
-        final Set<Integer> filteredRowIndices = getFilteredRowIndices();
-        final int rowsFiltered = filteredRowIndices.size();
+        // Group the filtered rows by their text, so each distinct text is extracted only once
+        final Map<String, List<Integer>> textRows = getTextRows();
         
-        // Go through each row and extract entities if the row is part of the filter
-        final ExtractionResult[][] extractionResults = new ExtractionResult[rowsTotal][];
-        final ExtractionResult[] emptyResult = new ExtractionResult[0];
-        int rowsProcessed = 0;
-        for (int rowIndex = 0; rowIndex < rowsTotal; rowIndex++) {
-            // If the row is part of the filter, extract entities
-            if (filteredRowIndices.contains(rowIndex)) {
-                final Row row = project.rows.get(rowIndex);
-                // Determine the text value of the cell
-                final Cell cell = row.getCell(cellIndex);
-                final Serializable cellValue = cell == null ? null : cell.value;
-                final String text = cellValue == null ? "" : cellValue.toString().trim();
-                
-                // Perform extraction if the text is not empty
-                LOGGER.info(String.format("Extracting named entities in column %s on row %d of %d.",
-      				  column.getName(), rowsProcessed + 1, rowsFiltered));
-                extractionResults[rowIndex] = text.isEmpty() ? emptyResult : performExtraction(text);
+        // Only rows with entities or errors are stored, so rows without text (or outside of the filter) take no space
+        final ExtractionResultStore.Builder extractionResults = new ExtractionResultStore.Builder(services.size());
+        // Fingerprint the text of every processed row, so a later incremental run can detect changes
+        for (final Map.Entry<String, List<Integer>> text : textRows.entrySet()) {
+            final long fingerprint = fingerprint(text.getKey());
+            final long digest = digest(text.getKey());
+            for (final int rowIndex : text.getValue())
+                extractionResults.addFingerprint(rowIndex, fingerprint, digest);
+        }
+        
+        // Reuse the results of texts completed by an earlier run, or start a new checkpoint
+        if (options.isResume())
+            resumeFromCheckpoint(textRows, extractionResults);
+        else
+            checkpoint.delete();
+        // Reuse the results of an earlier run for texts that have not changed
+        if (options.isIncremental())
+            reuseEarlierResults(textRows, extractionResults);
+        
+        // Extract entities from each distinct text and share the results among its rows
+        final ExtractionCache extractionCache = NERServiceManager.getExtractionCache();
+        final long cacheHits = extractionCache.getHits(), cacheMisses = extractionCache.getMisses();
+        final long deadline = options.getTimeout() > 0 ? System.currentTimeMillis() + 1000 * options.getTimeout()
+                                                       : Long.MAX_VALUE;
+        final ExtractionPipeline pipeline = new ExtractionPipeline(services, settings, extractionResults,
+                                                                   extractionCache, checkpoint, deadline);
+        final int textsTotal = textRows.size();
+        final Iterator<Map.Entry<String, List<Integer>>> texts = textRows.entrySet().iterator();
+        try {
+            try {
+                int textsSubmitted = 0;
+                // Stop submitting as soon as the process has been cancelled
+                while (texts.hasNext() && !_canceled) {
+                    final Map.Entry<String, List<Integer>> text = texts.next();
+                    final int[] rowIndices = toArray(text.getValue());
+                    LOGGER.info(String.format("Extracting named entities in column %s from text %d of %d (%d rows).",
+                                              column.getName(), ++textsSubmitted, textsTotal, rowIndices.length));
+                    // Services see the text of the first row as it is, so their offsets refer to that text
+                    pipeline.submit(rowIndices, text.getKey(), getCellText(rowIndices[0]));
+                    updateProgress(pipeline, textsTotal);
+                    checkpoint.flushIfDue();
+                }
                 
-                _progress = 100 * ++rowsProcessed / rowsFiltered;
+                // Wait for the remaining texts to finish, or time out the outstanding requests
+                while (!_canceled && !pipeline.awaitCompletion(PROGRESS_INTERVAL)) {
+                    if (pipeline.isExpired()) {
+                        LOGGER.warn(String.format("Named-entity recognition in column %s exceeded its time limit.",
+                                                  column.getName()));
+                        pipeline.expire();
+                    }
+                    updateProgress(pipeline, textsTotal);
+                    checkpoint.flushIfDue();
+                }
             }
-            else {
-            	extractionResults[rowIndex] = emptyResult;
+            // Cancelling the process interrupts its thread while it waits
+            catch (InterruptedException error) {
+                if (!_canceled) {
+                    LOGGER.error("The extraction was interrupted", error);
+                    return null;
+                }
             }
-            // Exit directly if the process has been cancelled
-            if (_canceled)
-                return null;
+            
+            if (_canceled) {
+                if (!options.isKeepPartialResults())
+                    return null;
+                stopRemainingTexts(pipeline, texts);
+            }
+        }
+        finally {
+            pipeline.shutdown();
+            // Keep the completed texts, so a canceled or failed process can be resumed
+            checkpoint.flush();
+            LOGGER.info(String.format("Extracted named entities from %d distinct texts in %d rows.",
+                                      pipeline.getTextsCompleted(), pipeline.getRowsCompleted()));
+            LOGGER.info(String.format("Extraction cache: %d hits, %d misses.",
+                                      extractionCache.getHits() - cacheHits, extractionCache.getMisses() - cacheMisses));
         }
-        return extractionResults;
+        return pipeline.getResults(rowsTotal);
     }
-
     
     /**
-     * Performs named-entity extraction on the specified text
-     * @param text The text
-     * @return The extracted named entities per service
-     */
-    protected ExtractionResult[] performExtraction(final String text) {
-        // The execution of the services happens in parallel.
-        // Create the extractors and corresponding threads
-        final Extractor[] extractors = new Extractor[services.size()];
-        int i = 0;
-        for (final Map.Entry<String, NERService> service : services.entrySet()) {
-            final Extractor extractor = extractors[i++]
-              = new Extractor(text, service.getValue(), settings.get(service.getKey()));
-            extractor.start();
+     * Stops the requests in flight and fails the texts that were not submitted,
+     * so they appear as errors that can be retried
+     * @param pipeline The extraction pipeline
+     * @param texts The texts that have not been submitted
+     */
+    private void stopRemainingTexts(final ExtractionPipeline pipeline,
+                                    final Iterator<Map.Entry<String, List<Integer>>> texts) {
+        // Clear the interruption of the cancellation, since the pipeline no longer blocks
+        Thread.interrupted();
+        pipeline.shutdown();
+        int textsStopped = 0;
+        try {
+            while (texts.hasNext()) {
+                final Map.Entry<String, List<Integer>> text = texts.next();
+                final int[] rowIndices = toArray(text.getValue());
+                pipeline.submit(rowIndices, text.getKey(), getCellText(rowIndices[0]));
+                textsStopped++;
+            }
+            // Let listeners that were already running finish
+            pipeline.awaitCompletion(PROGRESS_INTERVAL);
+        }
+        catch (InterruptedException error) {
+            LOGGER.warn("The extraction was interrupted while stopping", error);
+        }
+        LOGGER.info(String.format("Named-entity recognition in column %s was canceled; keeping partial results "
+                                  + "with %d texts not submitted.", column.getName(), textsStopped));
+    }
+    
+    /**
+     * Converts a list of row indices into an array
+     * @param rows The row indices
+     * @return The array
+     */
+    private static int[] toArray(final List<Integer> rows) {
+        final int[] rowIndices = new int[rows.size()];
+        for (int i = 0; i < rowIndices.length; i++)
+            rowIndices[i] = rows.get(i);
+        return rowIndices;
+    }
+    
+    /**
+     * Adds the results of texts that were completed by an interrupted run,
+     * removing those texts from the texts that still need extraction
+     * @param textRows The row indices per distinct text
+     * @param extractionResults The builder of the store of results
+     */
+    private void resumeFromCheckpoint(final Map<String, List<Integer>> textRows,
+                                      final ExtractionResultStore.Builder extractionResults) {
+        final Map<String, ExtractionResult[]> completed = checkpoint.load();
+        int rowsResumed = 0;
+        for (final Iterator<Map.Entry<String, List<Integer>>> texts = textRows.entrySet().iterator(); texts.hasNext();) {
+            final Map.Entry<String, List<Integer>> text = texts.next();
+            final ExtractionResult[] results = completed.get(text.getKey());
+            if (results != null && results.length == services.size()) {
+                final int group = extractionResults.addResults(results);
+                if (group >= 0) {
+                    for (final int rowIndex : text.getValue())
+                        extractionResults.addRow(rowIndex, group);
+                }
+                rowsResumed += text.getValue().size();
+                texts.remove();
+            }
+        }
+        LOGGER.info(String.format("Resumed %d rows of column %s from checkpoint %s.",
+                                  rowsResumed, column.getName(), checkpoint.getFile()));
+    }
+    
+    /**
+     * Adds the results of an earlier run with the same extraction for texts that have not changed since,
+     * removing those texts from the texts that still need extraction
+     * @param textRows The row indices per distinct text
+     * @param extractionResults The builder of the store of results
+     */
+    private void reuseEarlierResults(final Map<String, List<Integer>> textRows,
+                                     final ExtractionResultStore.Builder extractionResults) {
+        final NERChange earlierChange = findEarlierChange();
+        if (earlierChange == null) {
+            LOGGER.info(String.format("No earlier named-entity recognition in column %s to reuse.", column.getName()));
+            return;
         }
+        final ExtractionResultStore earlierResults = earlierChange.getExtractionResults();
+        earlierChange.releaseExtractionResults();
         
-        // Wait for all threads to finish and collect their results
-        final ExtractionResult[] extractionResults = new ExtractionResult[extractors.length];
-        for (i = 0; i < extractors.length; i++) {
-            try {
-                extractors[i].join();
+        // Find the stored row of each earlier text by its digest, where rows without results have index -1;
+        // the fingerprint is compared as well, so both together identify a text by 128 bits
+        final HashMap<Long, Integer> earlierDigests = new HashMap<Long, Integer>();
+        final HashMap<Long, Long> earlierFingerprints = new HashMap<Long, Long>();
+        int textsUnknown = 0;
+        for (int i = 0, index = 0; i < earlierResults.getFingerprintCount(); i++) {
+            final int rowId = earlierResults.getFingerprintRow(i);
+            while (index < earlierResults.size() && earlierResults.getRowId(index) < rowId)
+                index++;
+            final boolean stored = index < earlierResults.size() && earlierResults.getRowId(index) == rowId;
+            // Results saved by earlier versions only have fingerprints, which cannot be confirmed
+            final long digest = earlierResults.getFingerprintDigest(i);
+            if (digest == 0)
+                textsUnknown++;
+            else {
+                earlierDigests.put(digest, stored ? index : -1);
+                earlierFingerprints.put(digest, earlierResults.getFingerprint(i));
             }
-            catch (InterruptedException error) {
-                LOGGER.error("The extractor was interrupted", error);
+        }
+        if (textsUnknown > 0)
+            LOGGER.info(String.format("Not reusing %d earlier rows in column %s that were saved without a digest of their text.",
+                                      textsUnknown, column.getName()));
+        
+        // Reuse the results of unchanged texts, unless a service failed on them
+        int rowsReused = 0;
+        for (final Iterator<Map.Entry<String, List<Integer>>> texts = textRows.entrySet().iterator(); texts.hasNext();) {
+            final Map.Entry<String, List<Integer>> text = texts.next();
+            final long digest = digest(text.getKey());
+            final Integer index = earlierDigests.get(digest);
+            if (index == null || earlierFingerprints.get(digest) != fingerprint(text.getKey())
+                || (index >= 0 && hasError(earlierResults, index)))
+                continue;
+            if (index >= 0) {
+                final int group = extractionResults.addResults(earlierResults, index);
+                for (final int rowIndex : text.getValue())
+                    extractionResults.addRow(rowIndex, group);
             }
-            extractionResults[i] = extractors[i].getExtractionResult();
+            rowsReused += text.getValue().size();
+            texts.remove();
         }
-        return extractionResults;
+        LOGGER.info(String.format("Reused the earlier results of %d rows in column %s.", rowsReused, column.getName()));
+    }
+    
+    /**
+     * Finds the most recent change in the history that performed the same extraction
+     * @return The change, or <tt>null</tt> if there is none
+     */
+    protected NERChange findEarlierChange() {
+        if (!(parentOperation instanceof NEROperation))
+            return null;
+        // Hold the history lock, like the history itself does when it loads changes for undo and redo,
+        // so the entries are not undone, redone or loaded concurrently
+        synchronized (project.history) {
+            final List<HistoryEntry> entries = project.history.getLastPastEntries(0);
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                final HistoryEntry entry = entries.get(i);
+                if (entry.operation instanceof NEROperation
+                    && ((NEROperation)entry.operation).hasSameExtraction((NEROperation)parentOperation)) {
+                    // Changes of a reopened project are only loaded when they are needed
+                    if (entry.getChange() == null)
+                        ProjectManager.singleton.getHistoryEntryManager().loadChange(entry);
+                    if (entry.getChange() instanceof NERChange)
+                        return (NERChange)entry.getChange();
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Indicates whether any service reported an error for a stored row
+     * @param extractionResults The results
+     * @param index The index of the stored row
+     * @return <tt>true</tt> if a service reported an error
+     */
+    private static boolean hasError(final ExtractionResultStore extractionResults, final int index) {
+        for (int service = 0; service < extractionResults.getServiceCount(); service++)
+            if (extractionResults.hasError(index, service))
+                return true;
+        return false;
+    }
+    
+    /**
+     * Updates the progress based on the number of completed distinct texts
+     * @param pipeline The extraction pipeline
+     * @param textsTotal The total number of distinct texts
+     */
+    private void updateProgress(final ExtractionPipeline pipeline, final int textsTotal) {
+        _progress = textsTotal == 0 ? 100 : 100 * pipeline.getTextsCompleted() / textsTotal;
+    }
+    
+    /**
+     * Groups the indices of all filtered rows with a non-empty text by their normalized text
+     * @return The row indices per distinct text, in order of first occurrence
+     */
+    protected Map<String, List<Integer>> getTextRows() {
+        final LinkedHashMap<String, List<Integer>> textRows = new LinkedHashMap<String, List<Integer>>();
+        for (final int rowIndex : getFilteredRowIndices()) {
+            if (!needsExtraction(project.rows.get(rowIndex)))
+                continue;
+            final String text = normalize(getCellText(rowIndex));
+            
+            // Only rows with text need extraction
+            if (!text.isEmpty()) {
+                List<Integer> rows = textRows.get(text);
+                if (rows == null)
+                    textRows.put(text, rows = new ArrayList<Integer>(1));
+                rows.add(rowIndex);
+            }
+        }
+        return textRows;
+    }
+    
+    /**
+     * Gets the text of the cell on which named-entity recognition is performed
+     * @param rowIndex The index of the row
+     * @return The trimmed text of the cell, which is empty if the cell has no value
+     */
+    protected String getCellText(final int rowIndex) {
+        final Cell cell = project.rows.get(rowIndex).getCell(column.getCellIndex());
+        final Serializable cellValue = cell == null ? null : cell.value;
+        return cellValue == null ? "" : cellValue.toString().trim();
+    }
+    
+    /**
+     * Determines whether entities should be extracted from the row
+     * @param row The row, which is part of the active selection filter
+     * @return <tt>true</tt> if the row should be extracted
+     */
+    protected boolean needsExtraction(final Row row) {
+        return true;
+    }
+    
+    /**
+     * Normalizes the text, so equivalent texts are extracted only once
+     * @param text The text
+     * @return The trimmed text in Unicode normal form, with single spaces between words
+     */
+    protected static String normalize(final String text) {
+        final String normalized = Normalizer.normalize(text.trim(), Normalizer.Form.NFC);
+        return WHITESPACE.matcher(normalized).replaceAll(" ");
+    }
+    
+    /**
+     * Calculates a fingerprint of the text that is stable across runs (64-bit FNV-1a)
+     * @param text The normalized text
+     * @return The fingerprint
+     */
+    protected static long fingerprint(final String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+    
+    /**
+     * Calculates a digest of the text that confirms a matching fingerprint (the first 64 bits of SHA-1)
+     * @param text The normalized text
+     * @return The digest, which is never 0
+     */
+    protected static long digest(final String text) {
+        final byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-1").digest(text.getBytes(UTF8));
+        }
+        catch (NoSuchAlgorithmException error) {
+            throw new RuntimeException(error);
+        }
+        long digest = 0;
+        for (int i = 0; i < 8; i++)
+            digest = (digest << 8) | (hash[i] & 0xFF);
+        // 0 marks rows whose digest is unknown
+        return digest == 0 ? 1 : digest;
     }
     
     /**
@@ -159,7 +492,7 @@ public class NERProcess extends LongRunningProcess implements Runnable {
         catch (Exception e) {}
         
         // Collect indices of rows that belong to the filter
-        final HashSet<Integer> filteredRowIndices = new HashSet<Integer>(project.rows.size());
+        final TreeSet<Integer> filteredRowIndices = new TreeSet<Integer>();
         engine.getAllFilteredRows().accept(project, new RowVisitor() {
             @Override
             public boolean visit(final Project project, final int rowIndex, final Row row) {
@@ -179,45 +512,4 @@ public class NERProcess extends LongRunningProcess implements Runnable {
     protected Runnable getRunnable() {
         return this;
     }
-    
-    /**
-     * Thread that executes a named-entity recognition service
-     */
-    protected static class Extractor extends Thread {
-        private final String text;
-        private final NERService service;
-        private final Map<String,String> settings;
-        private ExtractionResult extractionResult;
-
-        /**
-         * Creates a new <tt>Extractor</tt>
-         * @param text The text to analyze
-         * @param service The service that will analyze the text
-         * @param settings The extraction settings
-         */
-        public Extractor(final String text, final NERService service, final Map<String, String> settings) {
-            this.text = text;
-            this.service = service;
-            this.settings = settings;
-        }
-        
-        /**
-         * Gets the result of the named-entity recognition service
-         * @return The extracted named entities
-         */
-        public ExtractionResult getExtractionResult() {
-            return extractionResult;
-        }
-        
-        /** {@inheritDoc} */
-        @Override
-        public void run() {
-            try {
-                extractionResult = new ExtractionResult(service.extractNamedEntities(text, settings));
-            }
-            catch (Exception error) {
-                extractionResult = new ExtractionResult(error);
-            }
-        }
-    }
 }
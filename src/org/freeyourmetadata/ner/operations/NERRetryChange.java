@@ -0,0 +1,232 @@
+package org.freeyourmetadata.ner.operations;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.lang.ArrayUtils;
+
+import com.google.refine.expr.EvalError;
+import com.google.refine.history.Change;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+import com.google.refine.util.Pool;
+
+/**
+ * A change that replaces the extraction errors in a column with the results of retrying those extractions
+ */
+public class NERRetryChange implements Change {
+    private final int cellIndex;
+    private final int[] resultCellIndexes;
+    private final ExtractionResultStore previousResults;
+    private final ExtractionResultStore extractionResults;
+    private final List<Integer> addedRowIds;
+    private final List<Integer> filledRowIds;
+
+    /**
+     * Creates a new <tt>NERRetryChange</tt>
+     * @param cellIndex The cell index of the column whose failed extractions were retried
+     * @param resultCellIndexes The cell indexes of all columns in which the retried extraction placed its results
+     * @param previousResults The errors of the retried rows before the retry
+     * @param extractionResults The results of the retried extractions per row
+     */
+    public NERRetryChange(final int cellIndex, final int[] resultCellIndexes, final ExtractionResultStore previousResults,
+                          final ExtractionResultStore extractionResults) {
+        this.cellIndex = cellIndex;
+        this.resultCellIndexes = resultCellIndexes;
+        this.previousResults = previousResults;
+        this.extractionResults = extractionResults;
+        this.addedRowIds = new ArrayList<Integer>();
+        this.filledRowIds = new ArrayList<Integer>();
+    }
+
+    /**
+     * Creates a new <tt>NERRetryChange</tt> that has been applied before
+     * @param cellIndex The cell index of the column whose failed extractions were retried
+     * @param resultCellIndexes The cell indexes of all columns in which the retried extraction placed its results
+     * @param previousResults The errors of the retried rows before the retry
+     * @param extractionResults The results of the retried extractions per row
+     * @param addedRowIds The IDs of the rows that were added when applying the change
+     * @param filledRowIds The IDs of the existing rows whose blank cell received an entity
+     */
+    NERRetryChange(final int cellIndex, final int[] resultCellIndexes, final ExtractionResultStore previousResults,
+                   final ExtractionResultStore extractionResults, final List<Integer> addedRowIds,
+                   final List<Integer> filledRowIds) {
+        this(cellIndex, resultCellIndexes, previousResults, extractionResults);
+        this.addedRowIds.addAll(addedRowIds);
+        this.filledRowIds.addAll(filledRowIds);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void apply(final Project project) {
+        synchronized(project) {
+            insertValues(project);
+            project.update();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void revert(final Project project) {
+        synchronized(project) {
+            for (final int rowId : filledRowIds)
+                project.rows.get(rowId).setCell(cellIndex, null);
+            filledRowIds.clear();
+            NERChange.removeRows(project.rows, addedRowIds);
+            addedRowIds.clear();
+            restoreErrors(project);
+            project.update();
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void save(final Writer writer, final Properties options) throws IOException {
+        NERChangeFormat.writeRetry(writer, cellIndex, resultCellIndexes, previousResults, extractionResults,
+                                   addedRowIds, filledRowIds);
+    }
+
+    /**
+     * Create a <tt>NERRetryChange</tt> from a configuration reader
+     * @param reader The reader
+     * @param pool (unused but required, since this method is called through reflection)
+     * @return A new <tt>NERRetryChange</tt>
+     * @throws Exception If the configuration is in an unexpected format
+     */
+    static public Change load(LineNumberReader reader, Pool pool) throws Exception {
+        final String line = reader.readLine();
+        if (line == null)
+            throw new IOException("The NER retry change is empty.");
+        return NERChangeFormat.readRetry(line);
+    }
+
+    /**
+     * Replace the errors of the retried rows by their new results.
+     * Additional entities go into the blank cells of the continuation rows that follow a retried row,
+     * which the original extraction added for the entities of the other services,
+     * so they line up with those entities, and into new rows after those.
+     * @param project The project
+     */
+    protected void insertValues(final Project project) {
+        final List<Row> rows = project.rows;
+        final int retriedRows = previousResults.size();
+        final int storedRows = extractionResults.size();
+
+        // Determine how many rows need to be added for entities that don't fit on a single line
+        int addedRowCount = 0;
+        for (int index = 0; index < storedRows; index++)
+            addedRowCount += Math.max(0, extractionResults.getMaxEntities(index) - 1);
+
+        // Rebuild the rows in a single pass, since inserting rows one by one shifts all following rows
+        final int rowCount = rows.size();
+        final ArrayList<Row> expandedRows = new ArrayList<Row>(rowCount + addedRowCount);
+        // The new rows that follow the last continuation row of the current retried row
+        final ArrayList<Row> entityRows = new ArrayList<Row>();
+        int entityRowsAfter = -1;
+        addedRowIds.clear();
+        filledRowIds.clear();
+        for (int rowIndex = 0, retried = 0, index = 0; rowIndex < rowCount; rowIndex++) {
+            final Row row = rows.get(rowIndex);
+            expandedRows.add(row);
+            if (rowIndex == entityRowsAfter) {
+                for (final Row entityRow : entityRows) {
+                    addedRowIds.add(expandedRows.size());
+                    expandedRows.add(entityRow);
+                }
+                entityRows.clear();
+            }
+            // Only the retried rows change, and they are stored in ascending order
+            if (retried == retriedRows || previousResults.getRowId(retried) != rowIndex)
+                continue;
+            retried++;
+            row.setCell(cellIndex, null);
+            // Retried rows without entities remain empty
+            while (index < storedRows && extractionResults.getRowId(index) < rowIndex)
+                index++;
+            if (index == storedRows || extractionResults.getRowId(index) != rowIndex)
+                continue;
+
+            // Place an error on the row itself
+            if (extractionResults.hasError(index, 0)) {
+                row.setCell(cellIndex, new Cell(new EvalError(extractionResults.getErrorMessage(index, 0)), null));
+            }
+            // Place the first entity on the row itself and the others on the following rows
+            else {
+                final int firstEntity = extractionResults.getFirstEntity(index, 0);
+                final int entityEnd = extractionResults.getEntityEnd(index, 0);
+                row.setCell(cellIndex, extractionResults.getNamedEntity(firstEntity).toCell());
+                // Continuation rows only have results and end before the next retried row
+                final int nextRetried = retried < retriedRows ? previousResults.getRowId(retried) : rowCount;
+                int continuation = rowIndex + 1;
+                for (int entity = firstEntity + 1; entity < entityEnd; entity++) {
+                    final Cell entityCell = extractionResults.getNamedEntity(entity).toCell();
+                    if (entityRows.isEmpty() && continuation < nextRetried && isContinuation(rows.get(continuation))
+                        && isBlank(rows.get(continuation).getCell(cellIndex))) {
+                        rows.get(continuation).setCell(cellIndex, entityCell);
+                        // Rows before the continuation row have been added already
+                        filledRowIds.add(continuation + addedRowIds.size());
+                        continuation++;
+                    }
+                    else {
+                        final Row entityRow = new Row(cellIndex + 1);
+                        entityRow.setCell(cellIndex, entityCell);
+                        entityRows.add(entityRow);
+                    }
+                }
+                while (continuation < nextRetried && isContinuation(rows.get(continuation)))
+                    continuation++;
+                entityRowsAfter = continuation - 1;
+                if (entityRowsAfter == rowIndex) {
+                    for (final Row entityRow : entityRows) {
+                        addedRowIds.add(expandedRows.size());
+                        expandedRows.add(entityRow);
+                    }
+                    entityRows.clear();
+                }
+            }
+            index++;
+        }
+        rows.clear();
+        rows.addAll(expandedRows);
+    }
+
+    /**
+     * Indicates whether a row was added by the original extraction to hold additional entities
+     * @param row The row
+     * @return <tt>true</tt> if all cells outside of the result columns are blank
+     */
+    private boolean isContinuation(final Row row) {
+        // Changes saved by earlier versions do not know their result columns, so they never fill rows
+        if (resultCellIndexes.length == 0)
+            return false;
+        for (int i = 0; i < row.cells.size(); i++)
+            if (!isBlank(row.getCell(i)) && !ArrayUtils.contains(resultCellIndexes, i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Indicates whether a cell has no value
+     * @param cell The cell (can be <tt>null</tt>)
+     * @return <tt>true</tt> if the cell is missing, empty or has no value
+     */
+    private static boolean isBlank(final Cell cell) {
+        return cell == null || cell.value == null || "".equals(cell.value);
+    }
+
+    /**
+     * Restore the errors of the retried rows
+     * @param project The project
+     */
+    protected void restoreErrors(final Project project) {
+        for (int retried = 0; retried < previousResults.size(); retried++) {
+            final Cell errorCell = new Cell(new EvalError(previousResults.getErrorMessage(retried, 0)), null);
+            project.rows.get(previousResults.getRowId(retried)).setCell(cellIndex, errorCell);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.freeyourmetadata.ner.operations;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.freeyourmetadata.ner.services.NERService;
+import org.freeyourmetadata.ner.services.NERServiceManager;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+
+import com.google.refine.history.HistoryEntry;
+import com.google.refine.model.AbstractOperation;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.operations.EngineDependentOperation;
+import com.google.refine.operations.OperationRegistry;
+import com.google.refine.process.Process;
+
+/**
+ * Operation that starts a process to retry the failed extractions of a named-entity recognition service
+ */
+public class NERRetryOperation extends EngineDependentOperation {
+    private final Column resultColumn;
+    private final Column sourceColumn;
+    private final String serviceName;
+    private final NERService service;
+    private final Map<String, String> settings;
+
+    /**
+     * Creates a new <tt>NERRetryOperation</tt>
+     * @param resultColumn The column with the results of the service
+     * @param sourceColumn The column on which named-entity recognition was performed
+     * @param serviceName The name of the service
+     * @param service The service
+     * @param settings The settings of the service
+     * @param engineConfig The faceted browsing engine configuration
+     */
+    public NERRetryOperation(final Column resultColumn, final Column sourceColumn,
+                             final String serviceName, final NERService service,
+                             final Map<String, String> settings, final JSONObject engineConfig) {
+        super(engineConfig);
+        this.resultColumn = resultColumn;
+        this.sourceColumn = sourceColumn;
+        this.serviceName = serviceName;
+        this.service = service;
+        this.settings = settings;
+    }
+
+    /**
+     * Creates a <tt>NERRetryOperation</tt> for the results of a service in a column,
+     * using the source column and settings of the most recent extraction with that service
+     * @param project The project
+     * @param resultColumn The column with the results of the service
+     * @param serviceName The name of the service
+     * @param service The service
+     * @param engineConfig The faceted browsing engine configuration
+     * @return A new <tt>NERRetryOperation</tt>
+     * @throws Exception when no extraction with the service is found
+     */
+    public static NERRetryOperation create(final Project project, final Column resultColumn,
+                                           final String serviceName, final NERService service,
+                                           final JSONObject engineConfig) throws Exception {
+        final List<HistoryEntry> entries = project.history.getLastPastEntries(0);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            final AbstractOperation operation = entries.get(i).operation;
+            if (operation instanceof NEROperation
+                && ((NEROperation)operation).getServices().containsKey(serviceName)) {
+                final NEROperation extraction = (NEROperation)operation;
+                final Column sourceColumn = project.columnModel.getColumnByName(extraction.getColumn().getName());
+                if (sourceColumn == null)
+                    throw new Exception(String.format("The column %s no longer exists.", extraction.getColumn().getName()));
+                final Map<String, String> settings = extraction.getSettings().get(serviceName);
+                return new NERRetryOperation(resultColumn, sourceColumn, serviceName, service,
+                                             settings != null ? settings : new TreeMap<String, String>(),
+                                             engineConfig);
+            }
+        }
+        throw new Exception(String.format("No extraction with service %s found.", serviceName));
+    }
+
+    /**
+     * Gets the names of the columns that contain the results of an earlier extraction,
+     * which are the existing columns named after a service of that extraction
+     * @param project The project
+     * @return The names of the result columns
+     */
+    public static Set<String> getResultColumnNames(final Project project) {
+        final TreeSet<String> columnNames = new TreeSet<String>();
+        for (final HistoryEntry entry : project.history.getLastPastEntries(0)) {
+            if (entry.operation instanceof NEROperation) {
+                for (final String serviceName : ((NEROperation)entry.operation).getServices().keySet())
+                    if (project.columnModel.getColumnByName(serviceName) != null)
+                        columnNames.add(serviceName);
+            }
+        }
+        return columnNames;
+    }
+
+    /**
+     * Recreates a <tt>NERRetryOperation</tt> from a JSON object
+     * @param project The project for which the operation is created
+     * @param operation A JSON representation of the operation
+     * @return A new <tt>NERRetryOperation</tt>
+     * @throws Exception when the operation cannot be created
+     */
+    static public AbstractOperation reconstruct(final Project project, final JSONObject operation) throws Exception {
+        final JSONObject engineConfig = operation.getJSONObject("engineConfig");
+        final String serviceName = operation.getString("service");
+        final NERService service = new NERServiceManager().getService(serviceName);
+
+        // Apply the service settings
+        final Map<String, String> settings = new TreeMap<String, String>();
+        final JSONObject settingsJson = operation.getJSONObject("parameters");
+        for (final Iterator<?> settingNames = settingsJson.keys(); settingNames.hasNext();) {
+            final String settingName = (String)settingNames.next();
+            settings.put(settingName, settingsJson.getString(settingName));
+        }
+
+        return new NERRetryOperation(project.columnModel.getColumnByName(operation.getString("column")),
+                                     project.columnModel.getColumnByName(operation.getString("sourceColumn")),
+                                     serviceName, service, settings, engineConfig);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final JSONWriter writer, final Properties options) throws JSONException {
+        writer.object();
+        writer.key("op"); writer.value(OperationRegistry.s_opClassToName.get(getClass()));
+        writer.key("description"); writer.value(getBriefDescription(null));
+        writer.key("engineConfig"); writer.value(getEngineConfig());
+        writer.key("column"); writer.value(resultColumn.getName());
+        writer.key("sourceColumn"); writer.value(sourceColumn.getName());
+        writer.key("service"); writer.value(serviceName);
+
+        writer.key("parameters");
+        writer.object();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            writer.key(setting.getKey());
+            writer.value(setting.getValue());
+        }
+        writer.endObject();
+
+        writer.endObject();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String getBriefDescription(final Project project) {
+        return String.format("Retry failed named-entity recognition in column %s", resultColumn.getName());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Process createProcess(final Project project, final Properties options) throws Exception {
+        return new NERRetryProcess(project, resultColumn, sourceColumn, serviceName, service, settings,
+                                   this, getBriefDescription(project), getEngineConfig());
+    }
+}
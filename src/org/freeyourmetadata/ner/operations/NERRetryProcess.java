@@ -0,0 +1,134 @@
+package org.freeyourmetadata.ner.operations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.ArrayUtils;
+
+import org.freeyourmetadata.ner.services.NERService;
+import org.json.JSONObject;
+
+import com.google.refine.expr.EvalError;
+import com.google.refine.history.Change;
+import com.google.refine.history.HistoryEntry;
+import com.google.refine.model.AbstractOperation;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Column;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+/**
+ * Process that executes a named-entity recognition service again
+ * on the rows for which it reported an error.
+ */
+public class NERRetryProcess extends NERProcess {
+    private final Project project;
+    private final Column resultColumn;
+    private final String serviceName;
+
+    /**
+     * Creates a new <tt>NERRetryProcess</tt>
+     * @param project The project
+     * @param resultColumn The column with the results of the service
+     * @param sourceColumn The column on which named-entity recognition was performed
+     * @param serviceName The name of the service
+     * @param service The service
+     * @param settings The settings of the service
+     * @param parentOperation The operation that creates this process
+     * @param description The description of this operation
+     * @param engineConfig The faceted browsing engine configuration
+     */
+    public NERRetryProcess(final Project project, final Column resultColumn, final Column sourceColumn,
+                           final String serviceName, final NERService service, final Map<String, String> settings,
+                           final AbstractOperation parentOperation, final String description,
+                           final JSONObject engineConfig) {
+        this(project, resultColumn, sourceColumn, serviceName, Collections.singletonMap(serviceName, service),
+             Collections.singletonMap(serviceName, settings), parentOperation, description, engineConfig);
+    }
+
+    /**
+     * Creates a new <tt>NERRetryProcess</tt>
+     * @param project The project
+     * @param resultColumn The column with the results of the service
+     * @param sourceColumn The column on which named-entity recognition was performed
+     * @param serviceName The name of the service
+     * @param services The service by name
+     * @param settings The settings of the service by name
+     * @param parentOperation The operation that creates this process
+     * @param description The description of this operation
+     * @param engineConfig The faceted browsing engine configuration
+     */
+    private NERRetryProcess(final Project project, final Column resultColumn, final Column sourceColumn,
+                            final String serviceName, final Map<String, NERService> services, final Map<String, Map<String, String>> settings,
+                            final AbstractOperation parentOperation, final String description,
+                            final JSONObject engineConfig) {
+        // Key the checkpoint by the result column, so it is independent of the original extraction
+        super(project, sourceColumn, services, settings, new ExtractionOptions(), parentOperation, description,
+              engineConfig, ExtractionCheckpoint.create(project, resultColumn, settings));
+        this.project = project;
+        this.resultColumn = resultColumn;
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * Determines whether the service reported an error for the row
+     * @param row The row, which is part of the active selection filter
+     * @return <tt>true</tt> if the result cell of the row contains an error
+     */
+    @Override
+    protected boolean needsExtraction(final Row row) {
+        final Cell cell = row.getCell(resultColumn.getCellIndex());
+        return cell != null && cell.value instanceof EvalError;
+    }
+
+    /**
+     * Creates the change that replaces the errors of the retried rows by their new results
+     * @param namedEntities The extracted named entities per retried row
+     * @return The change
+     */
+    @Override
+    protected Change createChange(final ExtractionResultStore namedEntities) {
+        final int cellIndex = resultColumn.getCellIndex();
+        // Every retried row has a fingerprint, so remember the errors of those rows for undo,
+        // skipping rows whose error has been edited in the meantime
+        final ExtractionResultStore.Builder previousResults = new ExtractionResultStore.Builder(1);
+        for (int i = 0; i < namedEntities.getFingerprintCount(); i++) {
+            final int rowIndex = namedEntities.getFingerprintRow(i);
+            final Row row = project.rows.get(rowIndex);
+            if (needsExtraction(row)) {
+                final EvalError error = (EvalError)row.getCell(cellIndex).value;
+                final int group = previousResults.nextGroup();
+                previousResults.addError(previousResults.intern(error.message));
+                previousResults.addRow(rowIndex, group);
+            }
+        }
+        return new NERRetryChange(cellIndex, getResultCellIndexes(),
+                                  previousResults.build(namedEntities.getRowCount()), namedEntities);
+    }
+
+    /**
+     * Gets the cell indexes of the columns in which the most recent extraction with the service placed its results,
+     * which are the existing columns named after a service of that extraction
+     * @return The cell indexes, which include the cell index of the result column
+     */
+    private int[] getResultCellIndexes() {
+        final ArrayList<Integer> cellIndexes = new ArrayList<Integer>();
+        cellIndexes.add(resultColumn.getCellIndex());
+        final List<HistoryEntry> entries = project.history.getLastPastEntries(0);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            final AbstractOperation operation = entries.get(i).operation;
+            if (operation instanceof NEROperation
+                && ((NEROperation)operation).getServices().containsKey(serviceName)) {
+                for (final String name : ((NEROperation)operation).getServices().keySet()) {
+                    final Column column = project.columnModel.getColumnByName(name);
+                    if (column != null && !cellIndexes.contains(column.getCellIndex()))
+                        cellIndexes.add(column.getCellIndex());
+                }
+                break;
+            }
+        }
+        return ArrayUtils.toPrimitive(cellIndexes.toArray(new Integer[cellIndexes.size()]));
+    }
+}
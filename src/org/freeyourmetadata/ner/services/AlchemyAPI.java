@@ -7,14 +7,12 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.apache.http.HttpEntity;
+import org.freeyourmetadata.util.JSONStreamReader;
 import org.freeyourmetadata.util.ParameterList;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * Alchemy service connector
@@ -51,34 +49,78 @@ public class AlchemyAPI extends NERServiceBase {
     
     /** {@inheritDoc} */
     @Override
-    @SuppressWarnings("unchecked")
-    protected NamedEntity[] parseExtractionResponse(final JSONObject response) throws JSONException {
-        // Check response status
-        if (!"OK".equals(response.getString("status")))
-            throw new RuntimeException(response.optString("statusInfo", "Extraction failed"));
+    protected NamedEntity[] parseExtractionResponse(final JSONStreamReader response) throws JSONException {
+        String status = null, statusInfo = null;
+        ArrayList<NamedEntity> results = null;
+        response.beginObject();
+        while (response.hasNext()) {
+            final String name = response.nextName();
+            if ("status".equals(name))
+                status = response.nextString();
+            else if ("statusInfo".equals(name))
+                statusInfo = response.nextString();
+            // Find all entities
+            else if ("entities".equals(name)) {
+                results = new ArrayList<NamedEntity>();
+                response.beginArray();
+                while (response.hasNext())
+                    results.add(parseEntity(response));
+                response.endArray();
+            }
+            else
+                response.skipValue();
+        }
+        response.endObject();
         
-        // Find all entities
-        final JSONArray entities = response.getJSONArray("entities");
-        final NamedEntity[] results = new NamedEntity[entities.length()];
-        for (int i = 0; i < results.length; i++) {
-            final JSONObject entity = entities.getJSONObject(i);
-            final String entityText = entity.getString("text");
-            
+        // Check response status
+        if (!"OK".equals(requireMember(status, "status")))
+            throw new RuntimeException(statusInfo != null ? statusInfo : "Extraction failed");
+        requireMember(results, "entities");
+        return results.toArray(new NamedEntity[results.size()]);
+    }
+    
+    /**
+     * Parses a single entity of the response
+     * @param response The reader positioned at the entity
+     * @return The named entity
+     * @throws JSONException if the entity is invalid
+     */
+    private NamedEntity parseEntity(final JSONStreamReader response) throws JSONException {
+        String entityText = null, label = null;
+        final ArrayList<String> uris = new ArrayList<String>();
+        boolean disambiguated = false;
+        response.beginObject();
+        while (response.hasNext()) {
+            final String name = response.nextName();
+            if ("text".equals(name))
+                entityText = response.nextString();
             // Find all disambiguations
-            final ArrayList<Disambiguation> disambiguations = new ArrayList<Disambiguation>();
-            if (entity.has("disambiguated")) {
-                final JSONObject disambiguated = entity.getJSONObject("disambiguated");
-                final String label = disambiguated.getString("name");
-                final Iterator<String> keyIterator = disambiguated.keys();
-                while (keyIterator.hasNext()) {
-                    final String key = keyIterator.next();
-                    if (!NONURIFIELDS.contains(key))
-                        disambiguations.add(new Disambiguation(label, createUri(disambiguated.getString(key))));
+            else if ("disambiguated".equals(name)) {
+                disambiguated = true;
+                response.beginObject();
+                while (response.hasNext()) {
+                    final String key = response.nextName();
+                    if ("name".equals(key))
+                        label = response.nextString();
+                    else if (!NONURIFIELDS.contains(key))
+                        uris.add(response.nextString());
+                    else
+                        response.skipValue();
                 }
+                response.endObject();
             }
-            // Create new named entity for the result
-            results[i] = new NamedEntity(entityText, disambiguations);
+            else
+                response.skipValue();
+        }
+        response.endObject();
+        
+        // Create new named entity for the result
+        final ArrayList<Disambiguation> disambiguations = new ArrayList<Disambiguation>(uris.size());
+        if (disambiguated) {
+            requireMember(label, "name");
+            for (final String uri : uris)
+                disambiguations.add(new Disambiguation(label, uri));
         }
-        return results;
+        return new NamedEntity(requireMember(entityText, "text"), disambiguations);
     }
 }
@@ -4,13 +4,13 @@ import static org.freeyourmetadata.util.UriUtil.createUri;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Map;
 
 import org.apache.http.HttpEntity;
+import org.freeyourmetadata.util.JSONStreamReader;
 import org.freeyourmetadata.util.ParameterList;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * DBpedia spotlight service connector
@@ -18,7 +18,7 @@ import org.json.JSONObject;
  */
 public class DBpediaSpotlight extends NERServiceBase implements NERService {
     private final static URI SERVICEBASEURL = createUri("http://model.dbpedia-spotlight.org/en/annotate");
-    private final static String[] SERVICESETTINGS = {};
+    private final static String[] SERVICESETTINGS = { BATCH_SIZE, CHUNK_SIZE };
     private final static String[] EXTRACTIONSETTINGS = { "Confidence", "Support" };
 
     /**
@@ -28,6 +28,14 @@ public class DBpediaSpotlight extends NERServiceBase implements NERService {
         super(SERVICEBASEURL, null, SERVICESETTINGS, EXTRACTIONSETTINGS);
         setExtractionSettingDefault("Confidence", "0.5");
         setExtractionSettingDefault("Support", "30");
+        setServiceSetting(BATCH_SIZE, "0");
+        setServiceSetting(CHUNK_SIZE, "10000");
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    protected boolean reportsOffsets() {
+        return true;
     }
     
     /** {@inheritDoc} */
@@ -42,18 +50,54 @@ public class DBpediaSpotlight extends NERServiceBase implements NERService {
     
     /** {@inheritDoc} */
     @Override
-    protected NamedEntity[] parseExtractionResponse(final JSONObject response) throws JSONException {
-        // Empty result if no resources were found
-        if (!response.has("Resources"))
-            return EMPTY_EXTRACTION_RESULT;
-        // Extract resources
-        final JSONArray resources = response.getJSONArray("Resources");
-        final NamedEntity[] results = new NamedEntity[resources.length()];
-        for (int i = 0; i < resources.length(); i++) {
-            final JSONObject resource = resources.getJSONObject(i);
-            results[i] = new NamedEntity(resource.getString("@surfaceForm"),
-                                         createUri(resource.getString("@URI")));
+    protected NamedEntity[] parseExtractionResponse(final JSONStreamReader response) throws JSONException {
+        final ArrayList<NamedEntity> results = new ArrayList<NamedEntity>();
+        response.beginObject();
+        while (response.hasNext()) {
+            // Empty result if no resources were found
+            if (!"Resources".equals(response.nextName())) {
+                response.skipValue();
+                continue;
+            }
+            // Extract resources
+            response.beginArray();
+            while (response.hasNext()) {
+                String surfaceForm = null, uri = null;
+                int offset = -1;
+                response.beginObject();
+                while (response.hasNext()) {
+                    final String name = response.nextName();
+                    if ("@surfaceForm".equals(name))
+                        surfaceForm = response.nextString();
+                    else if ("@URI".equals(name))
+                        uri = response.nextString();
+                    else if ("@offset".equals(name))
+                        offset = parseOffset(response.nextString());
+                    else
+                        response.skipValue();
+                }
+                response.endObject();
+                requireMember(surfaceForm, "@surfaceForm");
+                results.add(new NamedEntity(surfaceForm,
+                        new Disambiguation[] { new Disambiguation(surfaceForm, requireMember(uri, "@URI")) }, offset));
+            }
+            response.endArray();
+        }
+        response.endObject();
+        return results.isEmpty() ? EMPTY_EXTRACTION_RESULT : results.toArray(new NamedEntity[results.size()]);
+    }
+    
+    /**
+     * Parses the offset of a resource
+     * @param offset The offset as a string
+     * @return The offset, or -1 if it is invalid
+     */
+    private static int parseOffset(final String offset) {
+        try {
+            return Integer.parseInt(offset.trim());
+        }
+        catch (NumberFormatException error) {
+            return -1;
         }
-        return results;
     }
 }
@@ -8,8 +8,8 @@ import java.util.ArrayList;
 import java.util.Map;
 
 import org.apache.http.HttpEntity;
+import org.freeyourmetadata.util.JSONStreamReader;
 import org.freeyourmetadata.util.ParameterList;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -21,7 +21,7 @@ import org.json.JSONObject;
 public class DataTXT extends NERServiceBase {
     private final static URI SERVICEBASEURL = createUri("https://api.dandelion.eu/datatxt/nex/v1");
     private final static URI DOCUMENTATIONURI = createUri("https://dandelion.eu/docs/api/datatxt/nex/v1/");
-    private final static String[] SERVICESETTINGS = { "App ID", "App key"};
+    private final static String[] SERVICESETTINGS = { "App ID", "App key", BATCH_SIZE, CHUNK_SIZE };
     private final static String[] EXTRACTIONSETTINGS = {"Language", "Confidence", "Parse hashtag", "Min length"};
 
     /**
@@ -33,6 +33,8 @@ public class DataTXT extends NERServiceBase {
         setExtractionSettingDefault("Confidence", "0.6");
         setExtractionSettingDefault("Parse hashtag", "false");
         setExtractionSettingDefault("Min length", "2");
+        setServiceSetting(BATCH_SIZE, "0");
+        setServiceSetting(CHUNK_SIZE, "4000");
     }
 
     /** {@inheritDoc} */
@@ -41,6 +43,12 @@ public class DataTXT extends NERServiceBase {
                 && getServiceSetting("App key").length() > 0;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected boolean reportsOffsets() {
+        return true;
+    }
+
     /** {@inheritDoc} */
     protected HttpEntity createExtractionRequestBody(final String text, final Map<String, String> extractionSettings)
     throws UnsupportedEncodingException {
@@ -57,25 +65,70 @@ public class DataTXT extends NERServiceBase {
 
     /** {@inheritDoc} */
     @Override
-    protected NamedEntity[] parseExtractionResponse(final JSONObject response) throws JSONException {
-        // Check response status
-        if (!response.isNull("error"))
-            throw new IllegalArgumentException("dataTXT request failed.");
+    protected NamedEntity[] parseExtractionResponse(final JSONStreamReader response) throws JSONException {
+        ArrayList<NamedEntity> results = null;
+        boolean failed = false;
+        response.beginObject();
+        while (response.hasNext()) {
+            final String name = response.nextName();
+            // Check response status
+            if ("error".equals(name)) {
+                failed = response.peek() != JSONStreamReader.Token.NULL;
+                response.skipValue();
+            }
+            // Find all annotations
+            else if ("annotations".equals(name)) {
+                results = new ArrayList<NamedEntity>();
+                response.beginArray();
+                while (response.hasNext())
+                    results.add(parseAnnotation(response));
+                response.endArray();
+            }
+            else {
+                response.skipValue();
+            }
+        }
+        response.endObject();
         
-        // Find all annotations
-        final JSONArray annotations = response.getJSONArray("annotations");
-        final NamedEntity[] results = new NamedEntity[annotations.length()];
-        for (int i = 0; i < results.length; i++) {
-            final JSONObject annotation = annotations.getJSONObject(i);
-            final String label = annotation.getString("title");
-            final double score = annotation.getDouble("confidence");
-            final ArrayList<Disambiguation> disambiguations = new ArrayList<Disambiguation>();
-
-            disambiguations.add(new Disambiguation(label, createUri(annotation.getString("uri")), score));
-            results[i] = new NamedEntity(annotation.getString("spot"), disambiguations);
+        if (failed)
+            throw new IllegalArgumentException("dataTXT request failed.");
+        requireMember(results, "annotations");
+        return results.toArray(new NamedEntity[results.size()]);
+    }
+    
+    /**
+     * Parses a single annotation of the response
+     * @param response The reader positioned at the annotation
+     * @return The named entity
+     * @throws JSONException if the annotation is invalid
+     */
+    private NamedEntity parseAnnotation(final JSONStreamReader response) throws JSONException {
+        String spot = null, label = null, uri = null;
+        double score = Double.NaN;
+        int start = -1;
+        response.beginObject();
+        while (response.hasNext()) {
+            final String name = response.nextName();
+            if ("spot".equals(name))
+                spot = response.nextString();
+            else if ("title".equals(name))
+                label = response.nextString();
+            else if ("uri".equals(name))
+                uri = response.nextString();
+            else if ("confidence".equals(name))
+                score = response.nextDouble();
+            else if ("start".equals(name))
+                start = response.nextInt();
+            else
+                response.skipValue();
         }
+        response.endObject();
+        if (Double.isNaN(score))
+            requireMember(null, "confidence");
         
-        return results;
+        final Disambiguation disambiguation = new Disambiguation(requireMember(label, "title"),
+                                                                 requireMember(uri, "uri"), score);
+        return new NamedEntity(requireMember(spot, "spot"), new Disambiguation[] { disambiguation }, start);
     }
 
     /** {@inheritDoc} */
@@ -3,20 +3,28 @@ package org.freeyourmetadata.ner.services;
 import java.net.URI;
 
 import static org.freeyourmetadata.util.UriUtil.*;
+
+import org.freeyourmetadata.util.JSONStreamReader;
+import org.freeyourmetadata.util.StringPool;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONWriter;
 
 
 /**
- * A disambiguation of a named entity
+ * A disambiguation of a named entity,
+ * whose URI is kept as a string that is validated once but only parsed when it is requested
  * @author Stefano Parmesan
  * @author Ruben Verborgh
  */
 public class Disambiguation {
+    /** Pool of URI strings that are known to be valid, so recurring URIs are validated only once. */
+    private final static StringPool VALID_URIS = new StringPool(1 << 14);
+
     private final String label;
-    private final URI uri;
+    private final String uriString;
     private final double score;
+    private volatile URI uri;
 
     /**
      * Creates a new disambiguation with an empty URI
@@ -42,8 +50,30 @@ public class Disambiguation {
      * @param score The disambiguation's score
      */
     public Disambiguation(final String label, final URI uri, final double score) {
-        this.label = label;
+        this.label = NamedEntity.STRING_POOL.intern(label);
+        this.uriString = uri == null ? null : NamedEntity.STRING_POOL.intern(uri.toString());
+        this.score = score;
         this.uri = uri;
+    }
+
+    /**
+     * Creates a new disambiguation
+     * @param label The label of the entity
+     * @param uri The URI of the entity in string format
+     */
+    public Disambiguation(final String label, final String uri) {
+        this(label, uri, 1.0);
+    }
+
+    /**
+     * Creates a new disambiguation
+     * @param label The label of the entity
+     * @param uri The URI of the entity in string format
+     * @param score The disambiguation's score
+     */
+    public Disambiguation(final String label, final String uri, final double score) {
+        this.label = NamedEntity.STRING_POOL.intern(label);
+        this.uriString = NamedEntity.STRING_POOL.intern(validate(uri));
         this.score = score;
     }
 
@@ -53,9 +83,51 @@ public class Disambiguation {
      * @throws JSONException if the JSON is not correctly structured
      */
     public Disambiguation(final JSONObject json) throws JSONException {
-        this.label = json.getString("label");
-        this.uri = createUri(json.getString("uri"));
-        this.score = json.getDouble("score");
+        this(json.getString("label"), json.getString("uri"), json.getDouble("score"));
+    }
+
+    /**
+     * Creates a new disambiguation from a JSON representation that is being read
+     * (the entire representation is consumed, even if it is not correctly structured)
+     * @param json The reader positioned at the JSON representation of the disambiguation
+     * @throws JSONException if the JSON is not correctly structured
+     */
+    public Disambiguation(final JSONStreamReader json) throws JSONException {
+        String labelValue = null, uriValue = null;
+        double scoreValue = Double.NaN;
+        json.beginObject();
+        while (json.hasNext()) {
+            final String name = json.nextName();
+            if ("label".equals(name))
+                labelValue = json.nextString();
+            else if ("uri".equals(name))
+                uriValue = json.nextString();
+            else if ("score".equals(name))
+                scoreValue = json.nextDouble();
+            else
+                json.skipValue();
+        }
+        json.endObject();
+
+        if (labelValue == null || uriValue == null || Double.isNaN(scoreValue))
+            throw new JSONException("Incomplete disambiguation.");
+        this.label = NamedEntity.STRING_POOL.intern(labelValue);
+        this.uriString = NamedEntity.STRING_POOL.intern(validate(uriValue));
+        this.score = scoreValue;
+    }
+
+    /**
+     * Validates a URI string, so malformed URIs are never used as reconciliation candidates
+     * @param uri The URI in string format
+     * @return The URI string, or the empty string if it is malformed
+     */
+    private static String validate(final String uri) {
+        if (uri == null || uri.length() == 0 || VALID_URIS.contains(uri))
+            return uri;
+        if (createUri(uri) == EMPTYURI)
+            return "";
+        VALID_URIS.intern(uri);
+        return uri;
     }
 
     /**
@@ -67,13 +139,23 @@ public class Disambiguation {
     }
 
     /**
-     * Gets the disambiguation's URI
+     * Gets the disambiguation's URI, parsing it if necessary
      * @return The URI
      */
     public URI getUri() {
+        if (uri == null && uriString != null)
+            uri = createUri(uriString);
         return uri;
     }
 
+    /**
+     * Gets the disambiguation's URI without parsing it
+     * @return The URI in string format, which is empty if the URI was malformed
+     */
+    public String getUriString() {
+        return uriString;
+    }
+
     /**
      * Gets the disambiguation's score
      * @return The score
@@ -90,7 +172,7 @@ public class Disambiguation {
     public void writeTo(final JSONWriter json) throws JSONException {
         json.object();
         json.key("label"); json.value(getLabel());
-        json.key("uri"); json.value(getUri().toString());
+        json.key("uri"); json.value(getUriString());
         json.key("score"); json.value(getScore());
         json.endObject();
     }
@@ -4,11 +4,12 @@ import static org.freeyourmetadata.util.UriUtil.createUri;
 
 import java.io.ByteArrayInputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Map;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.InputStreamEntity;
-import org.json.JSONArray;
+import org.freeyourmetadata.util.JSONStreamReader;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -48,12 +49,23 @@ public class DummyNER extends NERServiceBase {
     
     /** {@inheritDoc} */
     @Override
-    protected NamedEntity[] parseExtractionResponse(final JSONObject response) throws JSONException {
-        final JSONArray resultsJson = response.getJSONArray("entities");
-        final NamedEntity[] results = new NamedEntity[resultsJson.length()];
-        for (int i = 0; i < results.length; i++)
-            results[i] = new NamedEntity(resultsJson.getString(i));
-        return results;
+    protected NamedEntity[] parseExtractionResponse(final JSONStreamReader response) throws JSONException {
+        ArrayList<NamedEntity> results = null;
+        response.beginObject();
+        while (response.hasNext()) {
+            if ("entities".equals(response.nextName())) {
+                results = new ArrayList<NamedEntity>();
+                response.beginArray();
+                while (response.hasNext())
+                    results.add(new NamedEntity(response.nextString()));
+                response.endArray();
+            }
+            else
+                response.skipValue();
+        }
+        response.endObject();
+        requireMember(results, "entities");
+        return results.toArray(new NamedEntity[results.size()]);
     }
     
     /** {@inheritDoc} */
@@ -0,0 +1,194 @@
+package org.freeyourmetadata.ner.services;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Batch of short texts that are sent to a service as a single document,
+ * in which the texts are separated by paragraph breaks
+ * and the entities are mapped back to their texts through their offsets
+ */
+class ExtractionBatch {
+    /** The separator between texts, which ends a sentence so entities do not span two texts. */
+    public final static String SEPARATOR = "\n.\n\n";
+    private final static Logger LOGGER = Logger.getLogger(ExtractionBatch.class);
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static int SEPARATOR_BYTES = SEPARATOR.getBytes(UTF8).length;
+
+    private final Map<String, String> settings;
+    private final int maxBytes;
+    private final ArrayList<String> texts = new ArrayList<String>();
+    private final ArrayList<SettableFuture<NamedEntity[]>> results = new ArrayList<SettableFuture<NamedEntity[]>>();
+    private int bytes;
+    private int droppedEntities;
+
+    /**
+     * Creates a new <tt>ExtractionBatch</tt>
+     * @param settings The extraction settings of all texts in the batch
+     * @param maxBytes The maximum size of the document in UTF-8 bytes
+     */
+    public ExtractionBatch(final Map<String, String> settings, final int maxBytes) {
+        this.settings = settings;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the size of the text in UTF-8 bytes
+     * @param text The text
+     * @return The number of bytes
+     */
+    public static int getByteCount(final String text) {
+        return text.getBytes(UTF8).length;
+    }
+
+    /**
+     * Gets the extraction settings of all texts in the batch
+     * @return The settings
+     */
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    /**
+     * Indicates whether a text of the specified size fits in the batch
+     * @param textBytes The size of the text in UTF-8 bytes
+     * @return <tt>true</tt> if the text fits
+     */
+    public boolean fits(final int textBytes) {
+        return texts.isEmpty() || bytes + SEPARATOR_BYTES + textBytes <= maxBytes;
+    }
+
+    /**
+     * Indicates whether the batch cannot hold another separator
+     * @return <tt>true</tt> if the batch is full
+     */
+    public boolean isFull() {
+        return bytes + SEPARATOR_BYTES >= maxBytes;
+    }
+
+    /**
+     * Adds a text to the batch
+     * @param text The text
+     * @param textBytes The size of the text in UTF-8 bytes
+     * @param result The future that receives the entities of the text
+     */
+    public void add(final String text, final int textBytes, final SettableFuture<NamedEntity[]> result) {
+        if (!texts.isEmpty())
+            bytes += SEPARATOR_BYTES;
+        bytes += textBytes;
+        texts.add(text);
+        results.add(result);
+    }
+
+    /**
+     * Gets the futures that receive the entities of the texts
+     * @return The futures, in the order of the texts
+     */
+    public List<SettableFuture<NamedEntity[]>> getResults() {
+        return results;
+    }
+
+    /**
+     * Indicates whether all texts have been canceled
+     * @return <tt>true</tt> if no text awaits its entities
+     */
+    public boolean isCanceled() {
+        for (final SettableFuture<NamedEntity[]> result : results)
+            if (!result.isCancelled())
+                return false;
+        return true;
+    }
+
+    /**
+     * Creates the document with all texts
+     * @return The document
+     */
+    public String getDocument() {
+        final StringBuilder document = new StringBuilder(bytes);
+        for (final String text : texts) {
+            if (document.length() > 0)
+                document.append(SEPARATOR);
+            document.append(text);
+        }
+        return document.toString();
+    }
+
+    /**
+     * Gets the number of entities that could not be attributed to a single text
+     * @return The number of dropped entities
+     */
+    public int getDroppedEntityCount() {
+        return droppedEntities;
+    }
+
+    /**
+     * Distributes the entities of the document over the texts,
+     * dropping entities that cannot be attributed to a single text
+     * @param document The document
+     * @param entities The entities extracted from the document
+     * @return The entities per text, with offsets relative to that text
+     */
+    public NamedEntity[][] split(final String document, final NamedEntity[] entities) {
+        // Determine where each text starts in the document
+        final int[] starts = new int[texts.size()];
+        for (int i = 1; i < starts.length; i++)
+            starts[i] = starts[i - 1] + texts.get(i - 1).length() + SEPARATOR.length();
+
+        final ArrayList<ArrayList<NamedEntity>> textEntities = new ArrayList<ArrayList<NamedEntity>>(starts.length);
+        for (int i = 0; i < starts.length; i++)
+            textEntities.add(new ArrayList<NamedEntity>());
+        droppedEntities = 0;
+        for (final NamedEntity entity : entities) {
+            final int start = locate(document, entity);
+            if (start < 0) {
+                droppedEntities++;
+                continue;
+            }
+            // Entities that do not lie within a single text cannot be attributed
+            final int found = Arrays.binarySearch(starts, start);
+            final int text = found >= 0 ? found : -found - 2;
+            final int offset = start - starts[text];
+            if (offset + entity.getExtractedText().length() <= texts.get(text).length())
+                textEntities.get(text).add(new NamedEntity(entity.getExtractedText(), entity.getDisambiguations(), offset));
+            else
+                droppedEntities++;
+        }
+        if (droppedEntities > 0)
+            LOGGER.warn(String.format("Dropped %d of %d entities of a batch of %d texts, since they do not lie within a single text.",
+                                      droppedEntities, entities.length, starts.length));
+
+        final NamedEntity[][] split = new NamedEntity[starts.length][];
+        for (int i = 0; i < starts.length; i++)
+            split[i] = textEntities.get(i).toArray(new NamedEntity[textEntities.get(i).size()]);
+        return split;
+    }
+
+    /**
+     * Determines the character offset of the entity in the document,
+     * accepting offsets that services report in characters or in code points
+     * @param document The document
+     * @param entity The entity
+     * @return The character offset, or -1 if the entity cannot be found at its offset
+     */
+    static int locate(final String document, final NamedEntity entity) {
+        final int offset = entity.getOffset();
+        final String text = entity.getExtractedText();
+        if (offset < 0 || offset >= document.length())
+            return -1;
+        if (document.startsWith(text, offset))
+            return offset;
+        if (offset <= document.codePointCount(0, document.length())) {
+            final int charOffset = document.offsetByCodePoints(0, offset);
+            if (document.startsWith(text, charOffset))
+                return charOffset;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,307 @@
+package org.freeyourmetadata.ner.services;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONTokener;
+import org.json.JSONWriter;
+
+/**
+ * Content-addressed disk cache of named-entity extraction results,
+ * bounded in size by evicting the least recently used entries
+ */
+public class ExtractionCache {
+    private final static Logger LOGGER = Logger.getLogger(ExtractionCache.class);
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+    private final static String EXTENSION = ".json";
+
+    private final File directory;
+    private final long maxSize;
+    private final LinkedHashMap<String, Long> entrySizes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long size;
+
+    /**
+     * Creates a new <tt>ExtractionCache</tt>, indexing entries that already exist on disk
+     * @param directory The directory in which entries are stored
+     * @param maxSize The maximum number of bytes taken by all entries
+     */
+    public ExtractionCache(final File directory, final long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        // Keep entries in access order, so the eldest entry is the least recently used
+        entrySizes = new LinkedHashMap<String, Long>(1024, 0.75f, true);
+        directory.mkdirs();
+        loadIndex();
+    }
+
+    /**
+     * Creates the cache key for an extraction
+     * @param resultKey The result key of the service that performs the extraction
+     * @param settings The settings for the extraction
+     * @param text The text to analyze
+     * @return The cache key
+     */
+    public static String createKey(final String resultKey, final Map<String, String> settings, final String text) {
+        final MessageDigest digest = createDigest();
+        digest.update(resultKey.getBytes(UTF8));
+        // Sort the settings, so their order does not influence the key
+        if (settings != null) {
+            for (final Map.Entry<String, String> setting : new TreeMap<String, String>(settings).entrySet()) {
+                digest.update((byte)0);
+                digest.update(setting.getKey().getBytes(UTF8));
+                digest.update((byte)'=');
+                digest.update(String.valueOf(setting.getValue()).getBytes(UTF8));
+            }
+        }
+        digest.update((byte)0);
+        digest.update(createDigest().digest(text.getBytes(UTF8)));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Gets the cached named entities for the specified key
+     * @param key The cache key
+     * @return The named entities, or <tt>null</tt> if the key is not cached
+     */
+    public NamedEntity[] get(final String key) {
+        final boolean cached;
+        synchronized (entrySizes) {
+            cached = entrySizes.get(key) != null;
+        }
+        if (cached) {
+            final File file = getFile(key);
+            try {
+                final NamedEntity[] entities = read(file);
+                file.setLastModified(System.currentTimeMillis());
+                hits.incrementAndGet();
+                return entities;
+            }
+            // The entry might have been evicted or damaged in the meantime
+            catch (Exception error) {
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the named entities under the specified key
+     * @param key The cache key
+     * @param entities The named entities
+     */
+    public void put(final String key, final NamedEntity[] entities) {
+        final File file = getFile(key);
+        final File tempFile = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+        try {
+            file.getParentFile().mkdirs();
+            write(tempFile, entities);
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                if (!tempFile.renameTo(file))
+                    throw new IOException("Could not rename " + tempFile);
+            }
+        }
+        catch (Exception error) {
+            LOGGER.warn("Could not write extraction cache entry " + file, error);
+            tempFile.delete();
+            return;
+        }
+
+        synchronized (entrySizes) {
+            final Long previousSize = entrySizes.put(key, file.length());
+            size += file.length() - (previousSize == null ? 0 : previousSize);
+            evict();
+        }
+    }
+
+    /**
+     * Gets the number of cache hits
+     * @return The number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of cache misses
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of bytes taken by all entries
+     * @return The size of the cache
+     */
+    public long getSize() {
+        synchronized (entrySizes) {
+            return size;
+        }
+    }
+
+    /**
+     * Removes the entry with the specified key
+     * @param key The cache key
+     */
+    private void remove(final String key) {
+        synchronized (entrySizes) {
+            final Long entrySize = entrySizes.remove(key);
+            if (entrySize != null)
+                size -= entrySize;
+        }
+        getFile(key).delete();
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits its maximum size
+     */
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> entries = entrySizes.entrySet().iterator();
+        while (size > maxSize && entries.hasNext()) {
+            final Map.Entry<String, Long> entry = entries.next();
+            getFile(entry.getKey()).delete();
+            size -= entry.getValue();
+            entries.remove();
+        }
+    }
+
+    /**
+     * Indexes all entries on disk, from least to most recently used
+     */
+    private void loadIndex() {
+        final ArrayList<File> files = new ArrayList<File>();
+        final File[] subdirectories = directory.listFiles();
+        if (subdirectories != null) {
+            for (final File subdirectory : subdirectories) {
+                final File[] entryFiles = subdirectory.listFiles();
+                if (entryFiles != null)
+                    files.addAll(Arrays.asList(entryFiles));
+            }
+        }
+        final File[] sortedFiles = files.toArray(new File[files.size()]);
+        Arrays.sort(sortedFiles, new Comparator<File>() {
+            @Override
+            public int compare(final File a, final File b) {
+                final long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        synchronized (entrySizes) {
+            for (final File file : sortedFiles) {
+                final String name = file.getName();
+                if (name.endsWith(EXTENSION)) {
+                    entrySizes.put(name.substring(0, name.length() - EXTENSION.length()), file.length());
+                    size += file.length();
+                }
+                // Remove leftovers of interrupted writes
+                else {
+                    file.delete();
+                }
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Gets the file of the entry with the specified key
+     * @param key The cache key
+     * @return The file
+     */
+    private File getFile(final String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + EXTENSION);
+    }
+
+    /**
+     * Reads named entities from the specified file
+     * @param file The file
+     * @return The named entities
+     * @throws IOException if the file cannot be read
+     * @throws JSONException if the file contains invalid JSON
+     */
+    private static NamedEntity[] read(final File file) throws IOException, JSONException {
+        final Reader reader = new InputStreamReader(new FileInputStream(file), UTF8);
+        try {
+            final JSONArray entitiesJson = (JSONArray)new JSONTokener(reader).nextValue();
+            final NamedEntity[] entities = new NamedEntity[entitiesJson.length()];
+            for (int i = 0; i < entities.length; i++)
+                entities[i] = new NamedEntity(entitiesJson.getJSONObject(i));
+            return entities;
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Writes named entities to the specified file
+     * @param file The file
+     * @param entities The named entities
+     * @throws IOException if the file cannot be written
+     * @throws JSONException if the entities cannot be serialized
+     */
+    private static void write(final File file, final NamedEntity[] entities) throws IOException, JSONException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF8);
+        try {
+            final JSONWriter json = new JSONWriter(writer);
+            json.array();
+            for (final NamedEntity entity : entities)
+                entity.writeTo(json);
+            json.endArray();
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Creates a SHA-1 message digest
+     * @return The digest
+     */
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException error) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Converts the bytes into a hexadecimal string
+     * @param bytes The bytes
+     * @return The hexadecimal string
+     */
+    private static String toHex(final byte[] bytes) {
+        final char[] hex = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
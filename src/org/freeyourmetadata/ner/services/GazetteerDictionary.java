@@ -0,0 +1,406 @@
+package org.freeyourmetadata.ner.services;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.freeyourmetadata.util.AhoCorasickAutomaton;
+import org.freeyourmetadata.util.CharFolding;
+import org.freeyourmetadata.util.IndexInput;
+import org.freeyourmetadata.util.IndexOutput;
+
+/**
+ * Dictionary of labels with their URIs, compiled into an automaton
+ * that finds all labels in a text in a single pass.
+ * Labels that are equal after folding share a keyword, whose URIs become the disambiguations of a match.
+ * The automaton and the labels and URIs are compiled once into an index file,
+ * which is memory-mapped rather than loaded onto the heap,
+ * so opening the dictionary again is nearly instant and the operating system
+ * shares its pages between all processes that use the dictionary.
+ * Indexes are checked when they are opened, so a corrupt index is rebuilt rather than used.
+ * Instances are immutable and can be used by several threads at once.
+ */
+class GazetteerDictionary {
+    /** Identifies index files, and differs between byte orders so foreign indexes are rebuilt. */
+    private final static int MAGIC = 0x4E455247;
+    private final static int VERSION = 1;
+    /** The name of the directory with the index files inside the cache folder of the extension. */
+    private final static String INDEX_DIRECTORY = "gazetteer";
+    private final static String INDEX_EXTENSION = ".idx";
+    /** The dictionaries that have been opened, by dictionary file. */
+    private final static HashMap<File, GazetteerDictionary> OPENED = new HashMap<File, GazetteerDictionary>();
+
+    private final File file;
+    private final long lastModified;
+    private final long length;
+    private final CharFolding folding;
+    private final AhoCorasickAutomaton automaton;
+    /** The index of the first entry of every keyword, followed by the number of entries. */
+    private final IntBuffer entryStarts;
+    /** The string with the label of every entry. */
+    private final IntBuffer entryLabels;
+    /** The string with the URI of every entry. */
+    private final IntBuffer entryUris;
+    /** The position of every string in the pool, followed by the size of the pool. */
+    private final IntBuffer stringStarts;
+    private final CharBuffer stringPool;
+
+    /**
+     * Creates a new <tt>GazetteerDictionary</tt>
+     * @param file The dictionary file
+     * @param lastModified The modification time of the dictionary file
+     * @param length The size of the dictionary file
+     * @param folding The folding of the labels and texts
+     * @param input The index, positioned after its header
+     * @throws IOException if the index does not contain a dictionary
+     */
+    private GazetteerDictionary(final File file, final long lastModified, final long length,
+                                final CharFolding folding, final IndexInput input) throws IOException {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.folding = folding;
+        automaton = AhoCorasickAutomaton.readFrom(input);
+        entryStarts = input.readInts();
+        entryLabels = input.readInts();
+        entryUris = input.readInts();
+        stringStarts = input.readInts();
+        stringPool = input.readChars();
+        if (entryStarts.limit() != automaton.getKeywordCount() + 1 || entryUris.limit() != entryLabels.limit()
+            || !isAscending(entryStarts, entryLabels.limit()) || !isAscending(stringStarts, stringPool.limit())
+            || !isBelow(entryLabels, stringStarts.limit() - 1) || !isBelow(entryUris, stringStarts.limit() - 1))
+            throw new IOException("The index does not contain a valid dictionary.");
+    }
+
+    /**
+     * Indicates whether offsets start at zero and ascend to the specified end
+     * @param offsets The offsets
+     * @param end The last offset
+     * @return <tt>true</tt> if the offsets are valid
+     */
+    private static boolean isAscending(final IntBuffer offsets, final int end) {
+        final int count = offsets.limit();
+        if (count == 0 || offsets.get(0) != 0 || offsets.get(count - 1) != end)
+            return false;
+        for (int i = 1; i < count; i++)
+            if (offsets.get(i) < offsets.get(i - 1))
+                return false;
+        return true;
+    }
+
+    /**
+     * Indicates whether all numbers are valid indexes below the specified count
+     * @param numbers The numbers
+     * @param count The number of valid indexes
+     * @return <tt>true</tt> if the numbers are valid
+     */
+    private static boolean isBelow(final IntBuffer numbers, final int count) {
+        for (int i = 0; i < numbers.limit(); i++)
+            if (numbers.get(i) < 0 || numbers.get(i) >= count)
+                return false;
+        return true;
+    }
+
+    /**
+     * Opens the dictionary in a UTF-8 file with a tab-separated label and URI on every line,
+     * compiling the file into an index unless an index of its current version exists;
+     * empty lines and lines that start with <tt>#</tt> are ignored
+     * @param file The dictionary file
+     * @param folding The folding of the labels and texts
+     * @return The dictionary
+     * @throws IOException if the file cannot be read or a line has no URI
+     */
+    public static GazetteerDictionary open(final File file, final CharFolding folding) throws IOException {
+        final File source = file.getCanonicalFile();
+        synchronized (OPENED) {
+            GazetteerDictionary dictionary = OPENED.get(source);
+            if (dictionary == null || !dictionary.isLoadedFrom(source, folding)) {
+                // Remove the outdated dictionary first, so its mapping can be released
+                OPENED.remove(source);
+                final long lastModified = source.lastModified(), length = source.length();
+                final File index = getIndexFile(source, lastModified, length, folding);
+                dictionary = index.isFile() ? read(index, source, lastModified, length, folding) : null;
+                if (dictionary == null) {
+                    deleteOutdatedIndexes(source, lastModified, length);
+                    compile(source, lastModified, length, folding, index);
+                    dictionary = read(index, source, lastModified, length, folding);
+                    if (dictionary == null)
+                        throw new IOException(String.format("The index %s cannot be read.", index.getPath()));
+                }
+                OPENED.put(source, dictionary);
+            }
+            return dictionary;
+        }
+    }
+
+    /**
+     * Gets the directory with the index files
+     * @return The directory, which might not exist yet
+     */
+    private static File getIndexDirectory() {
+        return NERServiceManager.getCacheDirectory(INDEX_DIRECTORY);
+    }
+
+    /**
+     * Deletes the index files of other versions of a dictionary file, as well as unreadable index files
+     * @param source The dictionary file
+     * @param lastModified The modification time of the current version of the dictionary file
+     * @param length The size of the current version of the dictionary file
+     */
+    private static void deleteOutdatedIndexes(final File source, final long lastModified, final long length) {
+        final File[] indexes = getIndexDirectory().listFiles();
+        if (indexes == null)
+            return;
+        final String prefix = source.getName() + '-';
+        for (final File index : indexes) {
+            final String name = index.getName();
+            if (!name.startsWith(prefix) || !name.endsWith(INDEX_EXTENSION))
+                continue;
+            boolean outdated;
+            try {
+                final IndexInput input = IndexInput.map(index);
+                // Indexes of the same version with another folding are still current
+                outdated = input.readInt() != MAGIC || input.readInt() != VERSION;
+                if (!outdated) {
+                    input.readInt();
+                    final long indexLastModified = input.readLong(), indexLength = input.readLong();
+                    outdated = input.readString().equals(source.getPath())
+                               && (indexLastModified != lastModified || indexLength != length);
+                }
+            }
+            catch (IOException error) {
+                outdated = true;
+            }
+            if (outdated)
+                index.delete();
+        }
+    }
+
+    /**
+     * Gets the index file of a version of a dictionary file
+     * @param source The dictionary file
+     * @param lastModified The modification time of the dictionary file
+     * @param length The size of the dictionary file
+     * @param folding The folding of the labels and texts
+     * @return The index file
+     */
+    private static File getIndexFile(final File source, final long lastModified, final long length,
+                                     final CharFolding folding) {
+        final String key = source.getPath() + '\n' + lastModified + '\n' + length + '\n' + folding.hashCode();
+        return new File(getIndexDirectory(), String.format("%s-%08x%s", source.getName(), key.hashCode(), INDEX_EXTENSION));
+    }
+
+    /**
+     * Maps an index into memory
+     * @param index The index file
+     * @param source The dictionary file
+     * @param lastModified The modification time of the dictionary file
+     * @param length The size of the dictionary file
+     * @param folding The folding of the labels and texts
+     * @return The dictionary, or <tt>null</tt> if the index belongs to another version of the dictionary
+     */
+    private static GazetteerDictionary read(final File index, final File source, final long lastModified,
+                                            final long length, final CharFolding folding) {
+        try {
+            final IndexInput input = IndexInput.map(index);
+            if (input.readInt() != MAGIC || input.readInt() != VERSION
+                || input.readInt() != folding.hashCode() || input.readLong() != lastModified
+                || input.readLong() != length || !input.readString().equals(source.getPath()))
+                return null;
+            return new GazetteerDictionary(source, lastModified, length, folding, input);
+        }
+        // An unreadable index is rebuilt
+        catch (IOException error) {
+            return null;
+        }
+    }
+
+    /**
+     * Compiles a dictionary file into an index
+     * @param source The dictionary file
+     * @param lastModified The modification time of the dictionary file
+     * @param length The size of the dictionary file
+     * @param folding The folding of the labels and texts
+     * @param index The index file
+     * @throws IOException if the dictionary file cannot be read or the index cannot be written
+     */
+    private static void compile(final File source, final long lastModified, final long length,
+                                final CharFolding folding, final File index) throws IOException {
+        final HashMap<String, Integer> keywordIds = new HashMap<String, Integer>();
+        final ArrayList<String> keywords = new ArrayList<String>();
+        final ArrayList<Integer> entryKeywords = new ArrayList<Integer>();
+        final ArrayList<Integer> entryLabels = new ArrayList<Integer>();
+        final ArrayList<Integer> entryUris = new ArrayList<Integer>();
+        final HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+        final StringBuilder stringPool = new StringBuilder();
+        final ArrayList<Integer> stringStarts = new ArrayList<Integer>();
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), "UTF-8"));
+        try {
+            String line;
+            for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+                if (line.trim().length() == 0 || line.startsWith("#"))
+                    continue;
+                final int tab = line.indexOf('\t');
+                if (tab < 0)
+                    throw new IOException(String.format("Line %d of %s has no URI.", lineNumber, source.getPath()));
+                final int uriEnd = line.indexOf('\t', tab + 1);
+                final String label = line.substring(0, tab).trim();
+                final String uri = line.substring(tab + 1, uriEnd < 0 ? line.length() : uriEnd).trim();
+                if (label.length() == 0)
+                    continue;
+
+                final String keyword = new String(folding.fold(label));
+                Integer keywordId = keywordIds.get(keyword);
+                if (keywordId == null) {
+                    keywordId = keywords.size();
+                    keywordIds.put(keyword, keywordId);
+                    keywords.add(keyword);
+                }
+                entryKeywords.add(keywordId);
+                entryLabels.add(addString(label, stringIds, stringPool, stringStarts));
+                entryUris.add(addString(uri, stringIds, stringPool, stringStarts));
+            }
+        }
+        finally {
+            reader.close();
+        }
+        stringStarts.add(stringPool.length());
+
+        // Group the entries by keyword
+        final int keywordCount = keywords.size();
+        final int entryCount = entryKeywords.size();
+        final int[] entryStarts = new int[keywordCount + 1];
+        for (final int keyword : entryKeywords)
+            entryStarts[keyword + 1]++;
+        for (int keyword = 0; keyword < keywordCount; keyword++)
+            entryStarts[keyword + 1] += entryStarts[keyword];
+        final int[] nextEntries = new int[keywordCount];
+        System.arraycopy(entryStarts, 0, nextEntries, 0, keywordCount);
+        final int[] groupedLabels = new int[entryCount];
+        final int[] groupedUris = new int[entryCount];
+        for (int entry = 0; entry < entryCount; entry++) {
+            final int position = nextEntries[entryKeywords.get(entry)]++;
+            groupedLabels[position] = entryLabels.get(entry);
+            groupedUris[position] = entryUris.get(entry);
+        }
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.compile(keywords.toArray(new String[keywordCount]));
+
+        // Write to a temporary file first, so other processes never see an incomplete index
+        final File directory = index.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException(String.format("The directory %s cannot be created.", directory.getPath()));
+        final File temporary = File.createTempFile(index.getName(), ".tmp", directory);
+        try {
+            final IndexOutput output = new IndexOutput(new FileOutputStream(temporary).getChannel());
+            try {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(folding.hashCode());
+                output.writeLong(lastModified);
+                output.writeLong(length);
+                output.writeString(source.getPath());
+                automaton.writeTo(output);
+                output.writeInts(IntBuffer.wrap(entryStarts));
+                output.writeInts(IntBuffer.wrap(groupedLabels));
+                output.writeInts(IntBuffer.wrap(groupedUris));
+                output.writeInts(IntBuffer.wrap(toArray(stringStarts)));
+                output.writeChars(CharBuffer.wrap(stringPool));
+            }
+            finally {
+                output.close();
+            }
+            if (!temporary.renameTo(index) && !(index.delete() && temporary.renameTo(index)) && !index.isFile())
+                throw new IOException(String.format("The index %s cannot be created.", index.getPath()));
+        }
+        finally {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Adds a string to the pool, unless the pool already contains it
+     * @param string The string
+     * @param stringIds The strings in the pool, with their number
+     * @param stringPool The characters of the strings in the pool
+     * @param stringStarts The position of every string in the pool
+     * @return The number of the string in the pool
+     */
+    private static int addString(final String string, final HashMap<String, Integer> stringIds,
+                                 final StringBuilder stringPool, final ArrayList<Integer> stringStarts) {
+        Integer stringId = stringIds.get(string);
+        if (stringId == null) {
+            stringId = stringStarts.size();
+            stringIds.put(string, stringId);
+            stringStarts.add(stringPool.length());
+            stringPool.append(string);
+        }
+        return stringId;
+    }
+
+    /**
+     * Converts a list of numbers into an array
+     * @param list The list
+     * @return The array
+     */
+    private static int[] toArray(final List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i);
+        return array;
+    }
+
+    /**
+     * Indicates whether the dictionary was loaded from the current version of the file with the folding
+     * @param file The file
+     * @param folding The folding of the labels and texts
+     * @return <tt>true</tt> if the dictionary is up to date
+     */
+    public boolean isLoadedFrom(final File file, final CharFolding folding) {
+        return this.file.equals(file) && this.folding.equals(folding)
+            && lastModified == file.lastModified() && length == file.length();
+    }
+
+    /**
+     * Gets a string from the pool
+     * @param stringId The number of the string
+     * @return The string
+     */
+    private String getString(final int stringId) {
+        final int start = stringStarts.get(stringId);
+        final char[] chars = new char[stringStarts.get(stringId + 1) - start];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = stringPool.get(start + i);
+        return new String(chars);
+    }
+
+    /**
+     * Finds the labels of the dictionary in a text
+     * @param text The text
+     * @return The entities with the labels that occur as whole words,
+     *         keeping only the longest of overlapping occurrences
+     */
+    public NamedEntity[] find(final String text) {
+        final List<AhoCorasickAutomaton.Match> matches = automaton.findAll(folding.fold(text), true);
+        final NamedEntity[] entities = new NamedEntity[matches.size()];
+        for (int i = 0; i < entities.length; i++) {
+            final AhoCorasickAutomaton.Match match = matches.get(i);
+            final int firstEntry = entryStarts.get(match.getKeyword());
+            final Disambiguation[] disambiguations = new Disambiguation[entryStarts.get(match.getKeyword() + 1) - firstEntry];
+            for (int j = 0; j < disambiguations.length; j++)
+                disambiguations[j] = new Disambiguation(getString(entryLabels.get(firstEntry + j)),
+                                                        getString(entryUris.get(firstEntry + j)));
+            entities[i] = new NamedEntity(text.substring(match.getStart(), match.getEnd()),
+                                          disambiguations, match.getStart());
+        }
+        return entities;
+    }
+}
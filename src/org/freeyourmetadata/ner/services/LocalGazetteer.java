@@ -0,0 +1,115 @@
+package org.freeyourmetadata.ner.services;
+
+import java.io.File;
+import java.util.Map;
+
+import org.freeyourmetadata.util.CharFolding;
+
+/**
+ * Named-entity recognition service that finds the labels of a local dictionary,
+ * which is a tab-separated file with a label and URI on every line.
+ * The dictionary is compiled once into a memory-mapped index,
+ * and extraction happens without any network requests.
+ */
+public class LocalGazetteer extends LocalNERServiceBase {
+    /** The path of the dictionary file. */
+    public final static String DICTIONARY_FILE = "Dictionary file";
+    /** Whether labels match regardless of case. */
+    public final static String IGNORE_CASE = "Ignore case";
+    /** Whether labels match regardless of diacritics. */
+    public final static String IGNORE_DIACRITICS = "Ignore diacritics";
+    private final static String[] SERVICESETTINGS = { DICTIONARY_FILE, IGNORE_CASE, IGNORE_DIACRITICS };
+    private final static String[] EXTRACTIONSETTINGS = {};
+    /** The number of milliseconds after which the dictionary file is checked for changes again. */
+    private final static long CHANGE_CHECK_INTERVAL = 5000;
+
+    /** The opened dictionary, or <tt>null</tt> if the settings have changed since. */
+    private volatile GazetteerDictionary dictionary;
+    private volatile long nextChangeCheck;
+
+    /**
+     * Creates a new local gazetteer
+     */
+    public LocalGazetteer() {
+        super(null, SERVICESETTINGS, EXTRACTIONSETTINGS);
+        setServiceSetting(IGNORE_CASE, "true");
+        setServiceSetting(IGNORE_DIACRITICS, "false");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean isConfigured() {
+        return getServiceSetting(DICTIONARY_FILE).trim().length() > 0;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setServiceSetting(final String name, final String value) {
+        super.setServiceSetting(name, value);
+        // Open the dictionary again with the new settings, after any opening that used the old settings
+        if (DICTIONARY_FILE.equals(name) || IGNORE_CASE.equals(name) || IGNORE_DIACRITICS.equals(name))
+            synchronized (this) {
+                dictionary = null;
+            }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getResultKey() {
+        final File file = new File(getServiceSetting(DICTIONARY_FILE).trim()).getAbsoluteFile();
+        return String.format("%s dictionary=%s modified=%d case=%b diacritics=%b", super.getResultKey(),
+                             file.getPath(), file.lastModified(),
+                             getServiceSettingBoolean(IGNORE_CASE), getServiceSettingBoolean(IGNORE_DIACRITICS));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public NamedEntity[] extractNamedEntities(final String text, final Map<String, String> settings) throws Exception {
+        return getDictionary().find(text);
+    }
+
+    /**
+     * Gets the dictionary, opening it again if the settings have changed
+     * or the file has changed since the last check
+     * @return The dictionary
+     * @throws Exception if the dictionary cannot be opened
+     */
+    private GazetteerDictionary getDictionary() throws Exception {
+        final GazetteerDictionary current = dictionary;
+        if (current != null && System.currentTimeMillis() < nextChangeCheck)
+            return current;
+        return openDictionary();
+    }
+
+    /**
+     * Opens the dictionary again if the file or the folding settings have changed
+     * @return The dictionary
+     * @throws Exception if the dictionary cannot be opened
+     */
+    private synchronized GazetteerDictionary openDictionary() throws Exception {
+        // Another thread might have opened or checked the dictionary in the meantime
+        if (dictionary != null && System.currentTimeMillis() < nextChangeCheck)
+            return dictionary;
+        final File file = new File(getServiceSetting(DICTIONARY_FILE).trim()).getCanonicalFile();
+        final CharFolding folding = new CharFolding(getServiceSettingBoolean(IGNORE_CASE),
+                                                    getServiceSettingBoolean(IGNORE_DIACRITICS));
+        if (dictionary == null || !dictionary.isLoadedFrom(file, folding)) {
+            if (!file.isFile())
+                throw new Exception(String.format("The dictionary file %s does not exist.", file.getPath()));
+            dictionary = null;
+            dictionary = GazetteerDictionary.open(file, folding);
+        }
+        nextChangeCheck = System.currentTimeMillis() + CHANGE_CHECK_INTERVAL;
+        return dictionary;
+    }
+
+    /**
+     * Gets the value of the specified setting as a boolean
+     * @param name The setting name
+     * @return <tt>true</tt> if the setting is <tt>true</tt> or <tt>yes</tt>
+     */
+    private boolean getServiceSettingBoolean(final String name) {
+        final String value = getServiceSetting(name).trim();
+        return "true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value);
+    }
+}
@@ -0,0 +1,50 @@
+package org.freeyourmetadata.ner.services;
+
+import java.net.URI;
+import java.util.Map;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Base class for named-entity recognition services that extract entities locally,
+ * without any network requests.
+ * Extractions run in parallel on the worker threads of the service,
+ * whose number is the configured number of concurrent requests.
+ */
+public abstract class LocalNERServiceBase extends NERServiceBase {
+    /**
+     * Creates a new local named-entity recognition service base class
+     * @param documentationUri The URI of the service's documentation
+     * @param serviceSettings The names of supported service settings
+     * @param extractionSettings The names of supported extraction settings
+     */
+    public LocalNERServiceBase(final URI documentationUri,
+                               final String[] serviceSettings, final String[] extractionSettings) {
+        super(null, documentationUri, serviceSettings, extractionSettings);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public abstract NamedEntity[] extractNamedEntities(final String text, final Map<String, String> settings) throws Exception;
+
+    /** {@inheritDoc} */
+    @Override
+    public ListenableFuture<NamedEntity[]> extractNamedEntitiesAsync(final String text, final Map<String, String> settings) {
+        final SettableFuture<NamedEntity[]> result = SettableFuture.create();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled())
+                    return;
+                try {
+                    result.set(extractNamedEntities(text, settings));
+                }
+                catch (Exception error) {
+                    result.setException(error);
+                }
+            }
+        });
+        return result;
+    }
+}
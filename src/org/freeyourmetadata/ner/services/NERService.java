@@ -4,6 +4,10 @@ import java.net.URI;
 import java.util.Set;
 import java.util.Map;
 
+import org.freeyourmetadata.util.CircuitBreaker;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Interface for named-entity recognition services
  * @author Ruben Verborgh
@@ -18,6 +22,16 @@ public interface NERService {
      */
     public NamedEntity[] extractNamedEntities(String text, final Map<String, String> settings) throws Exception;
     
+    /**
+     * Extracts named entities from the specified text without blocking the caller.
+     * Implementations may still perform the request on a thread of their own,
+     * which is then occupied until the request completes.
+     * @param text The text
+     * @param settings The settings for the extraction
+     * @return A future with the extracted named entities, which fails if the extraction fails
+     */
+    public ListenableFuture<NamedEntity[]> extractNamedEntitiesAsync(String text, final Map<String, String> settings);
+    
     /**
      * Gets the names of supported settings of the service
      * @return The setting names
@@ -69,4 +83,22 @@ public interface NERService {
      * @return A documentation URI
      */
     public URI getDocumentationUri();
+    
+    /**
+     * Gets the state of the circuit breaker that guards requests to the service
+     * @return The circuit state
+     */
+    public CircuitBreaker.State getCircuitState();
+
+    /**
+     * Gets a key of the service settings that influence the extracted entities,
+     * so results extracted with other settings are neither read from the cache nor reused
+     * @return The key
+     */
+    public String getResultKey();
+
+    /**
+     * Releases the network resources held by the service
+     */
+    public void shutdown();
 }
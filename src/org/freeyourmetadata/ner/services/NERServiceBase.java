@@ -1,28 +1,67 @@
 package org.freeyourmetadata.ner.services;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
+import org.freeyourmetadata.util.CircuitBreaker;
+import org.freeyourmetadata.util.ConcurrencyController;
+import org.freeyourmetadata.util.ConnectionPoolMonitor;
+import org.freeyourmetadata.util.DaemonThreadFactory;
+import org.freeyourmetadata.util.JSONStreamReader;
+import org.freeyourmetadata.util.RateLimiter;
+import org.freeyourmetadata.util.TextChunker;
+import org.freeyourmetadata.util.RetryPolicy;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONWriter;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 /**
  * Abstract base class for named-entity recognition services
  * with default support for JSON communication (but others are possible)
@@ -32,12 +71,64 @@ public abstract class NERServiceBase implements NERService {
     /** The empty extraction result, containing no entities. */
     protected final static NamedEntity[] EMPTY_EXTRACTION_RESULT = new NamedEntity[0];
     
+    /** The service setting that determines the size of the connection pool. */
+    public final static String MAX_CONNECTIONS = "Max connections";
+    /** The service setting that determines the number of parallel requests. */
+    public final static String CONCURRENT_REQUESTS = "Concurrent requests";
+    /** The default number of parallel requests. */
+    public final static int DEFAULT_CONCURRENT_REQUESTS = 4;
+    /** The service setting that limits the number of requests per second. */
+    public final static String REQUESTS_PER_SECOND = "Requests per second";
+    /** The service setting that determines how often failed requests are retried. */
+    public final static String MAX_RETRIES = "Max retries";
+    /** The service setting that limits the time to establish a connection, in seconds. */
+    public final static String CONNECT_TIMEOUT = "Connect timeout";
+    /** The service setting that limits the time between received data packets, in seconds. */
+    public final static String READ_TIMEOUT = "Read timeout";
+    /** The service setting that limits the total time of a single request, in seconds. */
+    public final static String REQUEST_TIMEOUT = "Request timeout";
+    /** The service setting that limits the size of a request combining several texts, in bytes (0 disables batching). */
+    public final static String BATCH_SIZE = "Batch size";
+    /** The service setting that limits the length of a text sent in a single request, in characters (0 disables chunking). */
+    public final static String CHUNK_SIZE = "Chunk size";
+    
     private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final static int DEFAULT_MAX_CONNECTIONS = 10;
+    private final static long DEFAULT_KEEP_ALIVE = 30000;
+    private final static long WORKER_KEEP_ALIVE = 60000;
+    private final static int DEFAULT_MAX_RETRIES = 4;
+    private final static long RETRY_BASE_DELAY = 500;
+    private final static long RETRY_MAX_DELAY = 30000;
+    private final static int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private final static long CIRCUIT_OPEN_DURATION = 30000;
+    private final static int DEFAULT_CONNECT_TIMEOUT = 10;
+    private final static int DEFAULT_READ_TIMEOUT = 30;
+    private final static int DEFAULT_REQUEST_TIMEOUT = 60;
+    /** The number of milliseconds a batch waits for more texts before it is sent. */
+    private final static long BATCH_DELAY = 50;
+    /** The maximum number of characters by which consecutive chunks of a long text overlap. */
+    private final static int MAX_CHUNK_OVERLAP = 500;
+    private final static ScheduledExecutorService DEADLINE_SCHEDULER =
+        Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("NER request deadline"));
+    /** Executor that runs cancellation listeners on the thread that cancels the extraction. */
+    private final static Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
     
     private final URI serviceUrl;
     private final HashMap<String, String> serviceSettings;
     private final HashMap<String, String> extractionSettingsDefault;
     private final URI documentationUri;
+    private PoolingClientConnectionManager connectionManager;
+    private DefaultHttpClient httpClient;
+    private ThreadPoolExecutor executor;
+    private RateLimiter rateLimiter;
+    private ConcurrencyController concurrencyController;
+    private CircuitBreaker circuitBreaker;
+    private final HashMap<Map<String, String>, ExtractionBatch> pendingBatches = new HashMap<Map<String, String>, ExtractionBatch>();
 
     /**
      * Creates a new named-entity recognition service base class
@@ -51,9 +142,16 @@ public abstract class NERServiceBase implements NERService {
         this.serviceUrl = serviceUrl;
         this.documentationUri = documentationUri;
         
-        this.serviceSettings = new HashMap<String, String>(serviceSettings.length);
+        this.serviceSettings = new HashMap<String, String>(serviceSettings.length + 7);
         for (String serviceSetting : serviceSettings)
             this.serviceSettings.put(serviceSetting, "");
+        this.serviceSettings.put(MAX_CONNECTIONS, Integer.toString(DEFAULT_MAX_CONNECTIONS));
+        this.serviceSettings.put(CONCURRENT_REQUESTS, Integer.toString(DEFAULT_CONCURRENT_REQUESTS));
+        this.serviceSettings.put(REQUESTS_PER_SECOND, "0");
+        this.serviceSettings.put(MAX_RETRIES, Integer.toString(DEFAULT_MAX_RETRIES));
+        this.serviceSettings.put(CONNECT_TIMEOUT, Integer.toString(DEFAULT_CONNECT_TIMEOUT));
+        this.serviceSettings.put(READ_TIMEOUT, Integer.toString(DEFAULT_READ_TIMEOUT));
+        this.serviceSettings.put(REQUEST_TIMEOUT, Integer.toString(DEFAULT_REQUEST_TIMEOUT));
 
         extractionSettingsDefault = new HashMap<String, String>(extractionSettings.length);
         for (String extractionSetting : extractionSettings)
@@ -79,6 +177,29 @@ public abstract class NERServiceBase implements NERService {
         	throw new IllegalArgumentException("The service setting " + name
                                                + " is invalid for " + getClass().getName() + ".");
         serviceSettings.put(name, value == null ? "" : value);
+        if (MAX_CONNECTIONS.equals(name))
+            updateConnectionLimits();
+        else if (CONCURRENT_REQUESTS.equals(name))
+            updateConcurrency();
+        else if (REQUESTS_PER_SECOND.equals(name))
+            updateRequestRate();
+        else if (CONNECT_TIMEOUT.equals(name) || READ_TIMEOUT.equals(name))
+            updateTimeouts();
+    }
+    
+    /**
+     * Gets the value of the specified setting as an integer
+     * @param name The setting name
+     * @param defaultValue The value to return if the setting is empty or invalid
+     * @return The setting value
+     */
+    protected int getServiceSettingInt(final String name, final int defaultValue) {
+        try {
+            return Integer.parseInt(getServiceSetting(name).trim());
+        }
+        catch (NumberFormatException error) {
+            return defaultValue;
+        }
     }
     
     
@@ -106,8 +227,304 @@ public abstract class NERServiceBase implements NERService {
     /** {@inheritDoc} */
     @Override
     public NamedEntity[] extractNamedEntities(final String text, final Map<String, String> settings) throws Exception {
-        final HttpUriRequest request = createExtractionRequest(text, settings);
-        return performExtractionRequest(request);
+        final int chunkSize = getChunkSize();
+        if (chunkSize > 0 && text.length() > chunkSize) {
+            try {
+                return extractChunks(text, settings, chunkSize).get();
+            }
+            catch (ExecutionException error) {
+                throw error.getCause() instanceof Exception ? (Exception)error.getCause() : error;
+            }
+        }
+        return extractNamedEntities(text, settings, null);
+    }
+    
+    /**
+     * Extracts named entities from the text, retrying temporary failures
+     * @param text The text
+     * @param settings The extraction settings
+     * @param task The asynchronous task that performs the extraction (can be null)
+     * @return The extracted named entities
+     * @throws Exception if the extraction fails or is canceled
+     */
+    private NamedEntity[] extractNamedEntities(final String text, final Map<String, String> settings,
+                                               final ExtractionTask task) throws Exception {
+        final CircuitBreaker circuitBreaker = getCircuitBreaker();
+        final RetryPolicy retryPolicy = getRetryPolicy();
+        for (int attempt = 1; ; attempt++) {
+            // Fail fast while the service is down
+            if (!circuitBreaker.allowRequest())
+                throw new Exception(String.format("%s is temporarily unavailable after repeated failures.",
+                                                  getClass().getSimpleName()));
+            
+            final HttpUriRequest request = createExtractionRequest(text, settings);
+            // Let a cancellation abort the request while it is in flight
+            if (task != null)
+                task.setRequest(request);
+            try {
+                final NamedEntity[] entities = performExtractionRequest(request);
+                circuitBreaker.recordSuccess();
+                return entities;
+            }
+            // Wait and try again if the failure is temporary
+            catch (TransientException error) {
+                // An aborted request fails like a broken connection, but must not be retried
+                if (task != null && task.isCanceled())
+                    throw new CancellationException("The extraction was canceled.");
+                final boolean throttled = error instanceof ThrottledException;
+                if (throttled)
+                    circuitBreaker.recordSuccess();
+                else
+                    circuitBreaker.recordFailure();
+                if (!retryPolicy.canRetry(attempt))
+                    throw error;
+                
+                final long delay = error.getRetryAfter() >= 0 ? error.getRetryAfter() : retryPolicy.getDelay(attempt);
+                if (throttled)
+                    getRateLimiter().pause(delay);
+                else
+                    Thread.sleep(delay);
+            }
+            // Other errors are reported by a working service
+            catch (Exception error) {
+                circuitBreaker.recordSuccess();
+                throw error;
+            }
+        }
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public ListenableFuture<NamedEntity[]> extractNamedEntitiesAsync(final String text, final Map<String, String> settings) {
+        // Split long texts into chunks, which are extracted in parallel
+        final int chunkSize = getChunkSize();
+        if (chunkSize > 0 && text.length() > chunkSize)
+            return extractChunks(text, settings, chunkSize);
+        // Combine short texts into a single request if the service reports where their entities occur
+        if (reportsOffsets()) {
+            final int batchSize = getServiceSettingInt(BATCH_SIZE, 0);
+            if (batchSize > 0) {
+                final int textBytes = ExtractionBatch.getByteCount(text);
+                if (textBytes < batchSize)
+                    return addToBatch(text, textBytes, settings, batchSize);
+            }
+        }
+        return submitExtraction(text, settings);
+    }
+    
+    /**
+     * Indicates whether the service reports the offsets of the entities it extracts,
+     * so several texts can be combined into a single request and long texts can be split
+     * @return <tt>true</tt> if the service reports offsets
+     */
+    protected boolean reportsOffsets() {
+        return false;
+    }
+    
+    /**
+     * Gets the maximum length of a text sent in a single request
+     * @return The number of characters, or 0 if long texts are not split
+     */
+    protected int getChunkSize() {
+        return reportsOffsets() ? getServiceSettingInt(CHUNK_SIZE, 0) : 0;
+    }
+    
+    /**
+     * Extracts named entities from overlapping chunks of a long text in parallel,
+     * merging the entities of all chunks and keeping entities in an overlap only once
+     * @param text The text
+     * @param settings The extraction settings
+     * @param chunkSize The maximum length of a chunk
+     * @return A future with the extracted named entities of the text
+     */
+    private ListenableFuture<NamedEntity[]> extractChunks(final String text, final Map<String, String> settings,
+                                                          final int chunkSize) {
+        final TextChunker chunker = new TextChunker(chunkSize, Math.min(MAX_CHUNK_OVERLAP, chunkSize / 10));
+        final List<TextChunker.Chunk> chunks = chunker.split(text);
+        final List<ListenableFuture<NamedEntity[]>> chunkResults = new ArrayList<ListenableFuture<NamedEntity[]>>(chunks.size());
+        for (final TextChunker.Chunk chunk : chunks)
+            chunkResults.add(submitExtraction(chunk.getText(), settings));
+        
+        // Complete the text when all chunks have succeeded, or when the first chunk fails
+        final SettableFuture<NamedEntity[]> result = SettableFuture.create();
+        final AtomicInteger chunksPending = new AtomicInteger(chunks.size());
+        for (final ListenableFuture<NamedEntity[]> chunkResult : chunkResults) {
+            chunkResult.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        chunkResult.get();
+                        if (chunksPending.decrementAndGet() == 0)
+                            result.set(mergeChunks(chunks, chunkResults));
+                    }
+                    catch (ExecutionException error) {
+                        result.setException(error.getCause());
+                    }
+                    catch (CancellationException error) {
+                        result.cancel(false);
+                    }
+                    catch (Exception error) {
+                        result.setException(error);
+                    }
+                }
+            }, SAME_THREAD);
+        }
+        // Stop the other chunks once the text has failed or has been canceled
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                for (final ListenableFuture<NamedEntity[]> chunkResult : chunkResults)
+                    chunkResult.cancel(true);
+            }
+        }, SAME_THREAD);
+        return result;
+    }
+    
+    /**
+     * Merges the entities of the chunks of a text,
+     * keeping each entity only from the chunk that owns its position
+     * @param chunks The chunks
+     * @param chunkResults The completed extractions of the chunks
+     * @return The entities with offsets relative to the complete text
+     * @throws Exception if the extraction of a chunk failed
+     */
+    private static NamedEntity[] mergeChunks(final List<TextChunker.Chunk> chunks,
+                                             final List<ListenableFuture<NamedEntity[]>> chunkResults) throws Exception {
+        final ArrayList<NamedEntity> entities = new ArrayList<NamedEntity>();
+        final HashSet<String> unlocatedTexts = new HashSet<String>();
+        for (int i = 0; i < chunks.size(); i++) {
+            final TextChunker.Chunk chunk = chunks.get(i);
+            for (final NamedEntity entity : chunkResults.get(i).get()) {
+                final int offset = ExtractionBatch.locate(chunk.getText(), entity);
+                // Entities without a position can only be deduplicated by their text
+                if (offset < 0) {
+                    if (unlocatedTexts.add(entity.getExtractedText()))
+                        entities.add(entity);
+                }
+                else if (chunk.owns(chunk.getStart() + offset)) {
+                    entities.add(new NamedEntity(entity.getExtractedText(), entity.getDisambiguations(),
+                                                 chunk.getStart() + offset));
+                }
+            }
+        }
+        return entities.toArray(new NamedEntity[entities.size()]);
+    }
+    
+    /**
+     * Adds a text to the pending batch with the same settings,
+     * sending the batch when it is full or after a short delay
+     * @param text The text
+     * @param textBytes The size of the text in UTF-8 bytes
+     * @param settings The extraction settings
+     * @param batchSize The maximum size of a batch in bytes
+     * @return A future with the extracted named entities of the text
+     */
+    private ListenableFuture<NamedEntity[]> addToBatch(final String text, final int textBytes,
+                                                       final Map<String, String> settings, final int batchSize) {
+        final SettableFuture<NamedEntity[]> result = SettableFuture.create();
+        final ArrayList<ExtractionBatch> readyBatches = new ArrayList<ExtractionBatch>(2);
+        ExtractionBatch createdBatch = null;
+        synchronized (pendingBatches) {
+            ExtractionBatch batch = pendingBatches.get(settings);
+            if (batch != null && !batch.fits(textBytes)) {
+                readyBatches.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = createdBatch = new ExtractionBatch(settings, batchSize);
+                pendingBatches.put(settings, batch);
+            }
+            batch.add(text, textBytes, result);
+            if (batch.isFull()) {
+                pendingBatches.remove(settings);
+                readyBatches.add(batch);
+            }
+        }
+        // Send a new batch after a delay, unless it fills up before
+        if (createdBatch != null && !readyBatches.contains(createdBatch)) {
+            final ExtractionBatch delayedBatch = createdBatch;
+            DEADLINE_SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (pendingBatches) {
+                        if (pendingBatches.get(settings) != delayedBatch)
+                            return;
+                        pendingBatches.remove(settings);
+                    }
+                    sendBatch(delayedBatch);
+                }
+            }, BATCH_DELAY, TimeUnit.MILLISECONDS);
+        }
+        for (final ExtractionBatch batch : readyBatches)
+            sendBatch(batch);
+        return result;
+    }
+    
+    /**
+     * Sends the texts of a batch as a single document and distributes the extracted entities over the texts
+     * @param batch The batch
+     */
+    private void sendBatch(final ExtractionBatch batch) {
+        if (batch.isCanceled())
+            return;
+        final String document = batch.getDocument();
+        final ListenableFuture<NamedEntity[]> documentResult = submitExtraction(document, batch.getSettings());
+        documentResult.addListener(new Runnable() {
+            @Override
+            public void run() {
+                final List<SettableFuture<NamedEntity[]>> results = batch.getResults();
+                try {
+                    final NamedEntity[][] entities = batch.split(document, documentResult.get());
+                    for (int i = 0; i < entities.length; i++)
+                        results.get(i).set(entities[i]);
+                }
+                catch (ExecutionException error) {
+                    for (final SettableFuture<NamedEntity[]> result : results)
+                        result.setException(error.getCause());
+                }
+                catch (CancellationException error) {
+                    for (final SettableFuture<NamedEntity[]> result : results)
+                        result.cancel(false);
+                }
+                catch (InterruptedException error) {
+                    for (final SettableFuture<NamedEntity[]> result : results)
+                        result.setException(error);
+                }
+            }
+        }, SAME_THREAD);
+        // Cancel the request once all of its texts have been canceled
+        for (final SettableFuture<NamedEntity[]> result : batch.getResults()) {
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (batch.isCanceled())
+                        documentResult.cancel(true);
+                }
+            }, SAME_THREAD);
+        }
+    }
+    
+    /**
+     * Submits the text as a single request, which a worker thread of this service performs with a blocking HTTP call,
+     * so the requests in flight are bounded by the number of worker threads rather than by the threads of the caller
+     * @param text The text
+     * @param settings The extraction settings
+     * @return A future with the extracted named entities
+     */
+    private ListenableFuture<NamedEntity[]> submitExtraction(final String text, final Map<String, String> settings) {
+        final SettableFuture<NamedEntity[]> result = SettableFuture.create();
+        final ThreadPoolExecutor executor = getExecutor();
+        final ExtractionTask task = new ExtractionTask(text, settings, result, executor);
+        // Canceling the result drops the queued task, or aborts the running request and interrupts its worker
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled())
+                    task.cancel();
+            }
+        }, SAME_THREAD);
+        executor.execute(task);
+        return result;
     }
     
     /** {@inheritDoc} */
@@ -121,6 +538,179 @@ public abstract class NERServiceBase implements NERService {
         return documentationUri;
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (connectionManager != null) {
+            ConnectionPoolMonitor.shutdown(connectionManager);
+            connectionManager = null;
+            httpClient = null;
+        }
+    }
+    
+    /**
+     * Gets the pooled HTTP client of this service, creating it if necessary
+     * @return The HTTP client
+     */
+    protected synchronized DefaultHttpClient getHttpClient() {
+        if (httpClient == null) {
+            connectionManager = new PoolingClientConnectionManager();
+            updateConnectionLimits();
+            httpClient = new DefaultHttpClient(connectionManager);
+            httpClient.setKeepAliveStrategy(new KeepAliveStrategy());
+            updateTimeouts();
+            ConnectionPoolMonitor.register(connectionManager);
+        }
+        return httpClient;
+    }
+    
+    /**
+     * Applies the configured connect and read timeouts to the HTTP client
+     */
+    private synchronized void updateTimeouts() {
+        if (httpClient != null) {
+            final HttpParams params = httpClient.getParams();
+            final int connectTimeout = (int)getTimeoutSetting(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+            HttpConnectionParams.setConnectionTimeout(params, Math.max(0, connectTimeout));
+            // Waiting for a pooled connection counts as connecting
+            HttpClientParams.setConnectionManagerTimeout(params, Math.max(0, connectTimeout));
+            HttpConnectionParams.setSoTimeout(params, (int)Math.max(0, getTimeoutSetting(READ_TIMEOUT, DEFAULT_READ_TIMEOUT)));
+        }
+    }
+    
+    /**
+     * Gets the limiter of the request rate to this service, creating it if necessary
+     * @return The rate limiter
+     */
+    protected synchronized RateLimiter getRateLimiter() {
+        if (rateLimiter == null)
+            rateLimiter = new RateLimiter(getRequestRate());
+        return rateLimiter;
+    }
+    
+    /**
+     * Gets the circuit breaker of this service, creating it if necessary
+     * @return The circuit breaker
+     */
+    protected synchronized CircuitBreaker getCircuitBreaker() {
+        if (circuitBreaker == null)
+            circuitBreaker = new CircuitBreaker(CIRCUIT_FAILURE_THRESHOLD, CIRCUIT_OPEN_DURATION);
+        return circuitBreaker;
+    }
+    
+    /** {@inheritDoc} */
+    @Override
+    public CircuitBreaker.State getCircuitState() {
+        return getCircuitBreaker().getState();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getResultKey() {
+        // Batched texts give each other context and chunked texts lose some, which both change the entities
+        final int batchSize = reportsOffsets() ? getServiceSettingInt(BATCH_SIZE, 0) : 0;
+        return String.format("%s batch=%d chunk=%d", getClass().getName(), batchSize, getChunkSize());
+    }
+
+    /**
+     * Gets the policy for retrying failed requests to this service
+     * @return The retry policy
+     */
+    protected RetryPolicy getRetryPolicy() {
+        final int maxAttempts = 1 + Math.max(0, getServiceSettingInt(MAX_RETRIES, DEFAULT_MAX_RETRIES));
+        return new RetryPolicy(maxAttempts, RETRY_BASE_DELAY, RETRY_MAX_DELAY);
+    }
+    
+    /**
+     * Gets the controller of parallel requests to this service, creating it if necessary
+     * @return The concurrency controller
+     */
+    protected synchronized ConcurrencyController getConcurrencyController() {
+        if (concurrencyController == null)
+            concurrencyController = new ConcurrencyController(getConcurrency());
+        return concurrencyController;
+    }
+    
+    /**
+     * Gets the maximum number of requests per second to this service
+     * @return The number of requests per second (0 or less means unlimited)
+     */
+    public double getRequestRate() {
+        try {
+            return Double.parseDouble(getServiceSetting(REQUESTS_PER_SECOND).trim());
+        }
+        catch (NumberFormatException error) {
+            return 0;
+        }
+    }
+    
+    /**
+     * Gets the executor that performs the requests of this service, creating it if necessary
+     * @return The executor
+     */
+    protected synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            final int concurrency = getConcurrency();
+            executor = new ThreadPoolExecutor(concurrency, concurrency, WORKER_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                                              new LinkedBlockingQueue<Runnable>(),
+                                              new DaemonThreadFactory("NER " + getClass().getSimpleName() + " worker"));
+            // Release the threads of idle services
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+    
+    /**
+     * Gets the number of parallel requests allowed by this service
+     * @return The number of parallel requests
+     */
+    public int getConcurrency() {
+        return Math.max(1, getServiceSettingInt(CONCURRENT_REQUESTS, DEFAULT_CONCURRENT_REQUESTS));
+    }
+    
+    /**
+     * Applies the configured number of parallel requests to the executor
+     */
+    private synchronized void updateConcurrency() {
+        if (concurrencyController != null)
+            concurrencyController.setMaxLimit(getConcurrency());
+        if (executor != null) {
+            final int concurrency = getConcurrency();
+            // Grow the maximum first, as it may never be smaller than the core size
+            if (concurrency > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(concurrency);
+                executor.setCorePoolSize(concurrency);
+            }
+            else {
+                executor.setCorePoolSize(concurrency);
+                executor.setMaximumPoolSize(concurrency);
+            }
+        }
+    }
+    
+    /**
+     * Applies the configured request rate to the rate limiter
+     */
+    private synchronized void updateRequestRate() {
+        if (rateLimiter != null)
+            rateLimiter.setRate(getRequestRate());
+    }
+    
+    /**
+     * Applies the configured number of connections to the connection pool
+     */
+    private synchronized void updateConnectionLimits() {
+        if (connectionManager != null) {
+            final int maxConnections = Math.max(1, getServiceSettingInt(MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS));
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnections);
+        }
+    }
+    
     /**
      * Performs the named-entity recognition request
      * @param request The request
@@ -128,11 +718,93 @@ public abstract class NERServiceBase implements NERService {
      * @throws Exception if the request fails
      */
     protected NamedEntity[] performExtractionRequest(final HttpUriRequest request) throws Exception {
-        final DefaultHttpClient httpClient = new DefaultHttpClient();
-        final HttpResponse response;
-        try { response = httpClient.execute(request); }
-        catch (IOException error) { throw new RuntimeException("Could not execute HTTP request", error); }
-        return parseExtractionResponse(response);
+        // Respect the rate and concurrency limits of the service
+        final ConcurrencyController concurrencyController = getConcurrencyController();
+        getRateLimiter().acquire();
+        concurrencyController.acquire();
+        
+        // Abort the request if it exceeds its deadline
+        final long requestTimeout = getTimeoutSetting(REQUEST_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+        final RequestDeadline deadline = new RequestDeadline(request);
+        final ScheduledFuture<?> deadlineTimer = requestTimeout <= 0 ? null
+                : DEADLINE_SCHEDULER.schedule(deadline, requestTimeout, TimeUnit.MILLISECONDS);
+        // The slot is released exactly once, even if the request fails in an unexpected way
+        boolean released = false;
+        try {
+            final long start = System.currentTimeMillis();
+            final HttpResponse response;
+            try { response = getHttpClient().execute(request); }
+            catch (IOException error) {
+                if (deadline.isExpired())
+                    throw deadline.createException(requestTimeout);
+                throw new TransientException("Could not execute HTTP request", error);
+            }
+            
+            // Always consume the body, so the connection returns to the pool
+            try {
+                final int status = response.getStatusLine().getStatusCode();
+                if (status == 429 || status == 503) {
+                    released = true;
+                    concurrencyController.onThrottled();
+                    throw new ThrottledException(String.format("HTTP error %d", status), parseRetryAfter(response));
+                }
+                released = true;
+                concurrencyController.onSuccess(System.currentTimeMillis() - start);
+                if (status == 500 || status == 502 || status == 504)
+                    throw new TransientException(String.format("HTTP error %d", status), parseRetryAfter(response));
+                return parseExtractionResponse(response);
+            }
+            catch (Exception error) {
+                // Reading an aborted response fails in arbitrary ways
+                if (deadline.isExpired())
+                    throw deadline.createException(requestTimeout);
+                throw error;
+            }
+            finally {
+                try { EntityUtils.consume(response.getEntity()); }
+                catch (IOException error) { }
+            }
+        }
+        finally {
+            if (!released)
+                concurrencyController.release();
+            if (deadlineTimer != null)
+                deadlineTimer.cancel(false);
+        }
+    }
+    
+    /**
+     * Gets the value of the specified timeout setting
+     * @param name The setting name, with a value in seconds
+     * @param defaultValue The value to return if the setting is empty or invalid, in seconds
+     * @return The timeout in milliseconds (0 or less means no timeout)
+     */
+    protected long getTimeoutSetting(final String name, final int defaultValue) {
+        return 1000L * getServiceSettingInt(name, defaultValue);
+    }
+    
+    /**
+     * Parses the <tt>Retry-After</tt> header of the HTTP response
+     * @param response The response
+     * @return The number of milliseconds after which to retry, or -1 if unspecified
+     */
+    protected static long parseRetryAfter(final HttpResponse response) {
+        final Header retryAfter = response.getFirstHeader("Retry-After");
+        if (retryAfter == null)
+            return -1;
+        // The header contains either a number of seconds or a date
+        final String value = retryAfter.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        }
+        catch (NumberFormatException error) {
+            try {
+                return Math.max(0, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+            }
+            catch (DateParseException dateError) {
+                return -1;
+            }
+        }
     }
 
     /**
@@ -204,7 +876,27 @@ public abstract class NERServiceBase implements NERService {
     protected NamedEntity[] parseExtractionResponse(final HttpResponse response) throws Exception {
         final Exception error = parseErrorResponse(response);
         if (error != null) throw error;
-        return parseExtractionResponse(new JSONObject((EntityUtils.toString(response.getEntity()))));
+        final BufferedReader reader = createResponseReader(response);
+        try {
+            return parseExtractionResponse(new JSONStreamReader(reader));
+        }
+        finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Parses the named-entity recognition response while it is being read
+     * @param response The reader of the response body
+     * @return The extracted named entities
+     * @throws Exception if the extraction was not successful
+     */
+    protected NamedEntity[] parseExtractionResponse(final JSONStreamReader response) throws Exception {
+        // Services that do not parse the stream themselves receive the entire tree
+        final Object body = response.nextValue();
+        if (!(body instanceof JSONObject))
+            throw new JSONException("The response body is not a JSON object.");
+        return parseExtractionResponse((JSONObject)body);
     }
     
     /**
@@ -217,6 +909,34 @@ public abstract class NERServiceBase implements NERService {
         return EMPTY_EXTRACTION_RESULT;
     }
     
+    /**
+     * Creates a reader of the HTTP response body in its declared character set
+     * @param response The response
+     * @return The reader
+     * @throws IOException if the body cannot be read
+     */
+    protected static BufferedReader createResponseReader(final HttpResponse response) throws IOException {
+        final HttpEntity entity = response.getEntity();
+        if (entity == null)
+            throw new IOException("The response has no body.");
+        // JSON is UTF-8 unless declared otherwise
+        final Charset charset = ContentType.getOrDefault(entity).getCharset();
+        return new BufferedReader(new InputStreamReader(entity.getContent(), charset != null ? charset : UTF8));
+    }
+    
+    /**
+     * Verifies that a required member was present in the response
+     * @param value The value of the member, or <tt>null</tt> if absent
+     * @param name The name of the member
+     * @return The value
+     * @throws JSONException if the value is absent
+     */
+    protected static <T> T requireMember(final T value, final String name) throws JSONException {
+        if (value == null)
+            throw new JSONException("JSONObject[\"" + name + "\"] not found.");
+        return value;
+    }
+    
     /**
      * Encodes the specified text for use in an URL.
      * @param text The text to encode
@@ -263,4 +983,151 @@ public abstract class NERServiceBase implements NERService {
     protected Exception parseErrorResponse(final JSONObject response) throws JSONException {
     	throw new UnsupportedOperationException();
     }
+    
+    /**
+     * Keep-alive strategy that honors the server's <tt>Keep-Alive</tt> header
+     * and otherwise keeps connections alive for a default duration
+     */
+    private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        /** {@inheritDoc} */
+        @Override
+        public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+            final BasicHeaderElementIterator elements =
+                new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (elements.hasNext()) {
+                final HeaderElement element = elements.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try { return Long.parseLong(element.getValue()) * 1000; }
+                    catch (NumberFormatException error) { }
+                }
+            }
+            return DEFAULT_KEEP_ALIVE;
+        }
+    }
+    
+    /**
+     * Asynchronous extraction that can be canceled while it is queued or running
+     */
+    private class ExtractionTask implements Runnable {
+        private final String text;
+        private final Map<String, String> settings;
+        private final SettableFuture<NamedEntity[]> result;
+        private final ThreadPoolExecutor executor;
+        private Thread worker;
+        private HttpUriRequest request;
+        
+        /**
+         * Creates a new <tt>ExtractionTask</tt>
+         * @param text The text
+         * @param settings The extraction settings
+         * @param result The future that receives the result
+         * @param executor The executor that runs the task
+         */
+        public ExtractionTask(final String text, final Map<String, String> settings,
+                              final SettableFuture<NamedEntity[]> result, final ThreadPoolExecutor executor) {
+            this.text = text;
+            this.settings = settings;
+            this.result = result;
+            this.executor = executor;
+        }
+        
+        /**
+         * Indicates whether the extraction has been canceled
+         * @return <tt>true</tt> if the result has been canceled
+         */
+        public boolean isCanceled() {
+            return result.isCancelled();
+        }
+        
+        /**
+         * Sets the request that is about to be sent
+         * @param request The request
+         * @throws CancellationException if the extraction has been canceled
+         */
+        public synchronized void setRequest(final HttpUriRequest request) {
+            if (isCanceled())
+                throw new CancellationException("The extraction was canceled.");
+            this.request = request;
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (isCanceled())
+                    return;
+                worker = Thread.currentThread();
+            }
+            try {
+                result.set(extractNamedEntities(text, settings, this));
+            }
+            catch (Throwable error) {
+                result.setException(error);
+            }
+            finally {
+                synchronized (this) {
+                    worker = null;
+                    request = null;
+                }
+                // Clear an interruption by a cancellation, so the worker thread can be reused
+                Thread.interrupted();
+            }
+        }
+        
+        /**
+         * Cancels the extraction, removing it from the queue if it has not started,
+         * or interrupting its worker and aborting its request if it is running
+         */
+        public void cancel() {
+            executor.remove(this);
+            final HttpUriRequest abortedRequest;
+            synchronized (this) {
+                if (worker != null)
+                    worker.interrupt();
+                abortedRequest = request;
+            }
+            if (abortedRequest != null)
+                abortedRequest.abort();
+        }
+    }
+    
+    /**
+     * Task that aborts a request when its deadline expires
+     */
+    private static class RequestDeadline implements Runnable {
+        private final HttpUriRequest request;
+        private volatile boolean expired;
+        
+        /**
+         * Creates a new <tt>RequestDeadline</tt>
+         * @param request The request to abort
+         */
+        public RequestDeadline(final HttpUriRequest request) {
+            this.request = request;
+        }
+        
+        /**
+         * Indicates whether the deadline has expired
+         * @return <tt>true</tt> if the request has been aborted
+         */
+        public boolean isExpired() {
+            return expired;
+        }
+        
+        /**
+         * Creates the exception that reports the expired deadline
+         * @param timeout The timeout in milliseconds
+         * @return The exception
+         */
+        public TransientException createException(final long timeout) {
+            return new TransientException(String.format("The request timed out after %d seconds.", timeout / 1000), -1);
+        }
+        
+        /** {@inheritDoc} */
+        @Override
+        public void run() {
+            expired = true;
+            request.abort();
+        }
+    }
 }
@@ -26,6 +26,8 @@ import com.google.refine.util.JSONUtilities;
 public class NERServiceManager {
     private final static Logger LOGGER = Logger.getLogger(NERServiceManager.class);
     private final static File CACHEFOLDER = new RefineServlet().getCacheDir("ner-extension");
+    private final static long EXTRACTIONCACHE_SIZE = 256L * 1024 * 1024;
+    private static ExtractionCache extractionCache;
     
     private final TreeMap<String, NERService> services;
     private final File settingsFile;
@@ -59,6 +61,25 @@ public class NERServiceManager {
         this(new File(CACHEFOLDER, "services.json"));
     }
     
+    /**
+     * Gets a directory inside the cache folder of the extension
+     * @param name The name of the directory
+     * @return The directory, which might not exist yet
+     */
+    public static File getCacheDirectory(final String name) {
+        return new File(CACHEFOLDER, name);
+    }
+    
+    /**
+     * Gets the disk cache of extraction results shared by all services
+     * @return The extraction cache
+     */
+    public static synchronized ExtractionCache getExtractionCache() {
+        if (extractionCache == null)
+            extractionCache = new ExtractionCache(getCacheDirectory("extractions"), EXTRACTIONCACHE_SIZE);
+        return extractionCache;
+    }
+    
     /**
      * Returns whether the manager contains the specified service
      * @param serviceName The name of the service
@@ -126,6 +147,26 @@ public class NERServiceManager {
         return services.keySet().toArray(new String[services.size()]);
     }
     
+    /**
+     * Releases the network resources held by all services
+     */
+    public void shutdown() {
+        for (final NERService service : services.values())
+            service.shutdown();
+    }
+    
+    /**
+     * Releases the network resources held by all services when the virtual machine shuts down
+     */
+    public void shutdownOnExit() {
+        Runtime.getRuntime().addShutdownHook(new Thread("NER service shutdown") {
+            @Override
+            public void run() {
+                shutdown();
+            }
+        });
+    }
+    
     /**
      * Saves the configuration to the settings file
      * @throws IOException if the file cannot be written
@@ -157,6 +198,8 @@ public class NERServiceManager {
                     output.value(service.isConfigured());
                     output.key("documentation");
                     output.value(service.getDocumentationUri());
+                    output.key("circuit");
+                    output.value(service.getCircuitState().name().toLowerCase());
                     
                     /* Service settings object */
                     output.key("settings");
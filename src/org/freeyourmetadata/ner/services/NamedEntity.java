@@ -2,8 +2,11 @@ package org.freeyourmetadata.ner.services;
 
 import java.lang.String;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 
+import org.freeyourmetadata.util.JSONStreamReader;
+import org.freeyourmetadata.util.StringPool;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -21,9 +24,12 @@ import com.google.refine.model.Recon.Judgment;
  */
 public class NamedEntity {
     private final static String[] EMPTY_TYPE_SET = new String[0];
+    /** Pool of texts, labels and URIs, since the same resources recur across many rows. */
+    final static StringPool STRING_POOL = new StringPool(1 << 16);
 
     private final String extractedText;
     private final Disambiguation[] disambiguations;
+    private final int offset;
 
     /**
      * Creates a new named entity without URIs
@@ -52,16 +58,36 @@ public class NamedEntity {
         this(extractedText, new Disambiguation[] { new Disambiguation(extractedText, uri, score) });
     }
 
+    /**
+     * Creates a new named entity with a single URI
+     * @param extractedText The label of the entity
+     * @param uri The URI of the entity in string format
+     */
+    public NamedEntity(final String extractedText, final String uri) {
+        this(extractedText, new Disambiguation[] { new Disambiguation(extractedText, uri) });
+    }
+
+    /**
+     * Creates a new named entity with a single URI
+     * @param extractedText The label of the entity
+     * @param uri The URI of the entity in string format
+     * @param score The confidence score of the entity
+     */
+    public NamedEntity(final String extractedText, final String uri, double score) {
+        this(extractedText, new Disambiguation[] { new Disambiguation(extractedText, uri, score) });
+    }
+
     /**
      * Creates a new named entity
      * @param extractedText The label of the entity
      * @param uris The URIs of the entity
      */
     public NamedEntity(final String extractedText, final URI[] uris) {
-        this.extractedText = extractedText;
+        this.extractedText = STRING_POOL.intern(extractedText);
         this.disambiguations = new Disambiguation[uris.length];
         for (int i = 0; i < uris.length; i++)
             disambiguations[i] = new Disambiguation(extractedText, uris[i]);
+        this.offset = -1;
     }
 
     /**
@@ -70,8 +96,19 @@ public class NamedEntity {
      * @param disambiguations An array of disambiguations
      */
     public NamedEntity(final String extractedText, final Disambiguation[] disambiguations) {
-        this.extractedText = extractedText;
+        this(extractedText, disambiguations, -1);
+    }
+    
+    /**
+     * Creates a new named entity at a known position
+     * @param extractedText The label matched in the original text
+     * @param disambiguations An array of disambiguations
+     * @param offset The character offset of the label in the original text (-1 if unknown)
+     */
+    public NamedEntity(final String extractedText, final Disambiguation[] disambiguations, final int offset) {
+        this.extractedText = STRING_POOL.intern(extractedText);
         this.disambiguations = disambiguations;
+        this.offset = offset;
     }
     
     /**
@@ -80,8 +117,7 @@ public class NamedEntity {
      * @param disambiguations A list of disambiguations
      */
     public NamedEntity(final String extractedText, final Collection<Disambiguation> disambiguations) {
-        this.extractedText = extractedText;
-        this.disambiguations = disambiguations.toArray(new Disambiguation[disambiguations.size()]);
+        this(extractedText, disambiguations.toArray(new Disambiguation[disambiguations.size()]));
     }
 
     /**
@@ -90,13 +126,54 @@ public class NamedEntity {
      * @throws JSONException if the JSON is not correctly structured
      */
     public NamedEntity(final JSONObject json) throws JSONException {
-        extractedText = json.getString("extractedText");
+        extractedText = STRING_POOL.intern(json.getString("extractedText"));
         
         final JSONArray jsonDisambiguations = json.getJSONArray("disambiguations");
         disambiguations = new Disambiguation[jsonDisambiguations.length()];
         for (int i = 0; i < disambiguations.length; i++) {
             disambiguations[i] = new Disambiguation(jsonDisambiguations.getJSONObject(i));
         }
+        offset = -1;
+    }
+
+    /**
+     * Creates a new named entity from a JSON representation that is being read
+     * (the entire representation is consumed, even if it is not correctly structured)
+     * @param json The reader positioned at the JSON representation of the named entity
+     * @throws JSONException if the JSON is not correctly structured
+     */
+    public NamedEntity(final JSONStreamReader json) throws JSONException {
+        String text = null;
+        ArrayList<Disambiguation> disambiguationList = null;
+        JSONException disambiguationError = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            final String name = json.nextName();
+            if ("extractedText".equals(name))
+                text = json.nextString();
+            else if ("disambiguations".equals(name)) {
+                disambiguationList = new ArrayList<Disambiguation>();
+                json.beginArray();
+                while (json.hasNext()) {
+                    try { disambiguationList.add(new Disambiguation(json)); }
+                    catch (JSONException error) { disambiguationError = error; }
+                }
+                json.endArray();
+            }
+            else
+                json.skipValue();
+        }
+        json.endObject();
+
+        if (disambiguationError != null)
+            throw disambiguationError;
+        if (text == null)
+            throw new JSONException("JSONObject[\"extractedText\"] not found.");
+        if (disambiguationList == null)
+            throw new JSONException("JSONObject[\"disambiguations\"] not found.");
+        extractedText = STRING_POOL.intern(text);
+        disambiguations = disambiguationList.toArray(new Disambiguation[disambiguationList.size()]);
+        offset = -1;
     }
 
     /**
@@ -115,6 +192,15 @@ public class NamedEntity {
         return disambiguations;
     }
 
+    /**
+     * Gets the position of the entity in the text it was extracted from,
+     * which is only known right after extraction by a service that reports it
+     * @return The character offset, or -1 if unknown
+     */
+    public int getOffset() {
+        return offset;
+    }
+
     /**
      * Writes the named entity in a JSON representation
      * @param json The JSON writer
@@ -145,8 +231,8 @@ public class NamedEntity {
         // Add all reconciliation candidates
         for (int i = 0; i < disambiguations.length; i++) {
             final Disambiguation match = disambiguations[i];
-            final String uri = match.getUri().toString();
-            if (uri.length() > 0) {
+            final String uri = match.getUriString();
+            if (uri != null && uri.length() > 0) {
                 final ReconCandidate candidate = new ReconCandidate(uri, match.getLabel(), EMPTY_TYPE_SET, match.getScore());
                 recon.addCandidate(candidate);
                 // If this candidate is better than the previous best candidate, make it the match
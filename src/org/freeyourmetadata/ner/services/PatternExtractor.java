@@ -0,0 +1,236 @@
+package org.freeyourmetadata.ner.services;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.freeyourmetadata.util.PatternAutomaton;
+
+/**
+ * Named-entity recognition service that finds structured identifiers such as ISBNs, DOIs and e-mail addresses
+ * through regular expressions, which are compiled together into a single automaton.
+ * Every entity has the URI of the type of its expression.
+ * Additional expressions are read from a tab-separated file with a name, an expression
+ * and optionally a type URI on every line; they take precedence over the built-in expressions
+ * and replace built-in expressions with the same name.
+ */
+public class PatternExtractor extends LocalNERServiceBase {
+    /** The path of the file with additional expressions. */
+    public final static String PATTERNS_FILE = "Patterns file";
+    /** The base of the type URIs of expressions without an explicit type. */
+    public final static String TYPE_BASE_URI = "http://freeyourmetadata.org/named-entity-extraction/patterns#";
+    private final static String[] SERVICESETTINGS = { PATTERNS_FILE };
+    private final static String[] EXTRACTIONSETTINGS = {};
+    private final static String DAY = "(?:0?[1-9]|[12]\\d|3[01])";
+    private final static String MONTH = "(?:January|February|March|April|May|June|July"
+                                        + "|August|September|October|November|December)";
+    /** The built-in expressions by name, in order of precedence. */
+    private final static String[][] BUILTIN_PATTERNS = {
+        { "URL",    "(?:https?|ftp)://[^\\s<>\"]*[^\\s<>\".,;:!?')\\]]" },
+        { "Email",  "[A-Za-z0-9._%+-]+@[A-Za-z0-9-]+(?:\\.[A-Za-z0-9-]+)*\\.[A-Za-z]{2,}" },
+        { "DOI",    "10\\.\\d{4,9}/[-._;()/:A-Za-z0-9]*[A-Za-z0-9]" },
+        { "ORCID",  "\\d{4}-\\d{4}-\\d{4}-\\d{3}[\\dX]" },
+        { "ISBN",   "ISBN(?:-1[03])?:? ?(?:97[89][- ]?)?\\d{1,5}[- ]?\\d{1,7}[- ]?\\d{1,7}[- ]?[\\dX]"
+                    + "|97[89]-\\d{1,5}-\\d{1,7}-\\d{1,7}-\\d" },
+        { "Date",   "\\d{4}-(?:0[1-9]|1[0-2])-(?:0[1-9]|[12]\\d|3[01])"
+                    + "|" + DAY + " " + MONTH + " \\d{4}"
+                    + "|" + MONTH + " " + DAY + ", \\d{4}" },
+    };
+
+    /** The number of milliseconds after which the patterns file is checked for changes again. */
+    private final static long CHANGE_CHECK_INTERVAL = 5000;
+
+    /** The compiled expressions, or <tt>null</tt> if the settings have changed since. */
+    private volatile CompiledPatterns patterns;
+    private volatile long nextChangeCheck;
+
+    /**
+     * Creates a new pattern extractor
+     */
+    public PatternExtractor() {
+        super(null, SERVICESETTINGS, EXTRACTIONSETTINGS);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setServiceSetting(final String name, final String value) {
+        super.setServiceSetting(name, value);
+        // Compile the expressions again with the new patterns file, after any compilation that used the old file
+        if (PATTERNS_FILE.equals(name))
+            synchronized (this) {
+                patterns = null;
+            }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getResultKey() {
+        final String path = getServiceSetting(PATTERNS_FILE).trim();
+        final long lastModified = path.length() == 0 ? 0 : new File(path).lastModified();
+        return String.format("%s patterns=%s modified=%d", super.getResultKey(), path, lastModified);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public NamedEntity[] extractNamedEntities(final String text, final Map<String, String> settings) throws Exception {
+        final CompiledPatterns compiled = getPatterns();
+        final List<PatternAutomaton.Match> matches = compiled.automaton.findAll(text);
+        final NamedEntity[] entities = new NamedEntity[matches.size()];
+        for (int i = 0; i < entities.length; i++) {
+            final PatternAutomaton.Match match = matches.get(i);
+            final String matchedText = text.substring(match.getStart(), match.getEnd());
+            final Disambiguation type = new Disambiguation(matchedText, compiled.typeUris[match.getPattern()]);
+            entities[i] = new NamedEntity(matchedText, new Disambiguation[] { type }, match.getStart());
+        }
+        return entities;
+    }
+
+    /**
+     * Gets the compiled expressions, compiling them again if the settings have changed
+     * or the patterns file has changed since the last check
+     * @return The compiled expressions
+     * @throws Exception if the expressions cannot be compiled
+     */
+    private CompiledPatterns getPatterns() throws Exception {
+        CompiledPatterns current = patterns;
+        if (current == null || System.currentTimeMillis() >= nextChangeCheck)
+            current = updatePatterns();
+        if (current.error != null)
+            throw new Exception(current.error);
+        return current;
+    }
+
+    /**
+     * Compiles the expressions again if the patterns file has changed
+     * @return The compiled expressions
+     */
+    private synchronized CompiledPatterns updatePatterns() {
+        // Another thread might have compiled or checked the expressions in the meantime
+        if (patterns != null && System.currentTimeMillis() < nextChangeCheck)
+            return patterns;
+        final String path = getServiceSetting(PATTERNS_FILE).trim();
+        final File file = path.length() == 0 ? null : new File(path);
+        final long lastModified = file == null ? 0 : file.lastModified();
+        if (patterns == null || !patterns.path.equals(path) || patterns.lastModified != lastModified)
+            patterns = compile(file, path, lastModified);
+        nextChangeCheck = System.currentTimeMillis() + CHANGE_CHECK_INTERVAL;
+        return patterns;
+    }
+
+    /**
+     * Compiles the built-in expressions together with the expressions of the patterns file
+     * @param file The patterns file (can be null)
+     * @param path The configured path of the patterns file
+     * @param lastModified The modification time of the patterns file
+     * @return The compiled expressions, or the reason why they cannot be compiled
+     */
+    private static CompiledPatterns compile(final File file, final String path, final long lastModified) {
+        final ArrayList<String> names = new ArrayList<String>();
+        final ArrayList<String> expressions = new ArrayList<String>();
+        final ArrayList<String> typeUris = new ArrayList<String>();
+        if (file != null && !file.isFile())
+            return new CompiledPatterns(path, lastModified, String.format("The patterns file %s does not exist.", path));
+        try {
+            if (file != null)
+                readPatterns(file, names, expressions, typeUris);
+        }
+        catch (IOException error) {
+            return new CompiledPatterns(path, lastModified, error.getMessage());
+        }
+        for (final String[] pattern : BUILTIN_PATTERNS) {
+            if (!names.contains(pattern[0])) {
+                names.add(pattern[0]);
+                expressions.add(pattern[1]);
+                typeUris.add(TYPE_BASE_URI + urlEncode(pattern[0]));
+            }
+        }
+
+        try {
+            final PatternAutomaton automaton = PatternAutomaton.compile(expressions.toArray(new String[expressions.size()]));
+            return new CompiledPatterns(path, lastModified, automaton, typeUris.toArray(new String[typeUris.size()]));
+        }
+        catch (IllegalArgumentException error) {
+            return new CompiledPatterns(path, lastModified, "The patterns cannot be compiled: " + error.getMessage());
+        }
+    }
+
+    /**
+     * Reads the expressions of a patterns file
+     * @param file The patterns file
+     * @param names The list to which the names of the expressions are added
+     * @param expressions The list to which the expressions are added
+     * @param typeUris The list to which the type URIs of the expressions are added
+     * @throws IOException if the file cannot be read or a line has no expression
+     */
+    private static void readPatterns(final File file, final List<String> names,
+                                     final List<String> expressions, final List<String> typeUris) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+                if (line.trim().length() == 0 || line.startsWith("#"))
+                    continue;
+                final String[] fields = line.split("\t");
+                if (fields.length < 2 || fields[0].trim().length() == 0 || fields[1].length() == 0)
+                    throw new IOException(String.format("Line %d of %s has no expression.", lineNumber, file.getPath()));
+                final String name = fields[0].trim();
+                if (names.contains(name))
+                    throw new IOException(String.format("Line %d of %s repeats the name %s.", lineNumber, file.getPath(), name));
+                names.add(name);
+                expressions.add(fields[1]);
+                typeUris.add(fields.length > 2 && fields[2].trim().length() > 0 ? fields[2].trim()
+                                                                                  : TYPE_BASE_URI + urlEncode(name));
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Expressions compiled into an automaton, or the reason why they cannot be compiled
+     */
+    private static class CompiledPatterns {
+        private final String path;
+        private final long lastModified;
+        private final PatternAutomaton automaton;
+        /** The type URI of every expression. */
+        private final String[] typeUris;
+        private final String error;
+
+        /**
+         * Creates new <tt>CompiledPatterns</tt>
+         * @param path The configured path of the patterns file
+         * @param lastModified The modification time of the patterns file
+         * @param automaton The automaton that finds the expressions
+         * @param typeUris The type URI of every expression
+         */
+        public CompiledPatterns(final String path, final long lastModified,
+                                final PatternAutomaton automaton, final String[] typeUris) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.automaton = automaton;
+            this.typeUris = typeUris;
+            this.error = null;
+        }
+
+        /**
+         * Creates new <tt>CompiledPatterns</tt> that cannot be used
+         * @param path The configured path of the patterns file
+         * @param lastModified The modification time of the patterns file
+         * @param error The reason why the expressions cannot be compiled
+         */
+        public CompiledPatterns(final String path, final long lastModified, final String error) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.automaton = null;
+            this.typeUris = null;
+            this.error = error;
+        }
+    }
+}
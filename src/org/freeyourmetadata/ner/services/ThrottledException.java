@@ -0,0 +1,17 @@
+package org.freeyourmetadata.ner.services;
+
+/**
+ * Exception indicating that a service refused a request because of rate limits or overload
+ */
+public class ThrottledException extends TransientException {
+    private static final long serialVersionUID = -2710358212633934164L;
+
+    /**
+     * Creates a new <tt>ThrottledException</tt>
+     * @param message The error message
+     * @param retryAfter The number of milliseconds after which the request can be retried (-1 if unknown)
+     */
+    public ThrottledException(final String message, final long retryAfter) {
+        super(message, retryAfter);
+    }
+}
@@ -0,0 +1,38 @@
+package org.freeyourmetadata.ner.services;
+
+/**
+ * Exception indicating that a request to a service failed temporarily and might succeed when retried
+ */
+public class TransientException extends Exception {
+    private static final long serialVersionUID = 4412690342153861120L;
+
+    private final long retryAfter;
+
+    /**
+     * Creates a new <tt>TransientException</tt>
+     * @param message The error message
+     * @param retryAfter The number of milliseconds after which the request can be retried (-1 if unknown)
+     */
+    public TransientException(final String message, final long retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Creates a new <tt>TransientException</tt>
+     * @param message The error message
+     * @param cause The cause of the failure
+     */
+    public TransientException(final String message, final Throwable cause) {
+        super(message, cause);
+        this.retryAfter = -1;
+    }
+
+    /**
+     * Gets the number of milliseconds after which the request can be retried
+     * @return The delay, or -1 if the service did not specify it
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -2,17 +2,18 @@ package org.freeyourmetadata.ner.services;
 
 import static org.freeyourmetadata.util.UriUtil.createUri;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Map;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.util.EntityUtils;
+import org.freeyourmetadata.util.JSONStreamReader;
 import org.freeyourmetadata.util.ParameterList;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * WikiMeta service connector
@@ -31,6 +32,7 @@ public class WikiMeta extends NERServiceBase {
     private final static URI DOCUMENTATIONURI = createUri("http://www.wikimeta.com/api.html");
     private final static String[] SERVICESETTINGS = { "API key" };
     private final static String[] EXTRACTIONSETTINGS = { "Language", "Span", "Treshold" };
+    private final static int MAX_ERROR_LENGTH = 8192;
     
     /**
      * Creates a new WikiMeta service connector
@@ -67,34 +69,109 @@ public class WikiMeta extends NERServiceBase {
      * @throws Exception if the response cannot be parsed
      */
     protected NamedEntity[] parseExtractionResponse(final HttpResponse response) throws Exception {
-    	final String body = EntityUtils.toString(response.getEntity());
-    	
-    	// An invalid response is recognized by invalid JSON
-    	final JSONObject bodyJson;
-    	try { bodyJson = new JSONObject(body); }
-    	catch (JSONException error) { throw new Exception(body); }
-    	
-        return parseExtractionResponse(bodyJson);
+        final BufferedReader reader = createResponseReader(response);
+        try {
+            // An invalid response is recognized by invalid JSON, so keep its start for the error message
+            reader.mark(MAX_ERROR_LENGTH);
+            try {
+                return parseExtractionResponse(new JSONStreamReader(reader));
+            }
+            catch (JSONException error) {
+                throw new Exception(readErrorBody(reader, error));
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Reads the start of an invalid response body
+     * @param reader The reader of the body, marked at its start
+     * @param error The error that occurred while parsing the body
+     * @return The start of the body, or the error message if the body cannot be reread
+     */
+    private static String readErrorBody(final BufferedReader reader, final JSONException error) {
+        try {
+            reader.reset();
+            final char[] body = new char[MAX_ERROR_LENGTH];
+            int length = 0, read;
+            while (length < body.length && (read = reader.read(body, length, body.length - length)) >= 0)
+                length += read;
+            return new String(body, 0, length);
+        }
+        // The error occurred beyond the marked start
+        catch (IOException resetError) {
+            return error.getMessage();
+        }
     }
     
     /** {@inheritDoc} */
     @Override
-    protected NamedEntity[] parseExtractionResponse(final JSONObject response) throws JSONException {
-        final JSONArray document = response.getJSONArray("document");
-        
-        // Find all entities
-        final JSONArray entities = document.getJSONObject(2).getJSONArray("Named Entities");
-        final NamedEntity[] results = new NamedEntity[entities.length()];
-        for (int i = 0; i < entities.length(); i++) {
-            final JSONObject entity = entities.getJSONObject(i);
-            final String entityText = entity.getString("EN");
-            final String scoreString = entity.getString("confidenceScore");
-            final double score = scoreString.length() == 0 ? 1.0 : Double.parseDouble(scoreString);
-            // First try the "Linked Data" URI, otherwise just the URI
-            final String linkedDataUri = entity.getString("LINKEDDATA");
-            final String uri = !linkedDataUri.equals("null") ? linkedDataUri : entity.getString("URI");
-            results[i] = new NamedEntity(entityText, createUri(uri.equals("NORDF") ? "" : uri), score);
+    protected NamedEntity[] parseExtractionResponse(final JSONStreamReader response) throws JSONException {
+        ArrayList<NamedEntity> results = null;
+        response.beginObject();
+        while (response.hasNext()) {
+            if (!"document".equals(response.nextName())) {
+                response.skipValue();
+                continue;
+            }
+            // Find all entities in the third part of the document
+            response.beginArray();
+            for (int part = 0; response.hasNext(); part++) {
+                if (part != 2) {
+                    response.skipValue();
+                    continue;
+                }
+                response.beginObject();
+                while (response.hasNext()) {
+                    if ("Named Entities".equals(response.nextName())) {
+                        results = new ArrayList<NamedEntity>();
+                        response.beginArray();
+                        while (response.hasNext())
+                            results.add(parseEntity(response));
+                        response.endArray();
+                    }
+                    else
+                        response.skipValue();
+                }
+                response.endObject();
+            }
+            response.endArray();
         }
-        return results;
+        response.endObject();
+        requireMember(results, "Named Entities");
+        return results.toArray(new NamedEntity[results.size()]);
+    }
+    
+    /**
+     * Parses a single entity of the response
+     * @param response The reader positioned at the entity
+     * @return The named entity
+     * @throws JSONException if the entity is invalid
+     */
+    private NamedEntity parseEntity(final JSONStreamReader response) throws JSONException {
+        String entityText = null, scoreString = null, linkedDataUri = null, plainUri = null;
+        response.beginObject();
+        while (response.hasNext()) {
+            final String name = response.nextName();
+            if ("EN".equals(name))
+                entityText = response.nextString();
+            else if ("confidenceScore".equals(name))
+                scoreString = response.nextString();
+            else if ("LINKEDDATA".equals(name))
+                linkedDataUri = response.nextString();
+            else if ("URI".equals(name))
+                plainUri = response.nextString();
+            else
+                response.skipValue();
+        }
+        response.endObject();
+        
+        final double score = requireMember(scoreString, "confidenceScore").length() == 0 ? 1.0 : Double.parseDouble(scoreString);
+        // First try the "Linked Data" URI, otherwise just the URI
+        final String uri = !requireMember(linkedDataUri, "LINKEDDATA").equals("null") ? linkedDataUri
+                                                                                      : requireMember(plainUri, "URI");
+        return new NamedEntity(requireMember(entityText, "EN"), uri.equals("NORDF") ? "" : uri, score);
     }
 }
\ No newline at end of file
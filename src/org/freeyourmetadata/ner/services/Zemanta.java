@@ -8,10 +8,9 @@ import java.util.ArrayList;
 import java.util.Map;
 
 import org.apache.http.HttpEntity;
+import org.freeyourmetadata.util.JSONStreamReader;
 import org.freeyourmetadata.util.ParameterList;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
  * Zemanta service connector
@@ -49,31 +48,84 @@ public class Zemanta extends NERServiceBase {
     
     /** {@inheritDoc} */
     @Override
-    protected NamedEntity[] parseExtractionResponse(final JSONObject response) throws JSONException {
+    protected NamedEntity[] parseExtractionResponse(final JSONStreamReader response) throws JSONException {
+        String status = null;
+        ArrayList<NamedEntity> results = null;
+        response.beginObject();
+        while (response.hasNext()) {
+            final String name = response.nextName();
+            if ("status".equals(name))
+                status = response.nextString();
+            // Get mark-up results
+            else if ("markup".equals(name)) {
+                response.beginObject();
+                while (response.hasNext()) {
+                    // In the mark-up results, find the links
+                    if ("links".equals(response.nextName())) {
+                        results = new ArrayList<NamedEntity>();
+                        response.beginArray();
+                        while (response.hasNext())
+                            results.add(parseLink(response));
+                        response.endArray();
+                    }
+                    else
+                        response.skipValue();
+                }
+                response.endObject();
+            }
+            else
+                response.skipValue();
+        }
+        response.endObject();
+        
         // Check response status
-    	final String status = response.getString("status");
-        if (!"ok".equals(status))
+        if (!"ok".equals(requireMember(status, "status")))
             throw new RuntimeException(status);
-        
-        // Get mark-up results
-        final JSONObject markup = response.getJSONObject("markup");
-        final ArrayList<NamedEntity> results = new ArrayList<NamedEntity>();
-        // In the mark-up results, find the links
-        final JSONArray links = markup.getJSONArray("links");
-        for (int i = 0; i < links.length(); i++) {
+        requireMember(results, "links");
+        return results.toArray(new NamedEntity[results.size()]);
+    }
+    
+    /**
+     * Parses a single link of the mark-up results
+     * @param response The reader positioned at the link
+     * @return The named entity
+     * @throws JSONException if the link is invalid
+     */
+    private NamedEntity parseLink(final JSONStreamReader response) throws JSONException {
+        ArrayList<Disambiguation> disambiguations = null;
+        response.beginObject();
+        while (response.hasNext()) {
             // In each link, find the targets
-            final JSONObject link = links.getJSONObject(i);
-            final JSONArray targets = link.getJSONArray("target");
-            final String label = targets.getJSONObject(0).getString("title");
-            // Make a disambiguation from each target
-            final Disambiguation[] disambiguations = new Disambiguation[targets.length()];
-            for (int j = 0; j < targets.length(); j++) {
-                final JSONObject target = targets.getJSONObject(j);
-                disambiguations[j] = new Disambiguation(target.getString("title"), createUri(target.getString("url")));
+            if ("target".equals(response.nextName())) {
+                disambiguations = new ArrayList<Disambiguation>();
+                response.beginArray();
+                while (response.hasNext()) {
+                    // Make a disambiguation from each target
+                    String title = null, url = null;
+                    response.beginObject();
+                    while (response.hasNext()) {
+                        final String name = response.nextName();
+                        if ("title".equals(name))
+                            title = response.nextString();
+                        else if ("url".equals(name))
+                            url = response.nextString();
+                        else
+                            response.skipValue();
+                    }
+                    response.endObject();
+                    disambiguations.add(new Disambiguation(requireMember(title, "title"), requireMember(url, "url")));
+                }
+                response.endArray();
             }
-            results.add(new NamedEntity(label, disambiguations));
+            else
+                response.skipValue();
         }
-        return results.toArray(new NamedEntity[results.size()]);
+        response.endObject();
+        
+        // The label of the entity is the title of its first target
+        if (requireMember(disambiguations, "target").isEmpty())
+            throw new JSONException("JSONArray[0] not found.");
+        return new NamedEntity(disambiguations.get(0).getLabel(), disambiguations);
     }
     
     /** {@inheritDoc} */
@@ -0,0 +1,413 @@
+package org.freeyourmetadata.util;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Aho&ndash;Corasick automaton that finds occurrences of many keywords in a single pass over a text.
+ * The trie is stored in compressed sparse row form: the outgoing edges of all states
+ * are kept in flat arrays, sorted by character within each state,
+ * so the automaton needs a few bytes per state instead of an object per state.
+ * The arrays can live on the heap or in a memory-mapped index file.
+ * Instances are immutable and can be used by several threads at once.
+ */
+public class AhoCorasickAutomaton {
+    private final static int ROOT = 0;
+    private final static int NONE = -1;
+
+    /** The index of the first outgoing edge of every state, followed by the total number of edges. */
+    private final IntBuffer edgeStarts;
+    private final CharBuffer edgeChars;
+    private final IntBuffer edgeTargets;
+    /** The state of the longest proper suffix of every state that is also a prefix of a keyword. */
+    private final IntBuffer failures;
+    /** The keyword that ends in every state, or {@link #NONE}. */
+    private final IntBuffer keywords;
+    /** The nearest state along the failures of every state in which a keyword ends, or {@link #NONE}. */
+    private final IntBuffer keywordLinks;
+    private final IntBuffer keywordLengths;
+
+    /**
+     * Creates a new <tt>AhoCorasickAutomaton</tt>
+     * @param edgeStarts The index of the first outgoing edge of every state, followed by the number of edges
+     * @param edgeChars The character of every edge
+     * @param edgeTargets The target state of every edge
+     * @param failures The failure state of every state
+     * @param keywords The keyword that ends in every state
+     * @param keywordLinks The nearest failure state of every state in which a keyword ends
+     * @param keywordLengths The length of every keyword
+     */
+    private AhoCorasickAutomaton(final IntBuffer edgeStarts, final CharBuffer edgeChars, final IntBuffer edgeTargets,
+                                 final IntBuffer failures, final IntBuffer keywords, final IntBuffer keywordLinks,
+                                 final IntBuffer keywordLengths) {
+        this.edgeStarts = edgeStarts;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.failures = failures;
+        this.keywords = keywords;
+        this.keywordLinks = keywordLinks;
+        this.keywordLengths = keywordLengths;
+    }
+
+    /**
+     * Compiles an automaton that finds the specified keywords
+     * @param keywords The keywords, which are identified by their index
+     * @return The automaton
+     * @throws IllegalArgumentException if a keyword occurs more than once
+     */
+    public static AhoCorasickAutomaton compile(final String[] keywords) {
+        // Sort the keywords, so keywords with a common prefix are adjacent
+        // and the children of every state are created in the order of their characters
+        final Integer[] order = new Integer[keywords.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer first, final Integer second) {
+                return keywords[first].compareTo(keywords[second]);
+            }
+        });
+
+        // Build the trie in depth-first order, with the parent and character of every state
+        int capacity = 1024;
+        int[] parents = new int[capacity];
+        char[] chars = new char[capacity];
+        int[] stateKeywords = new int[capacity];
+        stateKeywords[ROOT] = NONE;
+        int stateCount = 1;
+        int[] path = new int[16];
+        String previous = "";
+        for (final int keyword : order) {
+            final String text = keywords[keyword];
+            if (text.length() == 0)
+                continue;
+            if (text.equals(previous))
+                throw new IllegalArgumentException("The keyword " + text + " occurs more than once.");
+            if (text.length() >= path.length)
+                path = Arrays.copyOf(path, Math.max(2 * path.length, text.length() + 1));
+
+            // Reuse the states of the prefix shared with the previous keyword
+            int shared = 0;
+            final int maxShared = Math.min(text.length(), previous.length());
+            while (shared < maxShared && text.charAt(shared) == previous.charAt(shared))
+                shared++;
+            if (stateCount + text.length() - shared > capacity) {
+                capacity = Math.max(2 * capacity, stateCount + text.length() - shared);
+                parents = Arrays.copyOf(parents, capacity);
+                chars = Arrays.copyOf(chars, capacity);
+                stateKeywords = Arrays.copyOf(stateKeywords, capacity);
+            }
+            for (int depth = shared; depth < text.length(); depth++) {
+                parents[stateCount] = path[depth];
+                chars[stateCount] = text.charAt(depth);
+                stateKeywords[stateCount] = NONE;
+                path[depth + 1] = stateCount++;
+            }
+            stateKeywords[path[text.length()]] = keyword;
+            previous = text;
+        }
+
+        // Every state except the root is the target of exactly one edge, grouped by parent
+        final int[] edgeStarts = new int[stateCount + 1];
+        for (int state = 1; state < stateCount; state++)
+            edgeStarts[parents[state] + 1]++;
+        for (int state = 0; state < stateCount; state++)
+            edgeStarts[state + 1] += edgeStarts[state];
+        final char[] edgeChars = new char[stateCount - 1];
+        final int[] edgeTargets = new int[stateCount - 1];
+        final int[] nextEdges = Arrays.copyOf(edgeStarts, stateCount);
+        for (int state = 1; state < stateCount; state++) {
+            final int edge = nextEdges[parents[state]]++;
+            edgeChars[edge] = chars[state];
+            edgeTargets[edge] = state;
+        }
+
+        final int[] keywordLengths = new int[keywords.length];
+        for (int i = 0; i < keywords.length; i++)
+            keywordLengths[i] = keywords[i].length();
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(IntBuffer.wrap(edgeStarts),
+                                                                        CharBuffer.wrap(edgeChars),
+                                                                        IntBuffer.wrap(edgeTargets),
+                                                                        IntBuffer.allocate(stateCount),
+                                                                        IntBuffer.wrap(stateKeywords, 0, stateCount).slice(),
+                                                                        IntBuffer.allocate(stateCount),
+                                                                        IntBuffer.wrap(keywordLengths));
+        automaton.linkFailures();
+        return automaton;
+    }
+
+    /**
+     * Reads an automaton that was written to an index
+     * @param input The index
+     * @return The automaton, backed by the index
+     * @throws IOException if the index does not contain an automaton
+     */
+    public static AhoCorasickAutomaton readFrom(final IndexInput input) throws IOException {
+        final IntBuffer edgeStarts = input.readInts();
+        final CharBuffer edgeChars = input.readChars();
+        final IntBuffer edgeTargets = input.readInts();
+        final IntBuffer failures = input.readInts();
+        final IntBuffer keywords = input.readInts();
+        final IntBuffer keywordLinks = input.readInts();
+        final IntBuffer keywordLengths = input.readInts();
+        final int stateCount = failures.limit();
+        if (stateCount == 0 || edgeStarts.limit() != stateCount + 1 || keywords.limit() != stateCount
+            || keywordLinks.limit() != stateCount || edgeChars.limit() != stateCount - 1
+            || edgeTargets.limit() != stateCount - 1)
+            throw new IOException("The index does not contain a valid automaton.");
+        final AhoCorasickAutomaton automaton = new AhoCorasickAutomaton(edgeStarts, edgeChars, edgeTargets, failures,
+                                                                        keywords, keywordLinks, keywordLengths);
+        if (!automaton.isValid())
+            throw new IOException("The index does not contain a valid automaton.");
+        return automaton;
+    }
+
+    /**
+     * Checks every reference between the states of an automaton that was read from an index,
+     * so a corrupt index is detected once instead of failing or looping while a text is searched
+     * @return <tt>true</tt> if all edges, failures and keywords are consistent
+     */
+    private boolean isValid() {
+        final int stateCount = failures.limit();
+        final int keywordCount = keywordLengths.limit();
+        if (edgeStarts.get(ROOT) != 0 || edgeStarts.get(stateCount) != stateCount - 1
+            || failures.get(ROOT) != ROOT || keywordLinks.get(ROOT) != NONE || keywords.get(ROOT) != NONE)
+            return false;
+        // States are numbered in depth-first order, so every edge leads to a higher state,
+        // whose depth is known before its own edges are checked
+        final int[] depths = new int[stateCount];
+        Arrays.fill(depths, NONE);
+        depths[ROOT] = 0;
+        for (int state = 0; state < stateCount; state++) {
+            final int edgeStart = edgeStarts.get(state), edgeEnd = edgeStarts.get(state + 1);
+            if (depths[state] == NONE || edgeEnd < edgeStart || edgeEnd > stateCount - 1)
+                return false;
+            for (int edge = edgeStart; edge < edgeEnd; edge++) {
+                final int target = edgeTargets.get(edge);
+                if (target <= state || target >= stateCount || depths[target] != NONE
+                    || edge > edgeStart && edgeChars.get(edge) <= edgeChars.get(edge - 1))
+                    return false;
+                depths[target] = depths[state] + 1;
+            }
+        }
+        // Failures and keyword links lead to shallower states, so following them always ends
+        for (int state = 1; state < stateCount; state++) {
+            final int failure = failures.get(state), keywordLink = keywordLinks.get(state), keyword = keywords.get(state);
+            if (failure < 0 || failure >= stateCount || depths[failure] >= depths[state]
+                || keywordLink != NONE && (keywordLink < 0 || keywordLink >= stateCount
+                                           || depths[keywordLink] >= depths[state] || keywords.get(keywordLink) == NONE)
+                || keyword != NONE && (keyword < 0 || keyword >= keywordCount || keywordLengths.get(keyword) != depths[state]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the automaton to an index
+     * @param output The index
+     * @throws IOException if the automaton cannot be written
+     */
+    public void writeTo(final IndexOutput output) throws IOException {
+        output.writeInts(edgeStarts);
+        output.writeChars(edgeChars);
+        output.writeInts(edgeTargets);
+        output.writeInts(failures);
+        output.writeInts(keywords);
+        output.writeInts(keywordLinks);
+        output.writeInts(keywordLengths);
+    }
+
+    /**
+     * Determines the failure state and keyword link of every state in breadth-first order,
+     * since the failure state of a state is always closer to the root
+     */
+    private void linkFailures() {
+        final int stateCount = failures.limit();
+        final int[] queue = new int[stateCount];
+        int head = 0, tail = 0;
+        failures.put(ROOT, ROOT);
+        keywordLinks.put(ROOT, NONE);
+        queue[tail++] = ROOT;
+        while (head < tail) {
+            final int state = queue[head++];
+            for (int edge = edgeStarts.get(state); edge < edgeStarts.get(state + 1); edge++) {
+                final int child = edgeTargets.get(edge);
+                int failure = ROOT;
+                if (state != ROOT) {
+                    // Follow the failures of the parent until one of them continues with the same character
+                    int candidate = failures.get(state);
+                    while (true) {
+                        final int next = getTransition(candidate, edgeChars.get(edge));
+                        if (next != NONE) {
+                            failure = next;
+                            break;
+                        }
+                        if (candidate == ROOT)
+                            break;
+                        candidate = failures.get(candidate);
+                    }
+                }
+                failures.put(child, failure);
+                keywordLinks.put(child, keywords.get(failure) != NONE ? failure : keywordLinks.get(failure));
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Gets the state reached from a state through the edge with the specified character
+     * @param state The state
+     * @param c The character
+     * @return The target state, or {@link #NONE} if the state has no such edge
+     */
+    private int getTransition(final int state, final char c) {
+        int low = edgeStarts.get(state), high = edgeStarts.get(state + 1) - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final char middleChar = edgeChars.get(middle);
+            if (middleChar < c)
+                low = middle + 1;
+            else if (middleChar > c)
+                high = middle - 1;
+            else
+                return edgeTargets.get(middle);
+        }
+        return NONE;
+    }
+
+    /**
+     * Gets the number of states of the automaton
+     * @return The number of states
+     */
+    public int getStateCount() {
+        return failures.limit();
+    }
+
+    /**
+     * Gets the number of keywords the automaton was compiled from
+     * @return The number of keywords
+     */
+    public int getKeywordCount() {
+        return keywordLengths.limit();
+    }
+
+    /**
+     * Finds the leftmost-longest occurrences of the keywords in a text:
+     * of all occurrences that start at the same position, only the longest is kept,
+     * and occurrences that overlap an occurrence further to the left are discarded
+     * @param text The text, which must have been folded like the keywords
+     * @param wholeWords Whether occurrences must start and end at a word boundary
+     * @return The occurrences, in the order of the text
+     */
+    public List<Match> findAll(final char[] text, final boolean wholeWords) {
+        // Collect all occurrences, which are found in the order of their end
+        ArrayList<Match> matches = null;
+        int state = ROOT;
+        for (int position = 0; position < text.length; position++) {
+            final char c = text[position];
+            int next;
+            while ((next = getTransition(state, c)) == NONE && state != ROOT)
+                state = failures.get(state);
+            state = next == NONE ? ROOT : next;
+
+            final int end = position + 1;
+            if (wholeWords && end < text.length && isWordCharacter(text[end]))
+                continue;
+            for (int found = keywords.get(state) != NONE ? state : keywordLinks.get(state);
+                 found != NONE; found = keywordLinks.get(found)) {
+                final int keyword = keywords.get(found);
+                final int start = end - keywordLengths.get(keyword);
+                if (wholeWords && start > 0 && isWordCharacter(text[start - 1]))
+                    continue;
+                if (matches == null)
+                    matches = new ArrayList<Match>();
+                matches.add(new Match(start, end, keyword));
+            }
+        }
+        if (matches == null)
+            return Collections.emptyList();
+
+        // Keep the longest of the occurrences with the leftmost start, then continue after its end
+        Collections.sort(matches);
+        final ArrayList<Match> selected = new ArrayList<Match>(matches.size());
+        int selectedEnd = 0;
+        for (final Match match : matches) {
+            if (match.start >= selectedEnd) {
+                selected.add(match);
+                selectedEnd = match.end;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Indicates whether the character can be part of a word
+     * @param c The character
+     * @return <tt>true</tt> if the character is a letter, digit or combining mark
+     */
+    private static boolean isWordCharacter(final char c) {
+        return Character.isLetterOrDigit(c) || Character.getType(c) == Character.NON_SPACING_MARK;
+    }
+
+    /**
+     * An occurrence of a keyword in a text
+     */
+    public static class Match implements Comparable<Match> {
+        private final int start;
+        private final int end;
+        private final int keyword;
+
+        /**
+         * Creates a new <tt>Match</tt>
+         * @param start The start of the occurrence in the text
+         * @param end The end of the occurrence in the text
+         * @param keyword The index of the keyword
+         */
+        private Match(final int start, final int end, final int keyword) {
+            this.start = start;
+            this.end = end;
+            this.keyword = keyword;
+        }
+
+        /**
+         * Gets the start of the occurrence in the text
+         * @return The character offset of the first character
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the end of the occurrence in the text
+         * @return The character offset after the last character
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * Gets the keyword that occurs
+         * @return The index of the keyword
+         */
+        public int getKeyword() {
+            return keyword;
+        }
+
+        /**
+         * Orders occurrences by their start, and longer occurrences before shorter ones
+         * @param other The other occurrence
+         * @return The order of both occurrences
+         */
+        @Override
+        public int compareTo(final Match other) {
+            return start != other.start ? (start < other.start ? -1 : 1)
+                                        : (end > other.end ? -1 : end < other.end ? 1 : 0);
+        }
+    }
+}
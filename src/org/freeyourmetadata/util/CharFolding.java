@@ -0,0 +1,126 @@
+package org.freeyourmetadata.util;
+
+import java.text.Normalizer;
+
+/**
+ * Folding of characters that makes matching insensitive to case and/or diacritics.
+ * Every character is folded into exactly one character,
+ * so positions in a folded text are the positions in the original text.
+ */
+public class CharFolding {
+    /** The folding that leaves all characters unchanged. */
+    public final static CharFolding NONE = new CharFolding(false, false);
+
+    private final boolean ignoreCase;
+    private final boolean ignoreDiacritics;
+
+    /**
+     * Creates a new <tt>CharFolding</tt>
+     * @param ignoreCase Whether upper- and lowercase characters are folded together
+     * @param ignoreDiacritics Whether characters with diacritics are folded into their base character
+     */
+    public CharFolding(final boolean ignoreCase, final boolean ignoreDiacritics) {
+        this.ignoreCase = ignoreCase;
+        this.ignoreDiacritics = ignoreDiacritics;
+    }
+
+    /**
+     * Indicates whether upper- and lowercase characters are folded together
+     * @return <tt>true</tt> if case is ignored
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Indicates whether characters with diacritics are folded into their base character
+     * @return <tt>true</tt> if diacritics are ignored
+     */
+    public boolean isIgnoreDiacritics() {
+        return ignoreDiacritics;
+    }
+
+    /**
+     * Folds a character
+     * @param c The character
+     * @return The folded character
+     */
+    public char fold(char c) {
+        if (ignoreDiacritics)
+            c = BaseCharacters.TABLE[c];
+        if (ignoreCase)
+            c = Character.toLowerCase(c);
+        return c;
+    }
+
+    /**
+     * Folds all characters of a text
+     * @param text The text
+     * @return The folded characters, which are as many as the characters of the text
+     */
+    public char[] fold(final String text) {
+        final char[] folded = text.toCharArray();
+        if (ignoreCase || ignoreDiacritics)
+            for (int i = 0; i < folded.length; i++)
+                folded[i] = fold(folded[i]);
+        return folded;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(final Object other) {
+        if (!(other instanceof CharFolding))
+            return false;
+        final CharFolding folding = (CharFolding)other;
+        return ignoreCase == folding.ignoreCase && ignoreDiacritics == folding.ignoreDiacritics;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return (ignoreCase ? 1 : 0) | (ignoreDiacritics ? 2 : 0);
+    }
+
+    /**
+     * Table of the base character of every character,
+     * which is only built when diacritics are ignored for the first time
+     */
+    private static class BaseCharacters {
+        private final static char[] TABLE = createTable();
+
+        /**
+         * Creates the table of base characters
+         * @return The base character of every character
+         */
+        private static char[] createTable() {
+            final char[] table = new char[Character.MAX_VALUE + 1];
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                table[c] = (char)c;
+                // Only characters that decompose into a base character and combining marks are folded
+                if (c < 0xC0 || c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+                    continue;
+                final String decomposed = Normalizer.normalize(String.valueOf((char)c), Normalizer.Form.NFD);
+                if (decomposed.length() > 1 && isCombiningMarks(decomposed))
+                    table[c] = decomposed.charAt(0);
+            }
+            // Letters with a stroke have no decomposition
+            final String stroked = "\u00D8\u00F8\u0110\u0111\u0126\u0127\u0141\u0142\u0166\u0167\u0131";
+            final String unstroked = "OoDdHhLlTti";
+            for (int i = 0; i < stroked.length(); i++)
+                table[stroked.charAt(i)] = unstroked.charAt(i);
+            return table;
+        }
+
+        /**
+         * Indicates whether all characters of the decomposition except the first are combining marks
+         * @param decomposed The decomposition
+         * @return <tt>true</tt> if the decomposition is a base character with combining marks
+         */
+        private static boolean isCombiningMarks(final String decomposed) {
+            for (int i = 1; i < decomposed.length(); i++)
+                if (Character.getType(decomposed.charAt(i)) != Character.NON_SPACING_MARK)
+                    return false;
+            return true;
+        }
+    }
+}
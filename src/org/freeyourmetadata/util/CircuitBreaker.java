@@ -0,0 +1,86 @@
+package org.freeyourmetadata.util;
+
+/**
+ * Circuit breaker that fails fast while a remote service is down:
+ * after a number of consecutive failures, the circuit opens and blocks all requests for a while;
+ * afterwards, a single trial request decides whether the circuit closes again.
+ */
+public class CircuitBreaker {
+    /**
+     * State of a circuit breaker
+     */
+    public enum State {
+        /** Requests are allowed */
+        CLOSED,
+        /** Requests are blocked */
+        OPEN,
+        /** A single trial request is allowed */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDuration;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInProgress;
+
+    /**
+     * Creates a new <tt>CircuitBreaker</tt>
+     * @param failureThreshold The number of consecutive failures that opens the circuit
+     * @param openDuration The number of milliseconds the circuit stays open
+     */
+    public CircuitBreaker(final int failureThreshold, final long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Gets the state of the circuit
+     * @return The state
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration)
+            state = State.HALF_OPEN;
+        return state;
+    }
+
+    /**
+     * Indicates whether a request is allowed, registering it as trial if the circuit is half-open
+     * @return <tt>true</tt> if the request is allowed
+     */
+    public synchronized boolean allowRequest() {
+        switch (getState()) {
+        case CLOSED:
+            return true;
+        case HALF_OPEN:
+            if (trialInProgress)
+                return false;
+            trialInProgress = true;
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Registers a request that reached the service
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        trialInProgress = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Registers a request that could not reach the service
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (trialInProgress || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+        trialInProgress = false;
+    }
+}
@@ -0,0 +1,104 @@
+package org.freeyourmetadata.util;
+
+/**
+ * Concurrency limit that adapts to the server through additive increase, multiplicative decrease:
+ * the limit grows slowly while requests succeed,
+ * and halves when the server throttles or its latency grows.
+ */
+public class ConcurrencyController {
+    private final static double LATENCY_TOLERANCE = 2.0;
+    private final static double BASELINE_WEIGHT = 0.01;
+    private final static double RECENT_WEIGHT = 0.2;
+
+    private int maxLimit;
+    private double limit;
+    private int inFlight;
+    private double baselineLatency;
+    private double recentLatency;
+    private long lastDecrease;
+
+    /**
+     * Creates a new <tt>ConcurrencyController</tt>
+     * @param maxLimit The maximum number of parallel requests
+     */
+    public ConcurrencyController(final int maxLimit) {
+        setMaxLimit(maxLimit);
+    }
+
+    /**
+     * Sets the maximum number of parallel requests
+     * @param maxLimit The maximum number of parallel requests
+     */
+    public synchronized void setMaxLimit(final int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = this.maxLimit;
+        notifyAll();
+    }
+
+    /**
+     * Gets the current number of allowed parallel requests
+     * @return The current limit
+     */
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    /**
+     * Waits until a request is allowed and registers it as in flight
+     * @throws InterruptedException if waiting is interrupted
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int)limit)
+            wait();
+        inFlight++;
+    }
+
+    /**
+     * Registers the end of a request that was not answered by the server
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Registers the end of a request that was answered by the server
+     * @param latency The time until the response, in milliseconds
+     */
+    public synchronized void onSuccess(final long latency) {
+        release();
+        // Track the long-term baseline and the recent latency
+        if (baselineLatency == 0) {
+            baselineLatency = recentLatency = latency;
+        }
+        else {
+            baselineLatency += BASELINE_WEIGHT * (Math.min(latency, recentLatency) - baselineLatency);
+            recentLatency += RECENT_WEIGHT * (latency - recentLatency);
+        }
+        // Back off if the server is slowing down, increase slowly otherwise
+        if (recentLatency > LATENCY_TOLERANCE * baselineLatency)
+            decrease();
+        else
+            limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    /**
+     * Registers the end of a request that was throttled by the server
+     */
+    public synchronized void onThrottled() {
+        release();
+        decrease();
+    }
+
+    /**
+     * Halves the limit, at most once per round trip,
+     * since all responses in flight reflect the same overload
+     */
+    private void decrease() {
+        final long now = System.currentTimeMillis();
+        if (now - lastDecrease > Math.max(recentLatency, 1)) {
+            limit = Math.max(1, limit / 2);
+            lastDecrease = now;
+        }
+    }
+}
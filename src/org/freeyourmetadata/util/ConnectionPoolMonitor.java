@@ -0,0 +1,68 @@
+package org.freeyourmetadata.util;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionManager;
+
+/**
+ * Daemon that evicts expired and idle connections from registered connection pools.
+ * The pools are shut down by the services that own them.
+ */
+public final class ConnectionPoolMonitor extends Thread {
+    private final static long EVICTION_INTERVAL = 5000;
+    private final static long IDLE_TIMEOUT = 30000;
+    private final static ConnectionPoolMonitor INSTANCE = new ConnectionPoolMonitor();
+
+    private final HashSet<ClientConnectionManager> connectionManagers;
+
+    /**
+     * Creates and starts the monitor
+     */
+    private ConnectionPoolMonitor() {
+        super("NER connection pool monitor");
+        setDaemon(true);
+        connectionManagers = new HashSet<ClientConnectionManager>();
+        start();
+    }
+
+    /**
+     * Registers a connection pool for idle eviction
+     * @param connectionManager The connection pool
+     */
+    public static void register(final ClientConnectionManager connectionManager) {
+        synchronized (INSTANCE.connectionManagers) {
+            INSTANCE.connectionManagers.add(connectionManager);
+        }
+    }
+
+    /**
+     * Unregisters and shuts down a connection pool
+     * @param connectionManager The connection pool
+     */
+    public static void shutdown(final ClientConnectionManager connectionManager) {
+        synchronized (INSTANCE.connectionManagers) {
+            INSTANCE.connectionManagers.remove(connectionManager);
+        }
+        connectionManager.shutdown();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                Thread.sleep(EVICTION_INTERVAL);
+            }
+            catch (InterruptedException error) {
+                return;
+            }
+            synchronized (connectionManagers) {
+                for (final ClientConnectionManager connectionManager : connectionManagers) {
+                    connectionManager.closeExpiredConnections();
+                    connectionManager.closeIdleConnections(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.freeyourmetadata.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory for numbered daemon threads with a common name
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Creates a new <tt>DaemonThreadFactory</tt>
+     * @param name The common name of the threads
+     */
+    public DaemonThreadFactory(final String name) {
+        this.name = name;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
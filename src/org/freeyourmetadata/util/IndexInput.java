@@ -0,0 +1,122 @@
+package org.freeyourmetadata.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader of an index file written by an {@link IndexOutput}.
+ * The file is mapped into memory, and arrays are returned as read-only views of the mapping,
+ * so opening an index takes constant time and its pages are shared with other processes
+ * that map the same file.
+ */
+public class IndexInput {
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates a new <tt>IndexInput</tt>
+     * @param buffer The contents of the index
+     */
+    public IndexInput(final ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Maps an index file into memory
+     * @param file The file
+     * @return The reader of the index
+     * @throws IOException if the file cannot be mapped
+     */
+    public static IndexInput map(final File file) throws IOException {
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException(String.format("The index %s is larger than 2 GB.", file.getPath()));
+            // The mapping remains valid after the file has been closed
+            return new IndexInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads a number
+     * @return The number
+     * @throws IOException if the index ends before the number
+     */
+    public int readInt() throws IOException {
+        try {
+            return buffer.getInt();
+        }
+        catch (BufferUnderflowException error) {
+            throw new IOException("The index is truncated.");
+        }
+    }
+
+    /**
+     * Reads a number
+     * @return The number
+     * @throws IOException if the index ends before the number
+     */
+    public long readLong() throws IOException {
+        try {
+            return buffer.getLong();
+        }
+        catch (BufferUnderflowException error) {
+            throw new IOException("The index is truncated.");
+        }
+    }
+
+    /**
+     * Reads an array of numbers
+     * @return A read-only view of the numbers
+     * @throws IOException if the index ends before the end of the array
+     */
+    public IntBuffer readInts() throws IOException {
+        return readArray(4).asIntBuffer();
+    }
+
+    /**
+     * Reads an array of characters
+     * @return A read-only view of the characters
+     * @throws IOException if the index ends before the end of the array
+     */
+    public CharBuffer readChars() throws IOException {
+        return readArray(2).asCharBuffer();
+    }
+
+    /**
+     * Reads a string
+     * @return The string
+     * @throws IOException if the index ends before the end of the string
+     */
+    public String readString() throws IOException {
+        return readChars().toString();
+    }
+
+    /**
+     * Reads an array and moves past it
+     * @param elementSize The number of bytes of an element
+     * @return A read-only view of the bytes of the array
+     * @throws IOException if the index ends before the end of the array
+     */
+    private ByteBuffer readArray(final int elementSize) throws IOException {
+        final int length = readInt();
+        final int start = (buffer.position() + IndexOutput.ALIGNMENT - 1) / IndexOutput.ALIGNMENT * IndexOutput.ALIGNMENT;
+        if (length < 0 || start > buffer.limit() || (long)length * elementSize > buffer.limit() - start)
+            throw new IOException("The index is truncated.");
+        buffer.position(start);
+        final ByteBuffer array = buffer.slice();
+        array.limit(length * elementSize);
+        buffer.position(start + length * elementSize);
+        return array.asReadOnlyBuffer().order(buffer.order());
+    }
+}
@@ -0,0 +1,140 @@
+package org.freeyourmetadata.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writer of an index file that consists of numbers and arrays,
+ * which an {@link IndexInput} maps into memory without copying.
+ * Arrays are aligned to 8 bytes and written in the native byte order,
+ * so they can be read as views of the mapped file.
+ */
+public class IndexOutput implements Closeable {
+    /** The alignment of arrays in the file. */
+    final static int ALIGNMENT = 8;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.nativeOrder());
+    private long position;
+
+    /**
+     * Creates a new <tt>IndexOutput</tt>
+     * @param channel The channel to write to, which is closed when the output is closed
+     */
+    public IndexOutput(final FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes a number
+     * @param value The number
+     * @throws IOException if the number cannot be written
+     */
+    public void writeInt(final int value) throws IOException {
+        reserve(4);
+        buffer.putInt(value);
+        position += 4;
+    }
+
+    /**
+     * Writes a number
+     * @param value The number
+     * @throws IOException if the number cannot be written
+     */
+    public void writeLong(final long value) throws IOException {
+        reserve(8);
+        buffer.putLong(value);
+        position += 8;
+    }
+
+    /**
+     * Writes the remaining numbers of a buffer as an array
+     * @param values The numbers
+     * @throws IOException if the numbers cannot be written
+     */
+    public void writeInts(final IntBuffer values) throws IOException {
+        final int start = values.position(), end = values.limit();
+        writeInt(end - start);
+        align();
+        for (int i = start; i < end; i++)
+            writeInt(values.get(i));
+    }
+
+    /**
+     * Writes the remaining characters of a buffer as an array
+     * @param values The characters
+     * @throws IOException if the characters cannot be written
+     */
+    public void writeChars(final CharBuffer values) throws IOException {
+        final int start = values.position(), end = values.limit();
+        writeInt(end - start);
+        align();
+        for (int i = start; i < end; i++) {
+            reserve(2);
+            buffer.putChar(values.get(i));
+            position += 2;
+        }
+    }
+
+    /**
+     * Writes a string as an array of characters
+     * @param value The string
+     * @throws IOException if the string cannot be written
+     */
+    public void writeString(final String value) throws IOException {
+        writeChars(CharBuffer.wrap(value));
+    }
+
+    /**
+     * Pads the file with zeros until its size is a multiple of the alignment
+     * @throws IOException if the padding cannot be written
+     */
+    private void align() throws IOException {
+        while (position % ALIGNMENT != 0) {
+            reserve(1);
+            buffer.put((byte)0);
+            position++;
+        }
+    }
+
+    /**
+     * Makes sure the buffer can hold the specified number of bytes, writing it to the channel if necessary
+     * @param bytes The number of bytes
+     * @throws IOException if the buffer cannot be written
+     */
+    private void reserve(final int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush();
+    }
+
+    /**
+     * Writes the buffer to the channel
+     * @throws IOException if the buffer cannot be written
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes all pending data to disk and closes the channel
+     * @throws IOException if the data cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            channel.force(false);
+        }
+        finally {
+            channel.close();
+        }
+    }
+}
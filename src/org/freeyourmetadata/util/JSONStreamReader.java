@@ -0,0 +1,508 @@
+package org.freeyourmetadata.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Pull parser that reads a JSON value token by token from a character stream,
+ * without building a tree of the entire document.
+ * The parser never reads beyond the end of a top-level object or array,
+ * so the remainder of the stream can still be used afterwards.
+ * For efficiency, the underlying reader should be buffered.
+ */
+public class JSONStreamReader {
+    /**
+     * Type of a JSON token
+     */
+    public enum Token {
+        /** The start of an object */
+        BEGIN_OBJECT,
+        /** The end of an object */
+        END_OBJECT,
+        /** The start of an array */
+        BEGIN_ARRAY,
+        /** The end of an array */
+        END_ARRAY,
+        /** The name of an object member */
+        NAME,
+        /** A string value */
+        STRING,
+        /** A number value */
+        NUMBER,
+        /** A boolean value */
+        BOOLEAN,
+        /** A null value */
+        NULL,
+        /** The end of the value */
+        END_DOCUMENT
+    }
+
+    private final static int EMPTY_DOCUMENT = 0;
+    private final static int NONEMPTY_DOCUMENT = 1;
+    private final static int EMPTY_ARRAY = 2;
+    private final static int NONEMPTY_ARRAY = 3;
+    private final static int EMPTY_OBJECT = 4;
+    private final static int NONEMPTY_OBJECT = 5;
+    private final static int DANGLING_NAME = 6;
+
+    private final Reader reader;
+    private final StringBuilder buffer = new StringBuilder();
+    private int[] stack = new int[16];
+    private int stackSize;
+    private int pushedBack = -1;
+    private Token peeked;
+    private String value;
+    private long position;
+
+    /**
+     * Creates a new <tt>JSONStreamReader</tt>
+     * @param reader The reader of the JSON text
+     */
+    public JSONStreamReader(final Reader reader) {
+        this.reader = reader;
+        stack[stackSize++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Gets the type of the next token without consuming it
+     * @return The token type
+     * @throws JSONException if the JSON is invalid or cannot be read
+     */
+    public Token peek() throws JSONException {
+        if (peeked == null)
+            peeked = readToken();
+        return peeked;
+    }
+
+    /**
+     * Indicates whether the current array or object has another element
+     * @return <tt>true</tt> if another element follows
+     * @throws JSONException if the JSON is invalid or cannot be read
+     */
+    public boolean hasNext() throws JSONException {
+        final Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Consumes the start of an object
+     * @throws JSONException if the next token is not the start of an object
+     */
+    public void beginObject() throws JSONException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the end of an object
+     * @throws JSONException if the next token is not the end of an object
+     */
+    public void endObject() throws JSONException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the start of an array
+     * @throws JSONException if the next token is not the start of an array
+     */
+    public void beginArray() throws JSONException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the end of an array
+     * @throws JSONException if the next token is not the end of an array
+     */
+    public void endArray() throws JSONException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Consumes the name of an object member
+     * @return The name
+     * @throws JSONException if the next token is not a name
+     */
+    public String nextName() throws JSONException {
+        expect(Token.NAME);
+        return value;
+    }
+
+    /**
+     * Consumes a string value, or the text of a number or boolean value
+     * @return The value as a string
+     * @throws JSONException if the next token is not a scalar value
+     */
+    public String nextString() throws JSONException {
+        final Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN)
+            throw syntaxError("Expected a string but found " + token);
+        peeked = null;
+        return value;
+    }
+
+    /**
+     * Consumes a string value, or returns <tt>null</tt> when consuming a null value
+     * @return The value as a string, or <tt>null</tt>
+     * @throws JSONException if the next token is not a scalar value
+     */
+    public String nextStringOrNull() throws JSONException {
+        if (peek() == Token.NULL) {
+            peeked = null;
+            return null;
+        }
+        return nextString();
+    }
+
+    /**
+     * Consumes a number value, or a string containing a number
+     * @return The value as a double
+     * @throws JSONException if the next token is not a number
+     */
+    public double nextDouble() throws JSONException {
+        final Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING)
+            throw syntaxError("Expected a number but found " + token);
+        try {
+            final double number = Double.parseDouble(value);
+            peeked = null;
+            return number;
+        }
+        catch (NumberFormatException error) {
+            throw syntaxError("Expected a number but found \"" + value + "\"");
+        }
+    }
+
+    /**
+     * Consumes a number value, or a string containing a number
+     * @return The value as an integer
+     * @throws JSONException if the next token is not an integer
+     */
+    public int nextInt() throws JSONException {
+        final double number = nextDouble();
+        if (number != (int)number)
+            throw syntaxError("Expected an integer but found " + value);
+        return (int)number;
+    }
+
+    /**
+     * Consumes a boolean value
+     * @return The value
+     * @throws JSONException if the next token is not a boolean
+     */
+    public boolean nextBoolean() throws JSONException {
+        expect(Token.BOOLEAN);
+        return "true".equals(value);
+    }
+
+    /**
+     * Consumes a null value
+     * @throws JSONException if the next token is not null
+     */
+    public void nextNull() throws JSONException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Consumes the next value, including all of its nested values
+     * @throws JSONException if the JSON is invalid or cannot be read
+     */
+    public void skipValue() throws JSONException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                depth++;
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                depth++;
+                break;
+            case END_OBJECT:
+                endObject();
+                depth--;
+                break;
+            case END_ARRAY:
+                endArray();
+                depth--;
+                break;
+            case END_DOCUMENT:
+                throw syntaxError("Unexpected end of document");
+            default:
+                peeked = null;
+            }
+        }
+        while (depth > 0);
+    }
+
+    /**
+     * Consumes the next value and builds it as a tree
+     * @return A {@link JSONObject}, {@link JSONArray}, {@link String}, {@link Double},
+     *         {@link Boolean}, or {@link JSONObject#NULL}
+     * @throws JSONException if the JSON is invalid or cannot be read
+     */
+    public Object nextValue() throws JSONException {
+        switch (peek()) {
+        case BEGIN_OBJECT:
+            final JSONObject object = new JSONObject();
+            beginObject();
+            while (hasNext()) {
+                final String name = nextName();
+                object.put(name, nextValue());
+            }
+            endObject();
+            return object;
+        case BEGIN_ARRAY:
+            final JSONArray array = new JSONArray();
+            beginArray();
+            while (hasNext())
+                array.put(nextValue());
+            endArray();
+            return array;
+        case STRING:
+            return nextString();
+        case NUMBER:
+            return nextDouble();
+        case BOOLEAN:
+            return nextBoolean();
+        case NULL:
+            nextNull();
+            return JSONObject.NULL;
+        default:
+            throw syntaxError("Expected a value but found " + peek());
+        }
+    }
+
+    /**
+     * Consumes the next token, verifying its type
+     * @param expected The expected token type
+     * @throws JSONException if the next token has another type
+     */
+    private void expect(final Token expected) throws JSONException {
+        final Token token = peek();
+        if (token != expected)
+            throw syntaxError("Expected " + expected + " but found " + token);
+        peeked = null;
+    }
+
+    /**
+     * Enters a nested array or object
+     * @param context The context of the nested value
+     */
+    private void push(final int context) {
+        if (stackSize == stack.length)
+            stack = Arrays.copyOf(stack, 2 * stackSize);
+        stack[stackSize++] = context;
+    }
+
+    /**
+     * Reads the next token from the stream
+     * @return The token type
+     * @throws JSONException if the JSON is invalid or cannot be read
+     */
+    private Token readToken() throws JSONException {
+        int c;
+        switch (stack[stackSize - 1]) {
+        case EMPTY_DOCUMENT:
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+            return readValue(nextNonWhitespace());
+        case NONEMPTY_DOCUMENT:
+            // Do not read beyond the end of the value
+            return Token.END_DOCUMENT;
+        case EMPTY_ARRAY:
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+            c = nextNonWhitespace();
+            return c == ']' ? Token.END_ARRAY : readValue(c);
+        case NONEMPTY_ARRAY:
+            c = nextNonWhitespace();
+            if (c == ']')
+                return Token.END_ARRAY;
+            if (c != ',')
+                throw syntaxError("Expected ',' or ']'");
+            return readValue(nextNonWhitespace());
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            c = nextNonWhitespace();
+            if (c == '}')
+                return Token.END_OBJECT;
+            if (stack[stackSize - 1] == NONEMPTY_OBJECT) {
+                if (c != ',')
+                    throw syntaxError("Expected ',' or '}'");
+                c = nextNonWhitespace();
+            }
+            if (c != '"')
+                throw syntaxError("Expected a member name");
+            value = readString();
+            if (nextNonWhitespace() != ':')
+                throw syntaxError("Expected ':'");
+            stack[stackSize - 1] = DANGLING_NAME;
+            return Token.NAME;
+        case DANGLING_NAME:
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            return readValue(nextNonWhitespace());
+        default:
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Reads a value that starts with the specified character
+     * @param first The first character of the value
+     * @return The token type
+     * @throws JSONException if the JSON is invalid or cannot be read
+     */
+    private Token readValue(final int first) throws JSONException {
+        switch (first) {
+        case '{':
+            return Token.BEGIN_OBJECT;
+        case '[':
+            return Token.BEGIN_ARRAY;
+        case '"':
+            value = readString();
+            return Token.STRING;
+        case 't':
+            readLiteral("true");
+            return Token.BOOLEAN;
+        case 'f':
+            readLiteral("false");
+            return Token.BOOLEAN;
+        case 'n':
+            readLiteral("null");
+            value = null;
+            return Token.NULL;
+        case -1:
+            throw syntaxError("Unexpected end of input");
+        default:
+            if (first == '-' || first >= '0' && first <= '9') {
+                value = readNumber(first);
+                return Token.NUMBER;
+            }
+            throw syntaxError("Unexpected character '" + (char)first + "'");
+        }
+    }
+
+    /**
+     * Reads the remainder of a literal whose first character has been read
+     * @param literal The literal
+     * @throws JSONException if the stream does not contain the literal
+     */
+    private void readLiteral(final String literal) throws JSONException {
+        for (int i = 1; i < literal.length(); i++) {
+            if (read() != literal.charAt(i))
+                throw syntaxError("Expected " + literal);
+        }
+        value = literal;
+    }
+
+    /**
+     * Reads a number whose first character has been read
+     * @param first The first character
+     * @return The text of the number
+     * @throws JSONException if the stream cannot be read
+     */
+    private String readNumber(final int first) throws JSONException {
+        buffer.setLength(0);
+        buffer.append((char)first);
+        int c;
+        while ((c = read()) >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-')
+            buffer.append((char)c);
+        pushedBack = c;
+        return buffer.toString();
+    }
+
+    /**
+     * Reads a string whose opening quote has been read
+     * @return The unescaped string
+     * @throws JSONException if the string is invalid or cannot be read
+     */
+    private String readString() throws JSONException {
+        buffer.setLength(0);
+        while (true) {
+            int c = read();
+            switch (c) {
+            case '"':
+                return buffer.toString();
+            case -1:
+                throw syntaxError("Unterminated string");
+            case '\\':
+                switch (c = read()) {
+                case 'b': buffer.append('\b'); break;
+                case 'f': buffer.append('\f'); break;
+                case 'n': buffer.append('\n'); break;
+                case 'r': buffer.append('\r'); break;
+                case 't': buffer.append('\t'); break;
+                case 'u':
+                    int unicode = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(read(), 16);
+                        if (digit < 0)
+                            throw syntaxError("Invalid unicode escape");
+                        unicode = (unicode << 4) | digit;
+                    }
+                    buffer.append((char)unicode);
+                    break;
+                case '"':
+                case '\\':
+                case '/':
+                    buffer.append((char)c);
+                    break;
+                default:
+                    throw syntaxError("Invalid escape sequence");
+                }
+                break;
+            default:
+                buffer.append((char)c);
+            }
+        }
+    }
+
+    /**
+     * Reads the next character that is not whitespace
+     * @return The character, or -1 at the end of the stream
+     * @throws JSONException if the stream cannot be read
+     */
+    private int nextNonWhitespace() throws JSONException {
+        int c;
+        while ((c = read()) == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    /**
+     * Reads the next character from the stream
+     * @return The character, or -1 at the end of the stream
+     * @throws JSONException if the stream cannot be read
+     */
+    private int read() throws JSONException {
+        if (pushedBack >= 0) {
+            final int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        try {
+            final int c = reader.read();
+            if (c >= 0)
+                position++;
+            return c;
+        }
+        catch (IOException error) {
+            throw new JSONException(error);
+        }
+    }
+
+    /**
+     * Creates an exception that reports a syntax error at the current position
+     * @param message The error message
+     * @return The exception
+     */
+    private JSONException syntaxError(final String message) {
+        return new JSONException(message + " at character " + position);
+    }
+}
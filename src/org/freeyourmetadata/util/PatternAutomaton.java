@@ -0,0 +1,722 @@
+package org.freeyourmetadata.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Deterministic finite automaton that finds occurrences of several regular expressions at once.
+ * The expressions are compiled into a single Thompson NFA, which is turned into DFAs
+ * by subset construction over classes of characters that no expression distinguishes.
+ * A text is scanned once backwards to determine at every position which NFA states
+ * can still reach the end of an occurrence at a word boundary,
+ * and then forwards through the occurrences only, stopping at the end of the longest one,
+ * so the scan takes linear time and no character is ever matched by backtracking.
+ * Instances are immutable and can be used by several threads at once.
+ */
+public class PatternAutomaton {
+    /** The maximum number of states of a DFA, which guards against exponential expressions. */
+    private final static int MAX_STATES = 20000;
+    /** The maximum number of states of the NFA, which guards against nested counted repetitions. */
+    private final static int MAX_NFA_STATES = 50000;
+    /** The maximum number of NFA states in all states of a DFA together, which limits its construction memory. */
+    private final static int MAX_SUBSET_SIZE = 10000000;
+    private final static int DEAD = 0;
+    private final static int NONE = -1;
+
+    private final int patternCount;
+    /** The class of every character. */
+    private final char[] classes;
+    private final int classCount;
+    /** The forward DFA, anchored at the start of an occurrence. */
+    private final Dfa forward;
+    /**
+     * The backward DFAs of every expression, which determine where occurrences can continue.
+     * Every expression has its own DFA, since a single DFA would need a state
+     * for every combination of their states.
+     */
+    private final SuffixDfa[] suffixes;
+
+    /**
+     * Creates a new <tt>PatternAutomaton</tt>
+     * @param patternCount The number of expressions
+     * @param classes The class of every character
+     * @param classCount The number of classes
+     * @param forward The forward DFA
+     * @param suffixes The backward DFAs
+     */
+    private PatternAutomaton(final int patternCount, final char[] classes, final int classCount,
+                             final Dfa forward, final SuffixDfa[] suffixes) {
+        this.patternCount = patternCount;
+        this.classes = classes;
+        this.classCount = classCount;
+        this.forward = forward;
+        this.suffixes = suffixes;
+    }
+
+    /**
+     * Compiles an automaton that finds the specified regular expressions,
+     * in which earlier expressions take precedence over later ones for the same occurrence
+     * @param patterns The regular expressions, which are identified by their index
+     * @return The automaton
+     * @throws PatternSyntaxException if an expression is invalid, unsupported or matches the empty string
+     * @throws IllegalArgumentException if the expressions are too complex
+     */
+    public static PatternAutomaton compile(final String[] patterns) {
+        final RegexParser.Node[] trees = new RegexParser.Node[patterns.length];
+        for (int i = 0; i < patterns.length; i++)
+            trees[i] = RegexParser.parse(patterns[i]);
+
+        // Build one NFA that matches all expressions
+        final Nfa nfa = new Nfa();
+        final int[] starts = new int[patterns.length];
+        for (int i = 0; i < patterns.length; i++)
+            starts[i] = nfa.build(trees[i], nfa.addAccept(i));
+
+        // Characters that no expression distinguishes share a class
+        final TreeSet<Integer> boundaries = new TreeSet<Integer>();
+        boundaries.add(0);
+        nfa.addBoundaries(boundaries);
+        boundaries.add(Character.MAX_VALUE + 1);
+        final char[] classes = new char[Character.MAX_VALUE + 1];
+        final int classCount = boundaries.size() - 1;
+        int classStart = 0, classId = 0;
+        for (final int boundary : boundaries.tailSet(1)) {
+            Arrays.fill(classes, classStart, boundary, (char)classId++);
+            classStart = boundary;
+        }
+
+        final int[][] classRanges = nfa.getClassRanges(classes);
+        final Dfa forward = new Dfa(nfa, starts, classRanges, classCount);
+        if (forward.accepts[forward.start] != NONE)
+            throw new PatternSyntaxException("The expression matches the empty string",
+                                             patterns[forward.accepts[forward.start]], 0);
+        final SuffixDfa[] suffixes = new SuffixDfa[patterns.length];
+        for (int i = 0; i < patterns.length; i++)
+            suffixes[i] = new SuffixDfa(nfa, i, forward.sets[forward.start], classRanges, classCount);
+        return new PatternAutomaton(patterns.length, classes, classCount, forward, suffixes);
+    }
+
+    /**
+     * Gets the number of regular expressions the automaton was compiled from
+     * @return The number of expressions
+     */
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * Finds the leftmost-longest occurrences of the expressions in a text that start and end at word boundaries:
+     * of all occurrences that start at the same position, only the longest is kept,
+     * and occurrences that overlap an occurrence further to the left are discarded
+     * @param text The text
+     * @return The occurrences, in the order of the text
+     */
+    public List<Match> findAll(final String text) {
+        final int length = text.length();
+        final int suffixCount = suffixes.length;
+        // Determine the suffix states of every position by scanning backwards
+        final int[] suffixStates = new int[(length + 1) * suffixCount];
+        final boolean[] starts = new boolean[length];
+        boolean anyStart = false;
+        for (int i = 0; i < suffixCount; i++)
+            suffixStates[length * suffixCount + i] = suffixes[i].start;
+        for (int position = length - 1; position >= 0; position--) {
+            final char c = text.charAt(position);
+            final int column = 2 * classes[c] + (isWordCharacter(c) ? 1 : 0);
+            for (int i = 0; i < suffixCount; i++) {
+                final SuffixDfa suffix = suffixes[i];
+                final int state = suffix.transitions[suffixStates[(position + 1) * suffixCount + i] * 2 * classCount + column];
+                suffixStates[position * suffixCount + i] = state;
+                if (suffix.startable[state])
+                    anyStart = starts[position] = true;
+            }
+        }
+        if (!anyStart)
+            return Collections.emptyList();
+
+        // Read every occurrence forwards for as long as a longer occurrence remains possible
+        ArrayList<Match> matches = null;
+        for (int start = 0; start < length; ) {
+            if (!starts[start] || !isWordBoundary(text, start)) {
+                start++;
+                continue;
+            }
+            int end = NONE, pattern = NONE;
+            for (int position = start, state = forward.start;
+                 position < length && canContinue(forward.sets[state], suffixStates, position); ) {
+                state = forward.transitions[state * classCount + classes[text.charAt(position++)]];
+                if (forward.accepts[state] != NONE && isWordBoundary(text, position)) {
+                    end = position;
+                    pattern = forward.accepts[state];
+                }
+            }
+            // The suffix states guarantee an occurrence from every start they mark
+            if (matches == null)
+                matches = new ArrayList<Match>();
+            matches.add(new Match(start, end, pattern));
+            start = end;
+        }
+        return matches == null ? Collections.<Match>emptyList() : matches;
+    }
+
+    /**
+     * Indicates whether an occurrence can continue from a position to a longer occurrence
+     * @param nfaStates The NFA states that the occurrence has reached at the position
+     * @param suffixStates The suffix states of every position
+     * @param position The position
+     * @return <tt>true</tt> if one of the NFA states can reach the end of an occurrence after the position
+     */
+    private boolean canContinue(final int[] nfaStates, final int[] suffixStates, final int position) {
+        for (int i = 0; i < suffixes.length; i++)
+            if (intersect(nfaStates, suffixes[i].sets[suffixStates[position * suffixes.length + i]]))
+                return true;
+        return false;
+    }
+
+    /**
+     * Indicates whether a position in a text is not between two word characters
+     * @param text The text
+     * @param position The position
+     * @return <tt>true</tt> if the position is at the start or end of the text, or next to a non-word character
+     */
+    private static boolean isWordBoundary(final String text, final int position) {
+        return position == 0 || position == text.length()
+               || !isWordCharacter(text.charAt(position - 1)) || !isWordCharacter(text.charAt(position));
+    }
+
+    /**
+     * Indicates whether the character can be part of a word
+     * @param c The character
+     * @return <tt>true</tt> if the character is a letter or digit
+     */
+    private static boolean isWordCharacter(final char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Indicates whether two sets of states have a state in common
+     * @param first The first states in ascending order
+     * @param second The second states in ascending order
+     * @return <tt>true</tt> if a state is in both sets
+     */
+    private static boolean intersect(final int[] first, final int[] second) {
+        for (int i = 0, j = 0; i < first.length && j < second.length; ) {
+            if (first[i] < second[j])
+                i++;
+            else if (first[i] > second[j])
+                j++;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * An occurrence of an expression in a text
+     */
+    public static class Match {
+        private final int start;
+        private final int end;
+        private final int pattern;
+
+        /**
+         * Creates a new <tt>Match</tt>
+         * @param start The start of the occurrence in the text
+         * @param end The end of the occurrence in the text
+         * @param pattern The index of the expression
+         */
+        private Match(final int start, final int end, final int pattern) {
+            this.start = start;
+            this.end = end;
+            this.pattern = pattern;
+        }
+
+        /**
+         * Gets the start of the occurrence in the text
+         * @return The character offset of the first character
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Gets the end of the occurrence in the text
+         * @return The character offset after the last character
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * Gets the expression that occurs
+         * @return The index of the expression
+         */
+        public int getPattern() {
+            return pattern;
+        }
+    }
+
+    /**
+     * Nondeterministic automaton built from syntax trees by Thompson's construction.
+     * Every state either consumes a character out of a set and moves to a single state,
+     * or moves to several states without consuming a character.
+     */
+    private static class Nfa {
+        /** The character ranges of every state, or <tt>null</tt> for states without a character. */
+        private final ArrayList<int[]> ranges = new ArrayList<int[]>();
+        private final ArrayList<int[]> targets = new ArrayList<int[]>();
+        /** The expression every state accepts, or {@link PatternAutomaton#NONE}. */
+        private final ArrayList<Integer> accepts = new ArrayList<Integer>();
+        /** The closure in which every state was last reached, so closures need not clear their marks. */
+        private int[] reached = new int[0];
+        private int[] reachedStates = new int[0];
+        private int closureCount;
+
+        /**
+         * Adds a state
+         * @param stateRanges The character ranges of the state, or <tt>null</tt>
+         * @param stateTargets The target states
+         * @param accept The expression the state accepts
+         * @return The state
+         */
+        private int addState(final int[] stateRanges, final int[] stateTargets, final int accept) {
+            if (ranges.size() == MAX_NFA_STATES)
+                throw new IllegalArgumentException("The expressions need more than " + MAX_NFA_STATES + " NFA states.");
+            ranges.add(stateRanges);
+            targets.add(stateTargets);
+            accepts.add(accept);
+            return ranges.size() - 1;
+        }
+
+        /**
+         * Adds a state that accepts an expression
+         * @param pattern The expression
+         * @return The state
+         */
+        public int addAccept(final int pattern) {
+            return addState(null, new int[0], pattern);
+        }
+
+        /**
+         * Adds the states that match a syntax tree
+         * @param node The syntax tree
+         * @param next The state that follows a match
+         * @return The first state of the match
+         */
+        public int build(final RegexParser.Node node, final int next) {
+            if (node instanceof RegexParser.CharSet) {
+                return addState(((RegexParser.CharSet)node).ranges, new int[] { next }, NONE);
+            }
+            if (node instanceof RegexParser.Sequence) {
+                final List<RegexParser.Node> elements = ((RegexParser.Sequence)node).elements;
+                int first = next;
+                for (int i = elements.size() - 1; i >= 0; i--)
+                    first = build(elements.get(i), first);
+                return first;
+            }
+            if (node instanceof RegexParser.Choice) {
+                final List<RegexParser.Node> alternatives = ((RegexParser.Choice)node).alternatives;
+                final int[] firsts = new int[alternatives.size()];
+                for (int i = 0; i < firsts.length; i++)
+                    firsts[i] = build(alternatives.get(i), next);
+                return addState(null, firsts, NONE);
+            }
+            final RegexParser.Repetition repetition = (RegexParser.Repetition)node;
+            int first = next;
+            // An unbounded repetition loops back to a state that can also leave the loop
+            if (repetition.max == -1) {
+                final int loop = addState(null, null, NONE);
+                targets.set(loop, new int[] { build(repetition.node, loop), next });
+                first = loop;
+            }
+            // Every optional repetition can also skip to the end
+            else {
+                for (int i = repetition.min; i < repetition.max; i++)
+                    first = addState(null, new int[] { build(repetition.node, first), next }, NONE);
+            }
+            for (int i = 0; i < repetition.min; i++)
+                first = build(repetition.node, first);
+            return first;
+        }
+
+        /**
+         * Adds the characters at which the character sets of the states start or end
+         * @param boundaries The boundaries
+         */
+        public void addBoundaries(final TreeSet<Integer> boundaries) {
+            for (final int[] stateRanges : ranges) {
+                if (stateRanges != null) {
+                    for (int i = 0; i < stateRanges.length; i += 2) {
+                        boundaries.add(stateRanges[i]);
+                        boundaries.add(stateRanges[i + 1] + 1);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gets the character classes that every state consumes
+         * @param classes The class of every character, where every range of a state starts and ends a class
+         * @return The ranges of classes of every state as inclusive pairs,
+         *         or <tt>null</tt> for states that consume no character
+         */
+        public int[][] getClassRanges(final char[] classes) {
+            final int[][] classRanges = new int[ranges.size()][];
+            for (int state = 0; state < classRanges.length; state++) {
+                final int[] stateRanges = ranges.get(state);
+                if (stateRanges != null) {
+                    classRanges[state] = new int[stateRanges.length];
+                    for (int i = 0; i < stateRanges.length; i++)
+                        classRanges[state][i] = classes[stateRanges[i]];
+                }
+            }
+            return classRanges;
+        }
+
+        /**
+         * Determines the states that are reachable from the specified states without consuming a character,
+         * keeping only the states that consume a character or accept an expression,
+         * since the other states do not influence the transitions or acceptance of a DFA state
+         * @param states The states
+         * @param count The number of states
+         * @return The reachable states in ascending order
+         */
+        public int[] closure(final int[] states, final int count) {
+            if (reached.length < ranges.size()) {
+                reached = new int[ranges.size()];
+                reachedStates = new int[ranges.size()];
+            }
+            final int mark = ++closureCount;
+            final int[] closure = reachedStates;
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (reached[states[i]] != mark) {
+                    reached[states[i]] = mark;
+                    closure[size++] = states[i];
+                }
+            }
+            // The reached states double as the queue of states whose targets are still to be visited
+            for (int i = 0; i < size; i++) {
+                final int state = closure[i];
+                if (ranges.get(state) == null) {
+                    for (final int target : targets.get(state)) {
+                        if (reached[target] != mark) {
+                            reached[target] = mark;
+                            closure[size++] = target;
+                        }
+                    }
+                }
+            }
+            int kept = 0;
+            for (int i = 0; i < size; i++)
+                if (ranges.get(closure[i]) != null || accepts.get(closure[i]) != NONE)
+                    closure[kept++] = closure[i];
+            final int[] sorted = Arrays.copyOf(closure, kept);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * Deterministic automaton built from an NFA by subset construction,
+     * in which state {@link PatternAutomaton#DEAD} accepts nothing and is never left
+     */
+    private static class Dfa {
+        private final int start;
+        /** The target of every state for every character class. */
+        private final int[] transitions;
+        /** The expression every state accepts, which is the first of the expressions it can accept. */
+        private final int[] accepts;
+        /** The NFA states of every state in ascending order. */
+        private final int[][] sets;
+
+        /**
+         * Creates a new <tt>Dfa</tt>
+         * @param nfa The NFA
+         * @param nfaStarts The start states of the NFA
+         * @param classRanges The class ranges of every NFA state
+         * @param classCount The number of classes
+         */
+        public Dfa(final Nfa nfa, final int[] nfaStarts, final int[][] classRanges, final int classCount) {
+            final Subsets subsets = new Subsets();
+            subsets.getId(new int[0]);
+            start = subsets.getId(nfa.closure(nfaStarts, nfaStarts.length));
+
+            int[] table = new int[2 * classCount];
+            // The NFA states reached through every class
+            final ClassBuckets next = new ClassBuckets(classCount);
+            for (int state = start; state < subsets.size(); state++) {
+                if (table.length < (state + 1) * classCount)
+                    table = Arrays.copyOf(table, 2 * table.length);
+                next.clear();
+                for (final int nfaState : subsets.get(state))
+                    if (classRanges[nfaState] != null)
+                        next.add(classRanges[nfaState], nfa.targets.get(nfaState)[0]);
+                for (int c = 0; c < classCount; c++) {
+                    table[state * classCount + c] = next.counts[c] == 0 ? DEAD
+                                                  : subsets.getId(nfa.closure(next.states[c], next.counts[c]));
+                }
+            }
+
+            sets = subsets.toArray();
+            accepts = new int[sets.length];
+            for (int state = 0; state < sets.length; state++) {
+                accepts[state] = NONE;
+                for (final int nfaState : sets[state]) {
+                    final int accept = nfa.accepts.get(nfaState);
+                    if (accept != NONE && (accepts[state] == NONE || accept < accepts[state]))
+                        accepts[state] = accept;
+                }
+            }
+            transitions = Arrays.copyOf(table, sets.length * classCount);
+        }
+    }
+
+    /**
+     * Deterministic automaton that reads a text backwards
+     * and determines at every position the NFA states of an expression that consume the character at that position
+     * and can then reach the end of an occurrence at a word boundary.
+     * Every state also records whether the character it has read is a word character,
+     * because an occurrence cannot end between two word characters.
+     * Its transitions therefore distinguish the word and non-word characters of every class.
+     */
+    private static class SuffixDfa {
+        /** The state at the end of a text. */
+        private final int start;
+        /** The target of every state for the non-word and word characters of every class. */
+        private final int[] transitions;
+        /** The NFA states of every state in ascending order, followed by a marker after a word character. */
+        private final int[][] sets;
+        /** Whether an occurrence can start at the position of every state. */
+        private final boolean[] startable;
+
+        /**
+         * Creates a new <tt>SuffixDfa</tt>
+         * @param nfa The NFA
+         * @param pattern The expression
+         * @param initial The initial NFA states of an occurrence in ascending order
+         * @param classRanges The class ranges of every NFA state
+         * @param classCount The number of classes
+         */
+        public SuffixDfa(final Nfa nfa, final int pattern, final int[] initial,
+                         final int[][] classRanges, final int classCount) {
+            final int nfaStateCount = nfa.ranges.size();
+            final int wordMarker = nfaStateCount;
+
+            // Find the consuming states that lead to every consuming state,
+            // and the consuming states that lead to the end of an occurrence of the expression
+            final int[][] follows = new int[nfaStateCount][];
+            final int[] predecessorCounts = new int[nfaStateCount];
+            final boolean[] ending = new boolean[nfaStateCount];
+            int endingCount = 0;
+            for (int nfaState = 0; nfaState < nfaStateCount; nfaState++) {
+                if (classRanges[nfaState] != null) {
+                    follows[nfaState] = nfa.closure(nfa.targets.get(nfaState), 1);
+                    for (final int follow : follows[nfaState]) {
+                        if (classRanges[follow] != null)
+                            predecessorCounts[follow]++;
+                        else if (!ending[nfaState] && nfa.accepts.get(follow) == pattern) {
+                            ending[nfaState] = true;
+                            endingCount++;
+                        }
+                    }
+                }
+            }
+            final int[][] predecessors = new int[nfaStateCount][];
+            final int[] endings = new int[endingCount];
+            for (int nfaState = 0, e = 0; nfaState < nfaStateCount; nfaState++) {
+                predecessors[nfaState] = new int[predecessorCounts[nfaState]];
+                if (ending[nfaState])
+                    endings[e++] = nfaState;
+            }
+            Arrays.fill(predecessorCounts, 0);
+            for (int nfaState = 0; nfaState < nfaStateCount; nfaState++) {
+                if (follows[nfaState] != null) {
+                    for (final int follow : follows[nfaState])
+                        if (classRanges[follow] != null)
+                            predecessors[follow][predecessorCounts[follow]++] = nfaState;
+                }
+            }
+
+            final Subsets subsets = new Subsets();
+            start = subsets.getId(new int[0]);
+            final int columnCount = 2 * classCount;
+            int[] table = new int[2 * columnCount];
+            // The states that continue into the next state, and the other states that end an occurrence
+            final ClassBuckets continuing = new ClassBuckets(classCount), ends = new ClassBuckets(classCount);
+            final int[] marks = new int[nfaStateCount];
+            for (int state = start; state < subsets.size(); state++) {
+                if (table.length < (state + 1) * columnCount)
+                    table = Arrays.copyOf(table, 2 * table.length);
+                final int[] set = subsets.get(state);
+                final boolean afterWord = set.length > 0 && set[set.length - 1] == wordMarker;
+                final int mark = state + 1;
+                continuing.clear();
+                for (final int nfaState : set) {
+                    if (nfaState != wordMarker) {
+                        for (final int predecessor : predecessors[nfaState]) {
+                            if (marks[predecessor] != mark) {
+                                marks[predecessor] = mark;
+                                continuing.add(classRanges[predecessor], predecessor);
+                            }
+                        }
+                    }
+                }
+                ends.clear();
+                for (final int ender : endings)
+                    if (marks[ender] != mark)
+                        ends.add(classRanges[ender], ender);
+
+                for (int c = 0; c < classCount; c++) {
+                    for (int word = 0; word < 2; word++) {
+                        // An occurrence can only end here if this or the previously read character is no word character
+                        final int endCount = word == 0 || !afterWord ? ends.counts[c] : 0;
+                        final int count = continuing.counts[c] + endCount;
+                        final int[] targetSet = new int[count + word];
+                        System.arraycopy(continuing.states[c], 0, targetSet, 0, continuing.counts[c]);
+                        System.arraycopy(ends.states[c], 0, targetSet, continuing.counts[c], endCount);
+                        Arrays.sort(targetSet, 0, count);
+                        if (word == 1)
+                            targetSet[count] = wordMarker;
+                        table[state * columnCount + 2 * c + word] = subsets.getId(targetSet);
+                    }
+                }
+            }
+
+            sets = subsets.toArray();
+            startable = new boolean[sets.length];
+            for (int state = 0; state < sets.length; state++)
+                startable[state] = intersect(sets[state], initial);
+            transitions = Arrays.copyOf(table, sets.length * columnCount);
+        }
+    }
+
+    /**
+     * The sets of NFA states that form the states of a DFA under construction
+     */
+    private static class Subsets {
+        private final HashMap<StateSet, Integer> ids = new HashMap<StateSet, Integer>();
+        private final ArrayList<int[]> sets = new ArrayList<int[]>();
+        private int totalSize;
+
+        /**
+         * Gets the DFA state of a set of NFA states, adding a new state if necessary
+         * @param set The NFA states in ascending order
+         * @return The DFA state
+         * @throws IllegalArgumentException if the DFA becomes too large
+         */
+        public int getId(final int[] set) {
+            final StateSet key = new StateSet(set);
+            Integer id = ids.get(key);
+            if (id == null) {
+                if (sets.size() == MAX_STATES)
+                    throw new IllegalArgumentException("The expressions need more than " + MAX_STATES + " states.");
+                if (set.length > MAX_SUBSET_SIZE - totalSize)
+                    throw new IllegalArgumentException("The expressions are too complex.");
+                totalSize += set.length;
+                id = sets.size();
+                ids.put(key, id);
+                sets.add(set);
+            }
+            return id;
+        }
+
+        /**
+         * Gets the NFA states of a DFA state
+         * @param id The DFA state
+         * @return The NFA states in ascending order
+         */
+        public int[] get(final int id) {
+            return sets.get(id);
+        }
+
+        /**
+         * Gets the number of DFA states
+         * @return The number of states
+         */
+        public int size() {
+            return sets.size();
+        }
+
+        /**
+         * Gets the NFA states of all DFA states
+         * @return The NFA states of every DFA state
+         */
+        public int[][] toArray() {
+            return sets.toArray(new int[sets.size()][]);
+        }
+    }
+
+    /**
+     * The NFA states that are reached through every character class
+     */
+    private static class ClassBuckets {
+        private final int[][] states;
+        private final int[] counts;
+
+        /**
+         * Creates new <tt>ClassBuckets</tt>
+         * @param classCount The number of classes
+         */
+        public ClassBuckets(final int classCount) {
+            states = new int[classCount][4];
+            counts = new int[classCount];
+        }
+
+        /**
+         * Removes all states
+         */
+        public void clear() {
+            Arrays.fill(counts, 0);
+        }
+
+        /**
+         * Adds a state to the buckets of the specified classes
+         * @param classRanges The ranges of classes as inclusive pairs
+         * @param state The state
+         */
+        public void add(final int[] classRanges, final int state) {
+            for (int i = 0; i < classRanges.length; i += 2) {
+                for (int c = classRanges[i]; c <= classRanges[i + 1]; c++) {
+                    if (counts[c] == states[c].length)
+                        states[c] = Arrays.copyOf(states[c], 2 * counts[c]);
+                    states[c][counts[c]++] = state;
+                }
+            }
+        }
+    }
+
+    /**
+     * A set of NFA states that identifies a DFA state
+     */
+    private static class StateSet {
+        private final int[] states;
+        private final int hashCode;
+
+        /**
+         * Creates a new <tt>StateSet</tt>
+         * @param states The states in ascending order
+         */
+        public StateSet(final int[] states) {
+            this.states = states;
+            this.hashCode = Arrays.hashCode(states);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof StateSet && Arrays.equals(states, ((StateSet)other).states);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
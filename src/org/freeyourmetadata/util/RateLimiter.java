@@ -0,0 +1,83 @@
+package org.freeyourmetadata.util;
+
+/**
+ * Token-bucket rate limiter that spaces out permits over time,
+ * allowing short bursts up to the number of permits per second
+ */
+public class RateLimiter {
+    private double permitsPerSecond;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+
+    /**
+     * Creates a new <tt>RateLimiter</tt>
+     * @param permitsPerSecond The number of permits per second (0 or less means unlimited)
+     */
+    public RateLimiter(final double permitsPerSecond) {
+        setRate(permitsPerSecond);
+    }
+
+    /**
+     * Sets the number of permits per second
+     * @param permitsPerSecond The number of permits per second (0 or less means unlimited)
+     */
+    public synchronized void setRate(final double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.tokens = Math.max(1, permitsPerSecond);
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Gets the number of permits per second
+     * @return The number of permits per second (0 or less means unlimited)
+     */
+    public synchronized double getRate() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Waits until a permit is available and takes it
+     * @throws InterruptedException if waiting is interrupted
+     */
+    public void acquire() throws InterruptedException {
+        long delay;
+        while ((delay = reserve()) > 0)
+            Thread.sleep(delay);
+    }
+
+    /**
+     * Prevents permits from being handed out during the specified time,
+     * for instance because the server asked to retry later
+     * @param millis The number of milliseconds to pause
+     */
+    public synchronized void pause(final long millis) {
+        pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + millis);
+    }
+
+    /**
+     * Takes a permit if one is available
+     * @return 0 if a permit was taken, or the number of milliseconds to wait otherwise
+     */
+    private synchronized long reserve() {
+        // Respect pauses requested by the server
+        final long pause = pausedUntil - System.currentTimeMillis();
+        if (pause > 0)
+            return pause;
+        if (permitsPerSecond <= 0)
+            return 0;
+
+        // Refill the bucket according to the elapsed time
+        final long now = System.nanoTime();
+        final double capacity = Math.max(1, permitsPerSecond);
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerSecond / 1e9);
+        lastRefill = now;
+
+        // Take a token, or determine how long until one becomes available
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        return Math.max(1, (long)Math.ceil((1 - tokens) * 1000 / permitsPerSecond));
+    }
+}
@@ -0,0 +1,388 @@
+package org.freeyourmetadata.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Parser of regular expressions into a syntax tree.
+ * It supports the subset of the <tt>java.util.regex</tt> syntax that a finite automaton can match:
+ * characters and escapes, character classes, <tt>.</tt>, groups, alternation and quantifiers.
+ * Anchors, backreferences, lookaround and lazy or possessive quantifiers are rejected.
+ * The escapes <tt>\d</tt>, <tt>\w</tt> and <tt>\s</tt> only match ASCII characters.
+ */
+class RegexParser {
+    /** The largest bound of a counted repetition, which limits the size of the automaton. */
+    private final static int MAX_REPETITIONS = 1000;
+    private final static int[] DIGITS = { '0', '9' };
+    private final static int[] WORD = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+    private final static int[] SPACE = { '\t', '\r', ' ', ' ' };
+    private final static int[] ANY_BUT_NEWLINE = { 0, '\n' - 1, '\n' + 1, Character.MAX_VALUE };
+
+    private final String regex;
+    private int position;
+
+    /**
+     * Creates a new <tt>RegexParser</tt>
+     * @param regex The regular expression
+     */
+    private RegexParser(final String regex) {
+        this.regex = regex;
+    }
+
+    /**
+     * Parses a regular expression
+     * @param regex The regular expression
+     * @return The syntax tree
+     * @throws PatternSyntaxException if the expression is invalid or unsupported
+     */
+    public static Node parse(final String regex) {
+        final RegexParser parser = new RegexParser(regex);
+        final Node node = parser.parseChoice();
+        if (parser.position < regex.length())
+            throw parser.error("Unmatched closing ')'");
+        return node;
+    }
+
+    /**
+     * Parses alternatives separated by <tt>|</tt>
+     * @return The syntax tree
+     */
+    private Node parseChoice() {
+        final ArrayList<Node> alternatives = new ArrayList<Node>();
+        alternatives.add(parseSequence());
+        while (position < regex.length() && regex.charAt(position) == '|') {
+            position++;
+            alternatives.add(parseSequence());
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : new Choice(alternatives);
+    }
+
+    /**
+     * Parses consecutive repetitions
+     * @return The syntax tree
+     */
+    private Node parseSequence() {
+        final ArrayList<Node> elements = new ArrayList<Node>();
+        while (position < regex.length() && regex.charAt(position) != '|' && regex.charAt(position) != ')')
+            elements.add(parseRepetition());
+        return elements.size() == 1 ? elements.get(0) : new Sequence(elements);
+    }
+
+    /**
+     * Parses an atom with its quantifiers
+     * @return The syntax tree
+     */
+    private Node parseRepetition() {
+        Node node = parseAtom();
+        while (position < regex.length()) {
+            final char c = regex.charAt(position);
+            if (c == '*')
+                node = new Repetition(node, 0, -1);
+            else if (c == '+')
+                node = new Repetition(node, 1, -1);
+            else if (c == '?')
+                node = new Repetition(node, 0, 1);
+            else if (c == '{')
+                node = parseCount(node);
+            else
+                break;
+            position++;
+            if (position < regex.length() && (regex.charAt(position) == '?' || regex.charAt(position) == '+'))
+                throw error("Lazy and possessive quantifiers are not supported");
+        }
+        return node;
+    }
+
+    /**
+     * Parses a counted repetition such as <tt>{2}</tt>, <tt>{2,}</tt> or <tt>{2,5}</tt>,
+     * leaving the position at its closing brace
+     * @param node The repeated syntax tree
+     * @return The syntax tree of the repetition
+     */
+    private Node parseCount(final Node node) {
+        final int start = position;
+        position++;
+        final int min = parseNumber();
+        int max = min;
+        if (position < regex.length() && regex.charAt(position) == ',') {
+            position++;
+            max = position < regex.length() && regex.charAt(position) == '}' ? -1 : parseNumber();
+        }
+        if (position >= regex.length() || regex.charAt(position) != '}') {
+            position = start;
+            throw error("Unclosed counted closure");
+        }
+        if (max != -1 && max < min || Math.max(min, max) > MAX_REPETITIONS) {
+            position = start;
+            throw error("Illegal repetition range");
+        }
+        return new Repetition(node, min, max);
+    }
+
+    /**
+     * Parses a decimal number
+     * @return The number
+     */
+    private int parseNumber() {
+        final int start = position;
+        while (position < regex.length() && regex.charAt(position) >= '0' && regex.charAt(position) <= '9'
+               && position - start < 5)
+            position++;
+        if (position == start)
+            throw error("Number expected");
+        return Integer.parseInt(regex.substring(start, position));
+    }
+
+    /**
+     * Parses a group, character class, escape or character
+     * @return The syntax tree
+     */
+    private Node parseAtom() {
+        final char c = regex.charAt(position);
+        switch (c) {
+        case '(':
+            if (regex.startsWith("(?:", position))
+                position += 3;
+            else if (regex.startsWith("(?", position))
+                throw error("Only non-capturing groups are supported");
+            else
+                position++;
+            final Node group = parseChoice();
+            if (position >= regex.length())
+                throw error("Unclosed group");
+            position++;
+            return group;
+        case '[':
+            return new CharSet(parseClass());
+        case '.':
+            position++;
+            return new CharSet(ANY_BUT_NEWLINE);
+        case '\\':
+            return new CharSet(parseEscape());
+        case '^':
+        case '$':
+            throw error("Anchors are not supported");
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+            throw error("Dangling meta character '" + c + "'");
+        default:
+            position++;
+            return new CharSet(new int[] { c, c });
+        }
+    }
+
+    /**
+     * Parses a character class such as <tt>[^a-z\d]</tt>
+     * @return The ranges of the class
+     */
+    private int[] parseClass() {
+        final int start = position++;
+        final boolean negated = position < regex.length() && regex.charAt(position) == '^';
+        if (negated)
+            position++;
+        int[] ranges = new int[0];
+        boolean first = true;
+        while (true) {
+            if (position >= regex.length()) {
+                position = start;
+                throw error("Unclosed character class");
+            }
+            final char c = regex.charAt(position);
+            if (c == ']' && !first)
+                break;
+            first = false;
+            if (c == '[' || c == '&' && regex.startsWith("&&", position))
+                throw error("Nested classes and intersections are not supported");
+
+            int[] element;
+            if (c == '\\')
+                element = parseEscape();
+            else {
+                position++;
+                element = new int[] { c, c };
+            }
+            // A single character followed by a hyphen and another character forms a range
+            if (element.length == 2 && element[0] == element[1] && position + 1 < regex.length()
+                && regex.charAt(position) == '-' && regex.charAt(position + 1) != ']') {
+                position++;
+                final int[] end;
+                if (regex.charAt(position) == '\\')
+                    end = parseEscape();
+                else {
+                    final char last = regex.charAt(position++);
+                    end = new int[] { last, last };
+                }
+                if (end.length != 2 || end[0] != end[1] || end[0] < element[0])
+                    throw error("Illegal character range");
+                element = new int[] { element[0], end[0] };
+            }
+            ranges = union(ranges, element);
+        }
+        position++;
+        return negated ? complement(ranges) : ranges;
+    }
+
+    /**
+     * Parses an escape such as <tt>\d</tt>, <tt>\n</tt> or <tt>\.</tt>
+     * @return The ranges of the escape
+     */
+    private int[] parseEscape() {
+        position++;
+        if (position >= regex.length())
+            throw error("Unexpected end of expression");
+        final char c = regex.charAt(position++);
+        switch (c) {
+        case 'd': return DIGITS;
+        case 'D': return complement(DIGITS);
+        case 'w': return WORD;
+        case 'W': return complement(WORD);
+        case 's': return SPACE;
+        case 'S': return complement(SPACE);
+        case 't': return new int[] { '\t', '\t' };
+        case 'n': return new int[] { '\n', '\n' };
+        case 'r': return new int[] { '\r', '\r' };
+        case 'f': return new int[] { '\f', '\f' };
+        case 'u':
+            if (position + 4 <= regex.length()) {
+                try {
+                    final int code = Integer.parseInt(regex.substring(position, position + 4), 16);
+                    position += 4;
+                    return new int[] { code, code };
+                }
+                catch (NumberFormatException error) { }
+            }
+            throw error("Illegal Unicode escape sequence");
+        default:
+            if (Character.isLetterOrDigit(c)) {
+                position--;
+                throw error("Unsupported escape sequence");
+            }
+            return new int[] { c, c };
+        }
+    }
+
+    /**
+     * Creates an exception for a syntax error at the current position
+     * @param description The description of the error
+     * @return The exception
+     */
+    private PatternSyntaxException error(final String description) {
+        return new PatternSyntaxException(description, regex, position);
+    }
+
+    /**
+     * Unites two sets of character ranges
+     * @param first The first ranges, sorted and disjoint
+     * @param second The second ranges, sorted and disjoint
+     * @return The sorted and disjoint ranges of the characters in either set
+     */
+    static int[] union(final int[] first, final int[] second) {
+        final int[] all = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        // Sort the ranges by their start
+        final Integer[] order = new Integer[all.length / 2];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return all[2 * a] - all[2 * b];
+            }
+        });
+        final int[] merged = new int[all.length];
+        int count = 0;
+        for (final int range : order) {
+            final int low = all[2 * range], high = all[2 * range + 1];
+            if (count > 0 && low <= merged[count - 1] + 1)
+                merged[count - 1] = Math.max(merged[count - 1], high);
+            else {
+                merged[count++] = low;
+                merged[count++] = high;
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+
+    /**
+     * Determines the characters that are not in a set of character ranges
+     * @param ranges The ranges, sorted and disjoint
+     * @return The sorted and disjoint ranges of the other characters
+     */
+    static int[] complement(final int[] ranges) {
+        final int[] complement = new int[ranges.length + 2];
+        int count = 0, next = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) {
+                complement[count++] = next;
+                complement[count++] = ranges[i] - 1;
+            }
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) {
+            complement[count++] = next;
+            complement[count++] = Character.MAX_VALUE;
+        }
+        return Arrays.copyOf(complement, count);
+    }
+
+    /**
+     * A node of the syntax tree
+     */
+    static abstract class Node {
+    }
+
+    /**
+     * A single character out of a set
+     */
+    static class CharSet extends Node {
+        /** The sorted and disjoint ranges of the characters, as inclusive pairs. */
+        final int[] ranges;
+
+        CharSet(final int[] ranges) {
+            this.ranges = ranges;
+        }
+    }
+
+    /**
+     * A sequence of consecutive nodes
+     */
+    static class Sequence extends Node {
+        final List<Node> elements;
+
+        Sequence(final List<Node> elements) {
+            this.elements = elements;
+        }
+    }
+
+    /**
+     * A choice between alternative nodes
+     */
+    static class Choice extends Node {
+        final List<Node> alternatives;
+
+        Choice(final List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+    }
+
+    /**
+     * A node that is repeated a number of times
+     */
+    static class Repetition extends Node {
+        final Node node;
+        final int min;
+        /** The maximum number of repetitions, or -1 if unbounded. */
+        final int max;
+
+        Repetition(final Node node, final int min, final int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.freeyourmetadata.util;
+
+import java.util.Random;
+
+/**
+ * Policy that retries failed attempts with exponentially growing, randomly jittered delays,
+ * so clients that failed together do not retry together
+ */
+public class RetryPolicy {
+    private final static Random RANDOM = new Random();
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * Creates a new <tt>RetryPolicy</tt>
+     * @param maxAttempts The maximum number of attempts, including the first one
+     * @param baseDelay The delay before the first retry, in milliseconds
+     * @param maxDelay The maximum delay before any retry, in milliseconds
+     */
+    public RetryPolicy(final int maxAttempts, final long baseDelay, final long maxDelay) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Indicates whether another attempt is allowed after the specified attempt failed
+     * @param attempt The number of the failed attempt, starting from 1
+     * @return <tt>true</tt> if another attempt is allowed
+     */
+    public boolean canRetry(final int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * Gets the delay before retrying the specified attempt,
+     * chosen randomly up to an exponentially growing bound
+     * @param attempt The number of the failed attempt, starting from 1
+     * @return The delay in milliseconds
+     */
+    public long getDelay(final int attempt) {
+        final long bound = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+        synchronized (RANDOM) {
+            return bound / 2 + (long)(RANDOM.nextDouble() * (bound / 2 + 1));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.freeyourmetadata.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded pool of canonical string instances, so equal strings that recur often share one instance.
+ * The pool is a fixed-size hash table in which each string replaces the string in its slot,
+ * so it never holds more strings than its capacity and needs no locking;
+ * a string that has been replaced is simply no longer shared.
+ */
+public class StringPool {
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+
+    /**
+     * Creates a new <tt>StringPool</tt>
+     * @param capacity The maximum number of strings (rounded up to a power of two)
+     */
+    public StringPool(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new AtomicReferenceArray<String>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Gets the canonical instance of the string, which becomes the canonical instance if there is none
+     * @param string The string
+     * @return An equal string from the pool, or the string itself
+     */
+    public String intern(final String string) {
+        if (string == null)
+            return null;
+        // Spread the high bits of the hash, since only the low bits select the slot
+        final int hash = string.hashCode();
+        final int slot = (hash ^ (hash >>> 16)) & mask;
+        final String pooled = slots.get(slot);
+        if (string.equals(pooled))
+            return pooled;
+        slots.lazySet(slot, string);
+        return string;
+    }
+
+    /**
+     * Determines whether the pool currently holds a string equal to the specified string
+     * @param string The string
+     * @return <tt>true</tt> if an equal string is in the pool
+     */
+    public boolean contains(final String string) {
+        if (string == null)
+            return false;
+        final int hash = string.hashCode();
+        return string.equals(slots.get((hash ^ (hash >>> 16)) & mask));
+    }
+
+    /**
+     * Gets the maximum number of strings in the pool
+     * @return The capacity
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,153 @@
+package org.freeyourmetadata.util;
+
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splitter of long texts into overlapping chunks of bounded length,
+ * which preferably end at a sentence boundary, or else at a word boundary.
+ * Consecutive chunks overlap, so text near a chunk boundary is also seen with its context;
+ * each position of the text is owned by exactly one chunk, halfway through the overlap.
+ */
+public class TextChunker {
+    private final int maxLength;
+    private final int overlap;
+
+    /**
+     * Creates a new <tt>TextChunker</tt>
+     * @param maxLength The maximum number of characters of a chunk
+     * @param overlap The number of characters by which consecutive chunks overlap
+     */
+    public TextChunker(final int maxLength, final int overlap) {
+        this.maxLength = Math.max(2, maxLength);
+        this.overlap = Math.max(0, Math.min(overlap, this.maxLength / 2));
+    }
+
+    /**
+     * Splits the text into chunks
+     * @param text The text
+     * @return The chunks, in the order of the text
+     */
+    public List<Chunk> split(final String text) {
+        final int length = text.length();
+        if (length <= maxLength)
+            return Collections.singletonList(new Chunk(text, 0, length, 0, length));
+
+        // Break iterators are not thread-safe, so every split has its own
+        final BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ROOT);
+        sentences.setText(text);
+        final ArrayList<Chunk> chunks = new ArrayList<Chunk>(2 * length / maxLength + 1);
+        int start = 0, ownStart = 0;
+        while (true) {
+            // The last chunk takes the remainder of the text
+            if (length - start <= maxLength) {
+                chunks.add(new Chunk(text, start, length, ownStart, length));
+                return chunks;
+            }
+            final int end = findEnd(text, sentences, start);
+            final int next = findNextStart(text, sentences, start, end);
+            // The overlap is divided evenly between both chunks
+            final int ownEnd = (next + end) / 2;
+            chunks.add(new Chunk(text, start, end, ownStart, ownEnd));
+            start = next;
+            ownStart = ownEnd;
+        }
+    }
+
+    /**
+     * Finds the end of the chunk that starts at the specified position
+     * @param text The text
+     * @param sentences The sentence boundaries of the text
+     * @param start The start of the chunk
+     * @return The end of the chunk
+     */
+    private int findEnd(final String text, final BreakIterator sentences, final int start) {
+        final int limit = start + maxLength;
+        // Chunks should not become much shorter than the maximum
+        final int minEnd = start + maxLength / 2;
+        final int sentenceEnd = sentences.preceding(limit + 1);
+        if (sentenceEnd > minEnd)
+            return sentenceEnd;
+        for (int end = limit; end > minEnd; end--)
+            if (Character.isWhitespace(text.charAt(end - 1)))
+                return end;
+        // Never separate the halves of a surrogate pair
+        return Character.isLowSurrogate(text.charAt(limit)) ? limit - 1 : limit;
+    }
+
+    /**
+     * Finds the start of the chunk after the specified chunk,
+     * overlapping with it up to the configured number of characters
+     * @param text The text
+     * @param sentences The sentence boundaries of the text
+     * @param start The start of the chunk
+     * @param end The end of the chunk
+     * @return The start of the next chunk
+     */
+    private int findNextStart(final String text, final BreakIterator sentences, final int start, final int end) {
+        final int earliest = Math.max(start + 1, end - overlap);
+        if (earliest >= end)
+            return end;
+        final int sentenceStart = sentences.following(earliest - 1);
+        if (sentenceStart != BreakIterator.DONE && sentenceStart < end)
+            return sentenceStart;
+        for (int next = earliest; next < end; next++)
+            if (Character.isWhitespace(text.charAt(next - 1)) && !Character.isWhitespace(text.charAt(next)))
+                return next;
+        return Character.isLowSurrogate(text.charAt(earliest)) ? earliest + 1 : earliest;
+    }
+
+    /**
+     * A chunk of a text
+     */
+    public static class Chunk {
+        private final String text;
+        private final int start;
+        private final int ownStart;
+        private final int ownEnd;
+
+        /**
+         * Creates a new <tt>Chunk</tt>
+         * @param text The complete text
+         * @param start The start of the chunk in the text
+         * @param end The end of the chunk in the text
+         * @param ownStart The start of the part of the text that this chunk owns
+         * @param ownEnd The end of the part of the text that this chunk owns
+         */
+        private Chunk(final String text, final int start, final int end, final int ownStart, final int ownEnd) {
+            this.text = text.substring(start, end);
+            this.start = start;
+            this.ownStart = ownStart;
+            this.ownEnd = ownEnd;
+        }
+
+        /**
+         * Gets the text of the chunk
+         * @return The text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Gets the position of the chunk in the complete text
+         * @return The character offset of the start of the chunk
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * Indicates whether the chunk owns a position of the complete text,
+         * so results found in several chunks are only kept once
+         * @param offset The character offset in the complete text
+         * @return <tt>true</tt> if the chunk owns the position
+         */
+        public boolean owns(final int offset) {
+            return offset >= ownStart && offset < ownEnd;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package org.freeyourmetadata.ner.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Base64;
+import org.freeyourmetadata.ner.services.Disambiguation;
+import org.freeyourmetadata.ner.services.ExtractionResult;
+import org.freeyourmetadata.ner.services.NamedEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link NERChangeFormat}
+ */
+public class NERChangeFormatTest {
+    private final static String[] SERVICE_NAMES = { "DBpedia Spotlight", "Local gazetteer" };
+    private File resultsFile;
+
+    @Before
+    public void createResultsFile() throws IOException {
+        resultsFile = File.createTempFile("results", ".bin");
+    }
+
+    @After
+    public void deleteResultsFile() {
+        resultsFile.delete();
+    }
+
+    @Test
+    public void recognizesCompactFormat() {
+        assertTrue(NERChangeFormat.isCompact(NERChangeFormat.MARKER + "AQID"));
+        assertFalse(NERChangeFormat.isCompact("{\"column\":1}"));
+    }
+
+    @Test
+    public void readsWrittenChange() throws IOException {
+        final ExtractionResultStore results = createResults(6);
+        final List<Integer> addedRowIds = Arrays.asList(6, 7);
+        final String line = write(3, results, addedRowIds);
+        assertTrue(NERChangeFormat.isCompact(line));
+        assertEquals(1, line.split("\n").length);
+
+        final NERChange change = NERChangeFormat.read(line);
+        assertSameResults(results, change.getExtractionResults());
+        // Writing the read change again results in the same line
+        final StringWriter saved = new StringWriter();
+        change.save(saved, null);
+        assertEquals(line, saved.toString());
+    }
+
+    @Test
+    public void storesStringsOnce() throws IOException {
+        final int rowCount = 500;
+        final ExtractionResult[][] rows = new ExtractionResult[rowCount][];
+        for (int i = 0; i < rowCount; i++)
+            rows[i] = new ExtractionResult[] { result(entity("Barack Obama", "Barack Obama", "http://dbpedia.org/resource/Barack_Obama", 0.5)),
+                                               result() };
+        final String line = write(0, ExtractionResultStore.fromArray(rows, 2), Collections.<Integer>emptyList());
+        // Every row needs only a few bytes besides its repeated strings
+        assertTrue(line.length() < rowCount * 10);
+    }
+
+    @Test
+    public void readsResultsFromFile() throws IOException {
+        final ExtractionResultStore results = createResults(10000);
+        NERChangeFormat.writeResults(resultsFile, results);
+        assertSameResults(results, NERChangeFormat.readResults(resultsFile));
+    }
+
+    @Test
+    public void readsResultsFromFileBlockByBlock() throws IOException {
+        final ExtractionResultStore results = createResults(10000);
+        NERChangeFormat.writeResults(resultsFile, results);
+
+        final Iterator<ExtractionResultStore> blocks = NERChangeFormat.readResultBlocks(resultsFile);
+        int blockCount = 0, index = 0;
+        while (blocks.hasNext()) {
+            final ExtractionResultStore block = blocks.next();
+            assertEquals(results.getRowCount(), block.getRowCount());
+            assertEquals(0, block.getFingerprintCount());
+            for (int i = 0; i < block.size(); i++, index++) {
+                assertEquals(results.getRowId(index), block.getRowId(i));
+                assertSameResults(results.getResults(results.getRowId(index)), block.getResults(block.getRowId(i)));
+            }
+            blockCount++;
+        }
+        assertEquals(results.size(), index);
+        assertTrue(blockCount > 1);
+    }
+
+    @Test
+    public void copiesResultsFromFile() throws IOException {
+        final ExtractionResultStore results = createResults(10000);
+        final List<Integer> addedRowIds = Arrays.asList(10000, 10001, 10002);
+        NERChangeFormat.writeResults(resultsFile, results);
+
+        final StringWriter copied = new StringWriter();
+        NERChangeFormat.write(copied, 2, SERVICE_NAMES, resultsFile, addedRowIds);
+        assertEquals(write(2, results, addedRowIds), copied.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsResultsOfOtherServices() throws IOException {
+        NERChangeFormat.writeResults(resultsFile, createResults(10));
+        NERChangeFormat.write(new StringWriter(), 2, new String[] { "DBpedia Spotlight" },
+                              resultsFile, Collections.<Integer>emptyList());
+    }
+
+    @Test
+    public void keepsFingerprintsAndDigests() throws IOException {
+        final ExtractionResultStore.Builder builder = new ExtractionResultStore.Builder(SERVICE_NAMES.length);
+        builder.addRow(1, builder.addResults(new ExtractionResult[] { result(entity("Ghent")), result() }));
+        builder.addFingerprint(2, 0x0123456789abcdefL, NERProcess.digest("nothing to find"));
+        builder.addFingerprint(1, -1L, NERProcess.digest("ghent"));
+        builder.addFingerprint(0, 42L, 0);
+        final ExtractionResultStore results = builder.build(3);
+
+        final ExtractionResultStore read = NERChangeFormat.read(write(0, results, Collections.<Integer>emptyList()))
+                                                          .getExtractionResults();
+        assertSameResults(results, read);
+        NERChangeFormat.writeResults(resultsFile, results);
+        assertSameResults(results, NERChangeFormat.readResults(resultsFile));
+
+        assertEquals(3, read.getFingerprintCount());
+        assertEquals(0, read.getFingerprintRow(0));
+        assertEquals(42L, read.getFingerprint(0));
+        assertEquals(0L, read.getFingerprintDigest(0));
+        assertEquals(-1L, read.getFingerprint(1));
+        assertEquals(NERProcess.digest("ghent"), read.getFingerprintDigest(1));
+        assertEquals(0x0123456789abcdefL, read.getFingerprint(2));
+        assertEquals(NERProcess.digest("nothing to find"), read.getFingerprintDigest(2));
+        // The texts themselves are not kept
+        assertEquals(results.getStringCount(), read.getStringCount());
+    }
+
+    @Test
+    public void readsScoresOfEarlierVersions() throws IOException {
+        // Version 5 stored the score 0.75 of the entity Ghent as a double
+        final NERChange change = NERChangeFormat.read(NERChangeFormat.MARKER
+            + "BQADARFEQnBlZGlhIFNwb3RsaWdodAIpLnicY2J1z0jNK1HMKCkpsNLXT0kqSE3JTNTLL0rXL0otzi8tSk7VB6sAABxDDnIBAQ8TeJxj"
+            + "YGRiZGRksn/BAAYACLoBMAAACHicAwAAAAABAAAIeJwDAAAAAAE=");
+        final ExtractionResultStore expected = ExtractionResultStore.fromArray(new ExtractionResult[][] {
+            { result(entity("Ghent", "Ghent", "http://dbpedia.org/resource/Ghent", 0.75)) },
+            { result() }, { result() },
+        }, 1);
+        assertSameResults(expected, change.getExtractionResults());
+        assertEquals(0.75f, change.getExtractionResults().getScore(0), 0);
+    }
+
+    @Test
+    public void readsWrittenRetryChange() throws IOException {
+        final ExtractionResultStore.Builder previous = new ExtractionResultStore.Builder(1);
+        for (final int rowId : new int[] { 0, 3 }) {
+            final int group = previous.nextGroup();
+            previous.addError(previous.intern("Service unavailable"));
+            previous.addRow(rowId, group);
+        }
+        final ExtractionResult[][] rows = new ExtractionResult[5][];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = new ExtractionResult[] { result() };
+        rows[0][0] = result(entity("Paris"), entity("Ghent"));
+        rows[3][0] = result(new Exception("Still unavailable"));
+
+        final StringWriter writer = new StringWriter();
+        NERChangeFormat.writeRetry(writer, 4, new int[] { 4, 5 }, previous.build(5), ExtractionResultStore.fromArray(rows, 1),
+                                   Arrays.asList(5), Arrays.asList(1));
+        final String line = writer.toString();
+        assertTrue(NERChangeFormat.isCompact(line));
+        final StringWriter saved = new StringWriter();
+        NERChangeFormat.readRetry(line).save(saved, null);
+        assertEquals(line, saved.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsRetryChangeInOtherFormat() throws IOException {
+        NERChangeFormat.readRetry("{\"cellIndex\":1}");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnsupportedVersion() throws IOException {
+        NERChangeFormat.read(NERChangeFormat.MARKER + new String(Base64.encodeBase64(new byte[] { 99, 0, 0, 0 }), "US-ASCII"));
+    }
+
+    /**
+     * Creates results with entities, errors and empty rows
+     * @param rowCount The number of rows
+     */
+    private static ExtractionResultStore createResults(final int rowCount) {
+        final ExtractionResult[][] rows = new ExtractionResult[rowCount][];
+        for (int i = 0; i < rowCount; i++) {
+            switch (i % 5) {
+            case 0:
+                rows[i] = new ExtractionResult[] {
+                    result(entity("Ghent", "Ghent", "http://dbpedia.org/resource/Ghent", 0.75),
+                           entity("Row " + i, "Row", "http://example.org/rows/" + i, 1)),
+                    result(entity("Ghent")) };
+                break;
+            case 1:
+                rows[i] = new ExtractionResult[] { result(), result() };
+                break;
+            case 2:
+                rows[i] = new ExtractionResult[] { result(new Exception("Timeout of row " + i)), result(entity("Bruges")) };
+                break;
+            case 3:
+                rows[i] = new ExtractionResult[] {
+                    result(new NamedEntity("Antwerp", new Disambiguation[] {
+                        new Disambiguation("Antwerp", "http://dbpedia.org/resource/Antwerp", 0.5),
+                        new Disambiguation("Antwerp Province", "http://dbpedia.org/resource/Antwerp_Province", 0.25) })),
+                    result(new Exception("Dictionary missing")) };
+                break;
+            default:
+                rows[i] = new ExtractionResult[] { result(), result(entity("Zoë")) };
+            }
+        }
+        return ExtractionResultStore.fromArray(rows, SERVICE_NAMES.length);
+    }
+
+    /**
+     * Writes a change in the compact format
+     */
+    private static String write(final int columnIndex, final ExtractionResultStore results,
+                                final List<Integer> addedRowIds) throws IOException {
+        final StringWriter writer = new StringWriter();
+        NERChangeFormat.write(writer, columnIndex, SERVICE_NAMES, results, addedRowIds);
+        return writer.toString();
+    }
+
+    private static ExtractionResult result(final NamedEntity... entities) {
+        return new ExtractionResult(entities);
+    }
+
+    private static ExtractionResult result(final Exception error) {
+        return new ExtractionResult(error);
+    }
+
+    private static NamedEntity entity(final String text) {
+        return new NamedEntity(text, new Disambiguation[0]);
+    }
+
+    private static NamedEntity entity(final String text, final String label, final String uri, final double score) {
+        return new NamedEntity(text, new Disambiguation[] { new Disambiguation(label, uri, score) });
+    }
+
+    /**
+     * Asserts that both stores contain the same results for every row
+     */
+    private static void assertSameResults(final ExtractionResultStore expected, final ExtractionResultStore actual) {
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        assertEquals(expected.getServiceCount(), actual.getServiceCount());
+        assertEquals(expected.size(), actual.size());
+        for (int rowId = 0; rowId < expected.getRowCount(); rowId++) {
+            assertEquals(expected.indexOfRow(rowId) >= 0, actual.indexOfRow(rowId) >= 0);
+            assertSameResults(expected.getResults(rowId), actual.getResults(rowId));
+        }
+        assertEquals(expected.getFingerprintCount(), actual.getFingerprintCount());
+    }
+
+    /**
+     * Asserts that both rows have the same results for every service
+     */
+    private static void assertSameResults(final ExtractionResult[] expected, final ExtractionResult[] actual) {
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    /**
+     * Describes the results of all services for a row
+     */
+    private static List<String> describe(final ExtractionResult[] results) {
+        final ArrayList<String> description = new ArrayList<String>();
+        for (final ExtractionResult result : results) {
+            if (result.hasError()) {
+                description.add("error " + result.getExtractionError().message);
+                continue;
+            }
+            for (final NamedEntity entity : result.getNamedEntities()) {
+                description.add("entity " + entity.getExtractedText());
+                for (final Disambiguation disambiguation : entity.getDisambiguations())
+                    description.add(disambiguation.getLabel() + " " + disambiguation.getUriString()
+                                    + " " + disambiguation.getScore());
+            }
+            description.add("end");
+        }
+        return description;
+    }
+}
@@ -0,0 +1,107 @@
+package org.freeyourmetadata.ner.operations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.freeyourmetadata.ner.services.Disambiguation;
+import org.freeyourmetadata.ner.services.ExtractionResult;
+import org.freeyourmetadata.ner.services.NamedEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.refine.expr.EvalError;
+import com.google.refine.model.Cell;
+import com.google.refine.model.Project;
+import com.google.refine.model.Row;
+
+/**
+ * Tests of {@link NERRetryChange}
+ */
+public class NERRetryChangeTest {
+    private final static int SOURCE_CELL = 0;
+    private final static int OTHER_CELL = 1;
+    private final static int RETRIED_CELL = 2;
+    private final static int RESULT_CELL = 3;
+    private final static int[] RESULT_CELLS = { RETRIED_CELL, RESULT_CELL };
+    private Project project;
+
+    @Before
+    public void createProject() {
+        project = new Project();
+        // The original extraction added the second row for the second entity of the other service
+        project.rows.add(row("Paris and Ghent", null, new Cell(new EvalError("Service unavailable"), null), "Paris"));
+        project.rows.add(row(null, null, null, "Ghent"));
+        project.rows.add(row("Nothing to find", null, null, null));
+    }
+
+    @Test
+    public void fillsRowsAddedByExtraction() {
+        final NERRetryChange change = createChange();
+        change.apply(project);
+        assertEquals(4, project.rows.size());
+        assertEquals("Paris", project.rows.get(0).getCell(RETRIED_CELL).value);
+        assertEquals("Ghent", project.rows.get(1).getCell(RETRIED_CELL).value);
+        assertEquals("Ghent", project.rows.get(1).getCell(RESULT_CELL).value);
+        assertEquals("Lyon", project.rows.get(2).getCell(RETRIED_CELL).value);
+        assertEquals("Nothing to find", project.rows.get(3).getCell(SOURCE_CELL).value);
+
+        change.revert(project);
+        assertEquals(3, project.rows.size());
+        assertTrue(project.rows.get(0).getCell(RETRIED_CELL).value instanceof EvalError);
+        assertNull(project.rows.get(1).getCell(RETRIED_CELL));
+    }
+
+    @Test
+    public void insertsRowsBeforeRowsWithOtherValues() {
+        // A row that continues the record with a value of its own was not added by the extraction
+        project.rows.get(1).setCell(OTHER_CELL, new Cell("Belgium", null));
+        final NERRetryChange change = createChange();
+        change.apply(project);
+        assertEquals(5, project.rows.size());
+        assertEquals("Paris", project.rows.get(0).getCell(RETRIED_CELL).value);
+        assertEquals("Ghent", project.rows.get(1).getCell(RETRIED_CELL).value);
+        assertEquals("Lyon", project.rows.get(2).getCell(RETRIED_CELL).value);
+        assertEquals("Belgium", project.rows.get(3).getCell(OTHER_CELL).value);
+        assertNull(project.rows.get(3).getCell(RETRIED_CELL));
+
+        change.revert(project);
+        assertEquals(3, project.rows.size());
+        assertEquals("Belgium", project.rows.get(1).getCell(OTHER_CELL).value);
+    }
+
+    /**
+     * Creates a change that retries the first row, which now has three entities
+     */
+    private NERRetryChange createChange() {
+        final ExtractionResultStore.Builder previous = new ExtractionResultStore.Builder(1);
+        final int group = previous.nextGroup();
+        previous.addError(previous.intern("Service unavailable"));
+        previous.addRow(0, group);
+        final ExtractionResult[][] results = {
+            { new ExtractionResult(new NamedEntity[] { entity("Paris"), entity("Ghent"), entity("Lyon") }) },
+            { new ExtractionResult(new NamedEntity[0]) },
+            { new ExtractionResult(new NamedEntity[0]) },
+        };
+        return new NERRetryChange(RETRIED_CELL, RESULT_CELLS, previous.build(3),
+                                  ExtractionResultStore.fromArray(results, 1));
+    }
+
+    /**
+     * Creates a row with the specified cells, which are values or cells
+     */
+    private static Row row(final Object... values) {
+        final Row row = new Row(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof Cell)
+                row.setCell(i, (Cell)values[i]);
+            else if (values[i] != null)
+                row.setCell(i, new Cell((String)values[i], null));
+        }
+        return row;
+    }
+
+    private static NamedEntity entity(final String text) {
+        return new NamedEntity(text, new Disambiguation[0]);
+    }
+}
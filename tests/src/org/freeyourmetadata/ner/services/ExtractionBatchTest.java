@@ -0,0 +1,140 @@
+package org.freeyourmetadata.ner.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Tests of {@link ExtractionBatch}
+ */
+public class ExtractionBatchTest {
+    private final static Disambiguation[] NONE = new Disambiguation[0];
+
+    @Test
+    public void joinsTextsWithSeparator() {
+        final ExtractionBatch batch = createBatch(1000, "Paris is nice", "I met Obama");
+        assertEquals("Paris is nice" + ExtractionBatch.SEPARATOR + "I met Obama", batch.getDocument());
+        assertEquals(2, batch.getResults().size());
+    }
+
+    @Test
+    public void limitsSizeInBytes() {
+        final ExtractionBatch batch = new ExtractionBatch(Collections.<String, String>emptyMap(), 20);
+        // The first text always fits
+        assertTrue(batch.fits(50));
+        batch.add("Gent", ExtractionBatch.getByteCount("Gent"), SettableFuture.<NamedEntity[]>create());
+        // Every later text also needs a separator of 4 bytes
+        assertTrue(batch.fits(12));
+        assertFalse(batch.fits(13));
+        assertFalse(batch.isFull());
+        assertEquals(12, ExtractionBatch.getByteCount("Liège-Namur"));
+        batch.add("Liège-Namur", 12, SettableFuture.<NamedEntity[]>create());
+        assertTrue(batch.isFull());
+    }
+
+    @Test
+    public void mapsEntitiesToTheirTexts() {
+        final ExtractionBatch batch = createBatch(1000, "Paris is nice", "I met Obama", "Nothing here");
+        final String document = batch.getDocument();
+        final NamedEntity[][] split = batch.split(document, new NamedEntity[] {
+            entity(document, "Obama"), entity(document, "Paris"),
+        });
+        assertEquals(3, split.length);
+        assertEntities(split[0], "Paris", 0);
+        assertEntities(split[1], "Obama", 6);
+        assertEntities(split[2]);
+        assertEquals(0, batch.getDroppedEntityCount());
+    }
+
+    @Test
+    public void keepsDisambiguationsOfEntities() {
+        final ExtractionBatch batch = createBatch(1000, "x", "Ghent");
+        final String document = batch.getDocument();
+        final Disambiguation[] disambiguations = { new Disambiguation("Ghent", "http://dbpedia.org/resource/Ghent") };
+        final NamedEntity[][] split = batch.split(document, new NamedEntity[] {
+            new NamedEntity("Ghent", disambiguations, document.indexOf("Ghent"))
+        });
+        assertSame(disambiguations, split[1][0].getDisambiguations());
+    }
+
+    @Test
+    public void acceptsOffsetsInCodePoints() {
+        final ExtractionBatch batch = createBatch(1000, "𝄞 Bach", "𝄞𝄞 Mozart");
+        final String document = batch.getDocument();
+        final int charOffset = document.indexOf("Mozart");
+        final int codePointOffset = document.codePointCount(0, charOffset);
+        assertTrue(codePointOffset < charOffset);
+        final NamedEntity[][] split = batch.split(document, new NamedEntity[] {
+            new NamedEntity("Bach", NONE, document.codePointCount(0, document.indexOf("Bach"))),
+            new NamedEntity("Mozart", NONE, codePointOffset),
+        });
+        assertEntities(split[0], "Bach", 3);
+        assertEntities(split[1], "Mozart", 5);
+    }
+
+    @Test
+    public void dropsEntitiesThatCannotBeAttributed() {
+        final ExtractionBatch batch = createBatch(1000, "New", "York");
+        final String document = batch.getDocument();
+        final NamedEntity[][] split = batch.split(document, new NamedEntity[] {
+            // Spans the separator
+            new NamedEntity(document, NONE, 0),
+            // Lies inside the separator
+            new NamedEntity(".", NONE, document.indexOf('.')),
+            // Does not occur at its offset
+            new NamedEntity("York", NONE, 0),
+            // Lies outside the document
+            new NamedEntity("York", NONE, document.length()),
+            new NamedEntity("York", NONE, -1),
+        });
+        assertEntities(split[0]);
+        assertEntities(split[1]);
+        assertEquals(5, batch.getDroppedEntityCount());
+    }
+
+    @Test
+    public void tracksCancellation() {
+        final ExtractionBatch batch = createBatch(1000, "a", "b");
+        assertFalse(batch.isCanceled());
+        batch.getResults().get(0).cancel(false);
+        assertFalse(batch.isCanceled());
+        batch.getResults().get(1).cancel(false);
+        assertTrue(batch.isCanceled());
+    }
+
+    /**
+     * Creates a batch with the specified texts
+     */
+    private static ExtractionBatch createBatch(final int maxBytes, final String... texts) {
+        final ExtractionBatch batch = new ExtractionBatch(Collections.<String, String>emptyMap(), maxBytes);
+        for (final String text : texts)
+            batch.add(text, ExtractionBatch.getByteCount(text), SettableFuture.<NamedEntity[]>create());
+        return batch;
+    }
+
+    /**
+     * Creates an entity at the first occurrence of its text in the document
+     */
+    private static NamedEntity entity(final String document, final String text) {
+        return new NamedEntity(text, NONE, document.indexOf(text));
+    }
+
+    /**
+     * Asserts that the entities have the expected texts and offsets,
+     * specified as pairs of the text and offset of every entity
+     */
+    private static void assertEntities(final NamedEntity[] entities, final Object... expected) {
+        assertEquals(expected.length / 2, entities.length);
+        for (int i = 0; i < entities.length; i++) {
+            assertEquals(expected[2 * i], entities[i].getExtractedText());
+            assertEquals(expected[2 * i + 1], entities[i].getOffset());
+        }
+    }
+}
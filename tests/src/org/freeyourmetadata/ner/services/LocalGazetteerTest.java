@@ -0,0 +1,75 @@
+package org.freeyourmetadata.ner.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link LocalGazetteer}
+ */
+public class LocalGazetteerTest {
+    private final static Map<String, String> NO_SETTINGS = Collections.emptyMap();
+    private File dictionaryFile;
+
+    @Before
+    public void createDictionaryFile() throws IOException {
+        dictionaryFile = File.createTempFile("dictionary", ".tsv");
+    }
+
+    @After
+    public void deleteDictionaryFile() {
+        dictionaryFile.delete();
+    }
+
+    @Test
+    public void resultKeyDependsOnDictionary() throws IOException {
+        final LocalGazetteer gazetteer = new LocalGazetteer();
+        gazetteer.setServiceSetting(LocalGazetteer.DICTIONARY_FILE, dictionaryFile.getPath());
+        final String resultKey = gazetteer.getResultKey();
+        assertEquals(resultKey, gazetteer.getResultKey());
+
+        // Editing the dictionary
+        dictionaryFile.setLastModified(dictionaryFile.lastModified() - 60000);
+        assertFalse(resultKey.equals(gazetteer.getResultKey()));
+
+        // Choosing another dictionary
+        final File otherFile = File.createTempFile("dictionary", ".tsv");
+        try {
+            gazetteer.setServiceSetting(LocalGazetteer.DICTIONARY_FILE, otherFile.getPath());
+            assertFalse(resultKey.equals(gazetteer.getResultKey()));
+        }
+        finally {
+            otherFile.delete();
+        }
+    }
+
+    @Test
+    public void resultKeyDependsOnFolding() {
+        final LocalGazetteer gazetteer = new LocalGazetteer();
+        gazetteer.setServiceSetting(LocalGazetteer.DICTIONARY_FILE, dictionaryFile.getPath());
+        final String resultKey = gazetteer.getResultKey();
+        gazetteer.setServiceSetting(LocalGazetteer.IGNORE_CASE, "false");
+        final String caseSensitiveKey = gazetteer.getResultKey();
+        assertFalse(resultKey.equals(caseSensitiveKey));
+        gazetteer.setServiceSetting(LocalGazetteer.IGNORE_DIACRITICS, "true");
+        assertFalse(caseSensitiveKey.equals(gazetteer.getResultKey()));
+    }
+
+    @Test
+    public void cacheKeyDependsOnResultKey() {
+        final LocalGazetteer gazetteer = new LocalGazetteer();
+        gazetteer.setServiceSetting(LocalGazetteer.DICTIONARY_FILE, dictionaryFile.getPath());
+        final String cacheKey = ExtractionCache.createKey(gazetteer.getResultKey(), NO_SETTINGS, "Ghent");
+        assertEquals(cacheKey, ExtractionCache.createKey(gazetteer.getResultKey(), NO_SETTINGS, "Ghent"));
+        gazetteer.setServiceSetting(LocalGazetteer.IGNORE_CASE, "false");
+        assertFalse(cacheKey.equals(ExtractionCache.createKey(gazetteer.getResultKey(), NO_SETTINGS, "Ghent")));
+    }
+}
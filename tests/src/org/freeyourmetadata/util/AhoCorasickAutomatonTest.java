@@ -0,0 +1,179 @@
+package org.freeyourmetadata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link AhoCorasickAutomaton}
+ */
+public class AhoCorasickAutomatonTest {
+    private File indexFile;
+
+    @Before
+    public void createIndexFile() throws IOException {
+        indexFile = File.createTempFile("automaton", ".idx");
+    }
+
+    @After
+    public void deleteIndexFile() {
+        indexFile.delete();
+    }
+
+    @Test
+    public void findsKeywordsInSinglePass() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.compile(new String[] { "he", "she", "his", "hers" });
+        assertEquals(4, automaton.getKeywordCount());
+        assertMatches("ushers are his", automaton, false, "she", 1, 4, "his", 11, 14);
+    }
+
+    @Test
+    public void keepsLeftmostLongestOccurrences() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.compile(new String[] { "new", "new york", "york city", "ork" });
+        assertMatches("new york city", automaton, false, "new york", 0, 8);
+        assertMatches("newark, york city", automaton, false, "new", 0, 3, "york city", 8, 17);
+    }
+
+    @Test
+    public void findsWholeWordsOnly() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.compile(new String[] { "cat", "con" });
+        assertMatches("concatenate cat, con", automaton, true, "cat", 12, 15, "con", 17, 20);
+        assertMatches("concatenate cat, con", automaton, false, "con", 0, 3, "cat", 3, 6, "cat", 12, 15, "con", 17, 20);
+        // Combining marks belong to the word
+        assertMatches("cat́ cat", automaton, true, "cat", 5, 8);
+    }
+
+    @Test
+    public void findsNothingWithoutKeywords() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.compile(new String[0]);
+        assertEquals(1, automaton.getStateCount());
+        assertTrue(automaton.findAll("anything".toCharArray(), false).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateKeywords() {
+        AhoCorasickAutomaton.compile(new String[] { "Paris", "London", "Paris" });
+    }
+
+    @Test
+    public void readsWrittenAutomaton() throws IOException {
+        final String[] keywords = { "Brussels", "Bruges", "Ghent", "Ghent University", "Antwerp" };
+        final AhoCorasickAutomaton compiled = AhoCorasickAutomaton.compile(keywords);
+        final IndexOutput output = new IndexOutput(new RandomAccessFile(indexFile, "rw").getChannel());
+        try {
+            compiled.writeTo(output);
+        }
+        finally {
+            output.close();
+        }
+
+        final AhoCorasickAutomaton read = AhoCorasickAutomaton.readFrom(IndexInput.map(indexFile));
+        assertEquals(compiled.getStateCount(), read.getStateCount());
+        assertEquals(compiled.getKeywordCount(), read.getKeywordCount());
+        final String text = "From Ghent University to Bruges and Antwerp, not Brugge";
+        assertMatches(text, read, true, "Ghent University", 5, 21, "Bruges", 25, 31, "Antwerp", 36, 43);
+        assertEquals(compiled.findAll(text.toCharArray(), true).size(), read.findAll(text.toCharArray(), true).size());
+    }
+
+    @Test
+    public void rejectsTruncatedIndex() throws IOException {
+        final IndexOutput output = new IndexOutput(new RandomAccessFile(indexFile, "rw").getChannel());
+        try {
+            output.writeInts(IntBuffer.wrap(new int[] { 0, 1, 1 }));
+        }
+        finally {
+            output.close();
+        }
+        assertInvalidIndex();
+    }
+
+    @Test
+    public void rejectsFailureOutsideAutomaton() throws IOException {
+        // A single keyword "a" whose state fails to a state that does not exist
+        writeIndex(new int[] { 0, 1, 1 }, "a", new int[] { 1 }, new int[] { 0, 5 },
+                   new int[] { -1, 0 }, new int[] { -1, -1 }, new int[] { 1 });
+        assertInvalidIndex();
+    }
+
+    @Test
+    public void rejectsKeywordOfWrongLength() throws IOException {
+        // The keyword "a" ends at depth 1, but claims to have length 2
+        writeIndex(new int[] { 0, 1, 1 }, "a", new int[] { 1 }, new int[] { 0, 0 },
+                   new int[] { -1, 0 }, new int[] { -1, -1 }, new int[] { 2 });
+        assertInvalidIndex();
+    }
+
+    @Test
+    public void rejectsEdgeToRoot() throws IOException {
+        writeIndex(new int[] { 0, 1, 1 }, "a", new int[] { 0 }, new int[] { 0, 0 },
+                   new int[] { -1, 0 }, new int[] { -1, -1 }, new int[] { 1 });
+        assertInvalidIndex();
+    }
+
+    @Test
+    public void acceptsHandwrittenIndex() throws IOException {
+        writeIndex(new int[] { 0, 1, 1 }, "a", new int[] { 1 }, new int[] { 0, 0 },
+                   new int[] { -1, 0 }, new int[] { -1, -1 }, new int[] { 1 });
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.readFrom(IndexInput.map(indexFile));
+        assertMatches("a b a", automaton, true, "a", 0, 1, "a", 4, 5);
+    }
+
+    /**
+     * Writes the arrays of an automaton to the index file
+     */
+    private void writeIndex(final int[] edgeStarts, final String edgeChars, final int[] edgeTargets,
+                            final int[] failures, final int[] keywords, final int[] keywordLinks,
+                            final int[] keywordLengths) throws IOException {
+        final IndexOutput output = new IndexOutput(new RandomAccessFile(indexFile, "rw").getChannel());
+        try {
+            output.writeInts(IntBuffer.wrap(edgeStarts));
+            output.writeChars(CharBuffer.wrap(edgeChars));
+            output.writeInts(IntBuffer.wrap(edgeTargets));
+            output.writeInts(IntBuffer.wrap(failures));
+            output.writeInts(IntBuffer.wrap(keywords));
+            output.writeInts(IntBuffer.wrap(keywordLinks));
+            output.writeInts(IntBuffer.wrap(keywordLengths));
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Asserts that the index file does not contain a valid automaton
+     */
+    private void assertInvalidIndex() {
+        try {
+            AhoCorasickAutomaton.readFrom(IndexInput.map(indexFile));
+            fail("The invalid index was read.");
+        }
+        catch (IOException expected) { }
+    }
+
+    /**
+     * Asserts that the automaton finds the expected occurrences,
+     * specified as triples of the text, start and end of every occurrence
+     */
+    private static void assertMatches(final String text, final AhoCorasickAutomaton automaton,
+                                      final boolean wholeWords, final Object... expected) {
+        final List<AhoCorasickAutomaton.Match> matches = automaton.findAll(text.toCharArray(), wholeWords);
+        assertEquals(expected.length / 3, matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            final AhoCorasickAutomaton.Match match = matches.get(i);
+            assertEquals(expected[3 * i], text.substring(match.getStart(), match.getEnd()));
+            assertEquals(expected[3 * i + 1], match.getStart());
+            assertEquals(expected[3 * i + 2], match.getEnd());
+        }
+    }
+}
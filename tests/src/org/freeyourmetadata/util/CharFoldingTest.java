@@ -0,0 +1,57 @@
+package org.freeyourmetadata.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link CharFolding}
+ */
+public class CharFoldingTest {
+    @Test
+    public void noneKeepsAllCharacters() {
+        assertArrayEquals("Émile Zola".toCharArray(), CharFolding.NONE.fold("Émile Zola"));
+    }
+
+    @Test
+    public void ignoreCaseLowersCharacters() {
+        final CharFolding folding = new CharFolding(true, false);
+        assertArrayEquals("émile zola".toCharArray(), folding.fold("Émile Zola"));
+        assertEquals('q', folding.fold('Q'));
+    }
+
+    @Test
+    public void ignoreDiacriticsKeepsCase() {
+        final CharFolding folding = new CharFolding(false, true);
+        assertArrayEquals("Emile Zola, Sao Paulo".toCharArray(), folding.fold("Émile Zola, São Paulo"));
+    }
+
+    @Test
+    public void ignoreCaseAndDiacritics() {
+        final CharFolding folding = new CharFolding(true, true);
+        assertArrayEquals("emile zola".toCharArray(), folding.fold("ÉMILE ZOLA"));
+        assertEquals(folding.fold('é'), folding.fold('E'));
+    }
+
+    @Test
+    public void foldingKeepsLength() {
+        final String text = "Straße 𝄞 ǅ İ";
+        for (final boolean ignoreCase : new boolean[] { false, true })
+            for (final boolean ignoreDiacritics : new boolean[] { false, true })
+                assertEquals(text.length(), new CharFolding(ignoreCase, ignoreDiacritics).fold(text).length);
+    }
+
+    @Test
+    public void equalityDependsOnSettings() {
+        assertEquals(new CharFolding(true, false), new CharFolding(true, false));
+        assertEquals(new CharFolding(true, false).hashCode(), new CharFolding(true, false).hashCode());
+        assertEquals(CharFolding.NONE, new CharFolding(false, false));
+        assertFalse(new CharFolding(true, false).equals(new CharFolding(false, true)));
+        assertFalse(new CharFolding(true, true).equals(new CharFolding(true, false)));
+        assertTrue(new CharFolding(true, true).isIgnoreCase());
+        assertTrue(new CharFolding(true, true).isIgnoreDiacritics());
+    }
+}
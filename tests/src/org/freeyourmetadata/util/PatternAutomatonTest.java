@@ -0,0 +1,125 @@
+package org.freeyourmetadata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link PatternAutomaton}
+ */
+public class PatternAutomatonTest {
+    @Test
+    public void findsSeveralExpressions() {
+        final PatternAutomaton automaton = PatternAutomaton.compile(new String[] {
+            "\\d{4}-\\d{4}-\\d{4}-\\d{3}[\\dX]", "[a-z]+@[a-z]+\\.(?:com|org)" });
+        assertEquals(2, automaton.getPatternCount());
+        assertMatches("Mail jo@example.org about 0000-0002-1825-0097.", automaton,
+                      "jo@example.org", 1, "0000-0002-1825-0097", 0);
+    }
+
+    @Test
+    public void findsOccurrencesAtWordBoundariesOnly() {
+        final PatternAutomaton automaton = PatternAutomaton.compile(new String[] { "\\d{3}" });
+        assertMatches("123 x456 789y 012", automaton, "123", 0, "012", 0);
+    }
+
+    @Test
+    public void keepsLongestOccurrence() {
+        final PatternAutomaton automaton = PatternAutomaton.compile(new String[] { "ab", "ab(?:cd)+" });
+        assertMatches("ab abcdcd abcdc", automaton, "ab", 0, "abcdcd", 1);
+    }
+
+    @Test
+    public void keepsEarlierExpressionForSameOccurrence() {
+        final PatternAutomaton automaton = PatternAutomaton.compile(new String[] { "ABC", "[A-Z]+" });
+        assertMatches("ABC ABD", automaton, "ABC", 0, "ABD", 1);
+    }
+
+    @Test
+    public void skipsOverlappingOccurrences() {
+        final PatternAutomaton automaton = PatternAutomaton.compile(new String[] { "a b", "b c" });
+        assertMatches("a b c", automaton, "a b", 0);
+    }
+
+    @Test
+    public void shortensOccurrenceToWordBoundary() {
+        // The longest occurrence that ends at a word boundary is kept
+        final PatternAutomaton automaton = PatternAutomaton.compile(new String[] { "[a-z]+(?:-[a-z]+)*" });
+        assertMatches("well-known-x1", automaton, "well-known", 0);
+    }
+
+    @Test
+    public void findsNothingInOtherText() {
+        final PatternAutomaton automaton = PatternAutomaton.compile(new String[] { "10\\.\\d{4,9}/\\S+" });
+        assertTrue(automaton.findAll("no identifiers here").isEmpty());
+        assertTrue(automaton.findAll("").isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    public void scansInLinearTime() {
+        // A backtracking matcher needs exponential time for this expression on this text
+        final PatternAutomaton automaton = PatternAutomaton.compile(new String[] { "(?:a|aa)+b" });
+        final char[] text = new char[200000];
+        Arrays.fill(text, 'a');
+        assertTrue(automaton.findAll(new String(text)).isEmpty());
+        text[text.length - 1] = 'b';
+        assertMatches(new String(text), automaton, new String(text), 0);
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void rejectsExpressionsMatchingEmptyString() {
+        PatternAutomaton.compile(new String[] { "a", "b*" });
+    }
+
+    @Test(expected = PatternSyntaxException.class)
+    public void rejectsInvalidExpressions() {
+        PatternAutomaton.compile(new String[] { "(a|b" });
+    }
+
+    @Test(timeout = 10000)
+    public void rejectsNestedCountedRepetitions() {
+        assertTooComplex("(?:(?:a{1000}){1000}){1000}");
+    }
+
+    @Test(timeout = 10000)
+    public void rejectsExponentialExpressions() {
+        assertTooComplex("[ab]*a[ab]{30}");
+    }
+
+    /**
+     * Asserts that the expression is rejected as too complex rather than as invalid
+     */
+    private static void assertTooComplex(final String regex) {
+        try {
+            PatternAutomaton.compile(new String[] { regex });
+            fail("The expression " + regex + " was compiled.");
+        }
+        catch (PatternSyntaxException error) {
+            fail("The expression " + regex + " was rejected as invalid.");
+        }
+        catch (IllegalArgumentException expected) { }
+    }
+
+    /**
+     * Asserts that the automaton finds the expected occurrences,
+     * specified as pairs of the text and the expression index of every occurrence
+     */
+    private static void assertMatches(final String text, final PatternAutomaton automaton, final Object... expected) {
+        final List<PatternAutomaton.Match> matches = automaton.findAll(text);
+        assertEquals(expected.length / 2, matches.size());
+        int previousEnd = 0;
+        for (int i = 0; i < matches.size(); i++) {
+            final PatternAutomaton.Match match = matches.get(i);
+            assertEquals(expected[2 * i], text.substring(match.getStart(), match.getEnd()));
+            assertEquals(expected[2 * i + 1], match.getPattern());
+            assertTrue(match.getStart() >= previousEnd);
+            previousEnd = match.getEnd();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.freeyourmetadata.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.regex.PatternSyntaxException;
+
+import org.freeyourmetadata.util.RegexParser.CharSet;
+import org.freeyourmetadata.util.RegexParser.Choice;
+import org.freeyourmetadata.util.RegexParser.Node;
+import org.freeyourmetadata.util.RegexParser.Repetition;
+import org.freeyourmetadata.util.RegexParser.Sequence;
+import org.junit.Test;
+
+/**
+ * Tests of {@link RegexParser}
+ */
+public class RegexParserTest {
+    @Test
+    public void parsesCharacters() {
+        final Sequence sequence = (Sequence)RegexParser.parse("a\\.\\u00e9");
+        assertEquals(3, sequence.elements.size());
+        assertRanges(sequence.elements.get(0), 'a', 'a');
+        assertRanges(sequence.elements.get(1), '.', '.');
+        assertRanges(sequence.elements.get(2), 'é', 'é');
+    }
+
+    @Test
+    public void parsesCharacterClasses() {
+        assertRanges(RegexParser.parse("[c-ea\\d-]"), '-', '-', '0', '9', 'a', 'a', 'c', 'e');
+        assertRanges(RegexParser.parse("[]a]"), ']', ']', 'a', 'a');
+        assertRanges(RegexParser.parse("[^b-y]"), 0, 'a', 'z', Character.MAX_VALUE);
+        assertRanges(RegexParser.parse("\\S"), 0, '\t' - 1, '\r' + 1, ' ' - 1, ' ' + 1, Character.MAX_VALUE);
+        assertRanges(RegexParser.parse("."), 0, '\n' - 1, '\n' + 1, Character.MAX_VALUE);
+    }
+
+    @Test
+    public void parsesGroupsAndAlternatives() {
+        final Choice choice = (Choice)RegexParser.parse("ab|(?:c|d)e|");
+        assertEquals(3, choice.alternatives.size());
+        final Sequence second = (Sequence)choice.alternatives.get(1);
+        assertEquals(2, ((Choice)second.elements.get(0)).alternatives.size());
+        // An empty alternative is an empty sequence
+        assertEquals(0, ((Sequence)choice.alternatives.get(2)).elements.size());
+    }
+
+    @Test
+    public void parsesQuantifiers() {
+        assertRepetition(RegexParser.parse("a*"), 0, -1);
+        assertRepetition(RegexParser.parse("a+"), 1, -1);
+        assertRepetition(RegexParser.parse("a?"), 0, 1);
+        assertRepetition(RegexParser.parse("a{3}"), 3, 3);
+        assertRepetition(RegexParser.parse("a{2,}"), 2, -1);
+        assertRepetition(RegexParser.parse("a{2,1000}"), 2, 1000);
+        // Quantifiers apply to the preceding atom only
+        final Sequence sequence = (Sequence)RegexParser.parse("ab+");
+        assertTrue(sequence.elements.get(0) instanceof CharSet);
+        assertRepetition(sequence.elements.get(1), 1, -1);
+    }
+
+    @Test
+    public void rejectsUnsupportedSyntax() {
+        for (final String regex : new String[] { "^a", "a$", "a*?", "a++", "(?=a)", "(?i)a", "\\b", "\\1", "[a&&b]", "[[a]]" })
+            assertInvalid(regex);
+    }
+
+    @Test
+    public void rejectsInvalidSyntax() {
+        for (final String regex : new String[] { "(a", "a)", "[a", "*a", "a{", "a{2", "a{,2}", "a{3,2}", "a{1001}",
+                                                 "[z-a]", "\\", "\\u12" })
+            assertInvalid(regex);
+    }
+
+    @Test
+    public void reportsPositionOfError() {
+        try {
+            RegexParser.parse("ab{5,2}");
+            fail("The invalid expression was parsed.");
+        }
+        catch (PatternSyntaxException error) {
+            assertEquals(2, error.getIndex());
+        }
+    }
+
+    @Test
+    public void unitesRanges() {
+        assertArrayEquals(new int[] { 'a', 'f', 'x', 'z' },
+                          RegexParser.union(new int[] { 'a', 'c', 'x', 'z' }, new int[] { 'd', 'f' }));
+        assertArrayEquals(new int[] { 'a', 'z' }, RegexParser.union(new int[] { 'a', 'm' }, new int[] { 'c', 'z' }));
+        assertArrayEquals(new int[] { 'a', 'b' }, RegexParser.union(new int[0], new int[] { 'a', 'b' }));
+    }
+
+    @Test
+    public void complementsRanges() {
+        assertArrayEquals(new int[] { 0, Character.MAX_VALUE }, RegexParser.complement(new int[0]));
+        assertArrayEquals(new int[0], RegexParser.complement(new int[] { 0, Character.MAX_VALUE }));
+        assertArrayEquals(new int[] { 'b', 'y' }, RegexParser.complement(new int[] { 0, 'a', 'z', Character.MAX_VALUE }));
+        final int[] ranges = { '0', '9', 'A', 'Z' };
+        assertArrayEquals(ranges, RegexParser.complement(RegexParser.complement(ranges)));
+    }
+
+    /**
+     * Asserts that the node is a character set with the specified ranges
+     */
+    private static void assertRanges(final Node node, final int... ranges) {
+        assertArrayEquals(ranges, ((CharSet)node).ranges);
+    }
+
+    /**
+     * Asserts that the node is a repetition with the specified bounds
+     */
+    private static void assertRepetition(final Node node, final int min, final int max) {
+        final Repetition repetition = (Repetition)node;
+        assertEquals(min, repetition.min);
+        assertEquals(max, repetition.max);
+    }
+
+    /**
+     * Asserts that the expression cannot be parsed
+     */
+    private static void assertInvalid(final String regex) {
+        try {
+            RegexParser.parse(regex);
+            fail("The invalid expression " + regex + " was parsed.");
+        }
+        catch (PatternSyntaxException expected) { }
+    }
+}
@@ -0,0 +1,100 @@
+package org.freeyourmetadata.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.freeyourmetadata.util.TextChunker.Chunk;
+import org.junit.Test;
+
+/**
+ * Tests of {@link TextChunker}
+ */
+public class TextChunkerTest {
+    private final static String SENTENCES = "Ghent is a city in Belgium. It lies at the confluence of two rivers. "
+                                            + "The university was founded in 1817. Its belfry is a World Heritage Site. "
+                                            + "Many students live in the historic centre.";
+
+    @Test
+    public void keepsShortTextWhole() {
+        final List<Chunk> chunks = new TextChunker(100, 20).split("A short text.");
+        assertEquals(1, chunks.size());
+        assertEquals("A short text.", chunks.get(0).getText());
+        assertEquals(0, chunks.get(0).getStart());
+        assertTrue(chunks.get(0).owns(0));
+        assertTrue(chunks.get(0).owns(12));
+    }
+
+    @Test
+    public void splitsAtSentenceBoundaries() {
+        final List<Chunk> chunks = new TextChunker(80, 20).split(SENTENCES);
+        assertChunks(SENTENCES, chunks, 80);
+        assertTrue(chunks.size() > 2);
+        for (final Chunk chunk : chunks.subList(0, chunks.size() - 1))
+            assertTrue(chunk.getText(), chunk.getText().trim().endsWith("."));
+    }
+
+    @Test
+    public void splitsAtWordBoundariesWithinLongSentences() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 40; i++)
+            text.append("word").append(i).append(' ');
+        final List<Chunk> chunks = new TextChunker(50, 10).split(text.toString());
+        assertChunks(text.toString(), chunks, 50);
+        for (final Chunk chunk : chunks.subList(0, chunks.size() - 1)) {
+            assertTrue(chunk.getText(), chunk.getText().endsWith(" "));
+            assertTrue(chunk.getText(), Character.isLetter(chunk.getText().charAt(0)));
+        }
+    }
+
+    @Test
+    public void overlapsConsecutiveChunks() {
+        final List<Chunk> chunks = new TextChunker(80, 30).split(SENTENCES);
+        for (int i = 1; i < chunks.size(); i++) {
+            final Chunk previous = chunks.get(i - 1), chunk = chunks.get(i);
+            assertTrue(chunk.getStart() > previous.getStart());
+            assertTrue(chunk.getStart() <= previous.getStart() + previous.getText().length());
+        }
+    }
+
+    @Test
+    public void neverSplitsSurrogatePairs() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            text.append("𝄞");
+        for (final int maxLength : new int[] { 7, 8, 9 }) {
+            final List<Chunk> chunks = new TextChunker(maxLength, 3).split(text.toString());
+            assertChunks(text.toString(), chunks, maxLength);
+            for (final Chunk chunk : chunks) {
+                assertFalse(Character.isLowSurrogate(chunk.getText().charAt(0)));
+                assertFalse(Character.isHighSurrogate(chunk.getText().charAt(chunk.getText().length() - 1)));
+            }
+        }
+    }
+
+    /**
+     * Asserts that the chunks are parts of the text that are not too long
+     * and that every position of the text is owned by exactly one chunk
+     */
+    private static void assertChunks(final String text, final List<Chunk> chunks, final int maxLength) {
+        for (final Chunk chunk : chunks) {
+            assertTrue(chunk.getText().length() <= maxLength);
+            assertEquals(text.substring(chunk.getStart(), chunk.getStart() + chunk.getText().length()), chunk.getText());
+        }
+        assertEquals(0, chunks.get(0).getStart());
+        final Chunk last = chunks.get(chunks.size() - 1);
+        assertEquals(text.length(), last.getStart() + last.getText().length());
+        for (int offset = 0; offset < text.length(); offset++) {
+            int owners = 0;
+            for (final Chunk chunk : chunks) {
+                if (chunk.owns(offset)) {
+                    owners++;
+                    assertTrue(offset >= chunk.getStart() && offset < chunk.getStart() + chunk.getText().length());
+                }
+            }
+            assertEquals("Owners of position " + offset, 1, owners);
+        }
+    }
+}